@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.util.SparseArray;
+
+import com.android.server.content.SyncManager.ActiveSyncContext;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Index of the running syncs in {@link SyncManager#mActiveSyncContexts}, by job id, by target
+ * and by the group of targets that can conflict with each other.
+ *
+ * Two syncs can only conflict, see {@link SyncOperation#isConflict(SyncOperation)}, if they have
+ * the same account type, authority and user, so finding a conflict only looks at the syncs in
+ * that group rather than all running syncs.
+ *
+ * Only used on the SyncManager handler thread, so it isn't synchronized.
+ *
+ * @hide
+ */
+class ActiveSyncIndex {
+    private final SparseArray<ActiveSyncContext> mSyncsByJobId = new SparseArray<>();
+
+    private final HashMap<EndPoint, ArrayList<ActiveSyncContext>> mSyncsByEndPoint =
+            new HashMap<>();
+
+    /** Running syncs, oldest first, grouped by {@link ConflictKey}. */
+    private final HashMap<ConflictKey, ArrayList<ActiveSyncContext>> mSyncsByConflictKey =
+            new HashMap<>();
+
+    void add(ActiveSyncContext asc) {
+        final SyncOperation op = asc.mSyncOperation;
+        mSyncsByJobId.put(op.jobId, asc);
+        addTo(mSyncsByEndPoint, op.target, asc);
+        addTo(mSyncsByConflictKey, new ConflictKey(op.target), asc);
+    }
+
+    void remove(ActiveSyncContext asc) {
+        final SyncOperation op = asc.mSyncOperation;
+        if (mSyncsByJobId.get(op.jobId) == asc) {
+            mSyncsByJobId.remove(op.jobId);
+        }
+        removeFrom(mSyncsByEndPoint, op.target, asc);
+        removeFrom(mSyncsByConflictKey, new ConflictKey(op.target), asc);
+    }
+
+    /** @return the running sync for the given job id, or null if there is none. */
+    ActiveSyncContext get(int jobId) {
+        return mSyncsByJobId.get(jobId);
+    }
+
+    /** @return the running syncs for exactly the given target. Must not be modified. */
+    List<ActiveSyncContext> getByEndPoint(EndPoint target) {
+        final ArrayList<ActiveSyncContext> syncs = mSyncsByEndPoint.get(target);
+        return syncs != null ? syncs : Collections.emptyList();
+    }
+
+    /**
+     * @return the longest running sync that the given operation would conflict with, or null if
+     * there is none. This is the same sync that a scan of all running syncs in the order they
+     * were started would find first.
+     */
+    ActiveSyncContext findFirstConflict(SyncOperation toRun) {
+        final ArrayList<ActiveSyncContext> group =
+                mSyncsByConflictKey.get(new ConflictKey(toRun.target));
+        if (group == null) {
+            return null;
+        }
+        for (int i = 0, size = group.size(); i < size; i++) {
+            final ActiveSyncContext asc = group.get(i);
+            if (asc.mSyncOperation.isConflict(toRun)) {
+                return asc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the given operation should preempt the running sync it conflicts with.
+     * Otherwise it has to wait for the running sync, which wins ties.
+     */
+    static boolean shouldPreempt(ActiveSyncContext conflicting, SyncOperation toRun) {
+        return conflicting.mSyncOperation.getJobBias() < toRun.getJobBias();
+    }
+
+    private static <K> void addTo(HashMap<K, ArrayList<ActiveSyncContext>> map, K key,
+            ActiveSyncContext asc) {
+        ArrayList<ActiveSyncContext> syncs = map.get(key);
+        if (syncs == null) {
+            syncs = new ArrayList<>(1);
+            map.put(key, syncs);
+        }
+        syncs.add(asc);
+    }
+
+    private static <K> void removeFrom(HashMap<K, ArrayList<ActiveSyncContext>> map, K key,
+            ActiveSyncContext asc) {
+        final ArrayList<ActiveSyncContext> syncs = map.get(key);
+        if (syncs == null) {
+            return;
+        }
+        syncs.remove(asc);
+        if (syncs.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    /** Account type, authority and user of a target; syncs can only conflict within a group. */
+    private static final class ConflictKey {
+        private final String mAccountType;
+        private final String mProvider;
+        private final int mUserId;
+
+        ConflictKey(EndPoint target) {
+            mAccountType = target.account.type;
+            mProvider = target.provider;
+            mUserId = target.userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConflictKey)) {
+                return false;
+            }
+            final ConflictKey other = (ConflictKey) o;
+            return mUserId == other.mUserId
+                    && Objects.equals(mAccountType, other.mAccountType)
+                    && Objects.equals(mProvider, other.mProvider);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Objects.hashCode(mAccountType);
+            hash = 31 * hash + Objects.hashCode(mProvider);
+            return 31 * hash + mUserId;
+        }
+    }
+}
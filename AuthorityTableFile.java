@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.util.AtomicFile;
+import android.util.IntArray;
+import android.util.Slog;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Binary copy of accounts.xml for the authority table of {@link SyncStorageEngine}.
+ *
+ * The file is a header followed by length-prefixed records. A record either sets the table
+ * header, sets the master sync flag of a user, adds or replaces an authority, or tombstones an
+ * authority; later records win. This lets {@link #append} write just the authorities that
+ * changed since the last write rather than the whole table, and lets a read at boot skip the
+ * XML parser. Once the appended records outgrow the table as it was last written in full,
+ * {@link #append} refuses and the caller compacts the file by rewriting it with
+ * {@link #write}. A reader skips whatever it doesn't understand at the end of a record, so
+ * later versions can add fields to a record, and skips records of unknown types.
+ *
+ * Rewrites go through {@link AtomicFile}, but appends don't: they write to the base file
+ * directly and fsync it, so they aren't covered by AtomicFile's backup protocol. A crash during
+ * an append can only tear the records being appended, since the ones before them aren't
+ * touched. A torn record ends the table; the records before it are returned with
+ * {@link Table#torn} set, and the next write compacts the file. Appends only follow a
+ * successful read or rewrite, so there is never an AtomicFile write in progress to race with.
+ *
+ * All methods are thread safe.
+ *
+ * @hide
+ */
+class AuthorityTableFile {
+    private static final String TAG = "SyncManager";
+
+    private static final int MAGIC = 0x53594e41; // "SYNA"
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_HEADER = 1;
+    private static final byte RECORD_MASTER_SYNC = 2;
+    private static final byte RECORD_AUTHORITY = 3;
+    private static final byte RECORD_TOMBSTONE = 4;
+
+    /** Compact once the file is this many times as large as the live table. */
+    private static final int COMPACT_RATIO = 2;
+
+    /** An authority as it is stored in the table. */
+    static final class Record {
+        final int id;
+        final int userId;
+        final String accountName;
+        final String accountType;
+        final String provider;
+        final boolean enabled;
+        final int syncable;
+
+        Record(int id, int userId, String accountName, String accountType, String provider,
+                boolean enabled, int syncable) {
+            this.id = id;
+            this.userId = userId;
+            this.accountName = accountName;
+            this.accountType = accountType;
+            this.provider = provider;
+            this.enabled = enabled;
+            this.syncable = syncable;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            final Record other = (Record) o;
+            return id == other.id && userId == other.userId && enabled == other.enabled
+                    && syncable == other.syncable
+                    && Objects.equals(accountName, other.accountName)
+                    && Objects.equals(accountType, other.accountType)
+                    && Objects.equals(provider, other.provider);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    /** The contents of the file. */
+    static final class Table {
+        int nextAuthorityId;
+        int syncRandomOffset;
+        /** Master sync flag by userId. */
+        final SparseBooleanArray masterSyncAutomatically = new SparseBooleanArray();
+        /** Authorities by id. */
+        final SparseArray<Record> authorities = new SparseArray<>();
+        /** Set by {@link #read} if the file ended in a torn record, which was dropped. */
+        boolean torn;
+    }
+
+    /**
+     * What changed since the table was last read or written: the header and master sync flags
+     * in full, since they are small, and just the authorities that were changed or removed.
+     */
+    static final class Changes {
+        int nextAuthorityId;
+        int syncRandomOffset;
+        /** Master sync flag by userId. */
+        final SparseBooleanArray masterSyncAutomatically = new SparseBooleanArray();
+        /** Authorities that were added or changed. */
+        final ArrayList<Record> authorities = new ArrayList<>();
+        /** Ids of the authorities that were removed. */
+        final IntArray removedIds = new IntArray();
+    }
+
+    private final AtomicFile mFile;
+
+    /**
+     * The header and master sync flags as they are on disk, or null if the file isn't known to
+     * be intact and must be rewritten before it can be appended to.
+     */
+    @GuardedBy("this")
+    private Table mWrittenHeader;
+
+    /** Size of the file after the last time it was rewritten in full. */
+    @GuardedBy("this")
+    private long mCompactedSize;
+
+    AuthorityTableFile(File file) {
+        mFile = new AtomicFile(file, "sync-accounts");
+    }
+
+    File getBaseFile() {
+        return mFile.getBaseFile();
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    synchronized void delete() {
+        mFile.delete();
+        mWrittenHeader = null;
+    }
+
+    /**
+     * Read the table from the file.
+     *
+     * @throws FileNotFoundException if there is no file.
+     * @throws IOException if the file isn't a table in a format this class understands.
+     */
+    synchronized Table read() throws IOException {
+        mWrittenHeader = null;
+        final byte[] data = mFile.readFully();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 8 || in.readInt() != MAGIC) {
+            throw new IOException("Not an authority table");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unknown authority table version " + version);
+        }
+
+        final Table table = new Table();
+        while (in.available() > 0) {
+            try {
+                final int length = in.readInt();
+                if (length <= 0 || length > in.available()) {
+                    throw new EOFException();
+                }
+                // Each record is read from its own slice, so whatever a reader doesn't
+                // understand at the end of a record is skipped.
+                final int offset = data.length - in.available();
+                readRecord(new DataInputStream(new ByteArrayInputStream(data, offset, length)),
+                        table);
+                in.skipBytes(length);
+            } catch (EOFException e) {
+                Slog.w(TAG, "Ignoring torn record at the end of " + mFile.getBaseFile());
+                table.torn = true;
+                break;
+            }
+        }
+        if (!table.torn) {
+            mWrittenHeader = copyHeaderOf(table);
+            mCompactedSize = data.length;
+        }
+        return table;
+    }
+
+    /**
+     * Append the given changes to the file. See the class comment for how appends relate to
+     * AtomicFile.
+     *
+     * @return false if nothing was appended and the file must be rewritten with {@link #write}
+     * instead: because it wasn't read or written in full since it was opened, or the changes
+     * can't be expressed as records, or the file is due to be compacted, or the append failed.
+     */
+    synchronized boolean append(Changes changes) {
+        if (mWrittenHeader == null || !mFile.getBaseFile().exists()
+                || removesMasterSyncFlag(mWrittenHeader, changes.masterSyncAutomatically)) {
+            return false;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream data = new DataOutputStream(out);
+            writeHeader(data, mWrittenHeader, changes.nextAuthorityId, changes.syncRandomOffset,
+                    changes.masterSyncAutomatically);
+            for (int i = 0, size = changes.authorities.size(); i < size; i++) {
+                writeAuthority(data, changes.authorities.get(i));
+            }
+            for (int i = 0, size = changes.removedIds.size(); i < size; i++) {
+                writeTombstone(data, changes.removedIds.get(i));
+            }
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        if (out.size() == 0) {
+            return true;
+        }
+        final File file = mFile.getBaseFile();
+        if (file.length() + out.size() > Math.max(mCompactedSize, 1024) * COMPACT_RATIO) {
+            return false;
+        }
+        final Table written = mWrittenHeader;
+        // Until the append is known to be intact, the file must be rewritten.
+        mWrittenHeader = null;
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            out.writeTo(fos);
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to append to " + file, e);
+            return false;
+        }
+        written.nextAuthorityId = changes.nextAuthorityId;
+        written.syncRandomOffset = changes.syncRandomOffset;
+        copyMasterSync(changes.masterSyncAutomatically, written.masterSyncAutomatically);
+        mWrittenHeader = written;
+        return true;
+    }
+
+    /**
+     * Replace the contents of the file with the given table.
+     *
+     * @return whether the write succeeded.
+     */
+    synchronized boolean write(Table table) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            writeHeader(data, null, table.nextAuthorityId, table.syncRandomOffset,
+                    table.masterSyncAutomatically);
+            for (int i = 0, size = table.authorities.size(); i < size; i++) {
+                writeAuthority(data, table.authorities.valueAt(i));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mWrittenHeader = null;
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            out.writeTo(fos);
+            mFile.finishWrite(fos);
+            fos = null;
+            mWrittenHeader = copyHeaderOf(table);
+            mCompactedSize = out.size();
+            return true;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to write " + mFile.getBaseFile(), e);
+            return false;
+        } finally {
+            // when fos is null (successful write), this is a no-op.
+            mFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * Write the records for the header and master sync flags that differ from {@code from}, or
+     * all of them if null.
+     */
+    private static void writeHeader(DataOutputStream out, Table from, int nextAuthorityId,
+            int syncRandomOffset, SparseBooleanArray masterSyncAutomatically)
+            throws IOException {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(record);
+
+        if (from == null || from.nextAuthorityId != nextAuthorityId
+                || from.syncRandomOffset != syncRandomOffset) {
+            data.writeByte(RECORD_HEADER);
+            data.writeInt(nextAuthorityId);
+            data.writeInt(syncRandomOffset);
+            flushRecord(out, record);
+        }
+
+        for (int i = 0, size = masterSyncAutomatically.size(); i < size; i++) {
+            final int userId = masterSyncAutomatically.keyAt(i);
+            final boolean listen = masterSyncAutomatically.valueAt(i);
+            if (from != null) {
+                final int index = from.masterSyncAutomatically.indexOfKey(userId);
+                if (index >= 0 && from.masterSyncAutomatically.valueAt(index) == listen) {
+                    continue;
+                }
+            }
+            data.writeByte(RECORD_MASTER_SYNC);
+            data.writeInt(userId);
+            data.writeBoolean(listen);
+            flushRecord(out, record);
+        }
+    }
+
+    private static void writeAuthority(DataOutputStream out, Record authority)
+            throws IOException {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(record);
+        data.writeByte(RECORD_AUTHORITY);
+        data.writeInt(authority.id);
+        data.writeInt(authority.userId);
+        data.writeBoolean(authority.enabled);
+        data.writeInt(authority.syncable);
+        data.writeUTF(authority.accountName);
+        data.writeUTF(authority.accountType);
+        data.writeUTF(authority.provider);
+        flushRecord(out, record);
+    }
+
+    private static void writeTombstone(DataOutputStream out, int id) throws IOException {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(record);
+        data.writeByte(RECORD_TOMBSTONE);
+        data.writeInt(id);
+        flushRecord(out, record);
+    }
+
+    /** Records can't remove a master sync flag, so that takes a rewrite. */
+    private static boolean removesMasterSyncFlag(Table from, SparseBooleanArray to) {
+        for (int i = 0, size = from.masterSyncAutomatically.size(); i < size; i++) {
+            if (to.indexOfKey(from.masterSyncAutomatically.keyAt(i)) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void flushRecord(DataOutputStream out, ByteArrayOutputStream record)
+            throws IOException {
+        out.writeInt(record.size());
+        record.writeTo(out);
+        record.reset();
+    }
+
+    private static void readRecord(DataInputStream in, Table table) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case RECORD_HEADER:
+                table.nextAuthorityId = in.readInt();
+                table.syncRandomOffset = in.readInt();
+                break;
+            case RECORD_MASTER_SYNC:
+                final int userId = in.readInt();
+                table.masterSyncAutomatically.put(userId, in.readBoolean());
+                break;
+            case RECORD_AUTHORITY:
+                final int id = in.readInt();
+                final int authorityUserId = in.readInt();
+                final boolean enabled = in.readBoolean();
+                final int syncable = in.readInt();
+                final String accountName = in.readUTF();
+                final String accountType = in.readUTF();
+                final String provider = in.readUTF();
+                table.authorities.put(id, new Record(id, authorityUserId, accountName,
+                        accountType, provider, enabled, syncable));
+                break;
+            case RECORD_TOMBSTONE:
+                table.authorities.remove(in.readInt());
+                break;
+            default:
+                // A record from a newer version of the format.
+                Slog.w(TAG, "Skipping unknown authority table record " + type);
+                break;
+        }
+    }
+
+    /** @return a copy of the header and master sync flags of the given table. */
+    private static Table copyHeaderOf(Table table) {
+        final Table copy = new Table();
+        copy.nextAuthorityId = table.nextAuthorityId;
+        copy.syncRandomOffset = table.syncRandomOffset;
+        copyMasterSync(table.masterSyncAutomatically, copy.masterSyncAutomatically);
+        return copy;
+    }
+
+    private static void copyMasterSync(SparseBooleanArray from, SparseBooleanArray to) {
+        to.clear();
+        for (int i = 0, size = from.size(); i < size; i++) {
+            to.put(from.keyAt(i), from.valueAt(i));
+        }
+    }
+}
@@ -30,6 +30,8 @@ import android.app.ActivityManager.RestrictionLevel;
 import android.app.ActivityManagerInternal;
 import android.app.AppGlobals;
 import android.app.AppOpsManager;
+import android.app.IActivityManager;
+import android.app.UidObserver;
 import android.app.compat.CompatChanges;
 import android.app.job.JobInfo;
 import android.compat.annotation.ChangeId;
@@ -57,11 +59,13 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.FactoryTest;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.ResultReceiver;
 import android.os.ShellCallback;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
@@ -71,6 +75,7 @@ import android.util.Log;
 import android.util.Pair;
 import android.util.Slog;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.annotations.GuardedBy;
@@ -85,12 +90,16 @@ import com.android.server.LocalServices;
 import com.android.server.SystemService;
 import com.android.server.pm.permission.LegacyPermissionManagerInternal;
 
+import libcore.util.EmptyArray;
+
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 
@@ -112,6 +121,14 @@ public final class ContentService extends IContentService.Stub {
      */
     private static final long BACKGROUND_OBSERVER_DELAY = 10 * DateUtils.SECOND_IN_MILLIS;
 
+    /**
+     * Window in which content change notifications to apps running in the foreground are
+     * merged, so that a burst of changes, such as a bulk insert notifying once per row, costs
+     * an observer two callbacks: the first change is delivered right away, the rest at the end
+     * of the window. Short enough not to be noticeable in the UI.
+     */
+    private static final long FOREGROUND_OBSERVER_WINDOW = 20;
+
     /**
      * Enables checking for account access for the calling uid on all sync-related APIs.
      */
@@ -174,6 +191,8 @@ public final class ContentService extends IContentService.Stub {
 
     private final ObserverNode mRootNode = new ObserverNode("");
 
+    private final ForegroundUidCache mForegroundUids = new ForegroundUidCache();
+
     private SyncManager mSyncManager = null;
     private final Object mSyncManagerLock = new Object();
 
@@ -343,6 +362,7 @@ public final class ContentService extends IContentService.Stub {
     void onBootPhase(int phase) {
         switch (phase) {
             case SystemService.PHASE_ACTIVITY_MANAGER_READY:
+                mForegroundUids.register();
                 getSyncManager();
                 break;
         }
@@ -388,8 +408,9 @@ public final class ContentService extends IContentService.Stub {
             }
         }
 
+        final String[] segments = ObserverNode.getUriSegments(uri);
         synchronized (mRootNode) {
-            mRootNode.addObserverLocked(uri, observer, notifyForDescendants, mRootNode,
+            mRootNode.addObserverLocked(uri, segments, observer, notifyForDescendants, mRootNode,
                     uid, pid, userHandle);
             if (false) Log.v(TAG, "Registered observer " + observer + " at " + uri +
                     " with notifyForDescendants " + notifyForDescendants);
@@ -435,7 +456,7 @@ public final class ContentService extends IContentService.Stub {
         final int callingUserId = UserHandle.getCallingUserId();
 
         // Set of notification events that we need to dispatch
-        final ObserverCollector collector = new ObserverCollector();
+        final ObserverCollector collector = new ObserverCollector(mForegroundUids);
 
         // Set of content provider authorities that we've validated the caller
         // has access to, mapped to the package name hosting that provider
@@ -471,9 +492,9 @@ public final class ContentService extends IContentService.Stub {
 
             // No concerns raised above, so caller has access; let's collect the
             // notifications that should be dispatched
+            final String[] segments = ObserverNode.getUriSegments(uri);
             synchronized (mRootNode) {
-                final int segmentCount = ObserverNode.countUriSegments(uri);
-                mRootNode.collectObserversLocked(uri, segmentCount, 0, observer,
+                mRootNode.collectObserversLocked(uri, segments, 0, observer,
                         observerWantsSelfNotifications, flags, resolvedUserId, collector);
             }
         }
@@ -527,9 +548,42 @@ public final class ContentService extends IContentService.Stub {
      */
     @VisibleForTesting
     public static class ObserverCollector {
+        private static NotificationCoalescer sCoalescer;
+
         private final ArrayMap<Key, List<Uri>> collected = new ArrayMap<>();
+        private final NotificationCoalescer mCoalescer;
+        /** Null to ask ActivityManager for the state of each uid. */
+        private final ForegroundUidCache mForegroundUids;
+
+        public ObserverCollector() {
+            this(getDefaultCoalescer(), null);
+        }
+
+        @VisibleForTesting
+        public ObserverCollector(NotificationCoalescer coalescer) {
+            this(coalescer, null);
+        }
 
-        private static class Key {
+        ObserverCollector(ForegroundUidCache foregroundUids) {
+            this(getDefaultCoalescer(), foregroundUids);
+        }
+
+        private ObserverCollector(NotificationCoalescer coalescer,
+                ForegroundUidCache foregroundUids) {
+            mCoalescer = coalescer;
+            mForegroundUids = foregroundUids;
+        }
+
+        private static synchronized NotificationCoalescer getDefaultCoalescer() {
+            if (sCoalescer == null) {
+                sCoalescer = new NotificationCoalescer(BackgroundThread.getHandler(),
+                        FOREGROUND_OBSERVER_WINDOW, BACKGROUND_OBSERVER_DELAY);
+            }
+            return sCoalescer;
+        }
+
+        @VisibleForTesting
+        static class Key {
             final IContentObserver observer;
             final int uid;
             final boolean selfChange;
@@ -579,24 +633,332 @@ public final class ContentService extends IContentService.Stub {
                 final Key key = collected.keyAt(i);
                 final List<Uri> value = collected.valueAt(i);
 
-                final Runnable task = () -> {
-                    try {
-                        key.observer.onChangeEtc(key.selfChange,
-                                value.toArray(new Uri[value.size()]), key.flags, key.userId);
-                    } catch (RemoteException ignored) {
-                    }
-                };
+                // Notifications sent with NOTIFY_NO_DELAY are neither delayed nor merged.
+                if ((key.flags & ContentResolver.NOTIFY_NO_DELAY) != 0) {
+                    mCoalescer.dispatchNow(key, value);
+                    continue;
+                }
 
-                // Immediately dispatch notifications to foreground apps that
+                // Quickly dispatch notifications to foreground apps that
                 // are important to the user; all other background observers are
                 // delayed to avoid stampeding
-                final boolean noDelay = (key.flags & ContentResolver.NOTIFY_NO_DELAY) != 0;
-                final int procState = LocalServices.getService(ActivityManagerInternal.class)
-                        .getUidProcessState(key.uid);
-                if (procState <= ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND || noDelay) {
-                    task.run();
-                } else {
-                    BackgroundThread.getHandler().postDelayed(task, BACKGROUND_OBSERVER_DELAY);
+                mCoalescer.enqueue(key, value, mForegroundUids != null
+                        ? mForegroundUids.isForeground(key.uid)
+                        : ForegroundUidCache.queryForeground(key.uid));
+            }
+        }
+    }
+
+    /**
+     * Whether uids are in the foreground as far as change notifications are concerned, i.e. at
+     * {@link ActivityManager#PROCESS_STATE_IMPORTANT_FOREGROUND} or above.
+     * <p>
+     * Once registered, a uid observer keeps the cache current; ActivityManager only calls it when
+     * a uid crosses that state. The cache is copied on write, so that it is read without locking
+     * while notifications are dispatched. Uids it doesn't know yet are asked for once; uids
+     * that are gone are forgotten.
+     */
+    @VisibleForTesting
+    static final class ForegroundUidCache extends UidObserver {
+        private final Object mLock = new Object();
+
+        private volatile boolean mRegistered;
+
+        /**
+         * Never modified once published: written under mLock by {@link #putLocked} and
+         * {@link #removeLocked}, which replace it with a modified copy, and read without it.
+         */
+        private volatile SparseBooleanArray mForeground = new SparseBooleanArray();
+
+        void register() {
+            register(ActivityManager.getService());
+        }
+
+        @VisibleForTesting
+        void register(IActivityManager activityManager) {
+            try {
+                activityManager.registerUidObserver(this,
+                        ActivityManager.UID_OBSERVER_PROCSTATE | ActivityManager.UID_OBSERVER_GONE,
+                        ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND, null);
+                mRegistered = true;
+            } catch (RemoteException e) {
+                // Same process.
+            }
+        }
+
+        static boolean queryForeground(int uid) {
+            final int procState = LocalServices.getService(ActivityManagerInternal.class)
+                    .getUidProcessState(uid);
+            return procState <= ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND;
+        }
+
+        boolean isForeground(int uid) {
+            if (!mRegistered) {
+                return queryForeground(uid);
+            }
+            final SparseBooleanArray foreground = mForeground;
+            final int index = foreground.indexOfKey(uid);
+            if (index >= 0) {
+                return foreground.valueAt(index);
+            }
+            final boolean result = queryForeground(uid);
+            synchronized (mLock) {
+                // Unless the observer got there first.
+                if (mForeground.indexOfKey(uid) < 0) {
+                    putLocked(uid, result);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void onUidStateChanged(int uid, int procState, long procStateSeq, int capability) {
+            synchronized (mLock) {
+                putLocked(uid, procState <= ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND);
+            }
+        }
+
+        @Override
+        public void onUidGone(int uid, boolean disabled) {
+            // Forget the uid, so that the cache doesn't keep every uid that ever ran. It is
+            // asked for again if it comes back.
+            synchronized (mLock) {
+                removeLocked(uid);
+            }
+        }
+
+        @GuardedBy("mLock")
+        private void putLocked(int uid, boolean foreground) {
+            final int index = mForeground.indexOfKey(uid);
+            if (index >= 0 && mForeground.valueAt(index) == foreground) {
+                return;
+            }
+            final SparseBooleanArray copy = mForeground.clone();
+            copy.put(uid, foreground);
+            mForeground = copy;
+        }
+
+        @GuardedBy("mLock")
+        private void removeLocked(int uid) {
+            final int index = mForeground.indexOfKey(uid);
+            if (index < 0) {
+                return;
+            }
+            final SparseBooleanArray copy = mForeground.clone();
+            copy.removeAt(index);
+            mForeground = copy;
+        }
+    }
+
+    /**
+     * Merges the change notifications sent to an observer within a window into one
+     * {@link IContentObserver#onChangeEtc} call.
+     * <p>
+     * A foreground notification to an observer with nothing pending is delivered right away,
+     * and opens a window in which the observer's later notifications are merged. Any other
+     * notification is merged into the observer's most recent pending batch if all its other
+     * arguments are identical, and otherwise starts a new batch. Uris already in a batch aren't
+     * added again. A batch is delivered once its window, which starts with its first
+     * notification, has passed. Notifications are delivered to each observer in the order they
+     * were sent: delivering a batch, or a notification that isn't merged, first delivers the
+     * observer's older batches.
+     * <p>
+     * A foreground notification merged into a batch due later, e.g. one started by background
+     * notifications, brings the batch forward to the end of the foreground window. Batches are
+     * delivered in calls of at most {@link #MAX_URIS_PER_CALL} Uris.
+     */
+    @VisibleForTesting
+    public static class NotificationCoalescer {
+        /**
+         * Most Uris delivered in one {@link IContentObserver#onChangeEtc} call, so that a batch
+         * merged from a large burst stays well under the binder transaction limit.
+         */
+        @VisibleForTesting
+        static final int MAX_URIS_PER_CALL = 500;
+
+        private final Handler mHandler;
+        private final long mForegroundWindowMillis;
+        private final long mBackgroundWindowMillis;
+
+        /** Held while delivering, so that deliveries to an observer can't be reordered. */
+        private final Object mDeliverLock = new Object();
+
+        private final Object mLock = new Object();
+
+        /** Pending batches by observer binder, oldest first. */
+        @GuardedBy("mLock")
+        private final ArrayMap<IBinder, ArrayList<Batch>> mPending = new ArrayMap<>();
+
+        /** Uptime the flush is posted for, or Long.MAX_VALUE if none is. */
+        @GuardedBy("mLock")
+        private long mNextFlushTime = Long.MAX_VALUE;
+
+        private final Runnable mFlushRunnable = this::flushDue;
+
+        private static final class Batch {
+            final ObserverCollector.Key key;
+            long dueTime;
+            final ArrayList<Uri> uris = new ArrayList<>();
+            final HashSet<Uri> uriSet = new HashSet<>();
+
+            Batch(ObserverCollector.Key key, long dueTime) {
+                this.key = key;
+                this.dueTime = dueTime;
+            }
+
+            void addAll(List<Uri> uris) {
+                for (int i = 0; i < uris.size(); i++) {
+                    final Uri uri = uris.get(i);
+                    if (uriSet.add(uri)) {
+                        this.uris.add(uri);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param foregroundWindowMillis how long notifications to foreground observers are
+         * merged for; 0 delivers them right away.
+         * @param backgroundWindowMillis how long notifications to background observers are
+         * delayed and merged for.
+         */
+        public NotificationCoalescer(Handler handler, long foregroundWindowMillis,
+                long backgroundWindowMillis) {
+            mHandler = handler;
+            mForegroundWindowMillis = foregroundWindowMillis;
+            mBackgroundWindowMillis = backgroundWindowMillis;
+        }
+
+        void enqueue(ObserverCollector.Key key, List<Uri> uris, boolean foreground) {
+            final long window = foreground ? mForegroundWindowMillis : mBackgroundWindowMillis;
+            if (window <= 0) {
+                dispatchNow(key, uris);
+                return;
+            }
+            if (foreground && deliverLeadingEdge(key, uris, window)) {
+                return;
+            }
+            synchronized (mLock) {
+                final IBinder binder = key.observer.asBinder();
+                ArrayList<Batch> batches = mPending.get(binder);
+                if (batches == null) {
+                    batches = new ArrayList<>(1);
+                    mPending.put(binder, batches);
+                }
+                final long dueTime = SystemClock.uptimeMillis() + window;
+                Batch batch = batches.isEmpty() ? null : batches.get(batches.size() - 1);
+                if (batch == null || !batch.key.equals(key)) {
+                    batch = new Batch(key, dueTime);
+                    batches.add(batch);
+                    scheduleFlushLocked(dueTime);
+                } else if (dueTime < batch.dueTime) {
+                    // Don't hold a foreground notification for the rest of a background window.
+                    batch.dueTime = dueTime;
+                    scheduleFlushLocked(dueTime);
+                }
+                batch.addAll(uris);
+            }
+        }
+
+        /**
+         * Deliver a notification right away if its observer has nothing pending, and start an
+         * empty batch for the given window, into which the observer's later notifications are
+         * merged.
+         *
+         * @return whether the notification was delivered.
+         */
+        private boolean deliverLeadingEdge(ObserverCollector.Key key, List<Uri> uris,
+                long window) {
+            synchronized (mDeliverLock) {
+                synchronized (mLock) {
+                    final IBinder binder = key.observer.asBinder();
+                    if (mPending.containsKey(binder)) {
+                        return false;
+                    }
+                    final long dueTime = SystemClock.uptimeMillis() + window;
+                    final ArrayList<Batch> batches = new ArrayList<>(1);
+                    batches.add(new Batch(key, dueTime));
+                    mPending.put(binder, batches);
+                    scheduleFlushLocked(dueTime);
+                }
+                deliver(key, uris);
+                return true;
+            }
+        }
+
+        /** Deliver a notification without merging it, after the observer's pending batches. */
+        void dispatchNow(ObserverCollector.Key key, List<Uri> uris) {
+            synchronized (mDeliverLock) {
+                final ArrayList<Batch> pending;
+                synchronized (mLock) {
+                    pending = mPending.remove(key.observer.asBinder());
+                }
+                if (pending != null) {
+                    for (int i = 0; i < pending.size(); i++) {
+                        deliver(pending.get(i).key, pending.get(i).uris);
+                    }
+                }
+                deliver(key, uris);
+            }
+        }
+
+        @GuardedBy("mLock")
+        private void scheduleFlushLocked(long time) {
+            if (time < mNextFlushTime) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.postAtTime(mFlushRunnable, time);
+                mNextFlushTime = time;
+            }
+        }
+
+        private void flushDue() {
+            synchronized (mDeliverLock) {
+                final ArrayList<Batch> due = new ArrayList<>();
+                synchronized (mLock) {
+                    final long now = SystemClock.uptimeMillis();
+                    long next = Long.MAX_VALUE;
+                    for (int i = mPending.size() - 1; i >= 0; i--) {
+                        final ArrayList<Batch> batches = mPending.valueAt(i);
+                        // A batch may be due before an older one; deliver both, in order.
+                        int lastDue = -1;
+                        for (int j = 0; j < batches.size(); j++) {
+                            if (batches.get(j).dueTime <= now) {
+                                lastDue = j;
+                            }
+                        }
+                        if (lastDue >= 0) {
+                            final List<Batch> dueBatches = batches.subList(0, lastDue + 1);
+                            due.addAll(dueBatches);
+                            dueBatches.clear();
+                        }
+                        if (batches.isEmpty()) {
+                            mPending.removeAt(i);
+                            continue;
+                        }
+                        for (int j = 0; j < batches.size(); j++) {
+                            next = Math.min(next, batches.get(j).dueTime);
+                        }
+                    }
+                    mNextFlushTime = Long.MAX_VALUE;
+                    if (next != Long.MAX_VALUE) {
+                        scheduleFlushLocked(next);
+                    }
+                }
+                for (int i = 0; i < due.size(); i++) {
+                    deliver(due.get(i).key, due.get(i).uris);
+                }
+            }
+        }
+
+        private static void deliver(ObserverCollector.Key key, List<Uri> uris) {
+            final int size = uris.size();
+            for (int start = 0; start < size; start += MAX_URIS_PER_CALL) {
+                final List<Uri> call = uris.subList(start,
+                        Math.min(size, start + MAX_URIS_PER_CALL));
+                try {
+                    key.observer.onChangeEtc(key.selfChange, call.toArray(new Uri[call.size()]),
+                            key.flags, key.userId);
+                } catch (RemoteException ignored) {
                 }
             }
         }
@@ -1706,10 +2068,14 @@ public final class ContentService extends IContentService.Stub {
             @Override
             public void binderDied() {
                 synchronized (observersLock) {
-                    removeObserverLocked(observer);
+                    getRootLocked().removeObserverLocked(observer);
                 }
             }
 
+            ObserverNode getNode() {
+                return ObserverNode.this;
+            }
+
             public void dumpLocked(FileDescriptor fd, PrintWriter pw, String[] args,
                                    String name, String prefix, SparseIntArray pidCounts) {
                 pidCounts.put(pid, pidCounts.get(pid)+1);
@@ -1722,14 +2088,41 @@ public final class ContentService extends IContentService.Stub {
             }
         }
 
+        /**
+         * Once a node has more children than this, they are also indexed by name in
+         * {@link #mChildrenByName}. Smaller nodes are searched linearly.
+         */
+        @VisibleForTesting
+        static final int CHILD_INDEX_THRESHOLD = 8;
+
         private String mName;
+        /** The node this node is a child of, or null for the root. */
+        private ObserverNode mParent;
+        /** The position of this node in its parent's {@link #mChildren}. */
+        private int mIndexInParent;
         private ArrayList<ObserverNode> mChildren = new ArrayList<ObserverNode>();
+        /** Index of {@link #mChildren} by name, or null if the node has few children. */
+        private HashMap<String, ObserverNode> mChildrenByName;
         private ArrayList<ObserverEntry> mObservers = new ArrayList<ObserverEntry>();
 
+        /**
+         * Only kept by the root: the entries of every node in the trie by observer binder, in
+         * the order they were added. Lets an observer be removed without walking the trie.
+         */
+        private HashMap<IBinder, ArrayList<ObserverEntry>> mEntriesByBinder;
+
         public ObserverNode(String name) {
             mName = name;
         }
 
+        private ObserverNode getRootLocked() {
+            ObserverNode node = this;
+            while (node.mParent != null) {
+                node = node.mParent;
+            }
+            return node;
+        }
+
         public void dumpLocked(FileDescriptor fd, PrintWriter pw, String[] args,
                                String name, String prefix, int[] counts, SparseIntArray pidCounts) {
             String innerName = null;
@@ -1761,92 +2154,197 @@ public final class ContentService extends IContentService.Stub {
             }
         }
 
-        public static String getUriSegment(Uri uri, int index) {
-            if (uri != null) {
-                if (index == 0) {
-                    return uri.getAuthority();
-                } else {
-                    return uri.getPathSegments().get(index - 1);
-                }
-            } else {
-                return null;
-            }
-        }
-
-        public static int countUriSegments(Uri uri) {
+        /**
+         * Split a Uri into the segments that name the nodes of the trie: the authority, which is
+         * interned since there are few of them, followed by the path segments. Meant to be
+         * called once per Uri, outside of the observers lock.
+         */
+        public static String[] getUriSegments(Uri uri) {
             if (uri == null) {
-                return 0;
+                return EmptyArray.STRING;
             }
-            return uri.getPathSegments().size() + 1;
+            final List<String> pathSegments = uri.getPathSegments();
+            final String[] segments = new String[pathSegments.size() + 1];
+            final String authority = uri.getAuthority();
+            segments[0] = authority != null ? authority.intern() : null;
+            for (int i = 1; i < segments.length; i++) {
+                segments[i] = pathSegments.get(i - 1);
+            }
+            return segments;
         }
 
         // Invariant:  userHandle is either a hard user number or is USER_ALL
         public void addObserverLocked(Uri uri, IContentObserver observer,
                                       boolean notifyForDescendants, Object observersLock,
                                       int uid, int pid, int userHandle) {
-            addObserverLocked(uri, 0, observer, notifyForDescendants, observersLock,
+            addObserverLocked(uri, getUriSegments(uri), observer, notifyForDescendants,
+                    observersLock, uid, pid, userHandle);
+        }
+
+        /**
+         * @param segments the segments of uri, see {@link #getUriSegments}.
+         */
+        public void addObserverLocked(Uri uri, String[] segments, IContentObserver observer,
+                                      boolean notifyForDescendants, Object observersLock,
+                                      int uid, int pid, int userHandle) {
+            addObserverLocked(uri, segments, 0, observer, notifyForDescendants, observersLock,
                     uid, pid, userHandle);
         }
 
-        private void addObserverLocked(Uri uri, int index, IContentObserver observer,
+        private void addObserverLocked(Uri uri, String[] segments, int index,
+                                       IContentObserver observer,
                                        boolean notifyForDescendants, Object observersLock,
                                        int uid, int pid, int userHandle) {
             // If this is the leaf node add the observer
-            if (index == countUriSegments(uri)) {
-                mObservers.add(new ObserverEntry(observer, notifyForDescendants, observersLock,
-                        uid, pid, userHandle, uri));
+            if (index == segments.length) {
+                final ObserverEntry entry = new ObserverEntry(observer, notifyForDescendants,
+                        observersLock, uid, pid, userHandle, uri);
+                mObservers.add(entry);
+
+                final ObserverNode root = getRootLocked();
+                if (root.mEntriesByBinder == null) {
+                    root.mEntriesByBinder = new HashMap<>();
+                }
+                final IBinder binder = observer.asBinder();
+                ArrayList<ObserverEntry> entries = root.mEntriesByBinder.get(binder);
+                if (entries == null) {
+                    entries = new ArrayList<>(1);
+                    root.mEntriesByBinder.put(binder, entries);
+                }
+                entries.add(entry);
                 return;
             }
 
             // Look to see if the proper child already exists
-            String segment = getUriSegment(uri, index);
+            String segment = segments[index];
             if (segment == null) {
                 throw new IllegalArgumentException("Invalid Uri (" + uri + ") used for observer");
             }
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (node.mName.equals(segment)) {
-                    node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
-                    return;
+            ObserverNode node = findChildLocked(segment);
+            if (node == null) {
+                // No child found, create one
+                node = new ObserverNode(segment);
+                node.mParent = this;
+                node.mIndexInParent = mChildren.size();
+                mChildren.add(node);
+                if (mChildrenByName != null) {
+                    mChildrenByName.put(segment, node);
+                } else if (mChildren.size() > CHILD_INDEX_THRESHOLD) {
+                    mChildrenByName = new HashMap<>(mChildren.size() * 2);
+                    for (int i = 0; i < mChildren.size(); i++) {
+                        final ObserverNode child = mChildren.get(i);
+                        mChildrenByName.put(child.mName, child);
+                    }
                 }
             }
-
-            // No child found, create one
-            ObserverNode node = new ObserverNode(segment);
-            mChildren.add(node);
-            node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
+            node.addObserverLocked(uri, segments, index + 1, observer, notifyForDescendants,
                     observersLock, uid, pid, userHandle);
         }
 
-        public boolean removeObserverLocked(IContentObserver observer) {
-            int size = mChildren.size();
-            for (int i = 0; i < size; i++) {
-                boolean empty = mChildren.get(i).removeObserverLocked(observer);
-                if (empty) {
-                    mChildren.remove(i);
-                    i--;
-                    size--;
+        @VisibleForTesting
+        int getChildCountLocked() {
+            return mChildren.size();
+        }
+
+        @VisibleForTesting
+        ObserverNode getChildAtLocked(int index) {
+            return mChildren.get(index);
+        }
+
+        @VisibleForTesting
+        ObserverNode getChildLocked(String name) {
+            return findChildLocked(name);
+        }
+
+        @VisibleForTesting
+        int getObserverCountLocked() {
+            return mObservers.size();
+        }
+
+        /** @return whether the children of this node are indexed by name. */
+        @VisibleForTesting
+        boolean isChildIndexedLocked() {
+            return mChildrenByName != null;
+        }
+
+        private ObserverNode findChildLocked(String segment) {
+            if (mChildrenByName != null) {
+                return mChildrenByName.get(segment);
+            }
+            final int N = mChildren.size();
+            for (int i = 0; i < N; i++) {
+                final ObserverNode node = mChildren.get(i);
+                if (node.mName.equals(segment)) {
+                    return node;
                 }
             }
+            return null;
+        }
 
-            IBinder observerBinder = observer.asBinder();
-            size = mObservers.size();
-            for (int i = 0; i < size; i++) {
-                ObserverEntry entry = mObservers.get(i);
-                if (entry.observer.asBinder() == observerBinder) {
-                    mObservers.remove(i);
+        /**
+         * Remove the given observer from each node it was added to; if it was added to a node
+         * more than once, only the oldest entry there is removed. Nodes left empty are pruned.
+         *
+         * @return whether this node is now empty.
+         */
+        public boolean removeObserverLocked(IContentObserver observer) {
+            final ObserverNode root = getRootLocked();
+            final IBinder observerBinder = observer.asBinder();
+            final ArrayList<ObserverEntry> entries = root.mEntriesByBinder != null
+                    ? root.mEntriesByBinder.get(observerBinder) : null;
+            if (entries != null) {
+                final int size = entries.size();
+                final ArraySet<ObserverNode> visited = new ArraySet<>(size);
+                int kept = 0;
+                for (int i = 0; i < size; i++) {
+                    final ObserverEntry entry = entries.get(i);
+                    final ObserverNode node = entry.getNode();
+                    if (!visited.add(node)) {
+                        entries.set(kept++, entry);
+                        continue;
+                    }
+                    node.mObservers.remove(entry);
                     // We no longer need to listen for death notifications. Remove it.
                     sObserverDeathDispatcher.unlinkToDeath(observer, entry);
-                    break;
+                    node.pruneLocked();
+                }
+                if (kept == 0) {
+                    root.mEntriesByBinder.remove(observerBinder);
+                } else {
+                    entries.subList(kept, size).clear();
                 }
             }
 
-            if (mChildren.size() == 0 && mObservers.size() == 0) {
-                return true;
+            return mChildren.size() == 0 && mObservers.size() == 0;
+        }
+
+        /** Detach this node and its ancestors from the trie for as long as they are empty. */
+        private void pruneLocked() {
+            ObserverNode node = this;
+            while (node.mParent != null && node.mChildren.isEmpty()
+                    && node.mObservers.isEmpty()) {
+                node.mParent.removeChildLocked(node);
+                node = node.mParent;
+            }
+        }
+
+        /**
+         * Removes the child by moving the last child into its place, so that removing a child
+         * from a node with many children doesn't shift the ones after it.
+         */
+        private void removeChildLocked(ObserverNode child) {
+            final int last = mChildren.size() - 1;
+            final ObserverNode moved = mChildren.remove(last);
+            if (moved != child) {
+                mChildren.set(child.mIndexInParent, moved);
+                moved.mIndexInParent = child.mIndexInParent;
+            }
+            if (mChildrenByName != null) {
+                mChildrenByName.remove(child.mName);
+                if (mChildren.size() <= CHILD_INDEX_THRESHOLD / 2) {
+                    mChildrenByName = null;
+                }
             }
-            return false;
         }
 
         private void collectMyObserversLocked(Uri uri, boolean leaf, IContentObserver observer,
@@ -1896,16 +2394,19 @@ public final class ContentService extends IContentService.Stub {
         public void collectObserversLocked(Uri uri, int index,
                 IContentObserver observer, boolean observerWantsSelfNotifications, int flags,
                 int targetUserHandle, ObserverCollector collector) {
-            collectObserversLocked(uri, countUriSegments(uri), index, observer,
+            collectObserversLocked(uri, getUriSegments(uri), index, observer,
                     observerWantsSelfNotifications, flags, targetUserHandle, collector);
         }
 
         /**
          * targetUserHandle is either a hard user handle or is USER_ALL
+         *
+         * @param segments the segments of uri, see {@link #getUriSegments}.
          */
-        public void collectObserversLocked(Uri uri, int segmentCount, int index,
+        public void collectObserversLocked(Uri uri, String[] segments, int index,
                 IContentObserver observer, boolean observerWantsSelfNotifications, int flags,
                 int targetUserHandle, ObserverCollector collector) {
+            final int segmentCount = segments.length;
             String segment = null;
             if (index >= segmentCount) {
                 // This is the leaf node, notify all observers
@@ -1913,7 +2414,7 @@ public final class ContentService extends IContentService.Stub {
                 collectMyObserversLocked(uri, true, observer, observerWantsSelfNotifications,
                         flags, targetUserHandle, collector);
             } else if (index < segmentCount){
-                segment = getUriSegment(uri, index);
+                segment = segments[index];
                 if (DEBUG) Slog.d(TAG, "Collecting non-leaf observers @ #" + index + " / "
                         + segment);
                 // Notify any observers at this level who are interested in descendants
@@ -1921,17 +2422,19 @@ public final class ContentService extends IContentService.Stub {
                         flags, targetUserHandle, collector);
             }
 
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (segment == null || node.mName.equals(segment)) {
+            if (segment != null) {
+                final ObserverNode node = findChildLocked(segment);
+                if (node != null) {
                     // We found the child,
-                    node.collectObserversLocked(uri, segmentCount, index + 1, observer,
+                    node.collectObserversLocked(uri, segments, index + 1, observer,
                             observerWantsSelfNotifications, flags, targetUserHandle, collector);
-                    if (segment != null) {
-                        break;
-                    }
                 }
+                return;
+            }
+            int N = mChildren.size();
+            for (int i = 0; i < N; i++) {
+                mChildren.get(i).collectObserversLocked(uri, segments, index + 1, observer,
+                        observerWantsSelfNotifications, flags, targetUserHandle, collector);
             }
         }
     }
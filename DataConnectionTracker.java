@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Whether the device has a connected default network, kept up to date from ConnectivityManager
+ * callbacks so that it can be read, e.g. for every sync message, without a binder call.
+ *
+ * The state is an {@link AtomicBoolean}: reads take no lock, and updates from the network
+ * callback and the connectivity broadcast, which run on different threads, swap the value
+ * atomically so that exactly one of them sees a reconnect.
+ *
+ * @hide
+ */
+class DataConnectionTracker {
+    private final ConnectivityManager mConnectivityManager;
+
+    /** Run on the thread that noticed the reconnect, when the default network comes back. */
+    private final Runnable mOnReconnect;
+
+    private final AtomicBoolean mConnected = new AtomicBoolean(false);
+
+    private final ConnectivityManager.NetworkCallback mDefaultNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    setConnected(true);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    // Only called for the default network when no other network replaces it.
+                    setConnected(false);
+                }
+            };
+
+    DataConnectionTracker(ConnectivityManager connectivityManager, Runnable onReconnect) {
+        mConnectivityManager = connectivityManager;
+        mOnReconnect = onReconnect;
+    }
+
+    /** Start following the default network, with callbacks on the given handler. */
+    void register(Handler handler) {
+        if (mConnectivityManager != null) {
+            mConnectivityManager.registerDefaultNetworkCallback(mDefaultNetworkCallback, handler);
+        }
+    }
+
+    /**
+     * Ask ConnectivityManager for the state of the active network, e.g. on a connectivity
+     * broadcast. The only place that makes a binder call.
+     */
+    void refresh() {
+        if (mConnectivityManager == null) {
+            return;
+        }
+        final NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        setConnected((networkInfo != null) && networkInfo.isConnected());
+    }
+
+    /** @return the last known state of the default network. */
+    boolean isConnected() {
+        return mConnected.get();
+    }
+
+    private void setConnected(boolean connected) {
+        final boolean wasConnected = mConnected.getAndSet(connected);
+        if (connected && !wasConnected) {
+            mOnReconnect.run();
+        }
+    }
+}
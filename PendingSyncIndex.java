@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * In-memory index of the {@link SyncOperation}s that SyncManager has scheduled with
+ * JobScheduler.
+ *
+ * The index is rebuilt once from JobScheduler when SyncManager first connects to it and is then
+ * kept current by SyncManager whenever a sync job is scheduled, cancelled or finished, so that
+ * lookups by job id, {@link SyncOperation#key}, {@link EndPoint} and
+ * {@link SyncOperation#sourcePeriodicId} don't need to decode every pending job's extras.
+ *
+ * All methods are thread safe. Lists returned are snapshots that are not affected by later
+ * updates to the index. An operation's extras (and so its key) must not be changed while it's
+ * in the index; remove it first and put it back once it has been rescheduled.
+ *
+ * @hide
+ */
+class PendingSyncIndex {
+    private final Object mLock = new Object();
+
+    /** Primary index. Every operation in the secondary indices is also in here. */
+    @GuardedBy("mLock")
+    private final SparseArray<SyncOperation> mOpsByJobId = new SparseArray<>();
+
+    @GuardedBy("mLock")
+    private final HashMap<SyncOperation.Key, ArrayList<SyncOperation>> mOpsByKey =
+            new HashMap<>();
+
+    @GuardedBy("mLock")
+    private final HashMap<EndPoint, ArrayList<SyncOperation>> mOpsByEndPoint = new HashMap<>();
+
+    /** One-off operations keyed by the job id of the periodic sync that initiated them. */
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayList<SyncOperation>> mOpsBySourcePeriodicId =
+            new SparseArray<>();
+
+    /**
+     * Replace the contents of the index with the given operations. Used when the index is
+     * rebuilt from the jobs persisted by JobScheduler.
+     */
+    void reset(List<SyncOperation> ops) {
+        synchronized (mLock) {
+            mOpsByJobId.clear();
+            mOpsByKey.clear();
+            mOpsByEndPoint.clear();
+            mOpsBySourcePeriodicId.clear();
+            for (int i = 0, size = ops.size(); i < size; i++) {
+                putLocked(ops.get(i));
+            }
+        }
+    }
+
+    /**
+     * Record that the given operation is now scheduled under {@link SyncOperation#jobId},
+     * replacing any operation previously scheduled with the same job id.
+     */
+    void put(SyncOperation op) {
+        synchronized (mLock) {
+            putLocked(op);
+        }
+    }
+
+    /**
+     * Remove the operation scheduled with the given job id.
+     *
+     * @return the removed operation, or null if there was none.
+     */
+    SyncOperation remove(int jobId) {
+        synchronized (mLock) {
+            return removeLocked(jobId);
+        }
+    }
+
+    SyncOperation get(int jobId) {
+        synchronized (mLock) {
+            return mOpsByJobId.get(jobId);
+        }
+    }
+
+    boolean contains(int jobId) {
+        synchronized (mLock) {
+            return mOpsByJobId.indexOfKey(jobId) >= 0;
+        }
+    }
+
+    int size() {
+        synchronized (mLock) {
+            return mOpsByJobId.size();
+        }
+    }
+
+    /**
+     * @return all pending operations, in no particular order, in a list the caller may modify.
+     */
+    List<SyncOperation> getAll() {
+        synchronized (mLock) {
+            final int size = mOpsByJobId.size();
+            final List<SyncOperation> ops = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ops.add(mOpsByJobId.valueAt(i));
+            }
+            return ops;
+        }
+    }
+
+    /** @return the pending operations whose {@link SyncOperation#key} equals the given key. */
+    List<SyncOperation> getByKey(SyncOperation.Key key) {
+        synchronized (mLock) {
+            return copyOf(mOpsByKey.get(key));
+        }
+    }
+
+    /**
+     * @return the pending operations whose target matches the given spec, see
+     * {@link EndPoint#matchesSpec(EndPoint)}. Wildcard specs fall back to a scan of all
+     * pending operations.
+     */
+    List<SyncOperation> getMatching(EndPoint spec) {
+        synchronized (mLock) {
+            if (spec.isFullySpecified()) {
+                return copyOf(mOpsByEndPoint.get(spec));
+            }
+            final List<SyncOperation> ops = new ArrayList<>();
+            for (int i = 0, size = mOpsByJobId.size(); i < size; i++) {
+                final SyncOperation op = mOpsByJobId.valueAt(i);
+                if (op.target.matchesSpec(spec)) {
+                    ops.add(op);
+                }
+            }
+            return ops;
+        }
+    }
+
+    /** @return whether a one-off operation matching the given spec is pending. */
+    boolean hasOneOffMatching(EndPoint spec) {
+        final List<SyncOperation> ops = getMatching(spec);
+        for (int i = 0, size = ops.size(); i < size; i++) {
+            if (!ops.get(i).isPeriodic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the pending operations that were created when the periodic sync with the given
+     * job id failed.
+     */
+    List<SyncOperation> getBySourcePeriodicId(int periodicJobId) {
+        synchronized (mLock) {
+            return copyOf(mOpsBySourcePeriodicId.get(periodicJobId));
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.print("Pending sync index: ");
+            pw.print(mOpsByJobId.size());
+            pw.print(" ops, ");
+            pw.print(mOpsByKey.size());
+            pw.print(" keys, ");
+            pw.print(mOpsByEndPoint.size());
+            pw.print(" endpoints, ");
+            pw.print(mOpsBySourcePeriodicId.size());
+            pw.println(" periodic sources");
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void putLocked(SyncOperation op) {
+        removeLocked(op.jobId);
+        mOpsByJobId.put(op.jobId, op);
+        addTo(mOpsByKey, op.key, op);
+        addTo(mOpsByEndPoint, op.target, op);
+        if (op.isDerivedFromFailedPeriodicSync()) {
+            ArrayList<SyncOperation> ops = mOpsBySourcePeriodicId.get(op.sourcePeriodicId);
+            if (ops == null) {
+                ops = new ArrayList<>(1);
+                mOpsBySourcePeriodicId.put(op.sourcePeriodicId, ops);
+            }
+            ops.add(op);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private SyncOperation removeLocked(int jobId) {
+        final SyncOperation op = mOpsByJobId.get(jobId);
+        if (op == null) {
+            return null;
+        }
+        mOpsByJobId.remove(jobId);
+        removeFrom(mOpsByKey, op.key, op);
+        removeFrom(mOpsByEndPoint, op.target, op);
+        if (op.isDerivedFromFailedPeriodicSync()) {
+            final ArrayList<SyncOperation> ops =
+                    mOpsBySourcePeriodicId.get(op.sourcePeriodicId);
+            if (ops != null) {
+                ops.remove(op);
+                if (ops.isEmpty()) {
+                    mOpsBySourcePeriodicId.remove(op.sourcePeriodicId);
+                }
+            }
+        }
+        return op;
+    }
+
+    private static <K> void addTo(HashMap<K, ArrayList<SyncOperation>> map, K key,
+            SyncOperation op) {
+        ArrayList<SyncOperation> ops = map.get(key);
+        if (ops == null) {
+            ops = new ArrayList<>(1);
+            map.put(key, ops);
+        }
+        ops.add(op);
+    }
+
+    private static <K> void removeFrom(HashMap<K, ArrayList<SyncOperation>> map, K key,
+            SyncOperation op) {
+        final ArrayList<SyncOperation> ops = map.get(key);
+        if (ops == null) {
+            return;
+        }
+        ops.remove(op);
+        if (ops.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static List<SyncOperation> copyOf(List<SyncOperation> ops) {
+        if (ops == null || ops.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(ops);
+    }
+}
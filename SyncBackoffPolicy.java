@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.os.SystemClock;
+import android.util.Slog;
+
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Decides how long a sync adapter is backed off after a failed sync. The policy is selected by
+ * {@link SyncManagerConstants#getBackoffPolicy()}; the backoff state itself is kept per target
+ * by {@link SyncStorageEngine}.
+ *
+ * Only used on the SyncManager handler thread.
+ *
+ * @hide
+ */
+abstract class SyncBackoffPolicy {
+    private static final String TAG = "SyncManager";
+
+    /** Multiply the previous delay by the increase factor, with a jittered initial delay. */
+    static final String EXPONENTIAL = "exponential";
+
+    /** Like {@link #EXPONENTIAL}, without jitter. */
+    static final String CAPPED_EXPONENTIAL = "capped_exponential";
+
+    /** A random delay between the initial delay and three times the previous delay. */
+    static final String DECORRELATED_JITTER = "decorrelated_jitter";
+
+    /**
+     * Retry after the initial delay while the target has retry tokens left, and back off
+     * exponentially once they are used up. Tokens are refilled over time.
+     */
+    static final String TOKEN_BUCKET = "token_bucket";
+
+    final SyncManagerConstants mConstants;
+    final Random mRandom = new Random(SystemClock.elapsedRealtime());
+
+    private final String mName;
+
+    SyncBackoffPolicy(String name, SyncManagerConstants constants) {
+        mName = name;
+        mConstants = constants;
+    }
+
+    /** @return the policy with the given name, or {@link #EXPONENTIAL} if it isn't known. */
+    static SyncBackoffPolicy create(String name, SyncManagerConstants constants) {
+        if (CAPPED_EXPONENTIAL.equals(name)) {
+            return new CappedExponential(constants);
+        } else if (DECORRELATED_JITTER.equals(name)) {
+            return new DecorrelatedJitter(constants);
+        } else if (TOKEN_BUCKET.equals(name)) {
+            return new TokenBucket(constants);
+        } else if (!EXPONENTIAL.equals(name)) {
+            Slog.w(TAG, "Unknown backoff policy " + name + ", using " + EXPONENTIAL);
+        }
+        return new Exponential(constants);
+    }
+
+    /**
+     * @return the given policy if it is still the one selected by the constants, or a new
+     * instance of the selected one, which starts without any state.
+     */
+    static SyncBackoffPolicy select(SyncBackoffPolicy current, SyncManagerConstants constants) {
+        final String name = constants.getBackoffPolicy();
+        if (current != null && current.getName().equals(name)) {
+            return current;
+        }
+        final SyncBackoffPolicy policy = create(name, constants);
+        // An unknown name selects the fallback, which may be the current policy.
+        return current != null && current.getName().equals(policy.getName()) ? current : policy;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * @param previousDelay the delay of the target's current backoff, or a value <= 0 if it
+     * isn't backed off.
+     * @return how long to back off the target for after a failed sync, capped at
+     * {@link SyncManagerConstants#getMaxSyncRetryTimeInSeconds()}.
+     */
+    final long getNextDelay(EndPoint target, long previousDelay, long now) {
+        final long maxDelay = mConstants.getMaxSyncRetryTimeInSeconds() * 1000L;
+        return Math.min(computeNextDelay(target, previousDelay, now), maxDelay);
+    }
+
+    abstract long computeNextDelay(EndPoint target, long previousDelay, long now);
+
+    /** Called when the backoff of the target is cleared after a successful sync. */
+    void onBackoffCleared(EndPoint target, long now) {
+    }
+
+    long getInitialDelay() {
+        return mConstants.getInitialSyncRetryTimeInSeconds() * 1000L;
+    }
+
+    /** @return a random value v that satisfies minValue <= v < maxValue. */
+    long jitterize(long minValue, long maxValue) {
+        final long spread = maxValue - minValue;
+        if (spread <= 0) {
+            return minValue;
+        }
+        return minValue + (long) (mRandom.nextDouble() * spread);
+    }
+
+    private static class Exponential extends SyncBackoffPolicy {
+        Exponential(SyncManagerConstants constants) {
+            super(EXPONENTIAL, constants);
+        }
+
+        Exponential(String name, SyncManagerConstants constants) {
+            super(name, constants);
+        }
+
+        @Override
+        long computeNextDelay(EndPoint target, long previousDelay, long now) {
+            final long delay = (long) (previousDelay * mConstants.getRetryTimeIncreaseFactor());
+            if (delay > 0) {
+                return delay;
+            }
+            final long initialDelay = getInitialDelay();
+            return jitterize(initialDelay, (long) (initialDelay * 1.1));
+        }
+    }
+
+    private static final class CappedExponential extends SyncBackoffPolicy {
+        CappedExponential(SyncManagerConstants constants) {
+            super(CAPPED_EXPONENTIAL, constants);
+        }
+
+        @Override
+        long computeNextDelay(EndPoint target, long previousDelay, long now) {
+            final long delay = (long) (previousDelay * mConstants.getRetryTimeIncreaseFactor());
+            return delay > 0 ? delay : getInitialDelay();
+        }
+    }
+
+    private static final class DecorrelatedJitter extends SyncBackoffPolicy {
+        DecorrelatedJitter(SyncManagerConstants constants) {
+            super(DECORRELATED_JITTER, constants);
+        }
+
+        @Override
+        long computeNextDelay(EndPoint target, long previousDelay, long now) {
+            final long initialDelay = getInitialDelay();
+            return jitterize(initialDelay, Math.max(initialDelay, previousDelay * 3));
+        }
+    }
+
+    private static final class TokenBucket extends Exponential {
+        /** Targets that have used retry tokens. Targets with a full bucket aren't in here. */
+        private final HashMap<EndPoint, Bucket> mBuckets = new HashMap<>();
+
+        private static final class Bucket {
+            double tokens;
+            long lastRefillTime;
+        }
+
+        TokenBucket(SyncManagerConstants constants) {
+            super(TOKEN_BUCKET, constants);
+        }
+
+        @Override
+        long computeNextDelay(EndPoint target, long previousDelay, long now) {
+            final int size = mConstants.getBackoffTokenBucketSize();
+            final long refillMs = mConstants.getBackoffTokenRefillTimeInSeconds() * 1000L;
+            Bucket bucket = mBuckets.get(target);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.tokens = size;
+                bucket.lastRefillTime = now;
+                mBuckets.put(target, bucket);
+            } else if (refillMs > 0 && now > bucket.lastRefillTime) {
+                bucket.tokens = Math.min(size,
+                        bucket.tokens + (double) (now - bucket.lastRefillTime) / refillMs);
+                bucket.lastRefillTime = now;
+            }
+            if (bucket.tokens >= 1) {
+                bucket.tokens--;
+                return getInitialDelay();
+            }
+            return super.computeNextDelay(target, previousDelay, now);
+        }
+
+        @Override
+        void onBackoffCleared(EndPoint target, long now) {
+            final Bucket bucket = mBuckets.get(target);
+            if (bucket == null) {
+                return;
+            }
+            final long refillMs = mConstants.getBackoffTokenRefillTimeInSeconds() * 1000L;
+            if (refillMs <= 0 || bucket.tokens + (double) (now - bucket.lastRefillTime) / refillMs
+                    >= mConstants.getBackoffTokenBucketSize()) {
+                mBuckets.remove(target);
+            }
+        }
+    }
+}
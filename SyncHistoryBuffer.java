@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import com.android.server.content.SyncStorageEngine.SyncHistoryItem;
+
+/**
+ * Bounded history of sync events, newest first, backed by a fixed-capacity ring so that adding
+ * an event and dropping the oldest one take constant time.
+ *
+ * History ids are handed out in increasing order, so the slot of an event can normally be
+ * computed from how far its id is behind the newest one. Lookups only fall back to a binary
+ * search once events have been removed from the middle of the history, and to a scan if ids
+ * have wrapped around.
+ *
+ * Not synchronized; guarded by SyncStorageEngine.mAuthorities.
+ *
+ * @hide
+ */
+class SyncHistoryBuffer {
+    private SyncHistoryItem[] mItems;
+
+    /** Slot of the newest item. */
+    private int mHead;
+
+    private int mSize;
+
+    SyncHistoryBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid history capacity " + capacity);
+        }
+        mItems = new SyncHistoryItem[capacity];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getCapacity() {
+        return mItems.length;
+    }
+
+    /** @return the i-th newest item, 0 being the newest. */
+    SyncHistoryItem get(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + i + " size=" + mSize);
+        }
+        return mItems[slotOf(i)];
+    }
+
+    /** Add a new newest item, dropping the oldest one if the history is full. */
+    void addFirst(SyncHistoryItem item) {
+        mHead = mHead == 0 ? mItems.length - 1 : mHead - 1;
+        mItems[mHead] = item;
+        if (mSize < mItems.length) {
+            mSize++;
+        }
+    }
+
+    /** @return the item with the given history id, or null if it is no longer in the history. */
+    SyncHistoryItem findByHistoryId(long historyId) {
+        if (mSize == 0) {
+            return null;
+        }
+        final long offset = (long) mItems[mHead].historyId - historyId;
+        if (offset >= 0 && offset < mSize) {
+            final SyncHistoryItem item = get((int) offset);
+            if (item.historyId == historyId) {
+                return item;
+            }
+        }
+        // Ids decrease from newest to oldest unless they have wrapped around.
+        int lo = 0;
+        int hi = mSize - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final SyncHistoryItem item = get(mid);
+            if (item.historyId == historyId) {
+                return item;
+            } else if (item.historyId > historyId) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        for (int i = 0; i < mSize; i++) {
+            final SyncHistoryItem item = get(i);
+            if (item.historyId == historyId) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /** Remove every item for the given authority, keeping the order of the others. */
+    void removeAuthority(int authorityId) {
+        int kept = 0;
+        for (int i = 0; i < mSize; i++) {
+            final SyncHistoryItem item = get(i);
+            if (item.authorityId != authorityId) {
+                mItems[slotOf(kept++)] = item;
+            }
+        }
+        for (int i = kept; i < mSize; i++) {
+            mItems[slotOf(i)] = null;
+        }
+        mSize = kept;
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mItems[slotOf(i)] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Change how many items are kept, e.g. to keep a deeper history for diagnostics. The newest
+     * items are kept if the history shrinks.
+     */
+    void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid history capacity " + capacity);
+        }
+        if (capacity == mItems.length) {
+            return;
+        }
+        final int size = Math.min(mSize, capacity);
+        final SyncHistoryItem[] items = new SyncHistoryItem[capacity];
+        for (int i = 0; i < size; i++) {
+            items[i] = get(i);
+        }
+        mItems = items;
+        mHead = 0;
+        mSize = size;
+    }
+
+    private int slotOf(int i) {
+        final int slot = mHead + i;
+        return slot < mItems.length ? slot : slot - mItems.length;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.util.IntArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.BitSet;
+
+/**
+ * Hands out JobScheduler job ids for sync jobs from the range {@code [minId, maxId]}.
+ *
+ * Used ids are tracked in a bitset. Ids are allocated next-fit: the search for a free id starts
+ * after the last id handed out and wraps around at the end of a search window at the start of
+ * the range. So an id that was just released is only handed out again once every other id in the
+ * window has been, which keeps stale messages about a finished job, such as an asynchronous stop,
+ * from being mistaken for a new job with the same id. The window is {@link #WINDOW_FACTOR} times
+ * the number of used ids, and at least {@link #MIN_WINDOW} ids, so the bitset stays in
+ * proportion to the jobs pending at once rather than growing with every job scheduled since
+ * boot. Allocation skips used ids 64 at a time and is constant time, since at most a fraction of
+ * the window is used.
+ *
+ * The allocator is reconciled with the jobs persisted by JobScheduler with {@link #reset}. An id
+ * may also be marked as used directly, e.g. when a job is rescheduled under its old id.
+ *
+ * All methods are thread safe.
+ *
+ * @hide
+ */
+class SyncJobIdAllocator {
+    /** Returned by {@link #allocate()} when every id in the range is in use. */
+    static final int NO_ID = SyncOperation.NO_JOB_ID;
+
+    /** The smallest search window, see {@link #searchWindowLocked}. */
+    private static final int MIN_WINDOW = 1024;
+    /** How many times the number of used ids the search window covers. */
+    private static final int WINDOW_FACTOR = 4;
+
+    private final Object mLock = new Object();
+
+    private final int mMinId;
+    private final int mMaxId;
+    private final int mMinWindow;
+
+    /** Bit {@code id - mMinId} is set if the id is in use. */
+    @GuardedBy("mLock")
+    private final BitSet mUsedIds = new BitSet();
+
+    /** Where the search for the next free id starts, as an offset from mMinId. */
+    @GuardedBy("mLock")
+    private int mCursor;
+
+    @GuardedBy("mLock")
+    private int mUsedCount;
+
+    SyncJobIdAllocator(int minId, int maxId) {
+        this(minId, maxId, MIN_WINDOW);
+    }
+
+    @VisibleForTesting
+    SyncJobIdAllocator(int minId, int maxId, int minWindow) {
+        if (minId < 0 || maxId < minId) {
+            throw new IllegalArgumentException("Invalid job id range " + minId + ".." + maxId);
+        }
+        if (minWindow < 1) {
+            throw new IllegalArgumentException("Invalid search window " + minWindow);
+        }
+        mMinId = minId;
+        mMaxId = maxId;
+        mMinWindow = minWindow;
+    }
+
+    /**
+     * Forget all allocations and mark the given ids as used. The search for free ids continues
+     * where it was, so ids released before the reset are still reused last.
+     */
+    void reset(IntArray usedIds) {
+        synchronized (mLock) {
+            mUsedIds.clear();
+            mUsedCount = 0;
+            for (int i = 0, size = usedIds.size(); i < size; i++) {
+                markUsedLocked(usedIds.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return an id that isn't in use and is now marked as used, or {@link #NO_ID} if the range
+     * is exhausted.
+     */
+    int allocate() {
+        synchronized (mLock) {
+            // Long since the range may cover every non-negative int.
+            final long size = (long) mMaxId - mMinId + 1;
+            if (mUsedCount >= size) {
+                return NO_ID;
+            }
+            final int window = searchWindowLocked(size);
+            int bit = mCursor < window ? mUsedIds.nextClearBit(mCursor) : -1;
+            if (bit < 0 || bit >= window) {
+                // Wrap around; the window has a free id since it's larger than the used count,
+                // or is the whole range and not all of it is used.
+                bit = mUsedIds.nextClearBit(0);
+            }
+            mUsedIds.set(bit);
+            mUsedCount++;
+            mCursor = bit + 1L < window ? bit + 1 : 0;
+            return mMinId + bit;
+        }
+    }
+
+    /** Mark an id as used, e.g. when a job is rescheduled with the id it had before. */
+    void markUsed(int id) {
+        synchronized (mLock) {
+            markUsedLocked(id);
+        }
+    }
+
+    /** Release an id so that it can be handed out again. Releasing a free id is a no-op. */
+    void release(int id) {
+        synchronized (mLock) {
+            if (!isInRange(id)) {
+                return;
+            }
+            final int bit = id - mMinId;
+            if (!mUsedIds.get(bit)) {
+                return;
+            }
+            mUsedIds.clear(bit);
+            mUsedCount--;
+        }
+    }
+
+    boolean isUsed(int id) {
+        synchronized (mLock) {
+            return isInRange(id) && mUsedIds.get(id - mMinId);
+        }
+    }
+
+    int getUsedCount() {
+        synchronized (mLock) {
+            return mUsedCount;
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.print("Sync job ids: ");
+            pw.print(mUsedCount);
+            pw.print(" used, next search from ");
+            pw.println(mMinId + mCursor);
+        }
+    }
+
+    /**
+     * @return how many ids from the start of the range {@link #allocate} searches: at least
+     * {@link #mMinWindow}, {@link #WINDOW_FACTOR} times the used count, and at most the range.
+     */
+    @GuardedBy("mLock")
+    private int searchWindowLocked(long size) {
+        final long window = Math.max(mMinWindow, (long) mUsedCount * WINDOW_FACTOR);
+        return (int) Math.min(size, window);
+    }
+
+    /** @return whether the id was in range and not already in use. */
+    @GuardedBy("mLock")
+    private boolean markUsedLocked(int id) {
+        if (!isInRange(id)) {
+            return false;
+        }
+        final int bit = id - mMinId;
+        if (mUsedIds.get(bit)) {
+            return false;
+        }
+        mUsedIds.set(bit);
+        mUsedCount++;
+        return true;
+    }
+
+    private boolean isInRange(int id) {
+        return id >= mMinId && id <= mMaxId;
+    }
+}
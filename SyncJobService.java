@@ -23,51 +23,53 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.util.Log;
 import android.util.Slog;
-import android.util.SparseArray;
-import android.util.SparseBooleanArray;
-import android.util.SparseLongArray;
 
-import com.android.internal.annotations.GuardedBy;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SyncJobService extends JobService {
     private static final String TAG = "SyncManager";
 
-    private static final Object sLock = new Object();
-
-    @GuardedBy("sLock")
-    private static SyncJobService sInstance;
-
-    @GuardedBy("sLock")
-    private static final SparseArray<JobParameters> sJobParamsMap = new SparseArray<>();
-
-    @GuardedBy("sLock")
-    private static final SparseBooleanArray sStartedSyncs = new SparseBooleanArray();
-
-    @GuardedBy("sLock")
-    private static final SparseLongArray sJobStartUptimes = new SparseLongArray();
+    private static volatile SyncJobService sInstance;
+
+    /**
+     * The jobs that were started and handed to SyncManager, by job id. Lets a job's extras be
+     * decoded only once, when it starts.
+     */
+    private static final ConcurrentHashMap<Integer, RunningJob> sRunningJobs =
+            new ConcurrentHashMap<>();
+
+    /** A started job and the sync operation decoded from its extras. */
+    private static final class RunningJob {
+        final JobParameters params;
+        final SyncOperation op;
+        final long startUptime;
+        /** Set by {@link #markSyncStarted}. */
+        volatile boolean syncStarted;
+
+        RunningJob(JobParameters params, SyncOperation op, long startUptime) {
+            this.params = params;
+            this.op = op;
+            this.startUptime = startUptime;
+        }
+    }
 
     private static final SyncLogger sLogger = SyncLogger.getInstance();
 
     private void updateInstance() {
-        synchronized (SyncJobService.class) {
-            sInstance = this;
-        }
+        sInstance = this;
     }
 
     @Nullable
     private static SyncJobService getInstance() {
-        synchronized (sLock) {
-            if (sInstance == null) {
-                Slog.wtf(TAG, "sInstance == null");
-            }
-            return sInstance;
+        final SyncJobService instance = sInstance;
+        if (instance == null) {
+            Slog.wtf(TAG, "sInstance == null");
         }
+        return instance;
     }
 
     public static boolean isReady() {
-        synchronized (sLock) {
-            return sInstance != null;
-        }
+        return sInstance != null;
     }
 
     @Override
@@ -98,19 +100,16 @@ public class SyncJobService extends JobService {
         }
 
         boolean isLoggable = Log.isLoggable(TAG, Log.VERBOSE);
-        synchronized (sLock) {
-            final int jobId = params.getJobId();
-            sJobParamsMap.put(jobId, params);
-
-            sStartedSyncs.delete(jobId);
-            sJobStartUptimes.put(jobId, SystemClock.uptimeMillis());
-        }
+        sRunningJobs.put(params.getJobId(),
+                new RunningJob(params, op, SystemClock.uptimeMillis()));
         Message m = Message.obtain();
         m.what = SyncManager.SyncHandler.MESSAGE_START_SYNC;
         if (isLoggable) {
             Slog.v(TAG, "Got start job message " + op.target);
         }
-        m.obj = op;
+        // SyncManager changes the operation it runs, e.g. its jobId when the sync is deferred, so
+        // it gets a copy and the one kept in sRunningJobs stays as it was in the job's extras.
+        m.obj = new SyncOperation(op);
         SyncManager.sendMessage(m);
         return true;
     }
@@ -121,40 +120,36 @@ public class SyncJobService extends JobService {
             Slog.v(TAG, "onStopJob called " + params.getJobId() + ", reason: "
                     + params.getInternalStopReasonCode());
         }
-        final SyncOperation op = SyncOperation.maybeCreateFromJobExtras(params.getExtras());
+        final int jobId = params.getJobId();
+        final RunningJob job = sRunningJobs.remove(jobId);
+        // The job isn't known if it was stopped before it was handed to SyncManager, or if
+        // SyncManager already finished it and the stop raced with that.
+        final SyncOperation op = job != null
+                ? job.op : SyncOperation.maybeCreateFromJobExtras(params.getExtras());
         if (op == null) {
-            Slog.wtf(TAG, "Got invalid job " + params.getJobId());
+            Slog.wtf(TAG, "Got invalid job " + jobId);
             return false;
         }
 
         final boolean readyToSync = SyncManager.readyToSync(op.target.userId);
 
-        sLogger.log("onStopJob() ", sLogger.jobParametersToString(params),
-                " readyToSync=", readyToSync);
-
-        synchronized (sLock) {
-            final int jobId = params.getJobId();
-            sJobParamsMap.remove(jobId);
+        if (sLogger.enabled()) {
+            sLogger.log("onStopJob() ", jobParametersToString(params, op),
+                    " readyToSync=", readyToSync);
+        }
 
-            final long startUptime = sJobStartUptimes.get(jobId);
+        // An unknown job either never reached SyncManager or was finished by it, so there is
+        // no start to check for.
+        if (job != null && readyToSync && !job.syncStarted) {
             final long nowUptime = SystemClock.uptimeMillis();
-            final long runtime = nowUptime - startUptime;
-
-
-            if (runtime > 60 * 1000) {
-                // WTF if startSyncH() hasn't happened, *unless* onStopJob() was called too soon.
-                // (1 minute threshold.)
-                // Also don't wtf when it's not ready to sync.
-                if (readyToSync && !sStartedSyncs.get(jobId)) {
-                    wtf("Job " + jobId + " didn't start: "
-                            + " startUptime=" + startUptime
-                            + " nowUptime=" + nowUptime
-                            + " params=" + jobParametersToString(params));
-                }
+            // WTF if startSyncH() hasn't happened, *unless* onStopJob() was called too soon.
+            // (1 minute threshold.)
+            if (nowUptime - job.startUptime > 60 * 1000) {
+                wtf("Job " + jobId + " didn't start: "
+                        + " startUptime=" + job.startUptime
+                        + " nowUptime=" + nowUptime
+                        + " params=" + jobParametersToString(params, op));
             }
-
-            sStartedSyncs.delete(jobId);
-            sJobStartUptimes.delete(jobId);
         }
         Message m = Message.obtain();
         m.what = SyncManager.SyncHandler.MESSAGE_STOP_SYNC;
@@ -179,37 +174,43 @@ public class SyncJobService extends JobService {
     }
 
     public void callJobFinishedInner(int jobId, boolean needsReschedule, String why) {
-        synchronized (sLock) {
-            JobParameters params = sJobParamsMap.get(jobId);
+        // Removing the job first makes sure that jobFinished() is called at most once for it.
+        final RunningJob job = sRunningJobs.remove(jobId);
+        if (sLogger.enabled()) {
             sLogger.log("callJobFinished()",
                     " jobid=", jobId,
                     " needsReschedule=", needsReschedule,
-                    " ", sLogger.jobParametersToString(params),
+                    " ", job != null ? jobParametersToString(job.params, job.op) : "job:null",
                     " why=", why);
-            if (params != null) {
-                jobFinished(params, needsReschedule);
-                sJobParamsMap.remove(jobId);
-            } else {
-                Slog.e(TAG, "Job params not found for " + String.valueOf(jobId));
-            }
+        }
+        if (job != null) {
+            jobFinished(job.params, needsReschedule);
+        } else {
+            Slog.e(TAG, "Job params not found for " + String.valueOf(jobId));
         }
     }
 
     public static void markSyncStarted(int jobId) {
-        synchronized (sLock) {
-            sStartedSyncs.put(jobId, true);
+        final RunningJob job = sRunningJobs.get(jobId);
+        if (job != null) {
+            job.syncStarted = true;
         }
     }
 
     public static String jobParametersToString(JobParameters params) {
         if (params == null) {
             return "job:null";
-        } else {
-            return "job:#" + params.getJobId() + ":"
-                    + "sr=[" + params.getInternalStopReasonCode()
-                    + "/" + params.getDebugStopReason() + "]:"
-                    + SyncOperation.maybeCreateFromJobExtras(params.getExtras());
         }
+        final RunningJob job = sRunningJobs.get(params.getJobId());
+        return jobParametersToString(params, job != null && job.params == params
+                ? job.op : SyncOperation.maybeCreateFromJobExtras(params.getExtras()));
+    }
+
+    private static String jobParametersToString(JobParameters params, SyncOperation op) {
+        return "job:#" + params.getJobId() + ":"
+                + "sr=[" + params.getInternalStopReasonCode()
+                + "/" + params.getDebugStopReason() + "]:"
+                + op;
     }
 
     private static void wtf(String message) {
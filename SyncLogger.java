@@ -24,29 +24,35 @@ import android.os.FileUtils;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.text.format.DateUtils;
 import android.util.Log;
 import android.util.Slog;
 
 import com.android.internal.annotations.GuardedBy;
-import com.android.internal.util.IntPair;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.IoThread;
 import com.android.server.content.SyncManager.ActiveSyncContext;
 import com.android.server.content.SyncStorageEngine.EndPoint;
 
 import libcore.io.IoUtils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
@@ -93,6 +99,13 @@ public class SyncLogger {
     public void log(Object... message) {
     }
 
+    /**
+     * Write the logged strings that are still buffered to the log file.
+     */
+    public void flush() {
+        // The default implementation is no-op.
+    }
+
     /**
      * Remove old log files.
      */
@@ -120,42 +133,79 @@ public class SyncLogger {
 
     /**
      * Actual implementation which is only used on userdebug/eng builds (by default).
+     *
+     * Each call to {@link #log} appends a binary record (wall clock time, calling thread id
+     * and the UTF-8 message) to an in-memory buffer on the calling thread. The buffer is written
+     * to the log file of the day on {@link IoThread} once it holds {@link #FLUSH_SIZE} bytes, or
+     * {@link #FLUSH_DELAY_MS} after the first record in it. Records are only turned back into
+     * text by {@link #dumpAll}.
      */
-    private static class RotatingFileLogger extends SyncLogger {
+    @VisibleForTesting
+    static class RotatingFileLogger extends SyncLogger {
         private final Object mLock = new Object();
 
+        /** Taken before {@link #mLock}; serializes flushes, and flushes with dumps and purges. */
+        private final Object mFileLock = new Object();
+
         private final long mKeepAgeMs = TimeUnit.DAYS.toMillis(7);
 
-        private static final SimpleDateFormat sTimestampFormat
-                = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        /** {@link #purgeOldLogs} does nothing if it already ran within this time. */
+        private static final long PURGE_INTERVAL_MS = DateUtils.HOUR_IN_MILLIS;
 
-        private static final SimpleDateFormat sFilenameDateFormat
-                = new SimpleDateFormat("yyyy-MM-dd");
+        private static final int BUFFER_SIZE = 32 * 1024;
+        private static final int FLUSH_SIZE = 16 * 1024;
+        private static final long FLUSH_DELAY_MS = 1000;
 
-        @GuardedBy("mLock")
-        private final Date mCachedDate = new Date();
+        /** Time (long), thread id (int) and message length (int). */
+        private static final int RECORD_HEADER_SIZE = 16;
+
+        private static final String FILE_PREFIX = "synclog-";
+        private static final String FILE_SUFFIX = ".bin";
+        private static final String LEGACY_FILE_SUFFIX = ".log";
 
         @GuardedBy("mLock")
         private final StringBuilder mStringBuilder = new StringBuilder();
 
-        private final File mLogPath;
-
         @GuardedBy("mLock")
-        private long mCurrentLogFileDayTimestamp;
+        private byte[] mBuffer = new byte[BUFFER_SIZE];
 
         @GuardedBy("mLock")
-        private Writer mLogWriter;
+        private int mBufferLength;
 
-        @GuardedBy("mLock")
-        private boolean mErrorShown;
+        /** Swapped with {@link #mBuffer} by a flush. */
+        @GuardedBy("mFileLock")
+        private byte[] mFlushBuffer = new byte[BUFFER_SIZE];
+
+        private final File mLogPath;
+
+        /** The log file for records in [mLogFileStartTime, mLogFileEndTime). */
+        @GuardedBy("mFileLock")
+        private FileOutputStream mLogStream;
+
+        @GuardedBy("mFileLock")
+        private long mLogFileStartTime;
+
+        @GuardedBy("mFileLock")
+        private long mLogFileEndTime;
+
+        @GuardedBy("mFileLock")
+        private long mLastPurgeElapsed = -PURGE_INTERVAL_MS;
+
+        private volatile boolean mErrorShown;
 
         private static final boolean DO_LOGCAT = Log.isLoggable(TAG, Log.DEBUG);
 
         private final MyHandler mHandler;
 
         RotatingFileLogger() {
-            mLogPath = new File(Environment.getDataSystemDirectory(), "syncmanager-log");
-            mHandler = new MyHandler(IoThread.get().getLooper());
+            this(new File(Environment.getDataSystemDirectory(), "syncmanager-log"),
+                    IoThread.get().getLooper());
+        }
+
+        @VisibleForTesting
+        RotatingFileLogger(File logPath, Looper looper) {
+            mLogPath = logPath;
+            mHandler = new MyHandler(looper);
         }
 
         @Override
@@ -176,80 +226,181 @@ public class SyncLogger {
                 return;
             }
             final long now = System.currentTimeMillis();
-            mHandler.log(now, message);
-        }
-
-        void logInner(long now, Object[] message) {
+            final int tid = android.os.Process.myTid();
             synchronized (mLock) {
-                openLogLocked(now);
-                if (mLogWriter == null) {
-                    return; // Couldn't open log file?
+                mStringBuilder.setLength(0);
+                for (Object o : message) {
+                    mStringBuilder.append(o);
                 }
 
-                mStringBuilder.setLength(0);
-                mCachedDate.setTime(now);
-                mStringBuilder.append(sTimestampFormat.format(mCachedDate));
-                mStringBuilder.append(' ');
+                // Also write on logcat.
+                if (DO_LOGCAT) {
+                    Log.d(TAG, mStringBuilder.toString());
+                }
 
-                mStringBuilder.append(android.os.Process.myTid());
-                mStringBuilder.append(' ');
+                // A char takes at most 3 bytes in UTF-8.
+                final int needed = mBufferLength + RECORD_HEADER_SIZE
+                        + mStringBuilder.length() * 3;
+                if (needed > mBuffer.length) {
+                    // The flush is late; grow the buffer rather than block the caller on I/O.
+                    mBuffer = Arrays.copyOf(mBuffer, Math.max(needed, mBuffer.length * 2));
+                }
+                appendRecordLocked(now, tid, mStringBuilder);
 
-                final int messageStart = mStringBuilder.length();
+                if (mBufferLength >= FLUSH_SIZE) {
+                    mHandler.flushNow();
+                } else {
+                    mHandler.flushLater();
+                }
+            }
+        }
 
-                for (Object o : message) {
-                    mStringBuilder.append(o);
+        @GuardedBy("mLock")
+        private void appendRecordLocked(long now, int tid, CharSequence message) {
+            final byte[] buf = mBuffer;
+            int pos = mBufferLength;
+            pos = putInt(buf, pos, (int) (now >>> 32));
+            pos = putInt(buf, pos, (int) now);
+            pos = putInt(buf, pos, tid);
+            final int lengthPos = pos;
+            pos += 4;
+            final int start = pos;
+            for (int i = 0, length = message.length(); i < length; i++) {
+                final char c = message.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xc0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(message.charAt(i + 1))) {
+                    final int cp = Character.toCodePoint(c, message.charAt(++i));
+                    buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = '?';
+                } else {
+                    buf[pos++] = (byte) (0xe0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
                 }
-                mStringBuilder.append('\n');
+            }
+            putInt(buf, lengthPos, pos - start);
+            mBufferLength = pos;
+        }
+
+        private static int putInt(byte[] buf, int pos, int value) {
+            buf[pos] = (byte) (value >>> 24);
+            buf[pos + 1] = (byte) (value >>> 16);
+            buf[pos + 2] = (byte) (value >>> 8);
+            buf[pos + 3] = (byte) value;
+            return pos + 4;
+        }
 
-                try {
-                    mLogWriter.append(mStringBuilder);
-                    mLogWriter.flush();
+        private static int getInt(byte[] buf, int pos) {
+            return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+                    | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+        }
 
-                    // Also write on logcat.
-                    if (DO_LOGCAT) {
-                        Log.d(TAG, mStringBuilder.substring(messageStart));
+        private static long getLong(byte[] buf, int pos) {
+            return ((long) getInt(buf, pos) << 32) | (getInt(buf, pos + 4) & 0xffffffffL);
+        }
+
+        @Override
+        public void flush() {
+            synchronized (mFileLock) {
+                final byte[] records;
+                final int length;
+                synchronized (mLock) {
+                    records = mBuffer;
+                    length = mBufferLength;
+                    mBuffer = mFlushBuffer;
+                    mBufferLength = 0;
+                }
+                mFlushBuffer = records;
+
+                // Write the records of each day to the file of that day.
+                int start = 0;
+                while (start < length) {
+                    final long time = getLong(records, start);
+                    openLogLocked(time);
+                    int end = start;
+                    while (end < length) {
+                        final long recordTime = getLong(records, end);
+                        if (recordTime < mLogFileStartTime || recordTime >= mLogFileEndTime) {
+                            break;
+                        }
+                        end += RECORD_HEADER_SIZE + getInt(records, end + 12);
+                    }
+                    if (mLogStream != null) {
+                        try {
+                            mLogStream.write(records, start, end - start);
+                        } catch (IOException e) {
+                            handleException("Failed to write log", e);
+                        }
                     }
-                } catch (IOException e) {
-                    handleException("Failed to write log", e);
+                    start = end;
+                }
+                if (records.length > BUFFER_SIZE) {
+                    // Don't hold on to a buffer that log() grew while a flush was late.
+                    mFlushBuffer = new byte[BUFFER_SIZE];
                 }
             }
         }
 
-        @GuardedBy("mLock")
+        @GuardedBy("mFileLock")
         private void openLogLocked(long now) {
             // If we already have a log file opened and the date has't changed, just use it.
-            final long day = now % DateUtils.DAY_IN_MILLIS;
-            if ((mLogWriter != null) && (day == mCurrentLogFileDayTimestamp)) {
+            if ((mLogStream != null) && (now >= mLogFileStartTime) && (now < mLogFileEndTime)) {
                 return;
             }
 
             // Otherwise create a new log file.
             closeCurrentLogLocked();
 
-            mCurrentLogFileDayTimestamp = day;
-
-            mCachedDate.setTime(now);
-            final String filename = "synclog-" + sFilenameDateFormat.format(mCachedDate) + ".log";
+            final Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(now);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            mLogFileStartTime = cal.getTimeInMillis();
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+            mLogFileEndTime = cal.getTimeInMillis();
+
+            final String filename = FILE_PREFIX
+                    + new SimpleDateFormat("yyyy-MM-dd").format(new Date(now)) + FILE_SUFFIX;
             final File file = new File(mLogPath, filename);
 
             file.getParentFile().mkdirs();
 
             try {
-                mLogWriter = new FileWriter(file, /* append= */ true);
+                mLogStream = new FileOutputStream(file, /* append= */ true);
             } catch (IOException e) {
                 handleException("Failed to open log file: " + file, e);
             }
         }
 
-        @GuardedBy("mLock")
+        @GuardedBy("mFileLock")
         private void closeCurrentLogLocked() {
-            IoUtils.closeQuietly(mLogWriter);
-            mLogWriter = null;
+            IoUtils.closeQuietly(mLogStream);
+            mLogStream = null;
         }
 
         @Override
         public void purgeOldLogs() {
-            synchronized (mLock) {
+            mHandler.purge();
+        }
+
+        void purgeOldLogsInner() {
+            synchronized (mFileLock) {
+                final long now = SystemClock.elapsedRealtime();
+                if (now - mLastPurgeElapsed < PURGE_INTERVAL_MS) {
+                    return;
+                }
+                mLastPurgeElapsed = now;
                 FileUtils.deleteOlderFiles(mLogPath, /* keepCount= */ 1, mKeepAgeMs);
             }
         }
@@ -261,20 +412,65 @@ public class SyncLogger {
 
         @Override
         public void dumpAll(PrintWriter pw) {
-            synchronized (mLock) {
+            synchronized (mFileLock) {
+                flush();
+
                 final String[] files = mLogPath.list();
                 if (files == null || (files.length == 0)) {
                     return;
                 }
                 Arrays.sort(files);
 
+                final SimpleDateFormat timestampFormat =
+                        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
                 for (String file : files) {
-                    dumpFile(pw, new File(mLogPath, file));
+                    if (file.endsWith(LEGACY_FILE_SUFFIX)) {
+                        dumpTextFile(pw, new File(mLogPath, file));
+                    } else {
+                        dumpFile(pw, new File(mLogPath, file), timestampFormat);
+                    }
                 }
             }
         }
 
-        private void dumpFile(PrintWriter pw, File file) {
+        private void dumpFile(PrintWriter pw, File file, SimpleDateFormat timestampFormat) {
+            Slog.w(TAG, "Dumping " + file);
+            final Date date = new Date();
+
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 32 * 1024))) {
+                byte[] message = new byte[256];
+                while (true) {
+                    final long time;
+                    try {
+                        time = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final int tid = in.readInt();
+                    final int length = in.readInt();
+                    if (length < 0) {
+                        throw new IOException("Corrupt record");
+                    }
+                    if (length > message.length) {
+                        message = new byte[length];
+                    }
+                    in.readFully(message, 0, length);
+
+                    date.setTime(time);
+                    pw.print(timestampFormat.format(date));
+                    pw.print(' ');
+                    pw.print(tid);
+                    pw.print(' ');
+                    pw.println(new String(message, 0, length, StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // E.g. the last record was torn by a crash; say so rather than end silently.
+                pw.println("*** Error reading " + file.getName() + ": " + e);
+            }
+        }
+
+        private void dumpTextFile(PrintWriter pw, File file) {
             Slog.w(TAG, "Dumping " + file);
             final char[] buffer = new char[32 * 1024];
 
@@ -286,26 +482,44 @@ public class SyncLogger {
                     }
                 }
             } catch (IOException e) {
+                pw.println("*** Error reading " + file.getName() + ": " + e);
             }
         }
 
         private class MyHandler extends Handler {
-            public static final int MSG_LOG_ID = 1;
+            public static final int MSG_FLUSH = 1;
+            public static final int MSG_PURGE = 2;
 
             MyHandler(Looper looper) {
                 super(looper);
             }
 
-            public void log(long now, Object[] message) {
-                obtainMessage(MSG_LOG_ID, IntPair.first(now), IntPair.second(now), message)
-                        .sendToTarget();
+            public void flushNow() {
+                removeMessages(MSG_FLUSH);
+                sendEmptyMessage(MSG_FLUSH);
+            }
+
+            public void flushLater() {
+                if (!hasMessages(MSG_FLUSH)) {
+                    sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MS);
+                }
+            }
+
+            public void purge() {
+                if (!hasMessages(MSG_PURGE)) {
+                    sendEmptyMessage(MSG_PURGE);
+                }
             }
 
             @Override
             public void handleMessage(Message msg) {
                 switch (msg.what) {
-                    case MSG_LOG_ID: {
-                        logInner(IntPair.of(msg.arg1, msg.arg2), (Object[]) msg.obj);
+                    case MSG_FLUSH: {
+                        flush();
+                        break;
+                    }
+                    case MSG_PURGE: {
+                        purgeOldLogsInner();
                         break;
                     }
                 }
@@ -69,8 +69,6 @@ import android.content.pm.UserInfo;
 import android.content.pm.UserProperties;
 import android.database.ContentObserver;
 import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.net.TrafficStats;
 import android.os.BatteryStats;
 import android.os.Binder;
 import android.os.Build;
@@ -95,9 +93,11 @@ import android.provider.Settings;
 import android.text.TextUtils;
 import android.text.format.TimeMigrationUtils;
 import android.util.EventLog;
+import android.util.IntArray;
 import android.util.Log;
 import android.util.Pair;
 import android.util.Slog;
+import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 
 import com.android.internal.R;
@@ -138,7 +138,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Random;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -212,6 +211,13 @@ public class SyncManager {
 
     private static final boolean USE_WTF_FOR_ACCOUNT_ERROR = true;
 
+    /**
+     * Range of job ids used for sync jobs. SyncManager jobs are placed in their own namespace, so
+     * there's no chance of conflicting with other parts of the system.
+     */
+    private static final int MIN_SYNC_JOB_ID = 0;
+    private static final int MAX_SYNC_JOB_ID = Integer.MAX_VALUE;
+
     private static final int SYNC_OP_STATE_VALID = 0;
     // "1" used to include errors 3, 4 and 5 but now it's split up.
     private static final int SYNC_OP_STATE_INVALID_NO_ACCOUNT_ACCESS = 2;
@@ -235,8 +241,8 @@ public class SyncManager {
     private volatile AccountAndUser[] mRunningAccounts = INITIAL_ACCOUNTS_ARRAY;
 
     volatile private PowerManager.WakeLock mSyncManagerWakeLock;
-    volatile private boolean mDataConnectionIsConnected = false;
-    private volatile int mNextJobId = 0;
+    /** Whether the device has a connected default network, without asking ConnectivityManager. */
+    private final DataConnectionTracker mDataConnection;
 
     private final NotificationManager mNotificationMgr;
     private final IBatteryStats mBatteryStats;
@@ -246,6 +252,22 @@ public class SyncManager {
 
     protected final ArrayList<ActiveSyncContext> mActiveSyncContexts = Lists.newArrayList();
 
+    /** Index of {@link #mActiveSyncContexts}. Only used on the handler thread. */
+    private final ActiveSyncIndex mActiveSyncIndex = new ActiveSyncIndex();
+
+    /**
+     * All sync operations currently scheduled with JobScheduler. Populated from JobScheduler in
+     * {@link #verifyJobScheduler()} and kept up to date on schedule, cancel and finish.
+     */
+    private final PendingSyncIndex mPendingSyncs = new PendingSyncIndex();
+
+    /**
+     * Job ids of the jobs in SyncManager's namespace and of running syncs. Reconciled with
+     * JobScheduler in {@link #verifyJobScheduler()}.
+     */
+    private final SyncJobIdAllocator mJobIdAllocator =
+            new SyncJobIdAllocator(MIN_SYNC_JOB_ID, MAX_SYNC_JOB_ID);
+
     // Synchronized on "this". Instead of using this directly one should instead call
     // its accessor, getConnManager().
     private ConnectivityManager mConnManagerDoNotUseDirectly;
@@ -259,48 +281,73 @@ public class SyncManager {
 
     private final AppCloningDeviceConfigHelper mAppCloningDeviceConfigHelper;
 
-    private boolean isJobIdInUseLockedH(int jobId, List<JobInfo> pendingJobs) {
-        for (int i = 0, size = pendingJobs.size(); i < size; i++) {
-            JobInfo job = pendingJobs.get(i);
-            if (job.getId() == jobId) {
-                return true;
-            }
-        }
-        for (int i = 0, size = mActiveSyncContexts.size(); i < size; i++) {
-            ActiveSyncContext asc = mActiveSyncContexts.get(i);
-            if (asc.mSyncOperation.jobId == jobId) {
-                return true;
+    private boolean isJobIdInUseLockedH(int jobId) {
+        return mPendingSyncs.contains(jobId) || mActiveSyncIndex.get(jobId) != null;
+    }
+
+    /**
+     * @return an unused job id, or {@link SyncOperation#NO_JOB_ID} if all job ids are in use.
+     */
+    private int getUnusedJobIdH() {
+        verifyJobScheduler();
+        while (true) {
+            final int jobId = mJobIdAllocator.allocate();
+            // The allocator can hand out the id of a sync that's still running after its job
+            // was removed; that id stays allocated until the sync is closed.
+            if (jobId == SyncJobIdAllocator.NO_ID || !isJobIdInUseLockedH(jobId)) {
+                return jobId;
             }
         }
-        return false;
     }
 
-    private int getUnusedJobIdH() {
-        final List<JobInfo> pendingJobs = mJobScheduler.getAllPendingJobs();
-        while (isJobIdInUseLockedH(mNextJobId, pendingJobs)) {
-            // SyncManager jobs are placed in their own namespace. Since there's no chance of
-            // conflicting with other parts of the system, we can just keep incrementing until
-            // we find an unused ID.
-            mNextJobId++;
-        }
-        return mNextJobId;
+    /** Forget a pending sync whose job is gone from JobScheduler and release its job id. */
+    private void removePendingSync(int jobId) {
+        mPendingSyncs.remove(jobId);
+        mJobIdAllocator.release(jobId);
     }
 
     private List<SyncOperation> getAllPendingSyncs() {
         verifyJobScheduler();
-        List<JobInfo> pendingJobs = mJobScheduler.getAllPendingJobs();
-        final int numJobs = pendingJobs.size();
-        final List<SyncOperation> pendingSyncs = new ArrayList<>(numJobs);
-        for (int i = 0; i < numJobs; ++i) {
-            final JobInfo job = pendingJobs.get(i);
-            SyncOperation op = SyncOperation.maybeCreateFromJobExtras(job.getExtras());
-            if (op != null) {
-                pendingSyncs.add(op);
-            } else {
-                Slog.wtf(TAG, "Non-sync job inside of SyncManager's namespace");
+        return mPendingSyncs.getAll();
+    }
+
+    /**
+     * @return the pending syncs whose target matches the given spec. Can have null fields to
+     * indicate all accounts/providers.
+     */
+    private List<SyncOperation> getPendingSyncsMatching(EndPoint spec) {
+        verifyJobScheduler();
+        return mPendingSyncs.getMatching(spec);
+    }
+
+    /**
+     * Bring {@link #mPendingSyncs} back in line with JobScheduler, after JobScheduler started a
+     * job that the index didn't have. Pending syncs whose jobs are gone are dropped and jobs that
+     * aren't indexed are added, so that a stale index can't keep a sync from being scheduled.
+     */
+    private void reconcilePendingSyncsH() {
+        final List<JobInfo> jobs = getJobScheduler().getAllPendingJobs();
+        final SparseBooleanArray scheduled = new SparseBooleanArray(jobs.size());
+        for (int i = 0, size = jobs.size(); i < size; i++) {
+            final JobInfo job = jobs.get(i);
+            scheduled.put(job.getId(), true);
+            if (!mPendingSyncs.contains(job.getId())) {
+                final SyncOperation op = SyncOperation.maybeCreateFromJobExtras(job.getExtras());
+                if (op != null) {
+                    mLogger.log("Indexing unknown pending sync ", op);
+                    mPendingSyncs.put(op);
+                    mJobIdAllocator.markUsed(op.jobId);
+                }
+            }
+        }
+        final List<SyncOperation> ops = mPendingSyncs.getAll();
+        for (int i = 0, size = ops.size(); i < size; i++) {
+            final SyncOperation op = ops.get(i);
+            if (!scheduled.get(op.jobId)) {
+                mLogger.log("Dropping stale pending sync ", op);
+                removePendingSync(op.jobId);
             }
         }
-        return pendingSyncs;
     }
 
     private final BroadcastReceiver mAccountsUpdatedReceiver = new BroadcastReceiver() {
@@ -363,33 +410,25 @@ public class SyncManager {
             new BroadcastReceiver() {
                 @Override
                 public void onReceive(Context context, Intent intent) {
-                    final boolean wasConnected = mDataConnectionIsConnected;
-
                     // Don't use the intent to figure out if network is connected, just check
                     // ConnectivityManager directly.
-                    mDataConnectionIsConnected = readDataConnectionState();
-                    if (mDataConnectionIsConnected) {
-                        if (!wasConnected) {
-                            if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                                Slog.v(TAG, "Reconnection detected: clearing all backoffs");
-                            }
-                            // Note the location of this code was wrong from nyc to oc; fixed in DR.
-                            clearAllBackoffs("network reconnect");
-                        }
-                    }
+                    mDataConnection.refresh();
                 }
             };
 
+    private void onDataReconnected() {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Slog.v(TAG, "Reconnection detected: clearing all backoffs");
+        }
+        // Note the location of this code was wrong from nyc to oc; fixed in DR.
+        clearAllBackoffs("network reconnect");
+    }
+
     private void clearAllBackoffs(String why) {
         mSyncStorageEngine.clearAllBackoffsLocked();
         rescheduleSyncs(EndPoint.USER_ALL_PROVIDER_ALL_ACCOUNTS_ALL, why);
     }
 
-    private boolean readDataConnectionState() {
-        NetworkInfo networkInfo = getConnectivityManager().getActiveNetworkInfo();
-        return (networkInfo != null) && networkInfo.isConnected();
-    }
-
     private String getJobStats() {
         JobSchedulerInternal js = LocalServices.getService(JobSchedulerInternal.class);
         return "JobStats: "
@@ -406,6 +445,7 @@ public class SyncManager {
 
                     mLogger.log(getJobStats());
                     mLogger.log("Shutting down.");
+                    mLogger.flush();
                 }
             };
 
@@ -439,8 +479,15 @@ public class SyncManager {
 
     private final HandlerThread mThread;
     private final SyncHandler mSyncHandler;
+
+    /** Only used on the handler thread. */
+    private final SyncProgressMonitor mProgressMonitor;
+
     private final SyncManagerConstants mConstants;
 
+    /** Only used on the handler thread, see {@link #getBackoffPolicy()}. */
+    private SyncBackoffPolicy mBackoffPolicy;
+
     @GuardedBy("mUnlockedUsers")
     private final SparseBooleanArray mUnlockedUsers = new SparseBooleanArray();
 
@@ -458,18 +505,17 @@ public class SyncManager {
      * Cancel all unnecessary jobs. This function will be run once after every boot.
      */
     private void cleanupJobs() {
-        // O(n^2) in number of jobs, so we run this on the background thread.
         mSyncHandler.postAtFrontOfQueue(new Runnable() {
             @Override
             public void run() {
                 List<SyncOperation> ops = getAllPendingSyncs();
-                Set<String> cleanedKeys = new HashSet<String>();
+                Set<SyncOperation.Key> cleanedKeys = new HashSet<>();
                 for (SyncOperation opx: ops) {
                     if (cleanedKeys.contains(opx.key)) {
                         continue;
                     }
                     cleanedKeys.add(opx.key);
-                    for (SyncOperation opy: ops) {
+                    for (SyncOperation opy: mPendingSyncs.getByKey(opx.key)) {
                         if (opx == opy) {
                             continue;
                         }
@@ -568,9 +614,11 @@ public class SyncManager {
 
             int numPersistedPeriodicSyncs = 0;
             int numPersistedOneshotSyncs = 0;
+            final List<SyncOperation> pendingSyncs = new ArrayList<>(pendingJobs.size());
             for (JobInfo job : pendingJobs) {
                 SyncOperation op = SyncOperation.maybeCreateFromJobExtras(job.getExtras());
                 if (op != null) {
+                    pendingSyncs.add(op);
                     if (op.isPeriodic) {
                         numPersistedPeriodicSyncs++;
                     } else {
@@ -583,6 +631,12 @@ public class SyncManager {
                     Slog.wtf(TAG, "Non-sync job inside of SyncManager namespace");
                 }
             }
+            mPendingSyncs.reset(pendingSyncs);
+            final IntArray usedJobIds = new IntArray(pendingJobs.size());
+            for (int i = 0, size = pendingJobs.size(); i < size; i++) {
+                usedJobIds.add(pendingJobs.get(i).getId());
+            }
+            mJobIdAllocator.reset(usedJobIds);
             final String summary = "Loaded persisted syncs: "
                     + numPersistedPeriodicSyncs + " periodic syncs, "
                     + numPersistedOneshotSyncs + " oneshot syncs, "
@@ -637,8 +691,7 @@ public class SyncManager {
 
         mLogger = SyncLogger.getInstance();
 
-        SyncStorageEngine.init(context, BackgroundThread.get().getLooper());
-        mSyncStorageEngine = SyncStorageEngine.getSingleton();
+        mSyncStorageEngine = createSyncStorageEngine(context);
         mSyncStorageEngine.setOnSyncRequestListener(new OnSyncRequestListener() {
             @Override
             public void onSyncRequest(SyncStorageEngine.EndPoint info, int reason, Bundle extras,
@@ -664,11 +717,14 @@ public class SyncManager {
             }
         });
 
-        mSyncAdapters = new SyncAdaptersCache(mContext);
+        mSyncAdapters = createSyncAdaptersCache(mContext);
 
         mThread = new HandlerThread("SyncManager", android.os.Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mSyncHandler = new SyncHandler(mThread.getLooper());
+        mProgressMonitor = new SyncProgressMonitor(mSyncHandler, SyncHandler.MESSAGE_MONITOR_SYNC,
+                SyncProgressMonitor.TRAFFIC_STATS, SYNC_MONITOR_WINDOW_LENGTH_MILLIS,
+                SYNC_MONITOR_PROGRESS_THRESHOLD_BYTES);
 
         mSyncAdapters.setListener(new RegisteredServicesCacheListener<SyncAdapterType>() {
             @Override
@@ -683,11 +739,14 @@ public class SyncManager {
             }
         }, mSyncHandler);
 
-        mConstants = new SyncManagerConstants(context);
+        mConstants = new SyncManagerConstants(context, this::onConstantsChanged);
         mAppCloningDeviceConfigHelper = AppCloningDeviceConfigHelper.getInstance(context);
 
+        mDataConnection = new DataConnectionTracker(getConnectivityManager(),
+                this::onDataReconnected);
         IntentFilter intentFilter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
         context.registerReceiver(mConnectivityIntentReceiver, intentFilter);
+        mDataConnection.register(mSyncHandler);
 
         intentFilter = new IntentFilter(Intent.ACTION_SHUTDOWN);
         intentFilter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
@@ -791,6 +850,35 @@ public class SyncManager {
         return LocalServices.getService(AccountManagerInternal.class);
     }
 
+    @VisibleForTesting
+    protected SyncStorageEngine createSyncStorageEngine(Context context) {
+        SyncStorageEngine.init(context, BackgroundThread.get().getLooper());
+        return SyncStorageEngine.getSingleton();
+    }
+
+    @VisibleForTesting
+    protected SyncAdaptersCache createSyncAdaptersCache(Context context) {
+        return new SyncAdaptersCache(context);
+    }
+
+    /** Acquires the sync loop wake lock, which is held while each handler message runs. */
+    @VisibleForTesting
+    protected void acquireSyncLoopWakeLock() {
+        mSyncManagerWakeLock.acquire();
+    }
+
+    @VisibleForTesting
+    Looper getSyncLooper() {
+        return mThread.getLooper();
+    }
+
+    @VisibleForTesting
+    void setRunningAccountsForTest(AccountAndUser[] accounts) {
+        synchronized (mAccountsLock) {
+            mRunningAccounts = accounts;
+        }
+    }
+
     public void onStartUser(int userId) {
         // Log on the handler to avoid slowing down device boot.
         mSyncHandler.post(() -> mLogger.log("onStartUser: user=", userId));
@@ -854,19 +942,6 @@ public class SyncManager {
         final ContentResolver resolver = mContext.getContentResolver();
         return (Settings.Global.getInt(resolver, Settings.Global.DEVICE_PROVISIONED, 0) != 0);
     }
-    /**
-     * Return a random value v that satisfies minValue <= v < maxValue. The difference between
-     * maxValue and minValue must be less than Integer.MAX_VALUE.
-     */
-    private long jitterize(long minValue, long maxValue) {
-        Random random = new Random(SystemClock.elapsedRealtime());
-        long spread = maxValue - minValue;
-        if (spread > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException("the difference between the maxValue and the "
-                    + "minValue must be less than " + Integer.MAX_VALUE);
-        }
-        return minValue + random.nextInt((int)spread);
-    }
 
     public SyncStorageEngine getSyncStorageEngine() {
         return mSyncStorageEngine;
@@ -951,14 +1026,8 @@ public class SyncManager {
     }
 
     private void setAuthorityPendingState(EndPoint info) {
-        List<SyncOperation> ops = getAllPendingSyncs();
-        for (SyncOperation op: ops) {
-            if (!op.isPeriodic && op.target.matchesSpec(info)) {
-                getSyncStorageEngine().markPending(info, true);
-                return;
-            }
-        }
-        getSyncStorageEngine().markPending(info, false);
+        verifyJobScheduler();
+        getSyncStorageEngine().markPending(info, mPendingSyncs.hasOneOffMatching(info));
     }
 
     /**
@@ -1082,6 +1151,11 @@ public class SyncManager {
             }
         }
 
+        // The authorities that have sync adapters only depend on the user, so compile them once
+        // per user rather than once per account.
+        final SparseArray<HashSet<String>> syncableAuthoritiesByUser = new SparseArray<>();
+        // All resulting operations are handed to the handler in a single message.
+        final ArrayList<SyncOperation> syncOperations = new ArrayList<>();
         for (AccountAndUser account : accounts) {
             // If userId is specified, do not sync accounts of other users
             if (userId >= UserHandle.USER_SYSTEM && account.userId >= UserHandle.USER_SYSTEM
@@ -1090,19 +1164,26 @@ public class SyncManager {
             }
             // Compile a list of authorities that have sync adapters.
             // For each authority sync each account that matches a sync adapter.
-            final HashSet<String> syncableAuthorities = new HashSet<String>();
-            for (RegisteredServicesCache.ServiceInfo<SyncAdapterType> syncAdapter :
-                    mSyncAdapters.getAllServices(account.userId)) {
-                syncableAuthorities.add(syncAdapter.type.authority);
+            HashSet<String> userAuthorities = syncableAuthoritiesByUser.get(account.userId);
+            if (userAuthorities == null) {
+                userAuthorities = new HashSet<String>();
+                for (RegisteredServicesCache.ServiceInfo<SyncAdapterType> syncAdapter :
+                        mSyncAdapters.getAllServices(account.userId)) {
+                    userAuthorities.add(syncAdapter.type.authority);
+                }
+                syncableAuthoritiesByUser.put(account.userId, userAuthorities);
             }
 
             // If the url was specified then replace the list of authorities
             // with just this authority or clear it if this authority isn't
             // syncable.
-            if (requestedAuthority != null) {
-                final boolean hasSyncAdapter = syncableAuthorities.contains(requestedAuthority);
-                syncableAuthorities.clear();
-                if (hasSyncAdapter) syncableAuthorities.add(requestedAuthority);
+            final Collection<String> syncableAuthorities;
+            if (requestedAuthority == null) {
+                syncableAuthorities = userAuthorities;
+            } else if (userAuthorities.contains(requestedAuthority)) {
+                syncableAuthorities = Collections.singletonList(requestedAuthority);
+            } else {
+                syncableAuthorities = Collections.emptyList();
             }
 
             for (String authority : syncableAuthorities) {
@@ -1200,30 +1281,29 @@ public class SyncManager {
                         mLogger.log("scheduleSync: schedule initialisation sync ",
                                 account, " ", authority);
 
-                        postScheduleSyncMessage(
+                        syncOperations.add(
                                 new SyncOperation(account.account, account.userId,
                                         owningUid, owningPackage, reason, source,
                                         authority, newExtras, allowParallelSyncs,
-                                        syncExemptionFlag),
-                                minDelayMillis
-                        );
+                                        syncExemptionFlag));
                     }
                 } else if (targetSyncState == AuthorityInfo.UNDEFINED
                         || targetSyncState == isSyncable) {
                     mLogger.log("scheduleSync: scheduling sync ",
                             account, " ", authority);
-                    postScheduleSyncMessage(
+                    syncOperations.add(
                             new SyncOperation(account.account, account.userId,
                                     owningUid, owningPackage, reason, source,
-                                    authority, extras, allowParallelSyncs, syncExemptionFlag),
-                            minDelayMillis
-                    );
+                                    authority, extras, allowParallelSyncs, syncExemptionFlag));
                 } else {
                     mLogger.log("scheduleSync: not handling ",
                             account, " ", authority);
                 }
             }
         }
+        if (!syncOperations.isEmpty()) {
+            postScheduleSyncMessage(syncOperations, minDelayMillis);
+        }
     }
 
     public int computeSyncable(Account account, int userId, String authority,
@@ -1274,13 +1354,10 @@ public class SyncManager {
 
     private void removeSyncsForAuthority(EndPoint info, String why) {
         mLogger.log("removeSyncsForAuthority: ", info, why);
-        verifyJobScheduler();
-        List<SyncOperation> ops = getAllPendingSyncs();
+        List<SyncOperation> ops = getPendingSyncsMatching(info);
         for (SyncOperation op: ops) {
-            if (op.target.matchesSpec(info)) {
-                mLogger.log("canceling: ", op);
-                cancelJob(op, why);
-            }
+            mLogger.log("canceling: ", op);
+            cancelJob(op, why);
         }
     }
 
@@ -1310,11 +1387,11 @@ public class SyncManager {
      * Get a list of periodic syncs corresponding to the given target.
      */
     public List<PeriodicSync> getPeriodicSyncs(EndPoint target) {
-        List<SyncOperation> ops = getAllPendingSyncs();
+        List<SyncOperation> ops = getPendingSyncsMatching(target);
         List<PeriodicSync> periodicSyncs = new ArrayList<PeriodicSync>();
 
         for (SyncOperation op: ops) {
-            if (op.isPeriodic && op.target.matchesSpec(target)) {
+            if (op.isPeriodic) {
                 periodicSyncs.add(new PeriodicSync(op.target.account, op.target.provider,
                         op.getClonedExtras(), op.periodMillis / 1000, op.flexMillis / 1000));
             }
@@ -1409,37 +1486,19 @@ public class SyncManager {
         mSyncHandler.sendMessage(msg);
     }
 
-    /**
-     * Post a delayed message that will monitor the given sync context by periodically checking how
-     * much network has been used by the uid.
-     */
-    private void postMonitorSyncProgressMessage(ActiveSyncContext activeSyncContext) {
-        if (Log.isLoggable(TAG, Log.VERBOSE)) {
-            Slog.v(TAG, "posting MESSAGE_SYNC_MONITOR in " +
-                    (SYNC_MONITOR_WINDOW_LENGTH_MILLIS/1000) + "s");
-        }
-
-        activeSyncContext.mBytesTransferredAtLastPoll =
-                getTotalBytesTransferredByUid(activeSyncContext.mSyncAdapterUid);
-        activeSyncContext.mLastPolledTimeElapsed = SystemClock.elapsedRealtime();
-        Message monitorMessage =
-                mSyncHandler.obtainMessage(
-                        SyncHandler.MESSAGE_MONITOR_SYNC,
-                        activeSyncContext);
-        mSyncHandler.sendMessageDelayed(monitorMessage, SYNC_MONITOR_WINDOW_LENGTH_MILLIS);
-    }
-
     private void postScheduleSyncMessage(SyncOperation syncOperation, long minDelayMillis) {
-        ScheduleSyncMessagePayload payload =
-                new ScheduleSyncMessagePayload(syncOperation, minDelayMillis);
-        mSyncHandler.obtainMessage(mSyncHandler.MESSAGE_SCHEDULE_SYNC, payload).sendToTarget();
+        postScheduleSyncMessage(Collections.singletonList(syncOperation), minDelayMillis);
     }
 
     /**
-     * Monitor sync progress by calculating how many bytes it is managing to send to and fro.
+     * Schedule all of the given sync operations from a single handler message, rather than
+     * posting one message per operation.
      */
-    private long getTotalBytesTransferredByUid(int uid) {
-        return (TrafficStats.getUidRxBytes(uid) + TrafficStats.getUidTxBytes(uid));
+    private void postScheduleSyncMessage(List<SyncOperation> syncOperations,
+            long minDelayMillis) {
+        ScheduleSyncMessagePayload payload =
+                new ScheduleSyncMessagePayload(syncOperations, minDelayMillis);
+        mSyncHandler.obtainMessage(mSyncHandler.MESSAGE_SCHEDULE_SYNC, payload).sendToTarget();
     }
 
     /**
@@ -1473,11 +1532,11 @@ public class SyncManager {
     }
 
     private static class ScheduleSyncMessagePayload {
-        final SyncOperation syncOperation;
+        final List<SyncOperation> syncOperations;
         final long minDelayMillis;
 
-        ScheduleSyncMessagePayload(SyncOperation syncOperation, long minDelayMillis) {
-            this.syncOperation = syncOperation;
+        ScheduleSyncMessagePayload(List<SyncOperation> syncOperations, long minDelayMillis) {
+            this.syncOperations = syncOperations;
             this.minDelayMillis = minDelayMillis;
         }
     }
@@ -1491,11 +1550,23 @@ public class SyncManager {
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
             Slog.v(TAG, "Clearing backoffs for " + target);
         }
-        mSyncStorageEngine.setBackoff(target,
+        getBackoffPolicy().onBackoffCleared(target, SystemClock.elapsedRealtime());
+        if (mSyncStorageEngine.setBackoff(target,
                 SyncStorageEngine.NOT_IN_BACKOFF_MODE,
-                SyncStorageEngine.NOT_IN_BACKOFF_MODE);
+                SyncStorageEngine.NOT_IN_BACKOFF_MODE)) {
+            rescheduleSyncs(target, why);
+        }
+    }
+
+    /** Called on the background thread when {@link #mConstants} have been (re)read. */
+    private void onConstantsChanged() {
+        mSyncStorageEngine.setMaxSyncHistory(mConstants.getMaxSyncHistory());
+    }
 
-        rescheduleSyncs(target, why);
+    /** @return the backoff policy selected by {@link #mConstants}. */
+    private SyncBackoffPolicy getBackoffPolicy() {
+        mBackoffPolicy = SyncBackoffPolicy.select(mBackoffPolicy, mConstants);
+        return mBackoffPolicy;
     }
 
     private void increaseBackoffSetting(EndPoint target) {
@@ -1503,7 +1574,7 @@ public class SyncManager {
 
         final Pair<Long, Long> previousSettings =
                 mSyncStorageEngine.getBackoff(target);
-        long newDelayInMs = -1;
+        long previousDelayInMs = -1;
         if (previousSettings != null) {
             // Don't increase backoff before current backoff is expired. This will happen for op's
             // with ignoreBackoff set.
@@ -1514,22 +1585,11 @@ public class SyncManager {
                 }
                 return;
             }
-            // Subsequent delays are the double of the previous delay.
-            newDelayInMs =
-                    (long) (previousSettings.second * mConstants.getRetryTimeIncreaseFactor());
-        }
-        if (newDelayInMs <= 0) {
-            // The initial delay is the jitterized INITIAL_SYNC_RETRY_TIME_IN_MS.
-            final long initialRetryMs = mConstants.getInitialSyncRetryTimeInSeconds() * 1000;
-            newDelayInMs = jitterize(initialRetryMs, (long)(initialRetryMs * 1.1));
-        }
-
-        // Cap the delay.
-        final long maxSyncRetryTimeInSeconds = mConstants.getMaxSyncRetryTimeInSeconds();
-
-        if (newDelayInMs > maxSyncRetryTimeInSeconds * 1000) {
-            newDelayInMs = maxSyncRetryTimeInSeconds * 1000;
+            previousDelayInMs = previousSettings.second;
         }
+        // The policy caps the delay.
+        final long newDelayInMs =
+                getBackoffPolicy().getNextDelay(target, previousDelayInMs, now);
 
         final long backoff = now + newDelayInMs;
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
@@ -1546,15 +1606,18 @@ public class SyncManager {
     private void rescheduleSyncs(EndPoint target, String why) {
         mLogger.log("rescheduleSyncs() ep=", target, " why=", why);
 
-        List<SyncOperation> ops = getAllPendingSyncs();
-        int count = 0;
+        List<SyncOperation> ops = getPendingSyncsMatching(target);
+        final ArrayList<SyncOperation> toReschedule = new ArrayList<>();
         for (SyncOperation op: ops) {
-            if (!op.isPeriodic && op.target.matchesSpec(target)) {
-                count++;
+            if (!op.isPeriodic) {
                 cancelJob(op, why);
-                postScheduleSyncMessage(op, 0 /* min delay */);
+                toReschedule.add(op);
             }
         }
+        final int count = toReschedule.size();
+        if (count > 0) {
+            postScheduleSyncMessage(toReschedule, 0 /* min delay */);
+        }
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
             Slog.v(TAG, "Rescheduled " + count + " syncs for " + target);
         }
@@ -1569,7 +1632,9 @@ public class SyncManager {
         } else {
             newDelayUntilTime = 0;
         }
-        mSyncStorageEngine.setDelayUntilTime(target, newDelayUntilTime);
+        if (!mSyncStorageEngine.setDelayUntilTime(target, newDelayUntilTime)) {
+            return;
+        }
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
             Slog.v(TAG, "Delay Until time set to " + newDelayUntilTime + " for " + target);
         }
@@ -1577,16 +1642,7 @@ public class SyncManager {
     }
 
     private boolean isAdapterDelayed(EndPoint target) {
-        long now = SystemClock.elapsedRealtime();
-        Pair<Long, Long> backoff = mSyncStorageEngine.getBackoff(target);
-        if (backoff != null && backoff.first != SyncStorageEngine.NOT_IN_BACKOFF_MODE
-                && backoff.first > now) {
-            return true;
-        }
-        if (mSyncStorageEngine.getDelayUntilTime(target) > now) {
-            return true;
-        }
-        return false;
+        return mSyncStorageEngine.getNextEligibleTime(target) > SystemClock.elapsedRealtime();
     }
 
     /**
@@ -1606,7 +1662,8 @@ public class SyncManager {
         scheduleSyncOperationH(syncOperation, 0L);
     }
 
-    private void scheduleSyncOperationH(SyncOperation syncOperation, long minDelay) {
+    @VisibleForTesting
+    void scheduleSyncOperationH(SyncOperation syncOperation, long minDelay) {
         final boolean isLoggable = Log.isLoggable(TAG, Log.VERBOSE);
         if (syncOperation == null) {
             Slog.e(TAG, "Can't schedule null sync operation.");
@@ -1652,7 +1709,7 @@ public class SyncManager {
             int inheritedSyncExemptionFlag = ContentResolver.SYNC_EXEMPTION_NONE;
 
             // Check currently running syncs
-            for (ActiveSyncContext asc: mActiveSyncContexts) {
+            for (ActiveSyncContext asc: mActiveSyncIndex.getByEndPoint(syncOperation.target)) {
                 if (asc.mSyncOperation.key.equals(syncOperation.key)) {
                     if (isLoggable) {
                         Log.v(TAG, "Duplicate sync is already running. Not scheduling "
@@ -1665,7 +1722,8 @@ public class SyncManager {
             int duplicatesCount = 0;
             long now = SystemClock.elapsedRealtime();
             syncOperation.expectedRuntime = now + minDelay;
-            List<SyncOperation> pending = getAllPendingSyncs();
+            verifyJobScheduler();
+            List<SyncOperation> pending = mPendingSyncs.getByKey(syncOperation.key);
             SyncOperation syncToRun = syncOperation;
             for (SyncOperation op : pending) {
                 if (op.isPeriodic) {
@@ -1722,6 +1780,7 @@ public class SyncManager {
             }
             if (syncToRun != syncOperation) {
                 // Don't schedule because a duplicate sync with earlier expected runtime exists.
+                // syncToRun was verified to still be scheduled above.
                 if (isLoggable) {
                     Slog.v(TAG, "Not scheduling because a duplicate exists.");
                 }
@@ -1741,6 +1800,10 @@ public class SyncManager {
         // Syncs that are re-scheduled shouldn't get a new job id.
         if (syncOperation.jobId == SyncOperation.NO_JOB_ID) {
             syncOperation.jobId = getUnusedJobIdH();
+            if (syncOperation.jobId == SyncOperation.NO_JOB_ID) {
+                Slog.wtf(TAG, "No sync job ids left, dropping " + logSafe(syncOperation));
+                return;
+            }
         }
 
         if (isLoggable) {
@@ -1824,6 +1887,14 @@ public class SyncManager {
             Slog.e(TAG, "Failed to schedule job for " + syncOperation.owningPackage);
             // TODO: notify AppStandbyController that the sync isn't actually scheduled so the
             // bucket doesn't stay elevated
+            if (!mPendingSyncs.contains(syncOperation.jobId)) {
+                mJobIdAllocator.release(syncOperation.jobId);
+            }
+        } else {
+            // Rescheduled syncs keep their job id, which may have been released when the old
+            // job was cancelled.
+            mJobIdAllocator.markUsed(syncOperation.jobId);
+            mPendingSyncs.put(syncOperation);
         }
     }
 
@@ -1833,9 +1904,9 @@ public class SyncManager {
      * have null account/provider info to specify all accounts/providers.
      */
     public void clearScheduledSyncOperations(SyncStorageEngine.EndPoint info) {
-        List<SyncOperation> ops = getAllPendingSyncs();
+        List<SyncOperation> ops = getPendingSyncsMatching(info);
         for (SyncOperation op: ops) {
-            if (!op.isPeriodic && op.target.matchesSpec(info)) {
+            if (!op.isPeriodic) {
                 cancelJob(op, "clearScheduledSyncOperations");
                 getSyncStorageEngine().markPending(op.target, false);
             }
@@ -1850,9 +1921,9 @@ public class SyncManager {
      * @param extras extras bundle to uniquely identify sync.
      */
     public void cancelScheduledSyncOperation(SyncStorageEngine.EndPoint info, Bundle extras) {
-        List<SyncOperation> ops = getAllPendingSyncs();
+        List<SyncOperation> ops = getPendingSyncsMatching(info);
         for (SyncOperation op: ops) {
-            if (!op.isPeriodic && op.target.matchesSpec(info)
+            if (!op.isPeriodic
                     && op.areExtrasEqual(extras, /*includeSyncSettings=*/ false)) {
                 cancelJob(op, "cancelScheduledSyncOperation");
             }
@@ -1871,7 +1942,7 @@ public class SyncManager {
             Log.d(TAG, "encountered error(s) during the sync: " + syncResult + ", " + operation);
         }
 
-        operation.enableBackoff();
+        operation = operation.withBackoff();
         // Never run a rescheduled requested-EJ-sync as an EJ.
         operation.scheduleEjAsRegularJob = true;
 
@@ -1885,7 +1956,7 @@ public class SyncManager {
             }
         } else if (operation.isUpload() && !syncResult.syncAlreadyInProgress) {
             // If this was an upward sync then schedule a two-way sync immediately.
-            operation.enableTwoWaySync();
+            operation = operation.asTwoWaySync();
             if (isLoggable) {
                 Log.d(TAG, "retrying sync operation as a two-way sync because an upload-only sync "
                         + "encountered an error: " + operation);
@@ -2043,6 +2114,24 @@ public class SyncManager {
             mSyncWakeLock.acquire();
         }
 
+        /** Only for tests. Doesn't hold a wakelock, so it must not be closed. */
+        @VisibleForTesting
+        ActiveSyncContext(SyncOperation syncOperation) {
+            this(syncOperation, Process.INVALID_UID);
+        }
+
+        /** Only for tests. Doesn't hold a wakelock, so it must not be closed. */
+        @VisibleForTesting
+        ActiveSyncContext(SyncOperation syncOperation, int syncAdapterUid) {
+            super();
+            mSyncAdapterUid = syncAdapterUid;
+            mSyncOperation = syncOperation;
+            mHistoryRowId = 0;
+            mStartTime = SystemClock.elapsedRealtime();
+            mTimeoutStartTime = mStartTime;
+            mSyncWakeLock = null;
+        }
+
         public void sendHeartbeat() {
             // Heartbeats are no longer used.
         }
@@ -2295,7 +2384,7 @@ public class SyncManager {
     protected void dumpSyncState(PrintWriter pw, SyncAdapterStateFetcher buckets) {
         final StringBuilder sb = new StringBuilder();
 
-        pw.print("Data connected: "); pw.println(mDataConnectionIsConnected);
+        pw.print("Data connected: "); pw.println(mDataConnection.isConnected());
         pw.print("Battery saver: ");
         pw.println((mPowerManager != null) && mPowerManager.isPowerSaveMode());
 
@@ -2374,6 +2463,8 @@ public class SyncManager {
         }
         pw.println();
 
+        mPendingSyncs.dump(pw);
+        mJobIdAllocator.dump(pw);
         dumpPendingSyncs(pw, buckets);
         dumpPeriodicSyncs(pw, buckets);
 
@@ -2504,6 +2595,8 @@ public class SyncManager {
         pw.println("Per Adapter History");
         pw.println("(SERVER is now split up to FEED and OTHER)");
 
+        final int today = SyncStorageEngine.getCurrentDay(System.currentTimeMillis());
+
         for (int i = 0; i < statuses.size(); i++) {
             final Pair<EndPoint, SyncStatusInfo> event = statuses.get(i);
 
@@ -2540,6 +2633,17 @@ public class SyncManager {
             if (event.second.getEventCount() == 0) {
                 pw.println("      N/A");
             }
+
+            final SyncStorageEngine.DayStats[] dayStats =
+                    mSyncStorageEngine.getDayStatistics(event.first);
+            if (dayStats != null && dayStats[0] != null) {
+                pw.println("    Daily stats since boot:");
+                for (SyncStorageEngine.DayStats ds : dayStats) {
+                    if (ds == null) break;
+                    pw.print("      Day-"); pw.print(today - ds.day); pw.print(":  ");
+                    dumpDayStatistic(pw, ds);
+                }
+            }
         }
     }
 
@@ -3083,7 +3187,7 @@ public class SyncManager {
             // TODO Do we really need this wake lock?? If we actually needed it, this is probably
             // not the best place to acquire the lock -- it's probably too late, because the device
             // could have gone to sleep before we reach here.
-            mSyncManagerWakeLock.acquire();
+            acquireSyncLoopWakeLock();
             try {
                 handleSyncMessage(msg);
             } finally {
@@ -3095,7 +3199,6 @@ public class SyncManager {
             final boolean isLoggable = Log.isLoggable(TAG, Log.VERBOSE);
 
             try {
-                mDataConnectionIsConnected = readDataConnectionState();
                 switch (msg.what) {
                     case MESSAGE_ACCOUNTS_UPDATED:
                         if (Log.isLoggable(TAG, Log.VERBOSE)) {
@@ -3107,12 +3210,15 @@ public class SyncManager {
                     case MESSAGE_SCHEDULE_SYNC:
                         ScheduleSyncMessagePayload syncPayload =
                                 (ScheduleSyncMessagePayload) msg.obj;
-                        SyncOperation op = syncPayload.syncOperation;
-                        scheduleSyncOperationH(op, syncPayload.minDelayMillis);
+                        for (int i = 0, size = syncPayload.syncOperations.size(); i < size;
+                                i++) {
+                            scheduleSyncOperationH(syncPayload.syncOperations.get(i),
+                                    syncPayload.minDelayMillis);
+                        }
                         break;
 
                     case MESSAGE_START_SYNC:
-                        op = (SyncOperation) msg.obj;
+                        SyncOperation op = (SyncOperation) msg.obj;
                         startSyncH(op);
                         break;
 
@@ -3136,6 +3242,14 @@ public class SyncManager {
                             if (reschedule) {
                                 deferStoppedSyncH(op, 0);
                             }
+                        } else if (!op.isPeriodic) {
+                            // The job was stopped before the sync started. onStopJob() returned
+                            // false, so JobScheduler won't run this one-off job again. If it was
+                            // canceled, it may have already been replaced under the same id.
+                            if (msg.arg1 != 0
+                                    || getJobScheduler().getPendingJob(op.jobId) == null) {
+                                removePendingSync(op.jobId);
+                            }
                         }
                         break;
 
@@ -3233,13 +3347,11 @@ public class SyncManager {
                     }
 
                     case SyncHandler.MESSAGE_MONITOR_SYNC:
-                        ActiveSyncContext monitoredSyncContext = (ActiveSyncContext) msg.obj;
                         if (isLoggable) {
-                            Log.d(TAG, "handleSyncHandlerMessage: MESSAGE_MONITOR_SYNC: " +
-                                    monitoredSyncContext.mSyncOperation.target);
+                            Log.d(TAG, "handleSyncHandlerMessage: MESSAGE_MONITOR_SYNC");
                         }
-
-                        if (isSyncNotUsingNetworkH(monitoredSyncContext)) {
+                        for (ActiveSyncContext monitoredSyncContext
+                                : mProgressMonitor.checkProgress()) {
                             Log.w(TAG, String.format(
                                     "Detected sync making no progress for %s. cancelling.",
                                     logSafe(monitoredSyncContext)));
@@ -3248,9 +3360,6 @@ public class SyncManager {
                                     "no network activity");
                             runSyncFinishedOrCanceledH(
                                     null /* cancel => no result */, monitoredSyncContext);
-                        } else {
-                            // Repost message to check again.
-                            postMonitorSyncProgressMessage(monitoredSyncContext);
                         }
                         break;
 
@@ -3320,16 +3429,18 @@ public class SyncManager {
 
             SyncJobService.markSyncStarted(op.jobId);
 
+            verifyJobScheduler();
+            if (!mPendingSyncs.contains(op.jobId)) {
+                // Every job JobScheduler runs should be in the index.
+                reconcilePendingSyncsH();
+            }
+
             if (op.isPeriodic) {
                 // Don't allow this periodic to run if a previous instance failed and is currently
                 // scheduled according to some backoff criteria.
-                List<SyncOperation> ops = getAllPendingSyncs();
-                for (SyncOperation syncOperation: ops) {
-                    if (syncOperation.sourcePeriodicId == op.jobId) {
-                        SyncJobService.callJobFinished(op.jobId, false,
-                                "periodic sync, pending");
-                        return;
-                    }
+                if (!mPendingSyncs.getBySourcePeriodicId(op.jobId).isEmpty()) {
+                    SyncJobService.callJobFinished(op.jobId, false, "periodic sync, pending");
+                    return;
                 }
                 // Don't allow this periodic to run if a previous instance failed and is currently
                 // executing according to some backoff criteria.
@@ -3348,48 +3459,50 @@ public class SyncManager {
             }
 
             // Check for conflicting syncs.
-            for (ActiveSyncContext asc: mActiveSyncContexts) {
-                if (asc.mSyncOperation.isConflict(op)) {
-                    // If the provided SyncOperation conflicts with a running one, the lower
-                    // priority sync is pre-empted.
-                    if (asc.mSyncOperation.getJobBias() >= op.getJobBias()) {
-                        if (isLoggable) {
-                            Slog.v(TAG, "Rescheduling sync due to conflict " + op.toString());
-                        }
-                        deferSyncH(op, SYNC_DELAY_ON_CONFLICT, "delay on conflict");
-                        return;
-                    } else {
-                        if (isLoggable) {
-                            Slog.v(TAG, "Pushing back running sync due to a higher priority sync");
-                        }
-                        deferActiveSyncH(asc, "preempted");
-                        break;
+            final ActiveSyncContext conflictingSync = mActiveSyncIndex.findFirstConflict(op);
+            if (conflictingSync != null) {
+                // If the provided SyncOperation conflicts with a running one, the lower
+                // priority sync is pre-empted.
+                if (!ActiveSyncIndex.shouldPreempt(conflictingSync, op)) {
+                    if (isLoggable) {
+                        Slog.v(TAG, "Rescheduling sync due to conflict " + op.toString());
+                    }
+                    deferSyncH(op, SYNC_DELAY_ON_CONFLICT, "delay on conflict");
+                    return;
+                } else {
+                    if (isLoggable) {
+                        Slog.v(TAG, "Pushing back running sync due to a higher priority sync");
                     }
+                    deferActiveSyncH(conflictingSync, "preempted");
                 }
             }
 
             final int syncOpState = computeSyncOpState(op);
             if (syncOpState != SYNC_OP_STATE_VALID) {
-                SyncJobService.callJobFinished(op.jobId, false,
-                        "invalid op state: " + syncOpState);
+                finishJobWithoutRescheduleH(op, "invalid op state: " + syncOpState);
                 return;
             }
 
             if (!dispatchSyncOperation(op)) {
-                SyncJobService.callJobFinished(op.jobId, false, "dispatchSyncOperation() failed");
+                finishJobWithoutRescheduleH(op, "dispatchSyncOperation() failed");
             }
 
             setAuthorityPendingState(op.target);
         }
 
-        private ActiveSyncContext findActiveSyncContextH(int jobId) {
-            for (ActiveSyncContext asc: mActiveSyncContexts) {
-                SyncOperation op = asc.mSyncOperation;
-                if (op != null && op.jobId == jobId) {
-                    return asc;
-                }
+        /**
+         * Tell JobScheduler that the job for the given operation is done and shouldn't be
+         * rescheduled. JobScheduler drops one-off jobs at that point, so forget them as well.
+         */
+        private void finishJobWithoutRescheduleH(SyncOperation op, String why) {
+            SyncJobService.callJobFinished(op.jobId, false, why);
+            if (!op.isPeriodic) {
+                removePendingSync(op.jobId);
             }
-            return null;
+        }
+
+        private ActiveSyncContext findActiveSyncContextH(int jobId) {
+            return mActiveSyncIndex.get(jobId);
         }
 
         private void updateRunningAccountsH(EndPoint syncTargets) {
@@ -3491,9 +3604,9 @@ public class SyncManager {
                         + " flexMillis: " + flex
                         + " extras: " + extras.toString());
             }
-            List<SyncOperation> ops = getAllPendingSyncs();
+            List<SyncOperation> ops = getPendingSyncsMatching(target);
             for (SyncOperation op: ops) {
-                if (op.isPeriodic && op.target.matchesSpec(target)
+                if (op.isPeriodic
                         && op.areExtrasEqual(extras, /*includeSyncSettings=*/ true)) {
                     maybeUpdateSyncPeriodH(op, pollFrequencyMillis, flexMillis);
                     return;
@@ -3556,56 +3669,35 @@ public class SyncManager {
          */
         private void removePeriodicSyncInternalH(SyncOperation syncOperation, String why) {
             // Remove this periodic sync and all one-off syncs initiated by it.
-            List<SyncOperation> ops = getAllPendingSyncs();
+            verifyJobScheduler();
+            final List<SyncOperation> ops = new ArrayList<>(
+                    mPendingSyncs.getBySourcePeriodicId(syncOperation.jobId));
+            final SyncOperation periodic = mPendingSyncs.get(syncOperation.jobId);
+            if (periodic != null) {
+                ops.add(periodic);
+            }
             for (SyncOperation op: ops) {
-                if (op.sourcePeriodicId == syncOperation.jobId || op.jobId == syncOperation.jobId) {
-                    ActiveSyncContext asc = findActiveSyncContextH(syncOperation.jobId);
-                    if (asc != null) {
-                        SyncJobService.callJobFinished(syncOperation.jobId, false,
-                                "removePeriodicSyncInternalH");
-                        runSyncFinishedOrCanceledH(null, asc);
-                    }
-                    mLogger.log("removePeriodicSyncInternalH-canceling: ", op);
-                    cancelJob(op, why);
+                ActiveSyncContext asc = findActiveSyncContextH(syncOperation.jobId);
+                if (asc != null) {
+                    SyncJobService.callJobFinished(syncOperation.jobId, false,
+                            "removePeriodicSyncInternalH");
+                    runSyncFinishedOrCanceledH(null, asc);
                 }
+                mLogger.log("removePeriodicSyncInternalH-canceling: ", op);
+                cancelJob(op, why);
             }
         }
 
         private void removePeriodicSyncH(EndPoint target, Bundle extras, String why) {
-            verifyJobScheduler();
-            List<SyncOperation> ops = getAllPendingSyncs();
+            List<SyncOperation> ops = getPendingSyncsMatching(target);
             for (SyncOperation op: ops) {
-                if (op.isPeriodic && op.target.matchesSpec(target)
+                if (op.isPeriodic
                         && op.areExtrasEqual(extras, /*includeSyncSettings=*/ true)) {
                     removePeriodicSyncInternalH(op, why);
                 }
             }
         }
 
-        private boolean isSyncNotUsingNetworkH(ActiveSyncContext activeSyncContext) {
-            final long bytesTransferredCurrent =
-                    getTotalBytesTransferredByUid(activeSyncContext.mSyncAdapterUid);
-            final long deltaBytesTransferred =
-                    bytesTransferredCurrent - activeSyncContext.mBytesTransferredAtLastPoll;
-
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                // Bytes transferred
-                long remainder = deltaBytesTransferred;
-                long mb = remainder / (1024 * 1024);
-                remainder %= 1024 * 1024;
-                long kb = remainder / 1024;
-                remainder %= 1024;
-                long b = remainder;
-                Log.d(TAG, String.format(
-                        "Time since last update: %ds. Delta transferred: %dMBs,%dKBs,%dBs",
-                        (SystemClock.elapsedRealtime()
-                                - activeSyncContext.mLastPolledTimeElapsed)/1000,
-                        mb, kb, b)
-                );
-            }
-            return (deltaBytesTransferred <= SYNC_MONITOR_PROGRESS_THRESHOLD_BYTES);
-        }
-
         /**
          * Determine if a sync is no longer valid and should be dropped.
          */
@@ -3715,9 +3807,10 @@ public class SyncManager {
 
             activeSyncContext.mSyncInfo = mSyncStorageEngine.addActiveSync(activeSyncContext);
             mActiveSyncContexts.add(activeSyncContext);
+            mActiveSyncIndex.add(activeSyncContext);
 
-            // Post message to begin monitoring this sync's progress.
-            postMonitorSyncProgressMessage(activeSyncContext);
+            // Begin monitoring this sync's progress.
+            mProgressMonitor.startMonitoring(activeSyncContext);
 
             if (!activeSyncContext.bindToSyncAdapter(targetComponent, info.userId)) {
                 mLogger.log("dispatchSyncOperation() failed: bind failed. target: ",
@@ -3799,7 +3892,7 @@ public class SyncManager {
         private void reschedulePeriodicSyncH(SyncOperation syncOperation) {
             // Ensure that the periodic sync wasn't removed.
             SyncOperation periodicSync = null;
-            List<SyncOperation> ops = getAllPendingSyncs();
+            List<SyncOperation> ops = getPendingSyncsMatching(syncOperation.target);
             for (SyncOperation op: ops) {
                 if (op.isPeriodic && syncOperation.matchesPeriodicOperation(op)) {
                     periodicSync = op;
@@ -3940,14 +4033,19 @@ public class SyncManager {
         private void closeActiveSyncContext(ActiveSyncContext activeSyncContext) {
             activeSyncContext.close();
             mActiveSyncContexts.remove(activeSyncContext);
+            mActiveSyncIndex.remove(activeSyncContext);
+            final int jobId = activeSyncContext.mSyncOperation.jobId;
+            if (!mPendingSyncs.contains(jobId)) {
+                // The job is gone as well; the job id was kept while the sync was running.
+                mJobIdAllocator.release(jobId);
+            }
             mSyncStorageEngine.removeActiveSync(activeSyncContext.mSyncInfo,
                     activeSyncContext.mSyncOperation.target.userId);
 
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                Slog.v(TAG, "removing all MESSAGE_MONITOR_SYNC & MESSAGE_SYNC_EXPIRED for "
-                        + activeSyncContext.toString());
+                Slog.v(TAG, "no longer monitoring " + activeSyncContext.toString());
             }
-            mSyncHandler.removeMessages(SyncHandler.MESSAGE_MONITOR_SYNC, activeSyncContext);
+            mProgressMonitor.stopMonitoring(activeSyncContext);
 
             mLogger.log("closeActiveSyncContext: ", activeSyncContext);
         }
@@ -4251,6 +4349,7 @@ public class SyncManager {
             mLogger.log("Removing periodic sync ", op, " for ", why);
         }
         getJobScheduler().cancel(op.jobId);
+        removePendingSync(op.jobId);
     }
 
     public void resetTodayStats() {
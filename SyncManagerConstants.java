@@ -22,6 +22,7 @@ import android.provider.Settings.Global;
 import android.util.KeyValueListParser;
 import android.util.Slog;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.os.BackgroundThread;
 
 import java.io.PrintWriter;
@@ -58,9 +59,35 @@ public class SyncManagerConstants extends ContentObserver {
     private int mKeyExemptionTempWhitelistDurationInSeconds
             = DEF_EXEMPTION_TEMP_WHITELIST_DURATION_IN_SECONDS;
 
+    private static final String KEY_BACKOFF_POLICY = "backoff_policy";
+    private static final String DEF_BACKOFF_POLICY = SyncBackoffPolicy.EXPONENTIAL;
+    private String mBackoffPolicy = DEF_BACKOFF_POLICY;
+
+    private static final String KEY_BACKOFF_TOKEN_BUCKET_SIZE = "backoff_token_bucket_size";
+    private static final int DEF_BACKOFF_TOKEN_BUCKET_SIZE = 3;
+    private int mBackoffTokenBucketSize = DEF_BACKOFF_TOKEN_BUCKET_SIZE;
+
+    private static final String KEY_BACKOFF_TOKEN_REFILL_TIME_IN_SECONDS =
+            "backoff_token_refill_time_in_seconds";
+    private static final int DEF_BACKOFF_TOKEN_REFILL_TIME_IN_SECONDS = 10 * 60;
+    private int mBackoffTokenRefillTimeInSeconds = DEF_BACKOFF_TOKEN_REFILL_TIME_IN_SECONDS;
+
+    private static final String KEY_MAX_SYNC_HISTORY = "max_sync_history";
+    private static final int DEF_MAX_SYNC_HISTORY = SyncStorageEngine.MAX_HISTORY;
+    private static final int MAX_MAX_SYNC_HISTORY = 10_000;
+    private int mMaxSyncHistory = DEF_MAX_SYNC_HISTORY;
+
+    /** Run on the background thread after the constants have been (re)read, may be null. */
+    private final Runnable mOnChanged;
+
     protected SyncManagerConstants(Context context) {
+        this(context, null);
+    }
+
+    protected SyncManagerConstants(Context context, Runnable onChanged) {
         super(null);
         mContext = context;
+        mOnChanged = onChanged;
     }
 
     public void start() {
@@ -77,10 +104,14 @@ public class SyncManagerConstants extends ContentObserver {
     }
 
     private void refresh() {
-        synchronized (mLock) {
+        updateConstants(Settings.Global.getString(mContext.getContentResolver(),
+                Global.SYNC_MANAGER_CONSTANTS));
+    }
 
-            String newValue = Settings.Global.getString(mContext.getContentResolver(),
-                    Global.SYNC_MANAGER_CONSTANTS);
+    /** Parse the value of {@link Global#SYNC_MANAGER_CONSTANTS}. */
+    @VisibleForTesting
+    void updateConstants(String newValue) {
+        synchronized (mLock) {
             final KeyValueListParser parser = new KeyValueListParser(',');
             try {
                 parser.setString(newValue);
@@ -108,6 +139,25 @@ public class SyncManagerConstants extends ContentObserver {
                     KEY_EXEMPTION_TEMP_WHITELIST_DURATION_IN_SECONDS,
                     DEF_EXEMPTION_TEMP_WHITELIST_DURATION_IN_SECONDS);
 
+            mBackoffPolicy = parser.getString(
+                    KEY_BACKOFF_POLICY,
+                    DEF_BACKOFF_POLICY);
+
+            mBackoffTokenBucketSize = parser.getInt(
+                    KEY_BACKOFF_TOKEN_BUCKET_SIZE,
+                    DEF_BACKOFF_TOKEN_BUCKET_SIZE);
+
+            mBackoffTokenRefillTimeInSeconds = parser.getInt(
+                    KEY_BACKOFF_TOKEN_REFILL_TIME_IN_SECONDS,
+                    DEF_BACKOFF_TOKEN_REFILL_TIME_IN_SECONDS);
+
+            mMaxSyncHistory = Math.max(1, Math.min(MAX_MAX_SYNC_HISTORY, parser.getInt(
+                    KEY_MAX_SYNC_HISTORY,
+                    DEF_MAX_SYNC_HISTORY)));
+
+        }
+        if (mOnChanged != null) {
+            mOnChanged.run();
         }
     }
 
@@ -141,6 +191,32 @@ public class SyncManagerConstants extends ContentObserver {
         }
     }
 
+    /** @return the name of the {@link SyncBackoffPolicy} to use. */
+    public String getBackoffPolicy() {
+        synchronized (mLock) {
+            return mBackoffPolicy;
+        }
+    }
+
+    public int getBackoffTokenBucketSize() {
+        synchronized (mLock) {
+            return mBackoffTokenBucketSize;
+        }
+    }
+
+    public int getBackoffTokenRefillTimeInSeconds() {
+        synchronized (mLock) {
+            return mBackoffTokenRefillTimeInSeconds;
+        }
+    }
+
+    /** @return how many sync events to keep in the sync history. */
+    public int getMaxSyncHistory() {
+        synchronized (mLock) {
+            return mMaxSyncHistory;
+        }
+    }
+
     public void dump(PrintWriter pw, String prefix) {
         synchronized (mLock) {
             pw.print(prefix);
@@ -165,6 +241,22 @@ public class SyncManagerConstants extends ContentObserver {
             pw.print(prefix);
             pw.print("  mKeyExemptionTempWhitelistDurationInSeconds=");
             pw.println(mKeyExemptionTempWhitelistDurationInSeconds);
+
+            pw.print(prefix);
+            pw.print("  mBackoffPolicy=");
+            pw.println(mBackoffPolicy);
+
+            pw.print(prefix);
+            pw.print("  mBackoffTokenBucketSize=");
+            pw.println(mBackoffTokenBucketSize);
+
+            pw.print(prefix);
+            pw.print("  mBackoffTokenRefillTimeInSeconds=");
+            pw.println(mBackoffTokenRefillTimeInSeconds);
+
+            pw.print(prefix);
+            pw.print("  mMaxSyncHistory=");
+            pw.println(mMaxSyncHistory);
         }
     }
 }
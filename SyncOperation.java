@@ -25,7 +25,8 @@ import android.os.Bundle;
 import android.os.PersistableBundle;
 import android.os.SystemClock;
 import android.os.UserHandle;
-import android.util.Slog;
+
+import java.util.Objects;
 
 /**
  * Value type that represents a sync operation.
@@ -76,17 +77,16 @@ public class SyncOperation {
     public final boolean allowParallelSyncs;
 
     /**
-     * Sync extras. Note, DO NOT modify this bundle directly. When changing the content, always
-     * create a copy, update it, set it in this field. This is to avoid concurrent modifications
-     * when other threads are reading it.
+     * Sync extras. Note, DO NOT modify this bundle. To change the extras, create a new
+     * operation, see {@link #withoutExtra}, so that {@link #key} stays in sync with them.
      */
-    private volatile Bundle mImmutableExtras;
+    private final Bundle mImmutableExtras;
 
     public final boolean isPeriodic;
     /** jobId of the periodic SyncOperation that initiated this one */
     public final int sourcePeriodicId;
-    /** Operations are considered duplicates if keys are equal */
-    public final String key;
+    /** Operations are considered duplicates if keys are equal. */
+    public final Key key;
 
     /** Poll frequency of periodic sync in milliseconds */
     public final long periodMillis;
@@ -153,7 +153,7 @@ public class SyncOperation {
         this.periodMillis = periodMillis;
         this.flexMillis = flexMillis;
         this.jobId = NO_JOB_ID;
-        this.key = toKey();
+        this.key = new Key(this);
         this.syncExemptionFlag = syncExemptionFlag;
     }
 
@@ -186,80 +186,22 @@ public class SyncOperation {
         flexMillis = other.flexMillis;
         this.key = other.key;
         syncExemptionFlag = other.syncExemptionFlag;
+        // The scheduling state, so that SyncManager can change the copy without changing the
+        // original.
+        jobId = other.jobId;
+        expectedRuntime = other.expectedRuntime;
+        retries = other.retries;
+        scheduleEjAsRegularJob = other.scheduleEjAsRegularJob;
     }
 
     /**
-     * All fields are stored in a corresponding key in the persistable bundle.
-     *
-     * {@link #mImmutableExtras} is a Bundle and can contain parcelable objects.
-     * But only the type Account
-     * is allowed {@link ContentResolver#validateSyncExtrasBundle(Bundle)} that can't be stored in
-     * a PersistableBundle. For every value of type Account with key 'key', we store a
-     * PersistableBundle containing account information at key 'ACCOUNT:key'. The Account object
-     * can be reconstructed using this.
-     *
-     * We put a flag with key 'SyncManagerJob', to identify while reconstructing a sync operation
-     * from a bundle whether the bundle actually contains information about a sync.
+     * The operation, including {@link #mImmutableExtras}, is stored as a single compact binary
+     * encoding, see {@link SyncOperationCodec}.
      * @return A persistable bundle containing all information to re-construct the sync operation.
      */
     PersistableBundle toJobInfoExtras() {
         // This will be passed as extras bundle to a JobScheduler job.
-        PersistableBundle jobInfoExtras = new PersistableBundle();
-
-        PersistableBundle syncExtrasBundle = new PersistableBundle();
-
-        final Bundle extras = mImmutableExtras;
-        for (String key : extras.keySet()) {
-            Object value = extras.get(key);
-            if (value instanceof Account) {
-                Account account = (Account) value;
-                PersistableBundle accountBundle = new PersistableBundle();
-                accountBundle.putString("accountName", account.name);
-                accountBundle.putString("accountType", account.type);
-                // This is stored in jobInfoExtras so that we don't override a user specified
-                // sync extra with the same key.
-                jobInfoExtras.putPersistableBundle("ACCOUNT:" + key, accountBundle);
-            } else if (value instanceof Long) {
-                syncExtrasBundle.putLong(key, (Long) value);
-            } else if (value instanceof Integer) {
-                syncExtrasBundle.putInt(key, (Integer) value);
-            } else if (value instanceof Boolean) {
-                syncExtrasBundle.putBoolean(key, (Boolean) value);
-            } else if (value instanceof Float) {
-                syncExtrasBundle.putDouble(key, (double) (float) value);
-            } else if (value instanceof Double) {
-                syncExtrasBundle.putDouble(key, (Double) value);
-            } else if (value instanceof String) {
-                syncExtrasBundle.putString(key, (String) value);
-            } else if (value == null) {
-                syncExtrasBundle.putString(key, null);
-            } else {
-                Slog.e(TAG, "Unknown extra type.");
-            }
-        }
-        jobInfoExtras.putPersistableBundle("syncExtras", syncExtrasBundle);
-
-        jobInfoExtras.putBoolean("SyncManagerJob", true);
-
-        jobInfoExtras.putString("provider", target.provider);
-        jobInfoExtras.putString("accountName", target.account.name);
-        jobInfoExtras.putString("accountType", target.account.type);
-        jobInfoExtras.putInt("userId", target.userId);
-        jobInfoExtras.putInt("owningUid", owningUid);
-        jobInfoExtras.putString("owningPackage", owningPackage);
-        jobInfoExtras.putInt("reason", reason);
-        jobInfoExtras.putInt("source", syncSource);
-        jobInfoExtras.putBoolean("allowParallelSyncs", allowParallelSyncs);
-        jobInfoExtras.putInt("jobId", jobId);
-        jobInfoExtras.putBoolean("isPeriodic", isPeriodic);
-        jobInfoExtras.putInt("sourcePeriodicId", sourcePeriodicId);
-        jobInfoExtras.putLong("periodMillis", periodMillis);
-        jobInfoExtras.putLong("flexMillis", flexMillis);
-        jobInfoExtras.putLong("expectedRuntime", expectedRuntime);
-        jobInfoExtras.putInt("retries", retries);
-        jobInfoExtras.putInt("syncExemptionFlag", syncExemptionFlag);
-        jobInfoExtras.putBoolean("ejDowngradedToRegular", scheduleEjAsRegularJob);
-        return jobInfoExtras;
+        return SyncOperationCodec.toJobInfoExtras(this, mImmutableExtras);
     }
 
     /**
@@ -270,6 +212,23 @@ public class SyncOperation {
         if (jobExtras == null) {
             return null;
         }
+        if (SyncOperationCodec.isEncoded(jobExtras)) {
+            return SyncOperationCodec.fromJobInfoExtras(jobExtras);
+        }
+        return maybeCreateFromLegacyJobExtras(jobExtras);
+    }
+
+    /**
+     * Reconstructs a sync operation from the bundle format used before
+     * {@link SyncOperationCodec}, where every field is stored under its own key. Jobs scheduled
+     * in that format are persisted by JobScheduler across an upgrade, so they still need to be
+     * read.
+     *
+     * For every sync extra of type Account with key 'key', a PersistableBundle containing the
+     * account information is stored at key 'ACCOUNT:key'. The flag with key 'SyncManagerJob'
+     * identifies whether the bundle actually contains information about a sync.
+     */
+    private static SyncOperation maybeCreateFromLegacyJobExtras(PersistableBundle jobExtras) {
         String accountName, accountType;
         String provider;
         int userId, owningUid;
@@ -349,6 +308,10 @@ public class SyncOperation {
     }
 
     boolean matchesPeriodicOperation(SyncOperation other) {
+        if (key.mExtrasFingerprint != other.key.mExtrasFingerprint) {
+            // The extras can't be equal.
+            return false;
+        }
         return target.matchesSpec(other.target)
                 && SyncManager.syncExtrasEquals(mImmutableExtras, other.mImmutableExtras, true)
                 && periodMillis == other.periodMillis && flexMillis == other.flexMillis;
@@ -367,24 +330,6 @@ public class SyncOperation {
         return JobInfo.BIAS_DEFAULT;
     }
 
-    private String toKey() {
-        final Bundle extras = mImmutableExtras;
-        StringBuilder sb = new StringBuilder();
-        sb.append("provider: ").append(target.provider);
-        sb.append(" account {name=" + target.account.name
-                + ", user="
-                + target.userId
-                + ", type="
-                + target.account.type
-                + "}");
-        sb.append(" isPeriodic: ").append(isPeriodic);
-        sb.append(" period: ").append(periodMillis);
-        sb.append(" flex: ").append(flexMillis);
-        sb.append(" extras: ");
-        extrasToStringBuilder(extras, sb);
-        return sb.toString();
-    }
-
     @Override
     public String toString() {
         return dump(null, true, null, false);
@@ -511,10 +456,11 @@ public class SyncOperation {
     }
 
     /**
-     * Disable SYNC_EXTRAS_UPLOAD, so it will be a two-way (normal) sync.
+     * @return this operation with SYNC_EXTRAS_UPLOAD disabled, so it will be a two-way (normal)
+     * sync.
      */
-    void enableTwoWaySync() {
-        removeExtra(ContentResolver.SYNC_EXTRAS_UPLOAD);
+    SyncOperation asTwoWaySync() {
+        return withoutExtra(ContentResolver.SYNC_EXTRAS_UPLOAD);
     }
 
     boolean hasIgnoreBackoff() {
@@ -522,14 +468,14 @@ public class SyncOperation {
     }
 
     /**
-     * Disable SYNC_EXTRAS_IGNORE_BACKOFF.
+     * @return this operation with SYNC_EXTRAS_IGNORE_BACKOFF disabled.
      *
      * The SYNC_EXTRAS_IGNORE_BACKOFF only applies to the first attempt to sync a given
      * request. Retries of the request will always honor the backoff, so clear the
      * flag in case we retry this request.
      */
-    void enableBackoff() {
-        removeExtra(ContentResolver.SYNC_EXTRAS_IGNORE_BACKOFF);
+    SyncOperation withBackoff() {
+        return withoutExtra(ContentResolver.SYNC_EXTRAS_IGNORE_BACKOFF);
     }
 
     boolean hasDoNotRetry() {
@@ -603,16 +549,25 @@ public class SyncOperation {
     }
 
     /**
-     * Removes a sync extra. Note do not call it from multiple threads simultaneously.
+     * @return a copy of this operation without the given sync extra, or this operation if it
+     * doesn't have the extra. The copy has its own {@link #key}, so this operation, which may be
+     * indexed by its key, is never changed.
      */
-    private void removeExtra(String key) {
-        final Bundle b = mImmutableExtras;
-        if (!b.containsKey(key)) {
-            return;
+    private SyncOperation withoutExtra(String key) {
+        if (!mImmutableExtras.containsKey(key)) {
+            return this;
         }
-        final Bundle clone = new Bundle(b);
-        clone.remove(key);
-        mImmutableExtras = clone;
+        final Bundle extras = new Bundle(mImmutableExtras);
+        extras.remove(key);
+        final SyncOperation op = new SyncOperation(target, owningUid, owningPackage, reason,
+                syncSource, extras, allowParallelSyncs, isPeriodic, sourcePeriodicId,
+                periodMillis, flexMillis, syncExemptionFlag);
+        op.wakeLockName = wakeLockName;
+        op.expectedRuntime = expectedRuntime;
+        op.retries = retries;
+        op.scheduleEjAsRegularJob = scheduleEjAsRegularJob;
+        op.jobId = jobId;
+        return op;
     }
 
     public Bundle getClonedExtras() {
@@ -622,4 +577,119 @@ public class SyncOperation {
     public String getExtrasAsString() {
         return extrasToString(mImmutableExtras);
     }
+
+    /**
+     * Identifies duplicate sync operations: operations with the same target, periodicity and
+     * extras. The hash code and a fingerprint of the extras are computed once, so comparing keys
+     * of operations that aren't duplicates is usually a single int comparison. The descriptive
+     * string form is only built when it's needed, e.g. for dumps.
+     *
+     * As with the persisted form of the operation, Float extras are treated as equal to Double
+     * extras with the same value.
+     */
+    public static final class Key {
+        private final SyncStorageEngine.EndPoint mTarget;
+        private final boolean mIsPeriodic;
+        private final long mPeriodMillis;
+        private final long mFlexMillis;
+        /** Never modified, see {@link SyncOperation#mImmutableExtras}. */
+        private final Bundle mExtras;
+        private final int mExtrasFingerprint;
+        private final int mHashCode;
+        private String mString;
+
+        private Key(SyncOperation op) {
+            mTarget = op.target;
+            mIsPeriodic = op.isPeriodic;
+            mPeriodMillis = op.periodMillis;
+            mFlexMillis = op.flexMillis;
+            mExtras = op.mImmutableExtras;
+            mExtrasFingerprint = fingerprintOf(mExtras);
+
+            int hash = mTarget.hashCode();
+            hash = 31 * hash + Boolean.hashCode(mIsPeriodic);
+            hash = 31 * hash + Long.hashCode(mPeriodMillis);
+            hash = 31 * hash + Long.hashCode(mFlexMillis);
+            hash = 31 * hash + mExtrasFingerprint;
+            mHashCode = hash;
+        }
+
+        /** Order-independent hash of the extras, consistent with {@link #extrasEqual}. */
+        private static int fingerprintOf(Bundle extras) {
+            int fingerprint = extras.size();
+            for (String key : extras.keySet()) {
+                fingerprint += Objects.hashCode(key)
+                        ^ Objects.hashCode(normalizeExtra(extras.get(key)));
+            }
+            return fingerprint;
+        }
+
+        private static Object normalizeExtra(Object value) {
+            if (value instanceof Float) {
+                return (double) (float) value;
+            }
+            return value;
+        }
+
+        private static boolean extrasEqual(Bundle b1, Bundle b2) {
+            if (b1 == b2) {
+                return true;
+            }
+            if (b1.size() != b2.size()) {
+                return false;
+            }
+            for (String key : b1.keySet()) {
+                if (!b2.containsKey(key)) {
+                    return false;
+                }
+                if (!Objects.equals(normalizeExtra(b1.get(key)), normalizeExtra(b2.get(key)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && mExtrasFingerprint == other.mExtrasFingerprint
+                    && mIsPeriodic == other.mIsPeriodic
+                    && mPeriodMillis == other.mPeriodMillis
+                    && mFlexMillis == other.mFlexMillis
+                    && mTarget.equals(other.mTarget)
+                    && extrasEqual(mExtras, other.mExtras);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public String toString() {
+            String string = mString;
+            if (string == null) {
+                final StringBuilder sb = new StringBuilder();
+                sb.append("provider: ").append(mTarget.provider);
+                sb.append(" account {name=").append(mTarget.account.name)
+                        .append(", user=").append(mTarget.userId)
+                        .append(", type=").append(mTarget.account.type)
+                        .append("}");
+                sb.append(" isPeriodic: ").append(mIsPeriodic);
+                sb.append(" period: ").append(mPeriodMillis);
+                sb.append(" flex: ").append(mFlexMillis);
+                sb.append(" extras: ");
+                extrasToStringBuilder(mExtras, sb);
+                mString = string = sb.toString();
+            }
+            return string;
+        }
+    }
 }
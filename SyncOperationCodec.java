@@ -0,0 +1,607 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.annotation.Nullable;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.util.Base64;
+import android.util.Slog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of a {@link SyncOperation}, stored in the JobScheduler job extras.
+ *
+ * PersistableBundle can't hold a byte[], so the encoded operation is stored as a single Base64
+ * string under {@link #KEY_ENCODED_OPERATION}, instead of one bundle entry per field plus nested
+ * bundles for the sync extras.
+ *
+ * The encoding is a version number followed by a sequence of tagged fields. A tag is
+ * {@code (fieldNumber << 3) | wireType}, so a decoder skips fields it doesn't know about, and
+ * fields whose wire type isn't the one it expects for their field number. Adding a field only
+ * needs a new field number; {@link #VERSION} only needs to change if the meaning of an existing
+ * field changes. Field numbers must never be reused.
+ *
+ * Jobs persisted before this encoding existed are still read by
+ * {@link SyncOperation#maybeCreateFromJobExtras(PersistableBundle)}.
+ *
+ * @hide
+ */
+final class SyncOperationCodec {
+    private static final String TAG = "SyncManager";
+
+    /** Key of the encoded operation in the job extras. */
+    static final String KEY_ENCODED_OPERATION = "syncOp";
+
+    /** Version of the encoding. Newer versions are rejected. */
+    static final int VERSION = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+
+    // Fields of the operation.
+    private static final int FIELD_PROVIDER = 1;
+    private static final int FIELD_ACCOUNT_NAME = 2;
+    private static final int FIELD_ACCOUNT_TYPE = 3;
+    private static final int FIELD_USER_ID = 4;
+    private static final int FIELD_OWNING_UID = 5;
+    private static final int FIELD_OWNING_PACKAGE = 6;
+    private static final int FIELD_REASON = 7;
+    private static final int FIELD_SOURCE = 8;
+    private static final int FIELD_ALLOW_PARALLEL_SYNCS = 9;
+    private static final int FIELD_JOB_ID = 10;
+    private static final int FIELD_IS_PERIODIC = 11;
+    private static final int FIELD_SOURCE_PERIODIC_ID = 12;
+    private static final int FIELD_PERIOD_MILLIS = 13;
+    private static final int FIELD_FLEX_MILLIS = 14;
+    private static final int FIELD_EXPECTED_RUNTIME = 15;
+    private static final int FIELD_RETRIES = 16;
+    private static final int FIELD_SYNC_EXEMPTION_FLAG = 17;
+    private static final int FIELD_EJ_DOWNGRADED_TO_REGULAR = 18;
+    /** Repeated, one nested message per sync extra. */
+    private static final int FIELD_EXTRA = 19;
+
+    // Fields of a sync extra. Exactly one of the value fields is present.
+    private static final int EXTRA_KEY = 1;
+    private static final int EXTRA_LONG = 2;
+    private static final int EXTRA_INT = 3;
+    private static final int EXTRA_BOOLEAN = 4;
+    private static final int EXTRA_DOUBLE = 5;
+    private static final int EXTRA_STRING = 6;
+    private static final int EXTRA_NULL = 7;
+    private static final int EXTRA_ACCOUNT_NAME = 8;
+    private static final int EXTRA_ACCOUNT_TYPE = 9;
+
+    private SyncOperationCodec() {
+    }
+
+    /** @return job extras holding the encoded operation. */
+    static PersistableBundle toJobInfoExtras(SyncOperation op, Bundle extras) {
+        final byte[] encoded = encode(op, extras);
+        final PersistableBundle jobInfoExtras = new PersistableBundle(1);
+        jobInfoExtras.putString(KEY_ENCODED_OPERATION,
+                Base64.encodeToString(encoded, Base64.NO_WRAP));
+        return jobInfoExtras;
+    }
+
+    /**
+     * @return whether the job extras hold an operation written by {@link #toJobInfoExtras}.
+     */
+    static boolean isEncoded(PersistableBundle jobExtras) {
+        return jobExtras.containsKey(KEY_ENCODED_OPERATION);
+    }
+
+    /**
+     * Reconstructs a sync operation from job extras written by {@link #toJobInfoExtras}.
+     * Returns null if the extras don't contain a valid sync operation.
+     */
+    @Nullable
+    static SyncOperation fromJobInfoExtras(PersistableBundle jobExtras) {
+        final String encoded = jobExtras.getString(KEY_ENCODED_OPERATION);
+        if (encoded == null) {
+            return null;
+        }
+        final byte[] data;
+        try {
+            data = Base64.decode(encoded, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            Slog.e(TAG, "Malformed sync operation encoding", e);
+            return null;
+        }
+        return decode(data);
+    }
+
+    static byte[] encode(SyncOperation op, Bundle extras) {
+        final Writer w = new Writer(128);
+        w.writeRawVarint(VERSION);
+        w.writeString(FIELD_PROVIDER, op.target.provider);
+        w.writeString(FIELD_ACCOUNT_NAME, op.target.account.name);
+        w.writeString(FIELD_ACCOUNT_TYPE, op.target.account.type);
+        w.writeSInt(FIELD_USER_ID, op.target.userId);
+        w.writeSInt(FIELD_OWNING_UID, op.owningUid);
+        w.writeString(FIELD_OWNING_PACKAGE, op.owningPackage);
+        w.writeSInt(FIELD_REASON, op.reason);
+        w.writeSInt(FIELD_SOURCE, op.syncSource);
+        w.writeBoolean(FIELD_ALLOW_PARALLEL_SYNCS, op.allowParallelSyncs);
+        w.writeSInt(FIELD_JOB_ID, op.jobId);
+        w.writeBoolean(FIELD_IS_PERIODIC, op.isPeriodic);
+        w.writeSInt(FIELD_SOURCE_PERIODIC_ID, op.sourcePeriodicId);
+        w.writeSInt(FIELD_PERIOD_MILLIS, op.periodMillis);
+        w.writeSInt(FIELD_FLEX_MILLIS, op.flexMillis);
+        w.writeSInt(FIELD_EXPECTED_RUNTIME, op.expectedRuntime);
+        w.writeSInt(FIELD_RETRIES, op.retries);
+        w.writeSInt(FIELD_SYNC_EXEMPTION_FLAG, op.syncExemptionFlag);
+        w.writeBoolean(FIELD_EJ_DOWNGRADED_TO_REGULAR, op.scheduleEjAsRegularJob);
+
+        final Writer entry = new Writer(32);
+        for (String key : extras.keySet()) {
+            entry.reset();
+            if (!writeExtra(entry, key, extras.get(key))) {
+                continue;
+            }
+            w.writeBytes(FIELD_EXTRA, entry.mBuf, 0, entry.mPos);
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * Only the types allowed by {@link ContentResolver#validateSyncExtrasBundle(Bundle)} can be
+     * stored. As with the legacy bundle format, Floats are stored as Doubles.
+     */
+    private static boolean writeExtra(Writer w, String key, Object value) {
+        w.writeString(EXTRA_KEY, key);
+        if (value instanceof Account) {
+            final Account account = (Account) value;
+            w.writeString(EXTRA_ACCOUNT_NAME, account.name);
+            w.writeString(EXTRA_ACCOUNT_TYPE, account.type);
+        } else if (value instanceof Long) {
+            w.writeSInt(EXTRA_LONG, (Long) value);
+        } else if (value instanceof Integer) {
+            w.writeSInt(EXTRA_INT, (Integer) value);
+        } else if (value instanceof Boolean) {
+            w.writeBoolean(EXTRA_BOOLEAN, (Boolean) value);
+        } else if (value instanceof Float) {
+            w.writeDouble(EXTRA_DOUBLE, (double) (float) value);
+        } else if (value instanceof Double) {
+            w.writeDouble(EXTRA_DOUBLE, (Double) value);
+        } else if (value instanceof String) {
+            w.writeString(EXTRA_STRING, (String) value);
+        } else if (value == null) {
+            w.writeBoolean(EXTRA_NULL, true);
+        } else {
+            Slog.e(TAG, "Unknown extra type.");
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    static SyncOperation decode(byte[] data) {
+        try {
+            return decodeOrThrow(data);
+        } catch (IllegalArgumentException e) {
+            Slog.e(TAG, "Malformed sync operation encoding", e);
+            return null;
+        }
+    }
+
+    private static SyncOperation decodeOrThrow(byte[] data) {
+        final Reader r = new Reader(data, 0, data.length);
+        final long version = r.readRawVarint();
+        if (version > VERSION) {
+            Slog.e(TAG, "Unsupported sync operation encoding version " + version);
+            return null;
+        }
+
+        String provider = null;
+        String accountName = null;
+        String accountType = null;
+        int userId = Integer.MAX_VALUE;
+        int owningUid = 0;
+        String owningPackage = null;
+        int reason = Integer.MAX_VALUE;
+        int source = Integer.MAX_VALUE;
+        boolean allowParallelSyncs = false;
+        int jobId = 0;
+        boolean isPeriodic = false;
+        int sourcePeriodicId = SyncOperation.NO_JOB_ID;
+        long periodMillis = 0;
+        long flexMillis = 0;
+        long expectedRuntime = 0;
+        int retries = 0;
+        int syncExemptionFlag = ContentResolver.SYNC_EXEMPTION_NONE;
+        boolean ejDowngradedToRegular = false;
+        final Bundle extras = new Bundle();
+
+        while (r.hasMore()) {
+            final int tag = (int) r.readRawVarint();
+            final int field = tag >>> 3;
+            if ((tag & 0x7) != operationWireType(field)) {
+                // An unknown field, or a known one with another type, e.g. from a corrupt extra.
+                r.skip(tag & 0x7);
+                continue;
+            }
+            switch (field) {
+                case FIELD_PROVIDER:
+                    provider = r.readString().intern();
+                    break;
+                case FIELD_ACCOUNT_NAME:
+                    accountName = r.readString();
+                    break;
+                case FIELD_ACCOUNT_TYPE:
+                    accountType = r.readString().intern();
+                    break;
+                case FIELD_USER_ID:
+                    userId = (int) r.readSInt();
+                    break;
+                case FIELD_OWNING_UID:
+                    owningUid = (int) r.readSInt();
+                    break;
+                case FIELD_OWNING_PACKAGE:
+                    owningPackage = r.readString().intern();
+                    break;
+                case FIELD_REASON:
+                    reason = (int) r.readSInt();
+                    break;
+                case FIELD_SOURCE:
+                    source = (int) r.readSInt();
+                    break;
+                case FIELD_ALLOW_PARALLEL_SYNCS:
+                    allowParallelSyncs = r.readBoolean();
+                    break;
+                case FIELD_JOB_ID:
+                    jobId = (int) r.readSInt();
+                    break;
+                case FIELD_IS_PERIODIC:
+                    isPeriodic = r.readBoolean();
+                    break;
+                case FIELD_SOURCE_PERIODIC_ID:
+                    sourcePeriodicId = (int) r.readSInt();
+                    break;
+                case FIELD_PERIOD_MILLIS:
+                    periodMillis = r.readSInt();
+                    break;
+                case FIELD_FLEX_MILLIS:
+                    flexMillis = r.readSInt();
+                    break;
+                case FIELD_EXPECTED_RUNTIME:
+                    expectedRuntime = r.readSInt();
+                    break;
+                case FIELD_RETRIES:
+                    retries = (int) r.readSInt();
+                    break;
+                case FIELD_SYNC_EXEMPTION_FLAG:
+                    syncExemptionFlag = (int) r.readSInt();
+                    break;
+                case FIELD_EJ_DOWNGRADED_TO_REGULAR:
+                    ejDowngradedToRegular = r.readBoolean();
+                    break;
+                case FIELD_EXTRA:
+                    readExtra(r.readNested(), extras);
+                    break;
+            }
+        }
+
+        if (provider == null || accountName == null || accountType == null) {
+            Slog.e(TAG, "Sync operation encoding is missing its target");
+            return null;
+        }
+        final SyncStorageEngine.EndPoint target = new SyncStorageEngine.EndPoint(
+                new Account(accountName, accountType), provider, userId);
+        final SyncOperation op = new SyncOperation(target, owningUid, owningPackage, reason,
+                source, extras, allowParallelSyncs, isPeriodic, sourcePeriodicId, periodMillis,
+                flexMillis, syncExemptionFlag);
+        op.jobId = jobId;
+        op.expectedRuntime = expectedRuntime;
+        op.retries = retries;
+        op.scheduleEjAsRegularJob = ejDowngradedToRegular;
+        return op;
+    }
+
+    private static void readExtra(Reader r, Bundle extras) {
+        String key = null;
+        String accountName = null;
+        String accountType = null;
+        Object value = null;
+        boolean hasValue = false;
+        while (r.hasMore()) {
+            final int tag = (int) r.readRawVarint();
+            final int field = tag >>> 3;
+            if ((tag & 0x7) != extraWireType(field)) {
+                r.skip(tag & 0x7);
+                continue;
+            }
+            switch (field) {
+                case EXTRA_KEY:
+                    key = r.readString();
+                    break;
+                case EXTRA_LONG:
+                    value = r.readSInt();
+                    hasValue = true;
+                    break;
+                case EXTRA_INT:
+                    value = (int) r.readSInt();
+                    hasValue = true;
+                    break;
+                case EXTRA_BOOLEAN:
+                    value = r.readBoolean();
+                    hasValue = true;
+                    break;
+                case EXTRA_DOUBLE:
+                    value = r.readDouble();
+                    hasValue = true;
+                    break;
+                case EXTRA_STRING:
+                    value = r.readString();
+                    hasValue = true;
+                    break;
+                case EXTRA_NULL:
+                    r.readBoolean();
+                    value = null;
+                    hasValue = true;
+                    break;
+                case EXTRA_ACCOUNT_NAME:
+                    accountName = r.readString();
+                    break;
+                case EXTRA_ACCOUNT_TYPE:
+                    accountType = r.readString().intern();
+                    break;
+            }
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Sync extra without a key");
+        }
+        if (accountName != null || accountType != null) {
+            extras.putParcelable(key, new Account(accountName, accountType));
+        } else if (!hasValue) {
+            throw new IllegalArgumentException("Sync extra " + key + " without a value");
+        } else if (value instanceof Long) {
+            extras.putLong(key, (Long) value);
+        } else if (value instanceof Integer) {
+            extras.putInt(key, (Integer) value);
+        } else if (value instanceof Boolean) {
+            extras.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Double) {
+            extras.putDouble(key, (Double) value);
+        } else {
+            extras.putString(key, (String) value);
+        }
+    }
+
+    /** @return the wire type of a field of the operation, or -1 if the field is unknown. */
+    private static int operationWireType(int field) {
+        switch (field) {
+            case FIELD_PROVIDER:
+            case FIELD_ACCOUNT_NAME:
+            case FIELD_ACCOUNT_TYPE:
+            case FIELD_OWNING_PACKAGE:
+            case FIELD_EXTRA:
+                return WIRE_BYTES;
+            case FIELD_USER_ID:
+            case FIELD_OWNING_UID:
+            case FIELD_REASON:
+            case FIELD_SOURCE:
+            case FIELD_ALLOW_PARALLEL_SYNCS:
+            case FIELD_JOB_ID:
+            case FIELD_IS_PERIODIC:
+            case FIELD_SOURCE_PERIODIC_ID:
+            case FIELD_PERIOD_MILLIS:
+            case FIELD_FLEX_MILLIS:
+            case FIELD_EXPECTED_RUNTIME:
+            case FIELD_RETRIES:
+            case FIELD_SYNC_EXEMPTION_FLAG:
+            case FIELD_EJ_DOWNGRADED_TO_REGULAR:
+                return WIRE_VARINT;
+            default:
+                return -1;
+        }
+    }
+
+    /** @return the wire type of a field of a sync extra, or -1 if the field is unknown. */
+    private static int extraWireType(int field) {
+        switch (field) {
+            case EXTRA_KEY:
+            case EXTRA_STRING:
+            case EXTRA_ACCOUNT_NAME:
+            case EXTRA_ACCOUNT_TYPE:
+                return WIRE_BYTES;
+            case EXTRA_LONG:
+            case EXTRA_INT:
+            case EXTRA_BOOLEAN:
+            case EXTRA_NULL:
+                return WIRE_VARINT;
+            case EXTRA_DOUBLE:
+                return WIRE_FIXED64;
+            default:
+                return -1;
+        }
+    }
+
+    /** Appends tagged fields to a growable buffer. */
+    private static final class Writer {
+        byte[] mBuf;
+        int mPos;
+
+        Writer(int initialCapacity) {
+            mBuf = new byte[initialCapacity];
+        }
+
+        void reset() {
+            mPos = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuf, mPos);
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (mPos + bytes > mBuf.length) {
+                mBuf = Arrays.copyOf(mBuf, Math.max(mBuf.length * 2, mPos + bytes));
+            }
+        }
+
+        void writeRawVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuf[mPos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuf[mPos++] = (byte) value;
+        }
+
+        private void writeTag(int field, int wireType) {
+            writeRawVarint((field << 3) | wireType);
+        }
+
+        /** Zig-zag encoded, so that small negative values such as reasons stay small. */
+        void writeSInt(int field, long value) {
+            writeTag(field, WIRE_VARINT);
+            writeRawVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeBoolean(int field, boolean value) {
+            writeTag(field, WIRE_VARINT);
+            writeRawVarint(value ? 1 : 0);
+        }
+
+        void writeDouble(int field, double value) {
+            writeTag(field, WIRE_FIXED64);
+            final long bits = Double.doubleToRawLongBits(value);
+            ensureCapacity(8);
+            for (int i = 0; i < 8; i++) {
+                mBuf[mPos++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        /** Null strings are omitted, and read back as null. */
+        void writeString(int field, String value) {
+            if (value == null) {
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeBytes(field, bytes, 0, bytes.length);
+        }
+
+        void writeBytes(int field, byte[] bytes, int offset, int length) {
+            writeTag(field, WIRE_BYTES);
+            writeRawVarint(length);
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, mBuf, mPos, length);
+            mPos += length;
+        }
+    }
+
+    /** Reads tagged fields. Throws IllegalArgumentException on malformed input. */
+    private static final class Reader {
+        private final byte[] mBuf;
+        private final int mLimit;
+        private int mPos;
+
+        Reader(byte[] buf, int offset, int limit) {
+            mBuf = buf;
+            mPos = offset;
+            mLimit = limit;
+        }
+
+        boolean hasMore() {
+            return mPos < mLimit;
+        }
+
+        long readRawVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPos >= mLimit) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                final byte b = mBuf[mPos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readSInt() {
+            final long value = readRawVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        boolean readBoolean() {
+            return readRawVarint() != 0;
+        }
+
+        double readDouble() {
+            checkAvailable(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (mBuf[mPos++] & 0xFFL) << (8 * i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        private int readLength() {
+            final long length = readRawVarint();
+            if (length < 0 || length > mLimit - mPos) {
+                throw new IllegalArgumentException("Bad length " + length);
+            }
+            return (int) length;
+        }
+
+        String readString() {
+            final int length = readLength();
+            final String value = new String(mBuf, mPos, length, StandardCharsets.UTF_8);
+            mPos += length;
+            return value;
+        }
+
+        Reader readNested() {
+            final int length = readLength();
+            final Reader nested = new Reader(mBuf, mPos, mPos + length);
+            mPos += length;
+            return nested;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case WIRE_VARINT:
+                    readRawVarint();
+                    break;
+                case WIRE_FIXED64:
+                    checkAvailable(8);
+                    mPos += 8;
+                    break;
+                case WIRE_BYTES:
+                    mPos += readLength();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown wire type " + wireType);
+            }
+        }
+
+        private void checkAvailable(int bytes) {
+            if (mLimit - mPos < bytes) {
+                throw new IllegalArgumentException("Truncated field");
+            }
+        }
+    }
+}
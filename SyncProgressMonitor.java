@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseLongArray;
+
+import com.android.server.content.SyncManager.ActiveSyncContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detects running syncs that make no progress, i.e. that transfer no more than a threshold of
+ * bytes over a window of time.
+ *
+ * Rather than waking up once per window for each sync, the monitor keeps a single message
+ * posted for the earliest check that is due, plus {@link #COALESCE_MILLIS} so that checks
+ * falling due close together are done in one pass. A pass reads the byte counter of each uid
+ * at most once. Checking a sync late only makes its window longer, so this never cancels a sync
+ * that the per-sync checks wouldn't have.
+ *
+ * Only used on the SyncManager handler thread.
+ *
+ * @hide
+ */
+class SyncProgressMonitor {
+    private static final String TAG = "SyncManager";
+
+    /** How long a check may be delayed to share a pass with other checks. */
+    static final long COALESCE_MILLIS = 5 * 1000;
+
+    /** Where the monitor reads how many bytes a uid has transferred. */
+    interface ByteSource {
+        /** @return the total number of bytes sent and received by the given uid. */
+        long getTotalBytesTransferred(int uid);
+    }
+
+    static final ByteSource TRAFFIC_STATS =
+            uid -> TrafficStats.getUidRxBytes(uid) + TrafficStats.getUidTxBytes(uid);
+
+    private final Handler mHandler;
+    private final int mWhat;
+    private final ByteSource mByteSource;
+    private final long mWindowMillis;
+    private final long mThresholdBytes;
+
+    private final ArrayList<ActiveSyncContext> mMonitored = new ArrayList<>();
+
+    /** Bytes read for each uid in the current pass. */
+    private final SparseLongArray mBytesByUid = new SparseLongArray();
+
+    /**
+     * @param what the message that the handler should answer by calling {@link #checkProgress}.
+     */
+    SyncProgressMonitor(Handler handler, int what, ByteSource byteSource, long windowMillis,
+            long thresholdBytes) {
+        mHandler = handler;
+        mWhat = what;
+        mByteSource = byteSource;
+        mWindowMillis = windowMillis;
+        mThresholdBytes = thresholdBytes;
+    }
+
+    /** Start checking that the given sync makes progress. */
+    void startMonitoring(ActiveSyncContext activeSyncContext) {
+        activeSyncContext.mBytesTransferredAtLastPoll =
+                mByteSource.getTotalBytesTransferred(activeSyncContext.mSyncAdapterUid);
+        activeSyncContext.mLastPolledTimeElapsed = SystemClock.elapsedRealtime();
+        mMonitored.add(activeSyncContext);
+        scheduleNextCheck();
+    }
+
+    void stopMonitoring(ActiveSyncContext activeSyncContext) {
+        if (mMonitored.remove(activeSyncContext)) {
+            scheduleNextCheck();
+        }
+    }
+
+    /**
+     * Check every sync whose window has passed.
+     *
+     * @return the syncs that made no progress in their window. They are no longer monitored.
+     */
+    List<ActiveSyncContext> checkProgress() {
+        final long now = SystemClock.elapsedRealtime();
+        ArrayList<ActiveSyncContext> stalled = null;
+        mBytesByUid.clear();
+        for (int i = mMonitored.size() - 1; i >= 0; i--) {
+            final ActiveSyncContext asc = mMonitored.get(i);
+            if (asc.mLastPolledTimeElapsed + mWindowMillis > now) {
+                continue;
+            }
+            final long bytes = getTotalBytesTransferred(asc.mSyncAdapterUid);
+            final long delta = bytes - asc.mBytesTransferredAtLastPoll;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Time since last update: "
+                        + (now - asc.mLastPolledTimeElapsed) / 1000 + "s. Delta transferred: "
+                        + delta + " bytes for " + asc.mSyncOperation.target);
+            }
+            if (delta <= mThresholdBytes) {
+                if (stalled == null) {
+                    stalled = new ArrayList<>();
+                }
+                stalled.add(asc);
+                mMonitored.remove(i);
+            } else {
+                asc.mBytesTransferredAtLastPoll = bytes;
+                asc.mLastPolledTimeElapsed = now;
+            }
+        }
+        scheduleNextCheck();
+        return stalled != null ? stalled : Collections.emptyList();
+    }
+
+    private long getTotalBytesTransferred(int uid) {
+        final int index = mBytesByUid.indexOfKey(uid);
+        if (index >= 0) {
+            return mBytesByUid.valueAt(index);
+        }
+        final long bytes = mByteSource.getTotalBytesTransferred(uid);
+        mBytesByUid.put(uid, bytes);
+        return bytes;
+    }
+
+    private void scheduleNextCheck() {
+        mHandler.removeMessages(mWhat);
+        if (mMonitored.isEmpty()) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0, size = mMonitored.size(); i < size; i++) {
+            earliest = Math.min(earliest, mMonitored.get(i).mLastPolledTimeElapsed);
+        }
+        final long delay = earliest + mWindowMillis + COALESCE_MILLIS
+                - SystemClock.elapsedRealtime();
+        mHandler.sendEmptyMessageDelayed(mWhat, Math.max(0, delay));
+    }
+}
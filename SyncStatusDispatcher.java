@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ISyncStatusObserver;
+import android.content.pm.PackageManagerInternal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.IntArray;
+import android.util.Log;
+import android.util.Slog;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IntPair;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Delivers sync status changes to the {@link ISyncStatusObserver}s registered with
+ * {@link SyncStorageEngine}.
+ *
+ * Changes are queued by {@link #reportChange} without blocking and delivered on a dedicated
+ * thread. The first change is delivered right away; changes that follow within
+ * {@link #DISPATCH_DELAY_MS} of a delivery wait for the end of that window. All the changes a
+ * listener should see in a window are merged into a single callback whose mask is the union of
+ * their types, so a burst of sync events costs each listener at most two binder calls.
+ *
+ * Whether a listener may see the package that caused a change is cached per package and
+ * listener uid until a package is added, changed or removed, or a user is removed. Only
+ * visibility is cached across deliveries: a package can become visible without any broadcast,
+ * e.g. when the package manager grants implicit access, so a filtered result is asked again
+ * on the next delivery.
+ *
+ * @hide
+ */
+class SyncStatusDispatcher {
+    private static final String TAG = "SyncManager";
+
+    /** How long changes that follow a delivery are collected before they are delivered. */
+    static final long DISPATCH_DELAY_MS = 100;
+
+    private static final int MSG_DISPATCH = 1;
+
+    private final PackageManagerInternal mPackageManagerInternal;
+
+    private final RemoteCallbackList<ISyncStatusObserver> mListeners =
+            new RemoteCallbackList<ISyncStatusObserver>();
+
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private ArraySet<Change> mPendingChanges = new ArraySet<>();
+
+    /** Uptime of the last delivery, or of the one already scheduled. */
+    @GuardedBy("mLock")
+    private long mLastDispatchUptime = -DISPATCH_DELAY_MS;
+
+    /** Swapped with {@link #mPendingChanges} by the dispatch thread. */
+    private ArraySet<Change> mDispatchingChanges = new ArraySet<>();
+
+    /**
+     * Result of {@link PackageManagerInternal#filterAppAccess} by package, then by listener
+     * uid. Filtered results are dropped after each delivery. Only used on the dispatch thread.
+     */
+    private final ArrayMap<String, SparseBooleanArray> mFilterAppAccessCache = new ArrayMap<>();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Runs on the dispatch thread, see the constructor.
+            mFilterAppAccessCache.clear();
+        }
+    };
+
+    SyncStatusDispatcher(Context context, PackageManagerInternal packageManagerInternal) {
+        this(context, packageManagerInternal, createDispatchLooper());
+    }
+
+    @VisibleForTesting
+    SyncStatusDispatcher(Context context, PackageManagerInternal packageManagerInternal,
+            Looper looper) {
+        mPackageManagerInternal = packageManagerInternal;
+        mHandler = new DispatchHandler(looper);
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageFilter, null,
+                mHandler);
+
+        // The uids of a removed user may be reused by a new one.
+        final IntentFilter userFilter = new IntentFilter(Intent.ACTION_USER_REMOVED);
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, userFilter, null,
+                mHandler);
+    }
+
+    private static Looper createDispatchLooper() {
+        final HandlerThread thread = new HandlerThread("SyncStatusDispatcher",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    void addListener(int mask, int callingUid, ISyncStatusObserver callback) {
+        final long cookie = IntPair.of(callingUid, mask);
+        mListeners.register(callback, cookie);
+    }
+
+    void removeListener(ISyncStatusObserver callback) {
+        mListeners.unregister(callback);
+    }
+
+    /**
+     * Queue a change of the given type for delivery to the listeners of the given user that
+     * are interested in it.
+     *
+     * @param callingPackageName the package that caused the change, which listeners that can't
+     * see it are not told about, or null if every listener may be told.
+     */
+    void reportChange(int which, String callingPackageName, int callingUserId) {
+        synchronized (mLock) {
+            mPendingChanges.add(new Change(which, callingPackageName, callingUserId));
+            if (!mHandler.hasMessages(MSG_DISPATCH)) {
+                mLastDispatchUptime = Math.max(SystemClock.uptimeMillis(),
+                        mLastDispatchUptime + DISPATCH_DELAY_MS);
+                mHandler.sendEmptyMessageAtTime(MSG_DISPATCH, mLastDispatchUptime);
+            }
+        }
+    }
+
+    private void dispatchPendingChanges() {
+        final ArraySet<Change> changes;
+        synchronized (mLock) {
+            changes = mPendingChanges;
+            mPendingChanges = mDispatchingChanges;
+            mDispatchingChanges = changes;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        ArrayList<ISyncStatusObserver> reports = null;
+        IntArray masks = null;
+        int i = mListeners.beginBroadcast();
+        try {
+            while (i > 0) {
+                i--;
+                final long cookie = (long) mListeners.getBroadcastCookie(i);
+                final int registerUid = IntPair.first(cookie);
+                final int registerUserId = UserHandle.getUserId(registerUid);
+                final int mask = IntPair.second(cookie);
+                int which = 0;
+                for (int j = 0, size = changes.size(); j < size; j++) {
+                    final Change change = changes.valueAt(j);
+                    if ((change.which & mask) == 0 || change.userId != registerUserId
+                            || (which & change.which) == change.which) {
+                        continue;
+                    }
+                    if (change.packageName != null
+                            && filterAppAccess(change.packageName, registerUid, change.userId)) {
+                        continue;
+                    }
+                    which |= change.which;
+                }
+                if (which == 0) {
+                    continue;
+                }
+                if (reports == null) {
+                    reports = new ArrayList<ISyncStatusObserver>(i + 1);
+                    masks = new IntArray(i + 1);
+                }
+                reports.add(mListeners.getBroadcastItem(i));
+                masks.add(which);
+            }
+        } finally {
+            mListeners.finishBroadcast();
+            changes.clear();
+            dropFilteredResults();
+        }
+
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Slog.v(TAG, "reportChange " + masks + " to: " + reports);
+        }
+
+        if (reports != null) {
+            for (int j = 0, size = reports.size(); j < size; j++) {
+                try {
+                    reports.get(j).onStatusChanged(masks.get(j));
+                } catch (RemoteException e) {
+                    // The remote callback list will take care of this for us.
+                }
+            }
+        }
+    }
+
+    private boolean filterAppAccess(String packageName, int uid, int userId) {
+        SparseBooleanArray filteredByUid = mFilterAppAccessCache.get(packageName);
+        if (filteredByUid == null) {
+            filteredByUid = new SparseBooleanArray();
+            mFilterAppAccessCache.put(packageName, filteredByUid);
+        }
+        final int index = filteredByUid.indexOfKey(uid);
+        if (index >= 0) {
+            return filteredByUid.valueAt(index);
+        }
+        // The uid determines the user, so it doesn't need to be part of the key.
+        final boolean filtered = mPackageManagerInternal.filterAppAccess(packageName, uid, userId);
+        filteredByUid.put(uid, filtered);
+        return filtered;
+    }
+
+    private void dropFilteredResults() {
+        for (int i = mFilterAppAccessCache.size() - 1; i >= 0; i--) {
+            final SparseBooleanArray filteredByUid = mFilterAppAccessCache.valueAt(i);
+            for (int j = filteredByUid.size() - 1; j >= 0; j--) {
+                if (filteredByUid.valueAt(j)) {
+                    filteredByUid.removeAt(j);
+                }
+            }
+            if (filteredByUid.size() == 0) {
+                mFilterAppAccessCache.removeAt(i);
+            }
+        }
+    }
+
+    private class DispatchHandler extends Handler {
+        DispatchHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_DISPATCH) {
+                dispatchPendingChanges();
+            }
+        }
+    }
+
+    /** A queued change; identical changes in the same window are only delivered once. */
+    private static final class Change {
+        final int which;
+        final String packageName;
+        final int userId;
+
+        Change(int which, String packageName, int userId) {
+            this.which = which;
+            this.packageName = packageName;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Change)) {
+                return false;
+            }
+            final Change other = (Change) o;
+            return which == other.which && userId == other.userId
+                    && Objects.equals(packageName, other.packageName);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = which;
+            hash = 31 * hash + Objects.hashCode(packageName);
+            return 31 * hash + userId;
+        }
+    }
+}
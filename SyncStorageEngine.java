@@ -40,24 +40,25 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
-import android.os.RemoteCallbackList;
-import android.os.RemoteException;
+import android.os.SystemProperties;
 import android.os.UserHandle;
+import android.text.format.DateUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.EventLog;
+import android.util.IntArray;
 import android.util.Log;
 import android.util.Pair;
 import android.util.Slog;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.Xml;
 import android.util.proto.ProtoInputStream;
 import android.util.proto.ProtoOutputStream;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
-import com.android.internal.util.IntPair;
 import com.android.modules.utils.TypedXmlPullParser;
 import com.android.modules.utils.TypedXmlSerializer;
 import com.android.server.LocalServices;
@@ -65,6 +66,11 @@ import com.android.server.LocalServices;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -72,12 +78,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Random;
-import java.util.TimeZone;
+import java.util.zip.CRC32;
 
 /**
  * Singleton that tracks the sync data and overall sync
@@ -154,12 +162,24 @@ public class SyncStorageEngine {
 
     public static final int MAX_HISTORY = 100;
 
-    private static final int MSG_WRITE_STATUS = 1;
+    @VisibleForTesting
+    static final int MSG_WRITE_STATUS = 1;
     private static final long WRITE_STATUS_DELAY = 1000*60*10; // 10 minutes
 
-    private static final int MSG_WRITE_STATISTICS = 2;
+    @VisibleForTesting
+    static final int MSG_WRITE_STATISTICS = 2;
     private static final long WRITE_STATISTICS_DELAY = 1000*60*30; // 1/2 hour
 
+    @VisibleForTesting
+    static final int MSG_WRITE_ACCOUNT_INFO = 3;
+
+    @VisibleForTesting
+    static final int MSG_WRITE_STATUS_JOURNAL = 4;
+    /** The status journal is compacted into the status file once it grows past this size. */
+    private static final long MAX_STATUS_JOURNAL_BYTES = 64 * 1024;
+    /** The status journal starts with the CRC32 of the status file, as a big-endian long. */
+    private static final int STATUS_JOURNAL_HEADER_BYTES = 8;
+
     private static final boolean SYNC_ENABLED_DEFAULT = false;
 
     // the version of the accounts xml file format
@@ -168,8 +188,6 @@ public class SyncStorageEngine {
     private static HashMap<String, String> sAuthorityRenames;
     private static PeriodicSyncAddedListener mPeriodicSyncAddedListener;
 
-    private final PackageManagerInternal mPackageManagerInternal;
-
     private volatile boolean mIsClockValid;
 
     private volatile boolean mIsJobNamespaceMigrated;
@@ -232,6 +250,36 @@ public class SyncStorageEngine {
             return accountsMatch && providersMatch;
         }
 
+        /**
+         * @return true if this EndPoint has no wildcard fields, i.e. it names exactly one
+         * account, provider and user.
+         */
+        boolean isFullySpecified() {
+            return account != null && provider != null && userId != UserHandle.USER_ALL;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EndPoint)) {
+                return false;
+            }
+            final EndPoint other = (EndPoint) o;
+            return userId == other.userId
+                    && Objects.equals(account, other.account)
+                    && Objects.equals(provider, other.provider);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = userId;
+            result = 31 * result + (account == null ? 0 : account.hashCode());
+            result = 31 * result + (provider == null ? 0 : provider.hashCode());
+            return result;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append(account == null ? "ALL ACCS" : account.name)
@@ -365,6 +413,78 @@ public class SyncStorageEngine {
         int syncExemptionFlag;
     }
 
+    /**
+     * The sync state of one user that is read by status queries such as
+     * {@link #isSyncActive}, {@link #getCurrentSyncsCopy} and {@link #isSyncPending}. It is
+     * guarded by the UserSyncState itself rather than by mAuthorities, so that these queries
+     * neither wait on writes to the engine's other state nor on the syncs of other users. When
+     * both are needed, mAuthorities is taken first.
+     *
+     * It holds no SyncStatusInfo: those are guarded by mAuthorities alone, and are copied out
+     * by {@link #getStatusByAuthority}.
+     */
+    private static final class UserSyncState {
+        /** The syncs currently running for this user. */
+        final ArrayList<SyncInfo> currentSyncs = new ArrayList<>();
+
+        /** The targets whose {@link SyncStatusInfo#pending} is set. */
+        final HashSet<EndPoint> pendingTargets = new HashSet<>();
+
+        /** Day stats of this user's authorities that have synced since boot, by target. */
+        final HashMap<EndPoint, AuthorityDayStats> dayStatsByEndPoint = new HashMap<>();
+    }
+
+    /**
+     * Per-day counters of the syncs of one authority, in a ring indexed like
+     * {@link #mDayStats}. They are only kept in memory. Guarded by the UserSyncState of the
+     * authority's user.
+     */
+    private static final class AuthorityDayStats {
+        /** The day of each slot, 0 if the slot is unused. */
+        final int[] days = new int[DAY_STATS_CAPACITY];
+        final int[] successCounts = new int[DAY_STATS_CAPACITY];
+        final long[] successTimes = new long[DAY_STATS_CAPACITY];
+        final int[] failureCounts = new int[DAY_STATS_CAPACITY];
+        final long[] failureTimes = new long[DAY_STATS_CAPACITY];
+
+        void add(int day, boolean success, long elapsedTime) {
+            final int slot = getDayStatsSlot(day);
+            if (days[slot] != day) {
+                days[slot] = day;
+                successCounts[slot] = 0;
+                successTimes[slot] = 0;
+                failureCounts[slot] = 0;
+                failureTimes[slot] = 0;
+            }
+            if (success) {
+                successCounts[slot]++;
+                successTimes[slot] += elapsedTime;
+            } else {
+                failureCounts[slot]++;
+                failureTimes[slot] += elapsedTime;
+            }
+        }
+
+        /** @return a copy of the counters, in the same order as {@link #getDayStatistics()}. */
+        DayStats[] toDayStats() {
+            final DayStats[] stats = new DayStats[DAY_STATS_CAPACITY];
+            int count = 0;
+            for (int slot = 0; slot < DAY_STATS_CAPACITY; slot++) {
+                if (days[slot] == 0) {
+                    continue;
+                }
+                final DayStats ds = new DayStats(days[slot]);
+                ds.successCount = successCounts[slot];
+                ds.successTime = successTimes[slot];
+                ds.failureCount = failureCounts[slot];
+                ds.failureTime = failureTimes[slot];
+                stats[count++] = ds;
+            }
+            sortNewestFirst(stats, count);
+            return stats;
+        }
+    }
+
     public static class DayStats {
         public final int day;
         public int successCount;
@@ -446,18 +566,25 @@ public class SyncStorageEngine {
     private final HashMap<AccountAndUser, AccountInfo> mAccounts
             = new HashMap<AccountAndUser, AccountInfo>();
 
-    private final SparseArray<ArrayList<SyncInfo>> mCurrentSyncs
-            = new SparseArray<ArrayList<SyncInfo>>();
+    /**
+     * The same authorities as {@link #mAccounts}, keyed directly by target, so that a lookup
+     * needs a single probe and doesn't allocate: the caller's EndPoint is the key.
+     */
+    private final HashMap<EndPoint, AuthorityInfo> mAuthoritiesByEndPoint = new HashMap<>();
+
+    /**
+     * Per-user partitions of the state read by status queries, keyed by userId. Guarded by
+     * itself; each partition is guarded by its own lock, see {@link UserSyncState}.
+     */
+    private final SparseArray<UserSyncState> mUserSyncStates = new SparseArray<>();
 
     @VisibleForTesting
     final SparseArray<SyncStatusInfo> mSyncStatus =
             new SparseArray<SyncStatusInfo>();
 
-    private final ArrayList<SyncHistoryItem> mSyncHistory =
-            new ArrayList<SyncHistoryItem>();
+    private final SyncHistoryBuffer mSyncHistory = new SyncHistoryBuffer(MAX_HISTORY);
 
-    private final RemoteCallbackList<ISyncStatusObserver> mChangeListeners
-            = new RemoteCallbackList<ISyncStatusObserver>();
+    private final SyncStatusDispatcher mStatusDispatcher;
 
     /** Reverse mapping for component name -> <userid -> target id>. */
     private final ArrayMap<ComponentName, SparseArray<AuthorityInfo>> mServices =
@@ -466,11 +593,14 @@ public class SyncStorageEngine {
     private int mNextAuthorityId = 0;
 
     // We keep 4 weeks of stats.
+    private static final int DAY_STATS_CAPACITY = 7 * 4;
+
+    /**
+     * Stats of the days with syncs, each in the slot given by {@link #getDayStatsSlot}, so a
+     * day's slot is reused {@link #DAY_STATS_CAPACITY} days later.
+     */
     @VisibleForTesting
-    final DayStats[] mDayStats = new DayStats[7*4];
-    private final Calendar mCal;
-    private int mYear;
-    private int mYearInDays;
+    final DayStats[] mDayStats = new DayStats[DAY_STATS_CAPACITY];
 
     private final Context mContext;
 
@@ -479,12 +609,21 @@ public class SyncStorageEngine {
     private int mSyncRandomOffset;
 
     private static final boolean DELETE_LEGACY_PARCEL_FILES = true;
+
+    /**
+     * System property that turns on the binary {@link AuthorityTableFile} for the account
+     * information, read at boot. Off by default while the format is proven.
+     */
+    private static final String PROP_USE_ACCOUNT_INFO_TABLE =
+            "persist.sys.sync.use_account_info_table";
     private static final String LEGACY_STATUS_FILE_NAME = "status.bin";
     private static final String LEGACY_STATISTICS_FILE_NAME = "stats.bin";
 
     private static final String SYNC_DIR_NAME = "sync";
     private static final String ACCOUNT_INFO_FILE_NAME = "accounts.xml";
+    private static final String ACCOUNT_INFO_TABLE_FILE_NAME = "accounts.bin";
     private static final String STATUS_FILE_NAME = "status";
+    private static final String STATUS_JOURNAL_FILE_NAME = "status.journal";
     private static final String STATISTICS_FILE_NAME = "stats";
 
     private File mSyncDir;
@@ -496,6 +635,29 @@ public class SyncStorageEngine {
      */
     private final AtomicFile mAccountInfoFile;
 
+    /**
+     * The same state as {@link #mAccountInfoFile} in a binary format that can be read faster
+     * and updated by appending, see {@link #mUseAccountInfoTable}.
+     */
+    private final AuthorityTableFile mAccountInfoTableFile;
+
+    /**
+     * Whether {@link #mAccountInfoTableFile} is used. If so a write appends the authorities in
+     * {@link #mChangedAuthorityIds} to it, and accounts.xml is only written when the table is
+     * rewritten in full: when migrating to it, and when it is compacted. accounts.xml is then a
+     * fallback that is read only if the table can't be. If not, a table left over from when it
+     * was used is read in preference to accounts.xml, since it is newer, and deleted once
+     * accounts.xml has been written.
+     */
+    private final boolean mUseAccountInfoTable;
+
+    /**
+     * Ids of the authorities that were created, changed or removed since
+     * {@link #mAccountInfoTableFile} was last written. Only kept while the table is used.
+     */
+    @GuardedBy("mAuthorities")
+    private final SparseBooleanArray mChangedAuthorityIds = new SparseBooleanArray();
+
     /**
      * This file contains the current sync status.  We would like to retain
      * it across boots, but its loss is not the end of the world, so we store
@@ -503,6 +665,29 @@ public class SyncStorageEngine {
      */
     private final AtomicFile mStatusFile;
 
+    /**
+     * Append-only journal of the sync status changes made since {@link #mStatusFile} was last
+     * written. Each record is a {@link SyncStatusProto#STATUS} entry with the full status of a
+     * single authority, so the journal has the same format as the status file and replaying it
+     * is just reading it after the status file: later entries for an authority replace earlier
+     * ones. Only touched with {@link #mFileWriteLock} held.
+     *
+     * <p>The records follow a header with the CRC32 of the status file they apply to. A crash
+     * after a new status file is written but before the journal is deleted leaves a journal
+     * whose records are older than the status file; its header no longer matches, so it is
+     * dropped rather than replayed.
+     */
+    private final File mStatusJournalFile;
+
+    /** The CRC32 of the current {@link #mStatusFile}, or 0 if there is none. */
+    private volatile long mStatusFileCrc;
+
+    /**
+     * Authorities whose status changed since it was last written to the journal or the status
+     * file. Guarded by mAuthorities.
+     */
+    private final SparseBooleanArray mStatusJournalPending = new SparseBooleanArray();
+
     /**
      * This file contains sync statistics.  This is purely debugging information
      * so is written infrequently and can be thrown away at any time.
@@ -518,21 +703,30 @@ public class SyncStorageEngine {
 
     private boolean mGrantSyncAdaptersAccountAccess;
 
+    /**
+     * Files are written on {@link #mHandler}, outside of the mAuthorities lock: the state is
+     * serialized into memory under the lock and then written to disk. This lock keeps two
+     * writes of the same file from interleaving, e.g. a flush in {@link #writeAllState()} and a
+     * write on the handler. Never acquire it while holding mAuthorities.
+     */
+    private final Object mFileWriteLock = new Object();
+
     private final MyHandler mHandler;
     private final SyncLogger mLogger;
 
-    private SyncStorageEngine(Context context, File dataDir, Looper looper) {
+    private SyncStorageEngine(Context context, File dataDir, Looper looper,
+            boolean useAccountInfoTable) {
         mHandler = new MyHandler(looper);
         mContext = context;
+        mUseAccountInfoTable = useAccountInfoTable;
         sSyncStorageEngine = this;
         mLogger = SyncLogger.getInstance();
 
-        mCal = Calendar.getInstance(TimeZone.getTimeZone("GMT+0"));
-
         mDefaultMasterSyncAutomatically = mContext.getResources().getBoolean(
                 com.android.internal.R.bool.config_syncstorageengine_masterSyncAutomatically);
 
-        mPackageManagerInternal = LocalServices.getService(PackageManagerInternal.class);
+        mStatusDispatcher = new SyncStatusDispatcher(context,
+                LocalServices.getService(PackageManagerInternal.class));
 
         File systemDir = new File(dataDir, "system");
         mSyncDir = new File(systemDir, SYNC_DIR_NAME);
@@ -541,7 +735,10 @@ public class SyncStorageEngine {
         maybeDeleteLegacyPendingInfoLocked(mSyncDir);
         mAccountInfoFile = new AtomicFile(new File(mSyncDir, ACCOUNT_INFO_FILE_NAME),
                 "sync-accounts");
+        mAccountInfoTableFile = new AuthorityTableFile(
+                new File(mSyncDir, ACCOUNT_INFO_TABLE_FILE_NAME));
         mStatusFile = new AtomicFile(new File(mSyncDir, STATUS_FILE_NAME), "sync-status");
+        mStatusJournalFile = new File(mSyncDir, STATUS_JOURNAL_FILE_NAME);
         mStatisticsFile = new AtomicFile(new File(mSyncDir, STATISTICS_FILE_NAME), "sync-stats");
 
         readAccountInfoLocked();
@@ -558,7 +755,19 @@ public class SyncStorageEngine {
     }
 
     public static SyncStorageEngine newTestInstance(Context context) {
-        return new SyncStorageEngine(context, context.getFilesDir(), Looper.getMainLooper());
+        return newTestInstance(context, false);
+    }
+
+    @VisibleForTesting
+    static SyncStorageEngine newTestInstance(Context context, boolean useAccountInfoTable) {
+        return newTestInstance(context, Looper.getMainLooper(), useAccountInfoTable);
+    }
+
+    /** Creates an engine whose files are written on the given looper. */
+    @VisibleForTesting
+    static SyncStorageEngine newTestInstance(Context context, Looper looper,
+            boolean useAccountInfoTable) {
+        return new SyncStorageEngine(context, context.getFilesDir(), looper, useAccountInfoTable);
     }
 
     public static void init(Context context, Looper looper) {
@@ -566,7 +775,8 @@ public class SyncStorageEngine {
             return;
         }
         File dataDir = Environment.getDataDirectory();
-        sSyncStorageEngine = new SyncStorageEngine(context, dataDir, looper);
+        sSyncStorageEngine = new SyncStorageEngine(context, dataDir, looper,
+                SystemProperties.getBoolean(PROP_USE_ACCOUNT_INFO_TABLE, false));
     }
 
     public static SyncStorageEngine getSingleton() {
@@ -602,13 +812,13 @@ public class SyncStorageEngine {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MSG_WRITE_STATUS) {
-                synchronized (mAuthorities) {
-                    writeStatusLocked();
-                }
+                persistStatus();
             } else if (msg.what == MSG_WRITE_STATISTICS) {
-                synchronized (mAuthorities) {
-                    writeStatisticsLocked();
-                }
+                persistStatistics();
+            } else if (msg.what == MSG_WRITE_ACCOUNT_INFO) {
+                persistAccountInfo();
+            } else if (msg.what == MSG_WRITE_STATUS_JOURNAL) {
+                persistStatusJournal();
             }
         }
     }
@@ -618,16 +828,11 @@ public class SyncStorageEngine {
     }
 
     public void addStatusChangeListener(int mask, int callingUid, ISyncStatusObserver callback) {
-        synchronized (mAuthorities) {
-            final long cookie = IntPair.of(callingUid, mask);
-            mChangeListeners.register(callback, cookie);
-        }
+        mStatusDispatcher.addListener(mask, callingUid, callback);
     }
 
     public void removeStatusChangeListener(ISyncStatusObserver callback) {
-        synchronized (mAuthorities) {
-            mChangeListeners.unregister(callback);
-        }
+        mStatusDispatcher.removeListener(callback);
     }
 
     /**
@@ -663,46 +868,12 @@ public class SyncStorageEngine {
         reportChange(which, syncAdapterPackageName, target.userId);
     }
 
+    /**
+     * Tell the status change listeners of the given user about a change. The change is
+     * delivered asynchronously, merged with other changes made shortly after it.
+     */
     void reportChange(int which, String callingPackageName, int callingUserId) {
-        ArrayList<ISyncStatusObserver> reports = null;
-        synchronized (mAuthorities) {
-            int i = mChangeListeners.beginBroadcast();
-            while (i > 0) {
-                i--;
-                final long cookie = (long) mChangeListeners.getBroadcastCookie(i);
-                final int registerUid = IntPair.first(cookie);
-                final int registerUserId = UserHandle.getUserId(registerUid);
-                final int mask = IntPair.second(cookie);
-                if ((which & mask) == 0 || callingUserId != registerUserId) {
-                    continue;
-                }
-                if (callingPackageName != null && mPackageManagerInternal.filterAppAccess(
-                        callingPackageName, registerUid, callingUserId)) {
-                    continue;
-                }
-                if (reports == null) {
-                    reports = new ArrayList<ISyncStatusObserver>(i);
-                }
-                reports.add(mChangeListeners.getBroadcastItem(i));
-            }
-            mChangeListeners.finishBroadcast();
-        }
-
-        if (Log.isLoggable(TAG, Log.VERBOSE)) {
-            Slog.v(TAG, "reportChange " + which + " to: " + reports);
-        }
-
-        if (reports != null) {
-            int i = reports.size();
-            while (i > 0) {
-                i--;
-                try {
-                    reports.get(i).onStatusChanged(which);
-                } catch (RemoteException e) {
-                    // The remote callback list will take care of this for us.
-                }
-            }
-        }
+        mStatusDispatcher.reportChange(which, callingPackageName, callingUserId);
     }
 
     public boolean getSyncAutomatically(Account account, int userId, String providerName) {
@@ -759,6 +930,7 @@ public class SyncStorageEngine {
                 authority.syncable = AuthorityInfo.NOT_INITIALIZED;
             }
             authority.enabled = sync;
+            markAuthorityChangedLocked(authority.ident);
             writeAccountInfoLocked();
         }
 
@@ -829,6 +1001,7 @@ public class SyncStorageEngine {
                 return;
             }
             aInfo.syncable = syncable;
+            markAuthorityChangedLocked(aInfo.ident);
             writeAccountInfoLocked();
         }
         if (syncable == AuthorityInfo.SYNCABLE) {
@@ -876,11 +1049,29 @@ public class SyncStorageEngine {
         }
     }
 
+    /**
+     * @return the time, in the elapsed realtime base, before which syncs for the given target
+     * should not run because of its backoff or delay-until time, or 0 if there is none.
+     */
+    public long getNextEligibleTime(EndPoint info) {
+        synchronized (mAuthorities) {
+            AuthorityInfo authority = getAuthorityLocked(info, "getNextEligibleTime");
+            if (authority == null) {
+                return 0;
+            }
+            final long backoffTime = authority.backoffTime == NOT_IN_BACKOFF_MODE
+                    ? 0 : authority.backoffTime;
+            return Math.max(backoffTime, authority.delayUntil);
+        }
+    }
+
     /**
      * Update the backoff for the given endpoint. The endpoint may be for a provider/account and
      * the account or provider info be null, which signifies all accounts or providers.
+     *
+     * @return whether the backoff of any authority changed.
      */
-    public void setBackoff(EndPoint info, long nextSyncTime, long nextDelay) {
+    public boolean setBackoff(EndPoint info, long nextSyncTime, long nextDelay) {
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
             Slog.v(TAG, "setBackoff: " + info
                     + " -> nextSyncTime " + nextSyncTime + ", nextDelay " + nextDelay);
@@ -911,6 +1102,7 @@ public class SyncStorageEngine {
         if (changed) {
             reportChange(ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS, info);
         }
+        return changed;
     }
 
     /**
@@ -986,7 +1178,10 @@ public class SyncStorageEngine {
         }
     }
 
-    public void setDelayUntilTime(EndPoint info, long delayUntil) {
+    /**
+     * @return whether the delay-until time of the given endpoint changed.
+     */
+    public boolean setDelayUntilTime(EndPoint info, long delayUntil) {
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
             Slog.v(TAG, "setDelayUntil: " + info
                     + " -> delayUntil " + delayUntil);
@@ -994,11 +1189,12 @@ public class SyncStorageEngine {
         synchronized (mAuthorities) {
             AuthorityInfo authority = getOrCreateAuthorityLocked(info, -1, true);
             if (authority.delayUntil == delayUntil) {
-                return;
+                return false;
             }
             authority.delayUntil = delayUntil;
         }
         reportChange(ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS, info);
+        return true;
     }
 
     /**
@@ -1071,10 +1267,17 @@ public class SyncStorageEngine {
      * target.
      */
     public boolean isSyncActive(EndPoint info) {
-        synchronized (mAuthorities) {
-            for (SyncInfo syncInfo : getCurrentSyncs(info.userId)) {
-                AuthorityInfo ainfo = getAuthority(syncInfo.authorityId);
-                if (ainfo != null && ainfo.target.matchesSpec(info)) {
+        final UserSyncState state = peekUserSyncState(info.userId);
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            final ArrayList<SyncInfo> syncs = state.currentSyncs;
+            for (int i = 0, size = syncs.size(); i < size; i++) {
+                final SyncInfo syncInfo = syncs.get(i);
+                // The target of a running sync is its account and authority for this user.
+                if ((info.account == null || info.account.equals(syncInfo.account))
+                        && (info.provider == null || info.provider.equals(syncInfo.authority))) {
                     return true;
                 }
             }
@@ -1092,6 +1295,14 @@ public class SyncStorageEngine {
             }
             SyncStatusInfo status = getOrCreateSyncStatusLocked(authority.ident);
             status.pending = pendingValue;
+            final UserSyncState state = getUserSyncState(authority.target.userId);
+            synchronized (state) {
+                if (pendingValue) {
+                    state.pendingTargets.add(authority.target);
+                } else {
+                    state.pendingTargets.remove(authority.target);
+                }
+            }
         }
         reportChange(ContentResolver.SYNC_OBSERVER_TYPE_PENDING, info);
     }
@@ -1136,6 +1347,9 @@ public class SyncStorageEngine {
                         mAuthorityRemovedListener.onAuthorityRemoved(auth.target);
                     }
                     mAuthorities.remove(ident);
+                    markAuthorityChangedLocked(ident);
+                    mAuthoritiesByEndPoint.remove(auth.target);
+                    unindexSyncStatusLocked(auth.target);
                     int j = mSyncStatus.size();
                     while (j > 0) {
                         j--;
@@ -1143,13 +1357,7 @@ public class SyncStorageEngine {
                             mSyncStatus.remove(mSyncStatus.keyAt(j));
                         }
                     }
-                    j = mSyncHistory.size();
-                    while (j > 0) {
-                        j--;
-                        if (mSyncHistory.get(j).authorityId == ident) {
-                            mSyncHistory.remove(j);
-                        }
-                    }
+                    mSyncHistory.removeAuthority(ident);
                 }
                 writeAccountInfoLocked();
                 writeStatusLocked();
@@ -1181,7 +1389,10 @@ public class SyncStorageEngine {
                     authorityInfo.target.account,
                     authorityInfo.target.provider,
                     activeSyncContext.mStartTime);
-            getCurrentSyncs(authorityInfo.target.userId).add(syncInfo);
+            final UserSyncState state = getUserSyncState(authorityInfo.target.userId);
+            synchronized (state) {
+                state.currentSyncs.add(syncInfo);
+            }
         }
         reportActiveChange(activeSyncContext.mSyncOperation.target);
         return syncInfo;
@@ -1191,13 +1402,14 @@ public class SyncStorageEngine {
      * Called to indicate that a previously active sync is no longer active.
      */
     public void removeActiveSync(SyncInfo syncInfo, int userId) {
-        synchronized (mAuthorities) {
-            if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                Slog.v(TAG, "removeActiveSync: account=" + syncInfo.account
-                        + " user=" + userId
-                        + " auth=" + syncInfo.authority);
-            }
-            getCurrentSyncs(userId).remove(syncInfo);
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Slog.v(TAG, "removeActiveSync: account=" + syncInfo.account
+                    + " user=" + userId
+                    + " auth=" + syncInfo.authority);
+        }
+        final UserSyncState state = getUserSyncState(userId);
+        synchronized (state) {
+            state.currentSyncs.remove(syncInfo);
         }
 
         reportActiveChange(new EndPoint(syncInfo.account, syncInfo.authority, userId));
@@ -1234,10 +1446,7 @@ public class SyncStorageEngine {
             item.extras = op.getClonedExtras();
             item.event = EVENT_START;
             item.syncExemptionFlag = op.syncExemptionFlag;
-            mSyncHistory.add(0, item);
-            while (mSyncHistory.size() > MAX_HISTORY) {
-                mSyncHistory.remove(mSyncHistory.size()-1);
-            }
+            mSyncHistory.addFirst(item);
             id = item.historyId;
             if (Log.isLoggable(TAG, Log.VERBOSE)) Slog.v(TAG, "returning historyId " + id);
         }
@@ -1253,17 +1462,7 @@ public class SyncStorageEngine {
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Slog.v(TAG, "stopSyncEvent: historyId=" + historyId);
             }
-            SyncHistoryItem item = null;
-            int i = mSyncHistory.size();
-            while (i > 0) {
-                i--;
-                item = mSyncHistory.get(i);
-                if (item.historyId == historyId) {
-                    break;
-                }
-                item = null;
-            }
-
+            final SyncHistoryItem item = mSyncHistory.findByHistoryId(historyId);
             if (item == null) {
                 Slog.w(TAG, "stopSyncEvent: no history for id " + historyId);
                 return;
@@ -1311,31 +1510,23 @@ public class SyncStorageEngine {
             }
 
             boolean writeStatisticsNow = false;
-            int day = getCurrentDayLocked();
-            if (mDayStats[0] == null) {
-                mDayStats[0] = new DayStats(day);
-            } else if (day != mDayStats[0].day) {
-                System.arraycopy(mDayStats, 0, mDayStats, 1, mDayStats.length-1);
-                mDayStats[0] = new DayStats(day);
+            final int day = getCurrentDay(System.currentTimeMillis());
+            final int slot = getDayStatsSlot(day);
+            if (mDayStats[slot] == null || mDayStats[slot].day != day) {
+                // The first sync of the day replaces the stats of the day that was in this slot.
+                mDayStats[slot] = new DayStats(day);
                 writeStatisticsNow = true;
-            } else if (mDayStats[0] == null) {
             }
-            final DayStats ds = mDayStats[0];
+            final DayStats ds = mDayStats[slot];
 
             final long lastSyncTime = (item.eventTime + elapsedTime);
-            boolean writeStatusNow = false;
             if (MESG_SUCCESS.equals(resultMessage)) {
                 // - if successful, update the successful columns
-                if (status.lastSuccessTime == 0 || status.lastFailureTime != 0) {
-                    writeStatusNow = true;
-                }
                 status.setLastSuccess(item.source, lastSyncTime);
                 ds.successCount++;
                 ds.successTime += elapsedTime;
+                addAuthorityDayStatsLocked(item.authorityId, day, true, elapsedTime);
             } else if (!MESG_CANCELED.equals(resultMessage)) {
-                if (status.lastFailureTime == 0) {
-                    writeStatusNow = true;
-                }
                 status.totalStats.numFailures++;
                 status.todayStats.numFailures++;
 
@@ -1343,11 +1534,11 @@ public class SyncStorageEngine {
 
                 ds.failureCount++;
                 ds.failureTime += elapsedTime;
+                addAuthorityDayStatsLocked(item.authorityId, day, false, elapsedTime);
             } else {
                 // Cancel
                 status.totalStats.numCancels++;
                 status.todayStats.numCancels++;
-                writeStatusNow = true;
             }
             final StringBuilder event = new StringBuilder();
             event.append("" + resultMessage + " Source=" + SyncStorageEngine.SOURCES[item.source]
@@ -1374,12 +1565,9 @@ public class SyncStorageEngine {
 
             status.addEvent(event.toString());
 
-            if (writeStatusNow) {
-                writeStatusLocked();
-            } else if (!mHandler.hasMessages(MSG_WRITE_STATUS)) {
-                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_WRITE_STATUS),
-                        WRITE_STATUS_DELAY);
-            }
+            // Only this authority's status changed, so journal it rather than rewriting the
+            // status of every authority.
+            journalStatusLocked(status.authorityId);
             if (writeStatisticsNow) {
                 writeStatisticsLocked();
             } else if (!mHandler.hasMessages(MSG_WRITE_STATISTICS)) {
@@ -1391,26 +1579,19 @@ public class SyncStorageEngine {
         reportChange(ContentResolver.SYNC_OBSERVER_TYPE_STATUS, opPackageName, userId);
     }
 
-    /**
-     * Return a list of the currently active syncs. Note that the returned
-     * items are the real, live active sync objects, so be careful what you do
-     * with it.
-     */
-    private List<SyncInfo> getCurrentSyncs(int userId) {
-        synchronized (mAuthorities) {
-            return getCurrentSyncsLocked(userId);
-        }
-    }
-
     /**
      * @param userId Id of user to return current sync info.
      * @param canAccessAccounts Determines whether to redact Account information from the result.
      * @return a copy of the current syncs data structure. Will not return null.
      */
     public List<SyncInfo> getCurrentSyncsCopy(int userId, boolean canAccessAccounts) {
-        synchronized (mAuthorities) {
-            final List<SyncInfo> syncs = getCurrentSyncsLocked(userId);
-            final List<SyncInfo> syncsCopy = new ArrayList<SyncInfo>();
+        final List<SyncInfo> syncsCopy = new ArrayList<SyncInfo>();
+        final UserSyncState state = peekUserSyncState(userId);
+        if (state == null) {
+            return syncsCopy;
+        }
+        synchronized (state) {
+            final List<SyncInfo> syncs = state.currentSyncs;
             for (SyncInfo sync : syncs) {
                 SyncInfo copy;
                 if (!canAccessAccounts) {
@@ -1425,13 +1606,57 @@ public class SyncStorageEngine {
         }
     }
 
-    private List<SyncInfo> getCurrentSyncsLocked(int userId) {
-        ArrayList<SyncInfo> syncs = mCurrentSyncs.get(userId);
-        if (syncs == null) {
-            syncs = new ArrayList<SyncInfo>();
-            mCurrentSyncs.put(userId, syncs);
+    /** @return the partition of the given user's state, creating it if needed. */
+    private UserSyncState getUserSyncState(int userId) {
+        synchronized (mUserSyncStates) {
+            UserSyncState state = mUserSyncStates.get(userId);
+            if (state == null) {
+                state = new UserSyncState();
+                mUserSyncStates.put(userId, state);
+            }
+            return state;
+        }
+    }
+
+    /** @return the partition of the given user's state, or null if it has none yet. */
+    private UserSyncState peekUserSyncState(int userId) {
+        synchronized (mUserSyncStates) {
+            return mUserSyncStates.get(userId);
+        }
+    }
+
+    private void unindexSyncStatusLocked(EndPoint target) {
+        final UserSyncState state = peekUserSyncState(target.userId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.pendingTargets.remove(target);
+            state.dayStatsByEndPoint.remove(target);
+        }
+    }
+
+    /** Rebuild the pending targets in the user partitions from {@link #mSyncStatus}. */
+    private void reindexSyncStatusLocked() {
+        synchronized (mUserSyncStates) {
+            for (int i = 0, size = mUserSyncStates.size(); i < size; i++) {
+                final UserSyncState state = mUserSyncStates.valueAt(i);
+                synchronized (state) {
+                    state.pendingTargets.clear();
+                    state.dayStatsByEndPoint.clear();
+                }
+            }
+        }
+        for (int i = 0, size = mSyncStatus.size(); i < size; i++) {
+            final SyncStatusInfo status = mSyncStatus.valueAt(i);
+            final AuthorityInfo authority = mAuthorities.get(status.authorityId);
+            if (authority != null && status.pending) {
+                final UserSyncState state = getUserSyncState(authority.target.userId);
+                synchronized (state) {
+                    state.pendingTargets.add(authority.target);
+                }
+            }
         }
-        return syncs;
     }
 
     /**
@@ -1450,20 +1675,26 @@ public class SyncStorageEngine {
      * Returns the status that matches the target.
      *
      * @param info the endpoint target we are querying status info for.
-     * @return the SyncStatusInfo for the endpoint.
+     * @return a copy of the SyncStatusInfo for the endpoint.
      */
     public SyncStatusInfo getStatusByAuthority(EndPoint info) {
         if (info.account == null || info.provider == null) {
             return null;
         }
         synchronized (mAuthorities) {
+            if (info.userId != UserHandle.USER_ALL) {
+                final AuthorityInfo authority = mAuthoritiesByEndPoint.get(info);
+                final SyncStatusInfo status =
+                        authority != null ? mSyncStatus.get(authority.ident) : null;
+                return status != null ? new SyncStatusInfo(status) : null;
+            }
             final int N = mSyncStatus.size();
             for (int i = 0; i < N; i++) {
                 SyncStatusInfo cur = mSyncStatus.valueAt(i);
                 AuthorityInfo ainfo = mAuthorities.get(cur.authorityId);
                 if (ainfo != null
                         && ainfo.target.matchesSpec(info)) {
-                    return cur;
+                    return new SyncStatusInfo(cur);
                 }
             }
             return null;
@@ -1472,6 +1703,23 @@ public class SyncStorageEngine {
 
     /** Return true if the pending status is true of any matching authorities. */
     public boolean isSyncPending(EndPoint info) {
+        if (info.userId != UserHandle.USER_ALL) {
+            final UserSyncState state = peekUserSyncState(info.userId);
+            if (state == null) {
+                return false;
+            }
+            synchronized (state) {
+                if (info.isFullySpecified()) {
+                    return state.pendingTargets.contains(info);
+                }
+                for (EndPoint target : state.pendingTargets) {
+                    if (target.matchesSpec(info)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
         synchronized (mAuthorities) {
             final int N = mSyncStatus.size();
             for (int i = 0; i < N; i++) {
@@ -1491,6 +1739,18 @@ public class SyncStorageEngine {
         }
     }
 
+    /**
+     * Change how many sync events are kept in the history returned by {@link #getSyncHistory()},
+     * e.g. to keep a deeper history while diagnosing a sync adapter. Defaults to
+     * {@link #MAX_HISTORY}, and set from the max_sync_history key of
+     * {@link android.provider.Settings.Global#SYNC_MANAGER_CONSTANTS}.
+     */
+    public void setMaxSyncHistory(int maxHistory) {
+        synchronized (mAuthorities) {
+            mSyncHistory.setCapacity(maxHistory);
+        }
+    }
+
     /**
      * Return an array of the current sync status for all authorities.  Note
      * that the objects inside the array are the real, live status objects,
@@ -1514,9 +1774,64 @@ public class SyncStorageEngine {
      */
     public DayStats[] getDayStatistics() {
         synchronized (mAuthorities) {
-            DayStats[] ds = new DayStats[mDayStats.length];
-            System.arraycopy(mDayStats, 0, ds, 0, ds.length);
-            return ds;
+            return getDayStatisticsLocked();
+        }
+    }
+
+    /**
+     * Return a copy of the per-day statistics of the given target since boot, newest first and
+     * followed by nulls like {@link #getDayStatistics()}, or null if it hasn't synced.
+     */
+    public DayStats[] getDayStatistics(EndPoint target) {
+        final UserSyncState state = peekUserSyncState(target.userId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            final AuthorityDayStats stats = state.dayStatsByEndPoint.get(target);
+            return stats != null ? stats.toDayStats() : null;
+        }
+    }
+
+    /** @return the stats in {@link #mDayStats}, newest first and followed by nulls. */
+    private DayStats[] getDayStatisticsLocked() {
+        final DayStats[] ds = new DayStats[mDayStats.length];
+        int count = 0;
+        for (DayStats stats : mDayStats) {
+            if (stats != null) {
+                ds[count++] = stats;
+            }
+        }
+        sortNewestFirst(ds, count);
+        return ds;
+    }
+
+    private static void sortNewestFirst(DayStats[] stats, int count) {
+        Arrays.sort(stats, 0, count, (a, b) -> Integer.compare(b.day, a.day));
+    }
+
+    private void addAuthorityDayStatsLocked(int authorityId, int day, boolean success,
+            long elapsedTime) {
+        final AuthorityInfo authority = mAuthorities.get(authorityId);
+        if (authority == null) {
+            return;
+        }
+        final UserSyncState state = getUserSyncState(authority.target.userId);
+        synchronized (state) {
+            AuthorityDayStats stats = state.dayStatsByEndPoint.get(authority.target);
+            if (stats == null) {
+                stats = new AuthorityDayStats();
+                state.dayStatsByEndPoint.put(authority.target, stats);
+            }
+            stats.add(day, success, elapsedTime);
+        }
+    }
+
+    /** Keep the given stats unless the slot for its day holds the stats of a later day. */
+    private void putDayStatsLocked(DayStats stats) {
+        final int slot = getDayStatsSlot(stats.day);
+        if (mDayStats[slot] == null || mDayStats[slot].day < stats.day) {
+            mDayStats[slot] = stats;
         }
     }
 
@@ -1526,16 +1841,43 @@ public class SyncStorageEngine {
         return Pair.create(new AuthorityInfo(authorityInfo), new SyncStatusInfo(syncStatusInfo));
     }
 
-    private int getCurrentDayLocked() {
-        mCal.setTimeInMillis(System.currentTimeMillis());
-        final int dayOfYear = mCal.get(Calendar.DAY_OF_YEAR);
-        if (mYear != mCal.get(Calendar.YEAR)) {
-            mYear = mCal.get(Calendar.YEAR);
-            mCal.clear();
-            mCal.set(Calendar.YEAR, mYear);
-            mYearInDays = (int)(mCal.getTimeInMillis()/86400000);
+    /**
+     * @return the day of the given time in UTC, counted from 1 on the first day of the epoch as
+     * the day stats always have been.
+     */
+    static int getCurrentDay(long now) {
+        return (int) (now / DateUtils.DAY_IN_MILLIS) + 1;
+    }
+
+    private static int getDayStatsSlot(int day) {
+        return Math.floorMod(day, DAY_STATS_CAPACITY);
+    }
+
+    /**
+     * Throws an IllegalStateException unless {@link #mAuthoritiesByEndPoint} holds exactly the
+     * authorities of {@link #mAccounts} and {@link #mAuthorities}.
+     */
+    @VisibleForTesting
+    void verifyAuthorityIndex() {
+        synchronized (mAuthorities) {
+            int count = 0;
+            for (AccountInfo account : mAccounts.values()) {
+                for (AuthorityInfo authority : account.authorities.values()) {
+                    count++;
+                    if (mAuthoritiesByEndPoint.get(authority.target) != authority) {
+                        throw new IllegalStateException("Not indexed: " + authority);
+                    }
+                    if (mAuthorities.get(authority.ident) != authority) {
+                        throw new IllegalStateException("Not in mAuthorities: " + authority);
+                    }
+                }
+            }
+            if (mAuthoritiesByEndPoint.size() != count || mAuthorities.size() != count) {
+                throw new IllegalStateException("Accounts hold " + count + " authorities, the"
+                        + " index " + mAuthoritiesByEndPoint.size() + " and mAuthorities "
+                        + mAuthorities.size());
+            }
         }
-        return dayOfYear + mYearInDays;
     }
 
     /**
@@ -1546,21 +1888,16 @@ public class SyncStorageEngine {
      * requested target does not exist.
      */
     private AuthorityInfo getAuthorityLocked(EndPoint info, String tag) {
-        AccountAndUser au = new AccountAndUser(info.account, info.userId);
-        AccountInfo accountInfo = mAccounts.get(au);
-        if (accountInfo == null) {
-            if (tag != null) {
-                if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                    Slog.v(TAG, tag + ": unknown account " + au);
-                }
-            }
-            return null;
-        }
-        AuthorityInfo authority = accountInfo.authorities.get(info.provider);
+        final AuthorityInfo authority = mAuthoritiesByEndPoint.get(info);
         if (authority == null) {
             if (tag != null) {
                 if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                    Slog.v(TAG, tag + ": unknown provider " + info.provider);
+                    AccountAndUser au = new AccountAndUser(info.account, info.userId);
+                    if (mAccounts.get(au) == null) {
+                        Slog.v(TAG, tag + ": unknown account " + au);
+                    } else {
+                        Slog.v(TAG, tag + ": unknown provider " + info.provider);
+                    }
                 }
             }
             return null;
@@ -1576,7 +1913,10 @@ public class SyncStorageEngine {
      * exists.
      */
     private AuthorityInfo getOrCreateAuthorityLocked(EndPoint info, int ident, boolean doWrite) {
-        AuthorityInfo authority = null;
+        AuthorityInfo authority = mAuthoritiesByEndPoint.get(info);
+        if (authority != null) {
+            return authority;
+        }
         AccountAndUser au = new AccountAndUser(info.account, info.userId);
         AccountInfo account = mAccounts.get(au);
         if (account == null) {
@@ -1588,6 +1928,7 @@ public class SyncStorageEngine {
             authority = createAuthorityLocked(info, ident, doWrite);
             account.authorities.put(info.provider, authority);
         }
+        mAuthoritiesByEndPoint.put(authority.target, authority);
         return authority;
     }
 
@@ -1603,6 +1944,7 @@ public class SyncStorageEngine {
         }
         authority = new AuthorityInfo(info, ident);
         mAuthorities.put(ident, authority);
+        markAuthorityChangedLocked(ident);
         if (doWrite) {
             writeAccountInfoLocked();
         }
@@ -1625,10 +1967,13 @@ public class SyncStorageEngine {
         if (accountInfo != null) {
             final AuthorityInfo authorityInfo = accountInfo.authorities.remove(authorityName);
             if (authorityInfo != null) {
+                mAuthoritiesByEndPoint.remove(authorityInfo.target);
+                unindexSyncStatusLocked(authorityInfo.target);
                 if (mAuthorityRemovedListener != null) {
                     mAuthorityRemovedListener.onAuthorityRemoved(authorityInfo.target);
                 }
                 mAuthorities.remove(authorityInfo.ident);
+                markAuthorityChangedLocked(authorityInfo.ident);
                 if (doWrite) {
                     writeAccountInfoLocked();
                 }
@@ -1636,6 +1981,13 @@ public class SyncStorageEngine {
         }
     }
 
+    /** Note that the table entry of the given authority must be written. */
+    private void markAuthorityChangedLocked(int ident) {
+        if (mUseAccountInfoTable) {
+            mChangedAuthorityIds.put(ident, true);
+        }
+    }
+
     private SyncStatusInfo getOrCreateSyncStatusLocked(int authorityId) {
         SyncStatusInfo status = mSyncStatus.get(authorityId);
         if (status == null) {
@@ -1645,12 +1997,14 @@ public class SyncStorageEngine {
         return status;
     }
 
+    /**
+     * Write all state to disk before returning, including changes whose write is still pending.
+     * Called on shutdown. Must not be called with mAuthorities held.
+     */
     public void writeAllState() {
-        synchronized (mAuthorities) {
-            // Account info is always written so no need to do it here.
-            writeStatusLocked();
-            writeStatisticsLocked();
-        }
+        persistAccountInfo();
+        persistStatus();
+        persistStatistics();
     }
 
     public boolean shouldGrantSyncAdaptersAccountAccess() {
@@ -1664,8 +2018,11 @@ public class SyncStorageEngine {
         synchronized (mAuthorities) {
             mAuthorities.clear();
             mAccounts.clear();
+            mAuthoritiesByEndPoint.clear();
+            mChangedAuthorityIds.clear();
             mServices.clear();
             mSyncStatus.clear();
+            reindexSyncStatusLocked();
             mSyncHistory.clear();
 
             readAccountInfoLocked();
@@ -1681,6 +2038,97 @@ public class SyncStorageEngine {
      * Read all account information back in to the initial engine state.
      */
     private void readAccountInfoLocked() {
+        // A table is never older than accounts.xml, see mUseAccountInfoTable.
+        final boolean readTable = mAccountInfoTableFile.exists() && readAccountInfoTableLocked();
+        if (!readTable) {
+            readAccountInfoXmlLocked();
+        }
+        if (!mUseAccountInfoTable) {
+            if (readTable) {
+                // Migrate back to accounts.xml; the table is deleted once that is written.
+                writeAccountInfoLocked();
+            } else if (mAccountInfoTableFile.exists()) {
+                mAccountInfoTableFile.delete();
+            }
+        } else if (!readTable && mAccountInfoFile.exists()) {
+            // Migrate to the table.
+            writeAccountInfoLocked();
+        }
+
+        maybeMigrateSettingsForRenamedAuthorities();
+    }
+
+    /**
+     * Read the account information from {@link #mAccountInfoTableFile}.
+     *
+     * @return false if the file couldn't be read and nothing was loaded from it.
+     */
+    private boolean readAccountInfoTableLocked() {
+        final AuthorityTableFile.Table table;
+        try {
+            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                Slog.v(TAG_FILE, "Reading " + mAccountInfoTableFile.getBaseFile());
+            }
+            table = mAccountInfoTableFile.read();
+        } catch (IOException e) {
+            Slog.w(TAG, "Error reading accounts table, falling back to accounts.xml", e);
+            return false;
+        }
+        if (table.torn) {
+            // Only the last append can be torn, by a crash before it completed. Keep the
+            // records before it, and compact the file.
+            Slog.w(TAG, "Accounts table is torn, dropping its last change");
+            writeAccountInfoLocked();
+        }
+
+        mNextAuthorityId = Math.max(mNextAuthorityId, table.nextAuthorityId);
+        mSyncRandomOffset = table.syncRandomOffset;
+        if (mSyncRandomOffset == 0) {
+            Random random = new Random(System.currentTimeMillis());
+            mSyncRandomOffset = random.nextInt(86400);
+        }
+        for (int i = 0, size = table.masterSyncAutomatically.size(); i < size; i++) {
+            mMasterSyncAutomatically.put(table.masterSyncAutomatically.keyAt(i),
+                    table.masterSyncAutomatically.valueAt(i));
+        }
+
+        int highestAuthorityId = -1;
+        final IntArray droppedIds = new IntArray();
+        final AccountAuthorityValidator validator = new AccountAuthorityValidator(mContext);
+        for (int i = 0, size = table.authorities.size(); i < size; i++) {
+            final AuthorityTableFile.Record record = table.authorities.valueAt(i);
+            final EndPoint info = new EndPoint(
+                    new Account(record.accountName, record.accountType),
+                    record.provider, record.userId);
+            if (!validator.isAccountValid(info.account, record.userId)
+                    || !validator.isAuthorityValid(record.provider, record.userId)) {
+                EventLog.writeEvent(0x534e4554, "35028827", -1,
+                        "account:" + info.account + " provider:" + record.provider + " user:"
+                                + record.userId);
+                droppedIds.add(record.id);
+                continue;
+            }
+            final AuthorityInfo authority = getOrCreateAuthorityLocked(info, record.id, false);
+            // Periodic syncs aren't persisted, so drop the default one as for a current
+            // accounts.xml.
+            authority.periodicSyncs.clear();
+            authority.enabled = record.enabled;
+            authority.syncable = record.syncable;
+            highestAuthorityId = Math.max(highestAuthorityId, authority.ident);
+        }
+        mNextAuthorityId = Math.max(highestAuthorityId + 1, mNextAuthorityId);
+        // The table already holds what was just read from it, except the dropped authorities.
+        mChangedAuthorityIds.clear();
+        for (int i = 0, size = droppedIds.size(); i < size; i++) {
+            markAuthorityChangedLocked(droppedIds.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Read the account information from accounts.xml.
+     */
+    private void readAccountInfoXmlLocked() {
         int highestAuthorityId = -1;
         FileInputStream fis = null;
         try {
@@ -1769,8 +2217,6 @@ public class SyncStorageEngine {
                 }
             }
         }
-
-        maybeMigrateSettingsForRenamedAuthorities();
     }
 
     /**
@@ -1997,61 +2443,175 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all account information to the account file.
+     * Schedule a write of all account information to the account file. Bursts of changes are
+     * coalesced into a single write.
      */
     private void writeAccountInfoLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mAccountInfoFile.getBaseFile());
+        if (!mHandler.hasMessages(MSG_WRITE_ACCOUNT_INFO)) {
+            mHandler.sendEmptyMessage(MSG_WRITE_ACCOUNT_INFO);
         }
-        FileOutputStream fos = null;
+    }
 
-        try {
-            fos = mAccountInfoFile.startWrite();
-            TypedXmlSerializer out = Xml.resolveSerializer(fos);
-            out.startDocument(null, true);
-            out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-
-            out.startTag(null, "accounts");
-            out.attributeInt(null, "version", ACCOUNTS_VERSION);
-            out.attributeInt(null, XML_ATTR_NEXT_AUTHORITY_ID, mNextAuthorityId);
-            out.attributeInt(null, XML_ATTR_SYNC_RANDOM_OFFSET, mSyncRandomOffset);
-
-            // Write the Sync Automatically flags for each user
-            final int M = mMasterSyncAutomatically.size();
-            for (int m = 0; m < M; m++) {
-                int userId = mMasterSyncAutomatically.keyAt(m);
-                Boolean listen = mMasterSyncAutomatically.valueAt(m);
-                out.startTag(null, XML_TAG_LISTEN_FOR_TICKLES);
-                out.attributeInt(null, XML_ATTR_USER, userId);
-                out.attributeBoolean(null, XML_ATTR_ENABLED, listen);
-                out.endTag(null, XML_TAG_LISTEN_FOR_TICKLES);
-            }
-
-            final int N = mAuthorities.size();
-            for (int i = 0; i < N; i++) {
-                AuthorityInfo authority = mAuthorities.valueAt(i);
-                EndPoint info = authority.target;
-                out.startTag(null, "authority");
-                out.attributeInt(null, "id", authority.ident);
-                out.attributeInt(null, XML_ATTR_USER, info.userId);
-                out.attributeBoolean(null, XML_ATTR_ENABLED, authority.enabled);
-                out.attribute(null, "account", info.account.name);
-                out.attribute(null, "type", info.account.type);
-                out.attribute(null, "authority", info.provider);
-                out.attributeInt(null, "syncable", authority.syncable);
-                out.endTag(null, "authority");
+    /**
+     * Write the account information before returning. Must not be called with mAuthorities
+     * held.
+     */
+    @VisibleForTesting
+    void persistAccountInfo() {
+        synchronized (mFileWriteLock) {
+            mHandler.removeMessages(MSG_WRITE_ACCOUNT_INFO);
+            if (mUseAccountInfoTable && !persistAccountInfoTable()) {
+                // Appended to the table; accounts.xml is only written along with a rewrite.
+                return;
             }
-            out.endTag(null, "accounts");
-            out.endDocument();
-            mAccountInfoFile.finishWrite(fos);
-        } catch (java.io.IOException e1) {
-            Slog.w(TAG, "Error writing accounts", e1);
-            if (fos != null) {
-                mAccountInfoFile.failWrite(fos);
+            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                Slog.v(TAG_FILE, "Writing new " + mAccountInfoFile.getBaseFile());
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                synchronized (mAuthorities) {
+                    writeAccountsXmlLocked(out);
+                }
+            } catch (IOException e) {
+                Slog.w(TAG, "Error writing accounts", e);
+                return;
+            }
+            if (writeFile(mAccountInfoFile, out) && !mUseAccountInfoTable
+                    && mAccountInfoTableFile.exists()) {
+                // Done migrating back from the table, which would go stale.
+                mAccountInfoTableFile.delete();
             }
         }
     }
 
+    /**
+     * Append the authorities that changed to the table, or rewrite it if it can't be appended
+     * to. Must be called with mFileWriteLock held.
+     *
+     * @return whether the table was rewritten in full.
+     */
+    private boolean persistAccountInfoTable() {
+        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+            Slog.v(TAG_FILE, "Updating " + mAccountInfoTableFile.getBaseFile());
+        }
+        final AuthorityTableFile.Changes changes = new AuthorityTableFile.Changes();
+        synchronized (mAuthorities) {
+            changes.nextAuthorityId = mNextAuthorityId;
+            changes.syncRandomOffset = mSyncRandomOffset;
+            copyMasterSyncLocked(changes.masterSyncAutomatically);
+            for (int i = 0, size = mChangedAuthorityIds.size(); i < size; i++) {
+                final int ident = mChangedAuthorityIds.keyAt(i);
+                final AuthorityInfo authority = mAuthorities.get(ident);
+                if (authority != null) {
+                    changes.authorities.add(toTableRecord(authority));
+                } else {
+                    changes.removedIds.add(ident);
+                }
+            }
+            mChangedAuthorityIds.clear();
+        }
+        if (mAccountInfoTableFile.append(changes)) {
+            return false;
+        }
+
+        final AuthorityTableFile.Table table = new AuthorityTableFile.Table();
+        synchronized (mAuthorities) {
+            table.nextAuthorityId = mNextAuthorityId;
+            table.syncRandomOffset = mSyncRandomOffset;
+            copyMasterSyncLocked(table.masterSyncAutomatically);
+            for (int i = 0, size = mAuthorities.size(); i < size; i++) {
+                final AuthorityInfo authority = mAuthorities.valueAt(i);
+                table.authorities.put(authority.ident, toTableRecord(authority));
+            }
+            // Anything changed since is in the table too.
+            mChangedAuthorityIds.clear();
+        }
+        if (!mAccountInfoTableFile.write(table)) {
+            // Don't leave a stale table to be read at the next boot.
+            mAccountInfoTableFile.delete();
+        }
+        return true;
+    }
+
+    private void copyMasterSyncLocked(SparseBooleanArray out) {
+        for (int i = 0, size = mMasterSyncAutomatically.size(); i < size; i++) {
+            out.put(mMasterSyncAutomatically.keyAt(i), mMasterSyncAutomatically.valueAt(i));
+        }
+    }
+
+    private static AuthorityTableFile.Record toTableRecord(AuthorityInfo authority) {
+        final EndPoint info = authority.target;
+        return new AuthorityTableFile.Record(authority.ident, info.userId, info.account.name,
+                info.account.type, info.provider, authority.enabled, authority.syncable);
+    }
+
+    private void writeAccountsXmlLocked(OutputStream os) throws IOException {
+        TypedXmlSerializer out = Xml.resolveSerializer(os);
+        out.startDocument(null, true);
+        out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+
+        out.startTag(null, "accounts");
+        out.attributeInt(null, "version", ACCOUNTS_VERSION);
+        out.attributeInt(null, XML_ATTR_NEXT_AUTHORITY_ID, mNextAuthorityId);
+        out.attributeInt(null, XML_ATTR_SYNC_RANDOM_OFFSET, mSyncRandomOffset);
+
+        // Write the Sync Automatically flags for each user
+        final int M = mMasterSyncAutomatically.size();
+        for (int m = 0; m < M; m++) {
+            int userId = mMasterSyncAutomatically.keyAt(m);
+            Boolean listen = mMasterSyncAutomatically.valueAt(m);
+            out.startTag(null, XML_TAG_LISTEN_FOR_TICKLES);
+            out.attributeInt(null, XML_ATTR_USER, userId);
+            out.attributeBoolean(null, XML_ATTR_ENABLED, listen);
+            out.endTag(null, XML_TAG_LISTEN_FOR_TICKLES);
+        }
+
+        final int N = mAuthorities.size();
+        for (int i = 0; i < N; i++) {
+            AuthorityInfo authority = mAuthorities.valueAt(i);
+            EndPoint info = authority.target;
+            out.startTag(null, "authority");
+            out.attributeInt(null, "id", authority.ident);
+            out.attributeInt(null, XML_ATTR_USER, info.userId);
+            out.attributeBoolean(null, XML_ATTR_ENABLED, authority.enabled);
+            out.attribute(null, "account", info.account.name);
+            out.attribute(null, "type", info.account.type);
+            out.attribute(null, "authority", info.provider);
+            out.attributeInt(null, "syncable", authority.syncable);
+            out.endTag(null, "authority");
+        }
+        out.endTag(null, "accounts");
+        out.endDocument();
+    }
+
+    /**
+     * Replace the contents of the given file with the serialized state.
+     *
+     * @return whether the file was written.
+     */
+    private static boolean writeFile(AtomicFile file, ByteArrayOutputStream data) {
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            data.writeTo(fos);
+            file.finishWrite(fos);
+            fos = null;
+            return true;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to write " + file.getBaseFile(), e);
+            return false;
+        } finally {
+            // when fos is null (successful write), this is a no-op.
+            file.failWrite(fos);
+        }
+    }
+
+    private static long crc32(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
     public static final int STATUS_FILE_END = 0;
     public static final int STATUS_FILE_ITEM = 100;
 
@@ -2105,16 +2665,36 @@ public class SyncStorageEngine {
     void readStatusLocked() {
         upgradeStatusIfNeededLocked();
 
-        if (!mStatusFile.exists()) {
-            return;
+        mStatusFileCrc = 0;
+        if (mStatusFile.exists()) {
+            try {
+                final byte[] data = mStatusFile.readFully();
+                mStatusFileCrc = crc32(data);
+                readStatusInfoLocked(new ByteArrayInputStream(data));
+            } catch (Exception e) {
+                Slog.e(TAG, "Unable to read status info file.", e);
+            }
         }
-        try {
-            try (FileInputStream in = mStatusFile.openRead()) {
-                readStatusInfoLocked(in);
+
+        if (mStatusJournalFile.exists()) {
+            // Records are applied as they are read, so a record torn by a crash only loses
+            // itself.
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mStatusJournalFile)))) {
+                if (in.readLong() == mStatusFileCrc) {
+                    readStatusInfoLocked(in);
+                } else {
+                    Slog.w(TAG, "Dropping status journal written before the status file.");
+                }
+            } catch (Exception e) {
+                Slog.e(TAG, "Unable to replay status journal.", e);
             }
-        } catch (Exception e) {
-            Slog.e(TAG, "Unable to read status info file.", e);
+            // Compact right away, so that new records aren't appended after a torn one, or to
+            // a dropped journal.
+            writeStatusLocked();
         }
+
+        reindexSyncStatusLocked();
     }
 
     private void readStatusInfoLocked(InputStream in) throws IOException {
@@ -2325,29 +2905,105 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all sync status to the sync status file.
+     * Schedule appending the status of the given authority to the status journal. Bursts of
+     * changes are coalesced into a single append.
+     */
+    private void journalStatusLocked(int authorityId) {
+        mStatusJournalPending.put(authorityId, true);
+        if (!mHandler.hasMessages(MSG_WRITE_STATUS_JOURNAL)) {
+            mHandler.sendEmptyMessage(MSG_WRITE_STATUS_JOURNAL);
+        }
+    }
+
+    /**
+     * Append the pending status changes to the status journal before returning. Must not be
+     * called with mAuthorities held.
      */
     @VisibleForTesting
-    void writeStatusLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mStatusFile.getBaseFile());
+    void persistStatusJournal() {
+        synchronized (mFileWriteLock) {
+            mHandler.removeMessages(MSG_WRITE_STATUS_JOURNAL);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            synchronized (mAuthorities) {
+                final ProtoOutputStream proto = new ProtoOutputStream(out);
+                for (int i = 0, size = mStatusJournalPending.size(); i < size; i++) {
+                    final SyncStatusInfo info = mSyncStatus.get(mStatusJournalPending.keyAt(i));
+                    if (info != null) {
+                        writeSyncStatusInfoLocked(proto, info);
+                    }
+                }
+                proto.flush();
+                mStatusJournalPending.clear();
+            }
+            if (out.size() == 0) {
+                return;
+            }
+            final long length = mStatusJournalFile.length();
+            if (length > 0 && length < STATUS_JOURNAL_HEADER_BYTES) {
+                // A header torn by a crash; none of the records made it.
+                mStatusJournalFile.delete();
+            }
+            final boolean newJournal = !mStatusJournalFile.exists();
+            try (FileOutputStream fos = new FileOutputStream(mStatusJournalFile, true)) {
+                if (newJournal) {
+                    final DataOutputStream header = new DataOutputStream(fos);
+                    header.writeLong(mStatusFileCrc);
+                    header.flush();
+                }
+                out.writeTo(fos);
+                fos.getFD().sync();
+            } catch (IOException e) {
+                // The records are lost; write the whole status file instead.
+                Slog.e(TAG, "Unable to append to the status journal.", e);
+                persistStatus();
+                return;
+            }
+            if (mStatusJournalFile.length() > MAX_STATUS_JOURNAL_BYTES) {
+                persistStatus();
+            }
         }
+    }
 
-        // The file is being written, so we don't need to have a scheduled
-        // write until the next change.
+    /**
+     * Schedule a write of all sync status to the sync status file as soon as possible, replacing
+     * any delayed write. Compacts the status journal into the status file.
+     */
+    void writeStatusLocked() {
         mHandler.removeMessages(MSG_WRITE_STATUS);
+        mHandler.sendEmptyMessage(MSG_WRITE_STATUS);
+    }
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatusFile.startWrite();
-            writeStatusInfoLocked(fos);
-            mStatusFile.finishWrite(fos);
-            fos = null;
-        } catch (IOException | IllegalArgumentException e) {
-            Slog.e(TAG, "Unable to write sync status to proto.", e);
-        } finally {
-            // when fos is null (successful write), this is a no-op.
-            mStatusFile.failWrite(fos);
+    /**
+     * Write all sync status to the sync status file before returning. Must not be called with
+     * mAuthorities held.
+     */
+    @VisibleForTesting
+    void persistStatus() {
+        synchronized (mFileWriteLock) {
+            // The file is being written, so we don't need to have a scheduled
+            // write until the next change.
+            mHandler.removeMessages(MSG_WRITE_STATUS);
+            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                Slog.v(TAG_FILE, "Writing new " + mStatusFile.getBaseFile());
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                synchronized (mAuthorities) {
+                    writeStatusInfoLocked(out);
+                    // Everything journaled so far, or pending, is in the snapshot.
+                    mStatusJournalPending.clear();
+                }
+            } catch (IllegalArgumentException e) {
+                Slog.e(TAG, "Unable to write sync status to proto.", e);
+                return;
+            }
+            if (writeFile(mStatusFile, out)) {
+                // Records appended from now on apply to the new status file. The old journal
+                // is already in it; if a crash keeps it from being deleted, its header no
+                // longer matches and it is dropped at boot.
+                mStatusFileCrc = crc32(out.toByteArray());
+                mStatusJournalFile.delete();
+            }
         }
     }
 
@@ -2356,54 +3012,7 @@ public class SyncStorageEngine {
         final int size = mSyncStatus.size();
         for (int i = 0; i < size; i++) {
             final SyncStatusInfo info = mSyncStatus.valueAt(i);
-            final long token = proto.start(SyncStatusProto.STATUS);
-            // authority id should be written first to take advantage of the fast path in read
-            proto.write(SyncStatusProto.StatusInfo.AUTHORITY_ID, info.authorityId);
-            proto.write(SyncStatusProto.StatusInfo.LAST_SUCCESS_TIME, info.lastSuccessTime);
-            proto.write(SyncStatusProto.StatusInfo.LAST_SUCCESS_SOURCE, info.lastSuccessSource);
-            proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_TIME, info.lastFailureTime);
-            proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_SOURCE, info.lastFailureSource);
-            proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_MESSAGE, info.lastFailureMesg);
-            proto.write(SyncStatusProto.StatusInfo.INITIAL_FAILURE_TIME, info.initialFailureTime);
-            proto.write(SyncStatusProto.StatusInfo.PENDING, info.pending);
-            proto.write(SyncStatusProto.StatusInfo.INITIALIZE, info.initialize);
-            final int periodicSyncTimesSize = info.getPeriodicSyncTimesSize();
-            for (int j = 0; j < periodicSyncTimesSize; j++) {
-                proto.write(SyncStatusProto.StatusInfo.PERIODIC_SYNC_TIMES,
-                        info.getPeriodicSyncTime(j));
-            }
-            final int lastEventsSize = info.getEventCount();
-            for (int j = 0; j < lastEventsSize; j++) {
-                final long eventToken = proto.start(SyncStatusProto.StatusInfo.LAST_EVENT_INFO);
-                proto.write(SyncStatusProto.StatusInfo.LastEventInfo.LAST_EVENT_TIME,
-                        info.getEventTime(j));
-                proto.write(SyncStatusProto.StatusInfo.LastEventInfo.LAST_EVENT, info.getEvent(j));
-                proto.end(eventToken);
-            }
-            proto.write(SyncStatusProto.StatusInfo.LAST_TODAY_RESET_TIME, info.lastTodayResetTime);
-
-            final long totalStatsToken = proto.start(SyncStatusProto.StatusInfo.TOTAL_STATS);
-            writeStatusStatsLocked(proto, info.totalStats);
-            proto.end(totalStatsToken);
-            final long todayStatsToken = proto.start(SyncStatusProto.StatusInfo.TODAY_STATS);
-            writeStatusStatsLocked(proto, info.todayStats);
-            proto.end(todayStatsToken);
-            final long yesterdayStatsToken = proto.start(
-                    SyncStatusProto.StatusInfo.YESTERDAY_STATS);
-            writeStatusStatsLocked(proto, info.yesterdayStats);
-            proto.end(yesterdayStatsToken);
-
-            final int lastSuccessTimesSize = info.perSourceLastSuccessTimes.length;
-            for (int j = 0; j < lastSuccessTimesSize; j++) {
-                proto.write(SyncStatusProto.StatusInfo.PER_SOURCE_LAST_SUCCESS_TIMES,
-                        info.perSourceLastSuccessTimes[j]);
-            }
-            final int lastFailureTimesSize = info.perSourceLastFailureTimes.length;
-            for (int j = 0; j < lastFailureTimesSize; j++) {
-                proto.write(SyncStatusProto.StatusInfo.PER_SOURCE_LAST_FAILURE_TIMES,
-                        info.perSourceLastFailureTimes[j]);
-            }
-            proto.end(token);
+            writeSyncStatusInfoLocked(proto, info);
         }
 
         proto.write(SyncStatusProto.IS_JOB_NAMESPACE_MIGRATED, mIsJobNamespaceMigrated);
@@ -2412,6 +3021,57 @@ public class SyncStorageEngine {
         proto.flush();
     }
 
+    private void writeSyncStatusInfoLocked(ProtoOutputStream proto, SyncStatusInfo info) {
+        final long token = proto.start(SyncStatusProto.STATUS);
+        // authority id should be written first to take advantage of the fast path in read
+        proto.write(SyncStatusProto.StatusInfo.AUTHORITY_ID, info.authorityId);
+        proto.write(SyncStatusProto.StatusInfo.LAST_SUCCESS_TIME, info.lastSuccessTime);
+        proto.write(SyncStatusProto.StatusInfo.LAST_SUCCESS_SOURCE, info.lastSuccessSource);
+        proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_TIME, info.lastFailureTime);
+        proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_SOURCE, info.lastFailureSource);
+        proto.write(SyncStatusProto.StatusInfo.LAST_FAILURE_MESSAGE, info.lastFailureMesg);
+        proto.write(SyncStatusProto.StatusInfo.INITIAL_FAILURE_TIME, info.initialFailureTime);
+        proto.write(SyncStatusProto.StatusInfo.PENDING, info.pending);
+        proto.write(SyncStatusProto.StatusInfo.INITIALIZE, info.initialize);
+        final int periodicSyncTimesSize = info.getPeriodicSyncTimesSize();
+        for (int j = 0; j < periodicSyncTimesSize; j++) {
+            proto.write(SyncStatusProto.StatusInfo.PERIODIC_SYNC_TIMES,
+                    info.getPeriodicSyncTime(j));
+        }
+        final int lastEventsSize = info.getEventCount();
+        for (int j = 0; j < lastEventsSize; j++) {
+            final long eventToken = proto.start(SyncStatusProto.StatusInfo.LAST_EVENT_INFO);
+            proto.write(SyncStatusProto.StatusInfo.LastEventInfo.LAST_EVENT_TIME,
+                    info.getEventTime(j));
+            proto.write(SyncStatusProto.StatusInfo.LastEventInfo.LAST_EVENT, info.getEvent(j));
+            proto.end(eventToken);
+        }
+        proto.write(SyncStatusProto.StatusInfo.LAST_TODAY_RESET_TIME, info.lastTodayResetTime);
+
+        final long totalStatsToken = proto.start(SyncStatusProto.StatusInfo.TOTAL_STATS);
+        writeStatusStatsLocked(proto, info.totalStats);
+        proto.end(totalStatsToken);
+        final long todayStatsToken = proto.start(SyncStatusProto.StatusInfo.TODAY_STATS);
+        writeStatusStatsLocked(proto, info.todayStats);
+        proto.end(todayStatsToken);
+        final long yesterdayStatsToken = proto.start(
+                SyncStatusProto.StatusInfo.YESTERDAY_STATS);
+        writeStatusStatsLocked(proto, info.yesterdayStats);
+        proto.end(yesterdayStatsToken);
+
+        final int lastSuccessTimesSize = info.perSourceLastSuccessTimes.length;
+        for (int j = 0; j < lastSuccessTimesSize; j++) {
+            proto.write(SyncStatusProto.StatusInfo.PER_SOURCE_LAST_SUCCESS_TIMES,
+                    info.perSourceLastSuccessTimes[j]);
+        }
+        final int lastFailureTimesSize = info.perSourceLastFailureTimes.length;
+        for (int j = 0; j < lastFailureTimesSize; j++) {
+            proto.write(SyncStatusProto.StatusInfo.PER_SOURCE_LAST_FAILURE_TIMES,
+                    info.perSourceLastFailureTimes[j]);
+        }
+        proto.end(token);
+    }
+
     private void writeStatusStatsLocked(ProtoOutputStream proto, SyncStatusInfo.Stats stats) {
         proto.write(SyncStatusProto.StatusInfo.Stats.TOTAL_ELAPSED_TIME, stats.totalElapsedTime);
         proto.write(SyncStatusProto.StatusInfo.Stats.NUM_SYNCS, stats.numSyncs);
@@ -2469,7 +3129,6 @@ public class SyncStorageEngine {
             in.unmarshall(data, 0, data.length);
             in.setDataPosition(0);
             int token;
-            int index = 0;
             while ((token=in.readInt()) != STATISTICS_FILE_END) {
                 if (token == STATISTICS_FILE_ITEM || token == STATISTICS_FILE_ITEM_OLD) {
                     int day = in.readInt();
@@ -2481,10 +3140,7 @@ public class SyncStorageEngine {
                     ds.successTime = in.readLong();
                     ds.failureCount = in.readInt();
                     ds.failureTime = in.readLong();
-                    if (index < mDayStats.length) {
-                        mDayStats[index] = ds;
-                        index++;
-                    }
+                    putDayStatsLocked(ds);
                 } else {
                     // Ooops.
                     Slog.w(TAG, "Unknown stats token: " + token);
@@ -2531,18 +3187,13 @@ public class SyncStorageEngine {
 
     private void readDayStatsLocked(InputStream in) throws IOException {
         final ProtoInputStream proto = new ProtoInputStream(in);
-        int statsCount = 0;
         while (true) {
             switch (proto.nextField()) {
                 case (int) SyncStatisticsProto.STATS:
                     final long token = proto.start(SyncStatisticsProto.STATS);
                     final DayStats stats = readIndividualDayStatsLocked(proto);
                     proto.end(token);
-                    mDayStats[statsCount] = stats;
-                    statsCount++;
-                    if (statsCount == mDayStats.length) {
-                        return;
-                    }
+                    putDayStatsLocked(stats);
                     break;
                 case ProtoInputStream.NO_MORE_FIELDS:
                     return;
@@ -2593,38 +3244,46 @@ public class SyncStorageEngine {
     }
 
     /**
-     * Write all sync statistics to the sync status file.
+     * Schedule a write of all sync statistics to the sync statistics file as soon as possible,
+     * replacing any delayed write.
      */
-    @VisibleForTesting
     void writeStatisticsLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG, "Writing new " + mStatisticsFile.getBaseFile());
-        }
-
-        // The file is being written, so we don't need to have a scheduled
-        // write until the next change.
         mHandler.removeMessages(MSG_WRITE_STATISTICS);
+        mHandler.sendEmptyMessage(MSG_WRITE_STATISTICS);
+    }
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatisticsFile.startWrite();
-            writeDayStatsLocked(fos);
-            mStatisticsFile.finishWrite(fos);
-            fos = null;
-        } catch (IOException | IllegalArgumentException e) {
-            Slog.e(TAG, "Unable to write day stats to proto.", e);
-        } finally {
-            // when fos is null (successful write), this is a no-op.
-            mStatisticsFile.failWrite(fos);
+    /**
+     * Write all sync statistics to the sync statistics file before returning. Must not be called
+     * with mAuthorities held.
+     */
+    @VisibleForTesting
+    void persistStatistics() {
+        synchronized (mFileWriteLock) {
+            // The file is being written, so we don't need to have a scheduled
+            // write until the next change.
+            mHandler.removeMessages(MSG_WRITE_STATISTICS);
+            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                Slog.v(TAG, "Writing new " + mStatisticsFile.getBaseFile());
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                synchronized (mAuthorities) {
+                    writeDayStatsLocked(out);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Slog.e(TAG, "Unable to write day stats to proto.", e);
+                return;
+            }
+            writeFile(mStatisticsFile, out);
         }
     }
 
     private void writeDayStatsLocked(OutputStream out)
             throws IOException, IllegalArgumentException {
         final ProtoOutputStream proto = new ProtoOutputStream(out);
-        final int size = mDayStats.length;
-        for (int i = 0; i < size; i++) {
-            final DayStats stats = mDayStats[i];
+        final DayStats[] dayStats = getDayStatisticsLocked();
+        for (int i = 0; i < dayStats.length; i++) {
+            final DayStats stats = dayStats[i];
             if (stats == null) {
                 break;
             }
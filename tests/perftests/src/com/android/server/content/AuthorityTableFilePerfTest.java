@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.util.AtomicFile;
+import android.util.Xml;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.modules.utils.TypedXmlPullParser;
+import com.android.modules.utils.TypedXmlSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * Compares reading the authority table at boot from {@link AuthorityTableFile} and from
+ * accounts.xml, for 1k and 10k authorities.
+ *
+ * atest CorePerfTests:com.android.server.content.AuthorityTableFilePerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AuthorityTableFilePerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getInstrumentation().getContext().getCacheDir(),
+                "sync-perf");
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void timeReadTable_1k() throws Exception {
+        timeReadTable(1_000);
+    }
+
+    @Test
+    public void timeReadTable_10k() throws Exception {
+        timeReadTable(10_000);
+    }
+
+    @Test
+    public void timeParseXml_1k() throws Exception {
+        timeParseXml(1_000);
+    }
+
+    @Test
+    public void timeParseXml_10k() throws Exception {
+        timeParseXml(10_000);
+    }
+
+    private void timeReadTable(int authorities) throws Exception {
+        final File file = new File(mDir, "accounts.bin");
+        new AuthorityTableFile(file).write(newTable(authorities));
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final AuthorityTableFile.Table table = new AuthorityTableFile(file).read();
+            if (table.authorities.size() != authorities) {
+                throw new IllegalStateException("Read " + table.authorities.size());
+            }
+        }
+    }
+
+    private void timeParseXml(int authorities) throws Exception {
+        final AtomicFile file = new AtomicFile(new File(mDir, "accounts.xml"));
+        writeXml(file, newTable(authorities));
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final AuthorityTableFile.Table table = parseXml(file);
+            if (table.authorities.size() != authorities) {
+                throw new IllegalStateException("Parsed " + table.authorities.size());
+            }
+        }
+    }
+
+    private static AuthorityTableFile.Table newTable(int authorities) {
+        final AuthorityTableFile.Table table = new AuthorityTableFile.Table();
+        table.nextAuthorityId = authorities;
+        table.syncRandomOffset = 4321;
+        table.masterSyncAutomatically.put(0, true);
+        for (int id = 0; id < authorities; id++) {
+            table.authorities.put(id, new AuthorityTableFile.Record(id, 0,
+                    "account" + (id / 20) + "@example.com", "com.android.test.type" + (id % 4),
+                    "com.android.test.authority" + (id % 20), id % 2 == 0, 1));
+        }
+        return table;
+    }
+
+    /** Writes the table as SyncStorageEngine writes accounts.xml. */
+    private static void writeXml(AtomicFile file, AuthorityTableFile.Table table)
+            throws Exception {
+        final FileOutputStream fos = file.startWrite();
+        final TypedXmlSerializer out = Xml.resolveSerializer(fos);
+        out.startDocument(null, true);
+        out.startTag(null, "accounts");
+        out.attributeInt(null, "version", 3);
+        out.attributeInt(null, "nextAuthorityId", table.nextAuthorityId);
+        out.attributeInt(null, "offsetInSeconds", table.syncRandomOffset);
+        for (int i = 0; i < table.masterSyncAutomatically.size(); i++) {
+            out.startTag(null, "listenForTickles");
+            out.attributeInt(null, "user", table.masterSyncAutomatically.keyAt(i));
+            out.attributeBoolean(null, "enabled", table.masterSyncAutomatically.valueAt(i));
+            out.endTag(null, "listenForTickles");
+        }
+        for (int i = 0; i < table.authorities.size(); i++) {
+            final AuthorityTableFile.Record record = table.authorities.valueAt(i);
+            out.startTag(null, "authority");
+            out.attributeInt(null, "id", record.id);
+            out.attributeInt(null, "user", record.userId);
+            out.attributeBoolean(null, "enabled", record.enabled);
+            out.attribute(null, "account", record.accountName);
+            out.attribute(null, "type", record.accountType);
+            out.attribute(null, "authority", record.provider);
+            out.attributeInt(null, "syncable", record.syncable);
+            out.endTag(null, "authority");
+        }
+        out.endTag(null, "accounts");
+        out.endDocument();
+        file.finishWrite(fos);
+    }
+
+    /** Reads the attributes SyncStorageEngine reads from accounts.xml. */
+    private static AuthorityTableFile.Table parseXml(AtomicFile file) throws Exception {
+        final AuthorityTableFile.Table table = new AuthorityTableFile.Table();
+        try (FileInputStream fis = file.openRead()) {
+            final TypedXmlPullParser parser = Xml.resolvePullParser(fis);
+            int eventType;
+            while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (eventType != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                switch (parser.getName()) {
+                    case "accounts":
+                        table.nextAuthorityId = parser.getAttributeInt(null, "nextAuthorityId");
+                        table.syncRandomOffset = parser.getAttributeInt(null, "offsetInSeconds");
+                        break;
+                    case "listenForTickles":
+                        table.masterSyncAutomatically.put(parser.getAttributeInt(null, "user"),
+                                parser.getAttributeBoolean(null, "enabled"));
+                        break;
+                    case "authority":
+                        final int id = parser.getAttributeInt(null, "id");
+                        table.authorities.put(id, new AuthorityTableFile.Record(id,
+                                parser.getAttributeInt(null, "user"),
+                                parser.getAttributeValue(null, "account"),
+                                parser.getAttributeValue(null, "type"),
+                                parser.getAttributeValue(null, "authority"),
+                                parser.getAttributeBoolean(null, "enabled"),
+                                parser.getAttributeInt(null, "syncable")));
+                        break;
+                }
+            }
+        }
+        return table;
+    }
+}
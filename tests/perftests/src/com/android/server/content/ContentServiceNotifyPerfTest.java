@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.content.ContentService.NotificationCoalescer;
+import com.android.server.content.ContentService.ObserverCollector;
+import com.android.server.content.ContentService.ObserverNode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the fan-out of a change notification in {@link ContentService}: finding the
+ * observers of a Uri in the observer tree and collecting a notification for each, for a
+ * configurable number of observers of the same Uri, or among observers of many sibling paths.
+ * Nothing is delivered.
+ *
+ * The number of observers is changed with the {@link #OBSERVERS} argument and the number of
+ * paths with {@link #PATHS}, see {@link SyncBenchmarks}.
+ *
+ * atest CorePerfTests:com.android.server.content.ContentServiceNotifyPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ContentServiceNotifyPerfTest {
+    /** Number of observers of the notified Uri. */
+    static final String OBSERVERS = "content_observers";
+    static final int DEFAULT_OBSERVERS = 100;
+
+    /** Number of sibling paths with an observer each. */
+    static final String PATHS = "content_paths";
+    static final int DEFAULT_PATHS = 10_000;
+
+    private static final Uri OBSERVED_URI = Uri.parse("content://com.android.test.authority/items");
+    private static final Uri CHANGED_URI = Uri.withAppendedPath(OBSERVED_URI, "42");
+    private static final Uri PATHS_URI = Uri.parse("content://com.android.test.paths/items");
+    private static final int FIRST_UID = 10001;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final Object mLock = new Object();
+    private ObserverNode mRoot;
+    private NotificationCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mRoot = new ObserverNode("");
+        mCoalescer = new NotificationCoalescer(new Handler(Looper.getMainLooper()),
+                20 /* foregroundWindowMillis */, 10_000 /* backgroundWindowMillis */);
+        final int observers = SyncBenchmarks.getPopulation(OBSERVERS, DEFAULT_OBSERVERS);
+        synchronized (mLock) {
+            for (int i = 0; i < observers; i++) {
+                mRoot.addObserverLocked(OBSERVED_URI, newObserver(),
+                        true /* notifyForDescendants */, mLock, FIRST_UID + i, i /* pid */,
+                        UserHandle.USER_ALL);
+            }
+        }
+    }
+
+    @Test
+    public void timeCollectObservers() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            collectObservers(CHANGED_URI);
+        }
+    }
+
+    @Test
+    public void allocationsPerCollectObservers() {
+        SyncBenchmarks.reportAllocations("collect_observers", 1_000,
+                () -> collectObservers(CHANGED_URI));
+    }
+
+    /** One of many sibling paths changed, which the observer tree finds by name. */
+    @Test
+    public void timeCollectObservers_manyPaths() {
+        final Uri uri = addPathObservers();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            collectObservers(uri);
+        }
+    }
+
+    @Test
+    public void allocationsPerCollectObservers_manyPaths() {
+        final Uri uri = addPathObservers();
+        SyncBenchmarks.reportAllocations("collect_observers_many_paths", 10_000,
+                () -> collectObservers(uri));
+    }
+
+    /**
+     * Register an observer of each of the sibling paths.
+     *
+     * @return the Uri of the path in the middle.
+     */
+    private Uri addPathObservers() {
+        final int paths = SyncBenchmarks.getPopulation(PATHS, DEFAULT_PATHS);
+        synchronized (mLock) {
+            for (int i = 0; i < paths; i++) {
+                mRoot.addObserverLocked(Uri.withAppendedPath(PATHS_URI, Integer.toString(i)),
+                        newObserver(), false /* notifyForDescendants */, mLock, FIRST_UID + i,
+                        i /* pid */, UserHandle.USER_ALL);
+            }
+        }
+        return Uri.withAppendedPath(PATHS_URI, Integer.toString(paths / 2));
+    }
+
+    /** As ContentService#notifyChange() does for each Uri of a change. */
+    private void collectObservers(Uri uri) {
+        final ObserverCollector collector = new ObserverCollector(mCoalescer);
+        synchronized (mLock) {
+            mRoot.collectObserversLocked(uri, ObserverNode.getUriSegments(uri), 0,
+                    null /* observer */, false /* observerWantsSelfNotifications */,
+                    0 /* flags */, UserHandle.USER_ALL, collector);
+        }
+    }
+
+    static IContentObserver newObserver() {
+        final IContentObserver observer = mock(IContentObserver.class);
+        when(observer.asBinder()).thenReturn(new Binder());
+        return observer;
+    }
+}
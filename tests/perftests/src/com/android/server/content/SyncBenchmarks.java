@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Process;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import dalvik.system.VMDebug;
+
+import java.io.File;
+
+/**
+ * Shared setup of the sync benchmarks: a synthetic population of accounts and authorities
+ * whose size is read from instrumentation arguments, and allocation counting.
+ *
+ * A population is changed with e.g.
+ * {@code atest CorePerfTests:com.android.server.content.SyncManagerSchedulePerfTest -- \
+ * --module-arg CorePerfTests:instrumentation-arg:sync_accounts:=50}.
+ */
+final class SyncBenchmarks {
+    /** Number of accounts, each with every authority. */
+    static final String ACCOUNTS = "sync_accounts";
+    static final int DEFAULT_ACCOUNTS = 10;
+
+    /** Number of authorities of each account. */
+    static final String AUTHORITIES = "sync_authorities";
+    static final int DEFAULT_AUTHORITIES = 20;
+
+    /** Number of extra string extras given to each sync, on top of the usual ones. */
+    static final String EXTRAS = "sync_extras";
+    static final int DEFAULT_EXTRAS = 0;
+
+    static final String ACCOUNT_TYPE = "com.android.test.type";
+    static final String PACKAGE = "com.android.test.syncadapter";
+    static final int USER_ID = 0;
+
+    private SyncBenchmarks() {
+    }
+
+    /** @return the instrumentation argument with the given name, or the default if unset. */
+    static int getPopulation(String name, int defaultValue) {
+        final String value = InstrumentationRegistry.getArguments().getString(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    static int getAccounts() {
+        return getPopulation(ACCOUNTS, DEFAULT_ACCOUNTS);
+    }
+
+    static int getAuthorities() {
+        return getPopulation(AUTHORITIES, DEFAULT_AUTHORITIES);
+    }
+
+    static int getExtras() {
+        return getPopulation(EXTRAS, DEFAULT_EXTRAS);
+    }
+
+    /** Add the given number of string extras to the bundle, like an app's own sync extras. */
+    static void addExtras(Bundle extras, int count) {
+        for (int i = 0; i < count; i++) {
+            extras.putString("extra" + i, "value" + i);
+        }
+    }
+
+    static String authority(int i) {
+        return "com.android.test.authority" + i;
+    }
+
+    /** @return a target for each account and authority of the population, account by account. */
+    static EndPoint[] newTargets(int accounts, int authorities) {
+        final EndPoint[] targets = new EndPoint[accounts * authorities];
+        for (int i = 0; i < accounts; i++) {
+            final Account account = new Account("account" + i + "@example.com", ACCOUNT_TYPE);
+            for (int j = 0; j < authorities; j++) {
+                targets[i * authorities + j] = new EndPoint(account, authority(j), USER_ID);
+            }
+        }
+        return targets;
+    }
+
+    /** @return a one-off sync of the given target, as requested by its app. */
+    static SyncOperation newSyncOperation(EndPoint target, Bundle extras) {
+        return new SyncOperation(target.account, target.userId, Process.myUid(), PACKAGE,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, target.provider,
+                extras, false /* allowParallelSyncs */, ContentResolver.SYNC_EXEMPTION_NONE);
+    }
+
+    /**
+     * Run the given code the given number of times after a warm up, and report the objects and
+     * bytes it allocates per call as instrumentation status, with the given prefix.
+     */
+    static void reportAllocations(String prefix, int calls, Runnable call) {
+        for (int i = 0; i < Math.min(calls, 1000); i++) {
+            call.run();
+        }
+
+        VMDebug.startAllocCounting();
+        VMDebug.resetAllocCount(VMDebug.KIND_THREAD_ALLOCATED_OBJECTS
+                | VMDebug.KIND_THREAD_ALLOCATED_BYTES);
+        for (int i = 0; i < calls; i++) {
+            call.run();
+        }
+        final long objects = VMDebug.getAllocCount(VMDebug.KIND_THREAD_ALLOCATED_OBJECTS);
+        final long bytes = VMDebug.getAllocCount(VMDebug.KIND_THREAD_ALLOCATED_BYTES);
+        VMDebug.stopAllocCounting();
+
+        final Bundle status = new Bundle();
+        status.putFloat(prefix + "_objects_per_call", (float) objects / calls);
+        status.putFloat(prefix + "_bytes_per_call", (float) bytes / calls);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import dalvik.system.VMDebug;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measures the cost of {@link SyncLogger.RotatingFileLogger#log} to the calling thread: the
+ * latency of a call, and the objects and bytes it allocates. Flushes run on a separate thread as
+ * they do on IoThread, so they only show up through contention on the logger's lock.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncLoggerPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncLoggerPerfTest {
+    private static final int ALLOCATION_CALLS = 100_000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    private HandlerThread mFlushThread;
+    private SyncLogger.RotatingFileLogger mLogger;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getInstrumentation().getContext().getCacheDir(),
+                "synclog-perf");
+        mFlushThread = new HandlerThread("SyncLoggerPerfTest");
+        mFlushThread.start();
+        mLogger = new SyncLogger.RotatingFileLogger(mDir, mFlushThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mLogger.flush();
+        mFlushThread.quitSafely();
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void timeLog_shortMessage() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mLogger.log("Set sync auto account=", "test@example.com", " user=", 0);
+        }
+    }
+
+    @Test
+    public void timeLog_syncFinished() {
+        final String endpoint = "account=test@example.com type=com.android.test"
+                + " authority=com.android.test.authority user=0";
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mLogger.log("onFinished result=", "SyncResult: stats [ numIoExceptions: 0 ]",
+                    " endpoint=", endpoint);
+        }
+    }
+
+    @Test
+    public void allocationsPerLog() {
+        // Warm up, so the buffers have their steady state size.
+        for (int i = 0; i < 1000; i++) {
+            mLogger.log("Set sync auto account=", "test@example.com", " user=", 0);
+        }
+
+        VMDebug.startAllocCounting();
+        VMDebug.resetAllocCount(VMDebug.KIND_THREAD_ALLOCATED_OBJECTS
+                | VMDebug.KIND_THREAD_ALLOCATED_BYTES);
+        for (int i = 0; i < ALLOCATION_CALLS; i++) {
+            mLogger.log("Set sync auto account=", "test@example.com", " user=", 0);
+        }
+        final long objects = VMDebug.getAllocCount(VMDebug.KIND_THREAD_ALLOCATED_OBJECTS);
+        final long bytes = VMDebug.getAllocCount(VMDebug.KIND_THREAD_ALLOCATED_BYTES);
+        VMDebug.stopAllocCounting();
+
+        // Includes the varargs array and the boxed user id that every caller allocates.
+        final Bundle status = new Bundle();
+        status.putFloat("objects_per_call", (float) objects / ALLOCATION_CALLS);
+        status.putFloat("bytes_per_call", (float) bytes / ALLOCATION_CALLS);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+}
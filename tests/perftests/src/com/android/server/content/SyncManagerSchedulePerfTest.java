@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.AccountAndUser;
+import android.accounts.AccountManagerInternal;
+import android.app.ActivityManagerInternal;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SyncAdapterType;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.RegisteredServicesCache;
+import android.content.pm.ServiceInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.util.SparseArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.LocalServices;
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link SyncManager#scheduleSyncOperationH} for a population of accounts and
+ * authorities, see {@link SyncBenchmarks}. JobScheduler, AccountManager and the sync adapter
+ * cache are in-process fakes, so this is the cost to SyncManager's handler thread alone.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncManagerSchedulePerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncManagerSchedulePerfTest {
+    private static final int OWNING_UID = 10001;
+    private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    /** The jobs scheduled with the fake JobScheduler, by job id. */
+    private final SparseArray<JobInfo> mJobs = new SparseArray<>();
+    private SyncManager mSyncManager;
+    private Handler mSyncHandler;
+    private EndPoint[] mTargets;
+
+    @Before
+    public void setUp() {
+        final int accounts = SyncBenchmarks.getAccounts();
+        final int authorities = SyncBenchmarks.getAuthorities();
+        mTargets = SyncBenchmarks.newTargets(accounts, authorities);
+
+        final JobScheduler jobScheduler = mock(JobScheduler.class);
+        when(jobScheduler.forNamespace(anyString())).thenReturn(jobScheduler);
+        doAnswer(invocation -> {
+            final JobInfo job = invocation.getArgument(0);
+            mJobs.put(job.getId(), job);
+            return JobScheduler.RESULT_SUCCESS;
+        }).when(jobScheduler).scheduleAsPackage(any(), anyString(), anyInt(), anyString());
+        doAnswer(invocation -> {
+            mJobs.remove(invocation.<Integer>getArgument(0));
+            return null;
+        }).when(jobScheduler).cancel(anyInt());
+
+        final List<RegisteredServicesCache.ServiceInfo<SyncAdapterType>> adapters =
+                new ArrayList<>();
+        for (int i = 0; i < authorities; i++) {
+            adapters.add(syncAdapter(SyncBenchmarks.authority(i)));
+        }
+        final SyncAdaptersCache syncAdapters = mock(SyncAdaptersCache.class);
+        when(syncAdapters.getAllServices(SyncBenchmarks.USER_ID)).thenReturn(adapters);
+
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+        LocalServices.addService(ActivityManagerInternal.class,
+                mock(ActivityManagerInternal.class));
+
+        final Context base = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDir = new File(base.getCacheDir(), "sync-schedule-perf");
+        SyncBenchmarks.deleteRecursively(mDir);
+        mDir.mkdirs();
+        final Context context = new ContextWrapper(base) {
+            @Override
+            public Object getSystemService(String name) {
+                if (Context.JOB_SCHEDULER_SERVICE.equals(name)) {
+                    return jobScheduler;
+                }
+                return super.getSystemService(name);
+            }
+
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        final AccountManagerInternal accountManager = mock(AccountManagerInternal.class);
+        mSyncManager = new SyncManager(context, true /* factoryTest */) {
+            @Override
+            protected AccountManagerInternal getAccountManagerInternal() {
+                return accountManager;
+            }
+
+            @Override
+            protected SyncStorageEngine createSyncStorageEngine(Context context) {
+                return SyncStorageEngine.newTestInstance(context);
+            }
+
+            @Override
+            protected SyncAdaptersCache createSyncAdaptersCache(Context context) {
+                return syncAdapters;
+            }
+        };
+        mSyncHandler = new Handler(mSyncManager.getSyncLooper());
+
+        final AccountAndUser[] running = new AccountAndUser[accounts];
+        for (int i = 0; i < accounts; i++) {
+            running[i] = new AccountAndUser(mTargets[i * authorities].account,
+                    SyncBenchmarks.USER_ID);
+        }
+        mSyncManager.setRunningAccountsForTest(running);
+        for (EndPoint target : mTargets) {
+            mSyncManager.getSyncStorageEngine().setIsSyncable(target.account, target.userId,
+                    target.provider, AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+        SyncBenchmarks.deleteRecursively(mDir);
+    }
+
+    /** Schedule a sync of each target in turn, none of which is pending yet. */
+    @Test
+    public void timeScheduleSyncOperation_new() {
+        final SyncOperation[] ops = newOperations();
+        runOnSyncHandler(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            int i = 0;
+            while (state.keepRunning()) {
+                mSyncManager.scheduleSyncOperationH(ops[i], 0 /* minDelay */);
+                if (++i == ops.length) {
+                    state.pauseTiming();
+                    clearPendingSyncs();
+                    i = 0;
+                    state.resumeTiming();
+                }
+            }
+        });
+    }
+
+    /** Schedule a sync of each target in turn, with the same sync already pending. */
+    @Test
+    public void timeScheduleSyncOperation_duplicate() {
+        final SyncOperation[] pending = newOperations();
+        final SyncOperation[] ops = newOperations();
+        runOnSyncHandler(() -> {
+            for (SyncOperation op : pending) {
+                mSyncManager.scheduleSyncOperationH(op, 0 /* minDelay */);
+            }
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            int i = 0;
+            while (state.keepRunning()) {
+                // Dropped, since the pending one runs no later.
+                mSyncManager.scheduleSyncOperationH(ops[i], 0 /* minDelay */);
+                i = (i + 1) % ops.length;
+            }
+        });
+    }
+
+    @Test
+    public void allocationsPerScheduleSyncOperation_duplicate() {
+        final SyncOperation[] pending = newOperations();
+        final SyncOperation[] ops = newOperations();
+        runOnSyncHandler(() -> {
+            for (SyncOperation op : pending) {
+                mSyncManager.scheduleSyncOperationH(op, 0 /* minDelay */);
+            }
+            final int[] next = new int[1];
+            SyncBenchmarks.reportAllocations("schedule_duplicate", ops.length, () -> {
+                mSyncManager.scheduleSyncOperationH(ops[next[0]], 0 /* minDelay */);
+                next[0] = (next[0] + 1) % ops.length;
+            });
+        });
+    }
+
+    private SyncOperation[] newOperations() {
+        final SyncOperation[] ops = new SyncOperation[mTargets.length];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = SyncBenchmarks.newSyncOperation(mTargets[i], new Bundle());
+        }
+        return ops;
+    }
+
+    private void clearPendingSyncs() {
+        mSyncManager.clearScheduledSyncOperations(
+                new EndPoint(null /* account */, null /* provider */, SyncBenchmarks.USER_ID));
+    }
+
+    /** Runs the benchmark on the thread that scheduleSyncOperationH() is meant for. */
+    private void runOnSyncHandler(Runnable benchmark) {
+        if (!mSyncHandler.runWithScissors(benchmark, TIMEOUT_MILLIS)) {
+            throw new IllegalStateException("Timed out");
+        }
+    }
+
+    private static RegisteredServicesCache.ServiceInfo<SyncAdapterType> syncAdapter(
+            String authority) {
+        final ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.packageName = SyncBenchmarks.PACKAGE;
+        serviceInfo.name = SyncBenchmarks.PACKAGE + ".SyncService";
+        serviceInfo.applicationInfo = new ApplicationInfo();
+        serviceInfo.applicationInfo.uid = OWNING_UID;
+        return new RegisteredServicesCache.ServiceInfo<>(
+                new SyncAdapterType(authority, SyncBenchmarks.ACCOUNT_TYPE,
+                        true /* userVisible */, true /* supportsUploading */),
+                serviceInfo, new ComponentName(SyncBenchmarks.PACKAGE, serviceInfo.name));
+    }
+}
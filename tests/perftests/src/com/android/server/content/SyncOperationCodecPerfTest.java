@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures encoding a {@link SyncOperation} into job extras with {@link SyncOperationCodec} and
+ * decoding it back, as SyncManager does for every scheduled and started sync job. More extras
+ * can be added, see {@link SyncBenchmarks#EXTRAS}.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncOperationCodecPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncOperationCodecPerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private SyncOperation mOp;
+    private Bundle mExtras;
+    private PersistableBundle mJobExtras;
+    private byte[] mEncoded;
+
+    @Before
+    public void setUp() {
+        mExtras = new Bundle();
+        mExtras.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        mExtras.putBoolean(ContentResolver.SYNC_EXTRAS_UPLOAD, true);
+        mExtras.putString("feed", "https://example.com/feeds/default/private/full");
+        mExtras.putLong("since", 1_700_000_000_000L);
+        SyncBenchmarks.addExtras(mExtras, SyncBenchmarks.getExtras());
+        mOp = new SyncOperation(new Account("test@example.com", "com.android.test"),
+                0 /* userId */, 10001 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER,
+                "com.android.test.authority", mExtras, false /* allowParallelSyncs */,
+                ContentResolver.SYNC_EXEMPTION_NONE);
+        mOp.jobId = 12345;
+        mJobExtras = mOp.toJobInfoExtras();
+        mEncoded = SyncOperationCodec.encode(mOp, mExtras);
+    }
+
+    @Test
+    public void timeEncode() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SyncOperationCodec.encode(mOp, mExtras);
+        }
+    }
+
+    @Test
+    public void timeDecode() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SyncOperationCodec.decode(mEncoded);
+        }
+    }
+
+    @Test
+    public void timeToJobInfoExtras() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mOp.toJobInfoExtras();
+        }
+    }
+
+    @Test
+    public void timeMaybeCreateFromJobExtras() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SyncOperation.maybeCreateFromJobExtras(mJobExtras);
+        }
+    }
+}
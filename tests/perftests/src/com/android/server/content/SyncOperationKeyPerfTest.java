@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.os.Bundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the duplicate check of scheduling a sync: computing {@link SyncOperation#key},
+ * comparing keys, and looking up the pending syncs with a key in {@link PendingSyncIndex}, for
+ * a population of accounts, authorities and extras, see {@link SyncBenchmarks}.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncOperationKeyPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncOperationKeyPerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private EndPoint[] mTargets;
+    private Bundle mExtras;
+    /** A pending sync of each target, in mIndex. */
+    private SyncOperation[] mPending;
+    /** The same syncs as mPending, with their own extras. */
+    private SyncOperation[] mOps;
+    private PendingSyncIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mTargets = SyncBenchmarks.newTargets(SyncBenchmarks.getAccounts(),
+                SyncBenchmarks.getAuthorities());
+        mExtras = newExtras();
+        mPending = new SyncOperation[mTargets.length];
+        mOps = new SyncOperation[mTargets.length];
+        mIndex = new PendingSyncIndex();
+        for (int i = 0; i < mTargets.length; i++) {
+            mPending[i] = SyncBenchmarks.newSyncOperation(mTargets[i], newExtras());
+            mPending[i].jobId = i + 1;
+            mIndex.put(mPending[i]);
+            mOps[i] = SyncBenchmarks.newSyncOperation(mTargets[i], newExtras());
+        }
+    }
+
+    /** Includes computing the key, which every new SyncOperation does. */
+    @Test
+    public void timeNewSyncOperation() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SyncBenchmarks.newSyncOperation(mTargets[i], mExtras);
+            i = (i + 1) % mTargets.length;
+        }
+    }
+
+    @Test
+    public void timeKeyEquals_equal() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mOps[i].key.equals(mPending[i].key);
+            i = (i + 1) % mOps.length;
+        }
+    }
+
+    /** Same target, other extras: the most expensive mismatch. */
+    @Test
+    public void timeKeyEquals_otherExtras() {
+        final SyncOperation[] ops = new SyncOperation[mTargets.length];
+        for (int i = 0; i < ops.length; i++) {
+            final Bundle extras = newExtras();
+            extras.putString("other", "value");
+            ops[i] = SyncBenchmarks.newSyncOperation(mTargets[i], extras);
+        }
+
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            ops[i].key.equals(mPending[i].key);
+            i = (i + 1) % ops.length;
+        }
+    }
+
+    @Test
+    public void timeGetByKey() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mIndex.getByKey(mOps[i].key);
+            i = (i + 1) % mOps.length;
+        }
+    }
+
+    @Test
+    public void allocationsPerNewSyncOperation() {
+        final int[] next = new int[1];
+        SyncBenchmarks.reportAllocations("new_sync_operation", 10_000, () -> {
+            SyncBenchmarks.newSyncOperation(mTargets[next[0]], mExtras);
+            next[0] = (next[0] + 1) % mTargets.length;
+        });
+    }
+
+    private static Bundle newExtras() {
+        final Bundle extras = new Bundle();
+        SyncBenchmarks.addExtras(extras, SyncBenchmarks.getExtras());
+        return extras;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measures looking up authorities by {@link EndPoint} in {@link SyncStorageEngine}, which most
+ * of its calls start with, for 100 and 10k authorities.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncStorageEngineAuthorityLookupPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncStorageEngineAuthorityLookupPerfTest {
+    private static final String TYPE = "com.android.test.type";
+    private static final int USER_ID = 0;
+    /** Authorities per account, as a device with several sync adapters has. */
+    private static final int AUTHORITIES_PER_ACCOUNT = 20;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    private HandlerThread mWriteThread;
+    private SyncStorageEngine mEngine;
+    private EndPoint[] mTargets;
+
+    @Before
+    public void setUp() {
+        final Context base = InstrumentationRegistry.getInstrumentation().getContext();
+        mDir = new File(base.getCacheDir(), "sync-lookup-perf");
+        deleteRecursively(mDir);
+        mDir.mkdirs();
+        final Context context = new ContextWrapper(base) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        mWriteThread = new HandlerThread("SyncStorageEngineAuthorityLookupPerfTest");
+        mWriteThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mWriteThread.getLooper(),
+                false /* useAccountInfoTable */);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mWriteThread.quitSafely();
+        mWriteThread.join();
+        deleteRecursively(mDir);
+    }
+
+    @Test
+    public void timeGetIsSyncable_100() {
+        timeGetIsSyncable(100);
+    }
+
+    @Test
+    public void timeGetIsSyncable_10k() {
+        timeGetIsSyncable(10_000);
+    }
+
+    @Test
+    public void timeGetIsSyncable_unknown_10k() {
+        populate(10_000);
+        final Account unknown = new Account("unknown@example.com", TYPE);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mEngine.getIsSyncable(unknown, USER_ID, authority(0));
+        }
+    }
+
+    @Test
+    public void timeGetSyncAutomatically_10k() {
+        populate(10_000);
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final EndPoint target = mTargets[i];
+            mEngine.getSyncAutomatically(target.account, target.userId, target.provider);
+            i = (i + 1) % mTargets.length;
+        }
+    }
+
+    private void timeGetIsSyncable(int authorities) {
+        populate(authorities);
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final EndPoint target = mTargets[i];
+            mEngine.getIsSyncable(target.account, target.userId, target.provider);
+            i = (i + 1) % mTargets.length;
+        }
+    }
+
+    private void populate(int authorities) {
+        mTargets = new EndPoint[authorities];
+        for (int i = 0; i < authorities; i++) {
+            mTargets[i] = new EndPoint(
+                    new Account("account" + (i / AUTHORITIES_PER_ACCOUNT) + "@example.com", TYPE),
+                    authority(i % AUTHORITIES_PER_ACCOUNT), USER_ID);
+            mEngine.setIsSyncable(mTargets[i].account, USER_ID, mTargets[i].provider,
+                    AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+        }
+    }
+
+    private static String authority(int i) {
+        return "com.android.test.authority" + i;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
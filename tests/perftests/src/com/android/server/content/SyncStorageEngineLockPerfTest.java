@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measures how long sync queries wait for the {@link SyncStorageEngine} lock while bursts of
+ * authority creations are written to disk, which is how long the writes hold that lock. Files
+ * are written on their own thread, as in the system server.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncStorageEngineLockPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncStorageEngineLockPerfTest {
+    private static final String TYPE = "com.android.test.type";
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final int USER_ID = 0;
+    /** Authorities present before the bursts, which the queries look up. */
+    private static final int AUTHORITIES = 500;
+    /** Authorities created and then removed by each burst. */
+    private static final int BURST = 100;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    private HandlerThread mWriteThread;
+    private SyncStorageEngine mEngine;
+    private Thread mBurstThread;
+    private volatile boolean mBursting;
+
+    @Before
+    public void setUp() {
+        final Context base = InstrumentationRegistry.getInstrumentation().getContext();
+        mDir = new File(base.getCacheDir(), "sync-lock-perf");
+        deleteRecursively(mDir);
+        mDir.mkdirs();
+        final Context context = new ContextWrapper(base) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        mWriteThread = new HandlerThread("SyncStorageEngineLockPerfTest");
+        mWriteThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mWriteThread.getLooper(),
+                false /* useAccountInfoTable */);
+        for (int i = 0; i < AUTHORITIES; i++) {
+            mEngine.setIsSyncable(account("existing", i), USER_ID, AUTHORITY,
+                    AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+        }
+        mEngine.writeAllState();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stopBursts();
+        mWriteThread.quitSafely();
+        mWriteThread.join();
+        deleteRecursively(mDir);
+    }
+
+    @Test
+    public void timeGetIsSyncable() {
+        timeGetIsSyncable(false /* duringBursts */);
+    }
+
+    @Test
+    public void timeGetIsSyncable_duringAuthorityBursts() {
+        timeGetIsSyncable(true /* duringBursts */);
+    }
+
+    /** The cost to the caller of a burst, with its writes left to the write thread. */
+    @Test
+    public void timeAuthorityBurst() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            runBurst();
+        }
+    }
+
+    private void timeGetIsSyncable(boolean duringBursts) {
+        if (duringBursts) {
+            startBursts();
+        }
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mEngine.getIsSyncable(account("existing", i), USER_ID, AUTHORITY);
+            i = (i + 1) % AUTHORITIES;
+        }
+    }
+
+    private void startBursts() {
+        mBursting = true;
+        mBurstThread = new Thread(() -> {
+            while (mBursting) {
+                runBurst();
+            }
+        }, "SyncStorageEngineLockPerfTest.burst");
+        mBurstThread.start();
+    }
+
+    private void stopBursts() throws InterruptedException {
+        mBursting = false;
+        if (mBurstThread != null) {
+            mBurstThread.join();
+            mBurstThread = null;
+        }
+    }
+
+    private void runBurst() {
+        for (int i = 0; i < BURST; i++) {
+            mEngine.setIsSyncable(account("burst", i), USER_ID, AUTHORITY,
+                    AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+        }
+        for (int i = 0; i < BURST; i++) {
+            mEngine.removeAuthority(new EndPoint(account("burst", i), AUTHORITY, USER_ID));
+        }
+    }
+
+    private static Account account(String prefix, int i) {
+        return new Account(prefix + i + "@example.com", TYPE);
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measures recording the start and end of syncs in {@link SyncStorageEngine}, which every sync
+ * does, for a population of accounts and authorities, see {@link SyncBenchmarks}. Each call is
+ * for the next target in turn. Files are written on their own thread, as in the system server.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncStorageEngineSyncEventPerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncStorageEngineSyncEventPerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    private HandlerThread mWriteThread;
+    private SyncStorageEngine mEngine;
+    private SyncOperation[] mOps;
+
+    @Before
+    public void setUp() {
+        final Context base = InstrumentationRegistry.getInstrumentation().getContext();
+        mDir = new File(base.getCacheDir(), "sync-event-perf");
+        SyncBenchmarks.deleteRecursively(mDir);
+        mDir.mkdirs();
+        final Context context = new ContextWrapper(base) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        mWriteThread = new HandlerThread("SyncStorageEngineSyncEventPerfTest");
+        mWriteThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mWriteThread.getLooper(),
+                false /* useAccountInfoTable */);
+
+        final EndPoint[] targets = SyncBenchmarks.newTargets(SyncBenchmarks.getAccounts(),
+                SyncBenchmarks.getAuthorities());
+        mOps = new SyncOperation[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            mEngine.setIsSyncable(targets[i].account, targets[i].userId, targets[i].provider,
+                    AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+            mOps[i] = SyncBenchmarks.newSyncOperation(targets[i], new Bundle());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mWriteThread.quitSafely();
+        mWriteThread.join();
+        SyncBenchmarks.deleteRecursively(mDir);
+    }
+
+    @Test
+    public void timeInsertStartSyncEvent() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mEngine.insertStartSyncEvent(mOps[i], System.currentTimeMillis());
+            i = (i + 1) % mOps.length;
+        }
+    }
+
+    @Test
+    public void timeStopSyncEvent() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final long historyId = mEngine.insertStartSyncEvent(mOps[i],
+                    System.currentTimeMillis());
+            state.resumeTiming();
+            stopSync(historyId, mOps[i]);
+            i = (i + 1) % mOps.length;
+        }
+    }
+
+    @Test
+    public void timeStartAndStopSyncEvent() {
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            runSync(mOps[i]);
+            i = (i + 1) % mOps.length;
+        }
+    }
+
+    @Test
+    public void allocationsPerStartAndStopSyncEvent() {
+        final int[] next = new int[1];
+        SyncBenchmarks.reportAllocations("sync_event", 10_000, () -> {
+            runSync(mOps[next[0]]);
+            next[0] = (next[0] + 1) % mOps.length;
+        });
+    }
+
+    private void runSync(SyncOperation op) {
+        stopSync(mEngine.insertStartSyncEvent(op, System.currentTimeMillis()), op);
+    }
+
+    private void stopSync(long historyId, SyncOperation op) {
+        mEngine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                0 /* downstreamActivity */, 0 /* upstreamActivity */, op.owningPackage,
+                op.target.userId);
+    }
+}
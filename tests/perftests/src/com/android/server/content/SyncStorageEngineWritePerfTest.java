@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the writes of {@link SyncStorageEngine} for a population of accounts and
+ * authorities, see {@link SyncBenchmarks}: the account info after a setting changed, in
+ * accounts.xml or in the authority table, and the sync status, in full as scheduled by
+ * writeStatusLocked() or appended to the status journal.
+ *
+ * The engine's write thread is kept blocked, so each write happens on the benchmark thread.
+ *
+ * atest CorePerfTests:com.android.server.content.SyncStorageEngineWritePerfTest
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncStorageEngineWritePerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mDir;
+    private Context mContext;
+    private HandlerThread mWriteThread;
+    private final CountDownLatch mReleaseWriteThread = new CountDownLatch(1);
+    private EndPoint[] mTargets;
+    private SyncStorageEngine mEngine;
+
+    @Before
+    public void setUp() {
+        final Context base = InstrumentationRegistry.getInstrumentation().getContext();
+        mDir = new File(base.getCacheDir(), "sync-write-perf");
+        SyncBenchmarks.deleteRecursively(mDir);
+        mDir.mkdirs();
+        mContext = new ContextWrapper(base) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        mWriteThread = new HandlerThread("SyncStorageEngineWritePerfTest");
+        mWriteThread.start();
+        new Handler(mWriteThread.getLooper()).post(() -> {
+            try {
+                mReleaseWriteThread.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        mTargets = SyncBenchmarks.newTargets(SyncBenchmarks.getAccounts(),
+                SyncBenchmarks.getAuthorities());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReleaseWriteThread.countDown();
+        mWriteThread.quitSafely();
+        mWriteThread.join();
+        SyncBenchmarks.deleteRecursively(mDir);
+    }
+
+    @Test
+    public void timePersistAccountInfo_xml() {
+        timePersistAccountInfo(false /* useAccountInfoTable */);
+    }
+
+    @Test
+    public void timePersistAccountInfo_table() {
+        timePersistAccountInfo(true /* useAccountInfoTable */);
+    }
+
+    @Test
+    public void timePersistStatus() {
+        createEngine(false /* useAccountInfoTable */);
+        for (EndPoint target : mTargets) {
+            runSync(target);
+        }
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mEngine.persistStatus();
+        }
+    }
+
+    @Test
+    public void timePersistStatusJournal_oneSync() {
+        createEngine(false /* useAccountInfoTable */);
+        for (EndPoint target : mTargets) {
+            runSync(target);
+        }
+        mEngine.persistStatus();
+
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            // Includes compacting the journal into the status file once it is full.
+            state.pauseTiming();
+            runSync(mTargets[i]);
+            state.resumeTiming();
+            mEngine.persistStatusJournal();
+            i = (i + 1) % mTargets.length;
+        }
+    }
+
+    /** A setting of one authority changed, then the account info is written. */
+    private void timePersistAccountInfo(boolean useAccountInfoTable) {
+        createEngine(useAccountInfoTable);
+        mEngine.persistAccountInfo();
+
+        boolean sync = false;
+        int i = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final EndPoint target = mTargets[i];
+            mEngine.setSyncAutomatically(target.account, target.userId, target.provider, sync,
+                    ContentResolver.SYNC_EXEMPTION_NONE, Process.myUid(), Process.myPid());
+            state.resumeTiming();
+            mEngine.persistAccountInfo();
+            if (++i == mTargets.length) {
+                i = 0;
+                sync = !sync;
+            }
+        }
+    }
+
+    private void createEngine(boolean useAccountInfoTable) {
+        mEngine = SyncStorageEngine.newTestInstance(mContext, mWriteThread.getLooper(),
+                useAccountInfoTable);
+        for (EndPoint target : mTargets) {
+            mEngine.setIsSyncable(target.account, target.userId, target.provider,
+                    AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+        }
+    }
+
+    private void runSync(EndPoint target) {
+        final long historyId = mEngine.insertStartSyncEvent(
+                SyncBenchmarks.newSyncOperation(target, new Bundle()),
+                System.currentTimeMillis());
+        mEngine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                0 /* downstreamActivity */, 0 /* upstreamActivity */, SyncBenchmarks.PACKAGE,
+                target.userId);
+    }
+}
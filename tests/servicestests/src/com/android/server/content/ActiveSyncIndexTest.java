@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncManager.ActiveSyncContext;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Tests for {@link ActiveSyncIndex}, and that the conflict and preemption outcomes of
+ * SyncManager.startSyncH match a scan of all running syncs.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.ActiveSyncIndexTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ActiveSyncIndexTest {
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final String TYPE_1 = "com.android.test.type1";
+    private static final String TYPE_2 = "com.android.test.type2";
+    private static final int USER_0 = 0;
+    private static final int USER_10 = 10;
+
+    private SyncManager mSyncManager;
+    private ActiveSyncIndex mIndex;
+    private int mNextJobId;
+
+    @Before
+    public void setUp() {
+        mSyncManager = mock(SyncManager.class);
+        mIndex = new ActiveSyncIndex();
+        mNextJobId = 1;
+    }
+
+    @Test
+    public void testEqualBias_defersNewSync() {
+        final ActiveSyncContext running = start(op("a", TYPE_1, USER_0, null, false));
+        final SyncOperation toRun = op("a", TYPE_1, USER_0, null, false);
+
+        assertSame(running, mIndex.findFirstConflict(toRun));
+        assertFalse(ActiveSyncIndex.shouldPreempt(running, toRun));
+    }
+
+    @Test
+    public void testHigherBias_preemptsRunningSync() {
+        final ActiveSyncContext running = start(op("a", TYPE_1, USER_0, null, false));
+        final SyncOperation expedited =
+                op("a", TYPE_1, USER_0, ContentResolver.SYNC_EXTRAS_EXPEDITED, false);
+
+        assertSame(running, mIndex.findFirstConflict(expedited));
+        assertTrue(ActiveSyncIndex.shouldPreempt(running, expedited));
+
+        final SyncOperation init =
+                op("a", TYPE_1, USER_0, ContentResolver.SYNC_EXTRAS_INITIALIZE, false);
+        final ActiveSyncContext runningExpedited = mSyncManager.new ActiveSyncContext(expedited);
+        assertTrue(ActiveSyncIndex.shouldPreempt(runningExpedited, init));
+    }
+
+    @Test
+    public void testLowerBias_defersNewSync() {
+        final ActiveSyncContext running =
+                start(op("a", TYPE_1, USER_0, ContentResolver.SYNC_EXTRAS_EXPEDITED, false));
+        final SyncOperation toRun = op("a", TYPE_1, USER_0, null, false);
+
+        assertSame(running, mIndex.findFirstConflict(toRun));
+        assertFalse(ActiveSyncIndex.shouldPreempt(running, toRun));
+    }
+
+    @Test
+    public void testDifferentUser_noConflict() {
+        start(op("a", TYPE_1, USER_0, null, false));
+
+        assertNull(mIndex.findFirstConflict(op("a", TYPE_1, USER_10, null, false)));
+        assertNull(mIndex.findFirstConflict(
+                op("a", TYPE_1, USER_10, ContentResolver.SYNC_EXTRAS_EXPEDITED, false)));
+    }
+
+    @Test
+    public void testDifferentAccountType_noConflict() {
+        start(op("a", TYPE_1, USER_0, null, false));
+
+        assertNull(mIndex.findFirstConflict(op("a", TYPE_2, USER_0, null, false)));
+        assertNull(mIndex.findFirstConflict(
+                op("a", TYPE_2, USER_0, ContentResolver.SYNC_EXTRAS_EXPEDITED, false)));
+    }
+
+    @Test
+    public void testParallelSyncs_onlyConflictForSameAccount() {
+        final ActiveSyncContext running = start(op("a", TYPE_1, USER_0, null, true));
+
+        assertNull(mIndex.findFirstConflict(op("b", TYPE_1, USER_0, null, true)));
+        assertSame(running, mIndex.findFirstConflict(op("a", TYPE_1, USER_0, null, true)));
+    }
+
+    @Test
+    public void testFindFirstConflict_oldestFirstAndRemove() {
+        final ActiveSyncContext first = start(op("a", TYPE_1, USER_0, null, true));
+        final ActiveSyncContext second = start(op("b", TYPE_1, USER_0, null, false));
+        final SyncOperation toRun = op("a", TYPE_1, USER_0, null, false);
+
+        assertSame(first, mIndex.findFirstConflict(toRun));
+        mIndex.remove(first);
+        assertSame(second, mIndex.findFirstConflict(toRun));
+        assertNull(mIndex.get(first.mSyncOperation.jobId));
+        assertSame(second, mIndex.get(second.mSyncOperation.jobId));
+        mIndex.remove(second);
+        assertNull(mIndex.findFirstConflict(toRun));
+    }
+
+    @Test
+    public void testRandomized_matchesLinearScan() {
+        final Random random = new Random(6);
+        final String[] names = {"a", "b", "c"};
+        final String[] types = {TYPE_1, TYPE_2};
+        final int[] users = {USER_0, USER_10};
+        final String[] extras = {null, ContentResolver.SYNC_EXTRAS_EXPEDITED,
+                ContentResolver.SYNC_EXTRAS_INITIALIZE};
+        // Running syncs in the order they were started, as in mActiveSyncContexts.
+        final ArrayList<ActiveSyncContext> active = new ArrayList<>();
+
+        for (int round = 0; round < 5_000; round++) {
+            final SyncOperation op = op(names[random.nextInt(names.length)],
+                    types[random.nextInt(types.length)], users[random.nextInt(users.length)],
+                    extras[random.nextInt(extras.length)], random.nextBoolean());
+
+            ActiveSyncContext expected = null;
+            for (ActiveSyncContext asc : active) {
+                if (asc.mSyncOperation.isConflict(op)) {
+                    expected = asc;
+                    break;
+                }
+            }
+            final ActiveSyncContext conflict = mIndex.findFirstConflict(op);
+            assertSame(expected, conflict);
+            if (conflict != null) {
+                final boolean preempt = ActiveSyncIndex.shouldPreempt(conflict, op);
+                // The check startSyncH did inline before the index.
+                assertTrue(preempt == (conflict.mSyncOperation.getJobBias() < op.getJobBias()));
+                if (!preempt) {
+                    continue;
+                }
+                active.remove(conflict);
+                mIndex.remove(conflict);
+            }
+            if (active.size() >= 8 && random.nextBoolean()) {
+                final ActiveSyncContext done = active.remove(random.nextInt(active.size()));
+                mIndex.remove(done);
+            }
+            final ActiveSyncContext asc = mSyncManager.new ActiveSyncContext(op);
+            active.add(asc);
+            mIndex.add(asc);
+        }
+    }
+
+    private ActiveSyncContext start(SyncOperation op) {
+        final ActiveSyncContext asc = mSyncManager.new ActiveSyncContext(op);
+        mIndex.add(asc);
+        return asc;
+    }
+
+    private SyncOperation op(String accountName, String accountType, int userId,
+            String extraKey, boolean allowParallelSyncs) {
+        final Bundle extras = new Bundle();
+        if (extraKey != null) {
+            extras.putBoolean(extraKey, true);
+        }
+        final SyncOperation op = new SyncOperation(new Account(accountName, accountType), userId,
+                1000 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                extras, allowParallelSyncs, ContentResolver.SYNC_EXEMPTION_NONE);
+        op.jobId = mNextJobId++;
+        return op;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests for {@link AuthorityTableFile}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.AuthorityTableFileTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AuthorityTableFileTest {
+    // The file format, spelled out so that the tests notice if it changes.
+    private static final int MAGIC = 0x53594e41;
+    private static final int VERSION = 1;
+    private static final byte RECORD_HEADER = 1;
+    private static final byte RECORD_AUTHORITY = 3;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mTemp.getRoot(), "accounts.bin");
+    }
+
+    @Test
+    public void testRead_noFile() throws Exception {
+        try {
+            new AuthorityTableFile(mFile).read();
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final AuthorityTableFile.Table table = newTable(100);
+        assertTrue(new AuthorityTableFile(mFile).write(table));
+
+        final AuthorityTableFile.Table read = new AuthorityTableFile(mFile).read();
+        assertTableEquals(table, read);
+        assertFalse(read.torn);
+    }
+
+    @Test
+    public void testRoundTrip_appendsChanges() throws Exception {
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        final AuthorityTableFile.Table table = newTable(100);
+        assertTrue(file.write(table));
+        final long fullSize = mFile.length();
+
+        // Change one authority, remove one and flip a master sync flag.
+        table.authorities.put(7, record(7, 0, "changed", false, 0));
+        table.authorities.remove(8);
+        table.masterSyncAutomatically.put(0, false);
+        final AuthorityTableFile.Changes changes = changesOf(table);
+        changes.authorities.add(table.authorities.get(7));
+        changes.removedIds.add(8);
+        assertTrue(file.append(changes));
+        final long appendedSize = mFile.length() - fullSize;
+        assertTrue("Appended " + appendedSize + " bytes",
+                appendedSize > 0 && appendedSize < fullSize / 10);
+
+        // Appending no changes is a no-op.
+        assertTrue(file.append(changesOf(table)));
+        assertEquals(fullSize + appendedSize, mFile.length());
+
+        final AuthorityTableFile.Table read = new AuthorityTableFile(mFile).read();
+        assertTableEquals(table, read);
+        assertNull(read.authorities.get(8));
+    }
+
+    @Test
+    public void testAppend_afterRead() throws Exception {
+        final AuthorityTableFile.Table table = newTable(10);
+        assertTrue(new AuthorityTableFile(mFile).write(table));
+
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        // Nothing is known about the file until it has been read.
+        assertFalse(file.append(changesOf(table)));
+        file.read();
+        table.nextAuthorityId = 11;
+        table.authorities.put(10, record(10, 0, "added", true, 1));
+        final AuthorityTableFile.Changes changes = changesOf(table);
+        changes.authorities.add(table.authorities.get(10));
+        assertTrue(file.append(changes));
+
+        assertTableEquals(table, new AuthorityTableFile(mFile).read());
+    }
+
+    @Test
+    public void testAppend_removingMasterSyncFlagRefused() throws Exception {
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        final AuthorityTableFile.Table table = newTable(10);
+        table.masterSyncAutomatically.put(10, true);
+        assertTrue(file.write(table));
+
+        table.masterSyncAutomatically.delete(10);
+        assertFalse(file.append(changesOf(table)));
+        assertTrue(file.write(table));
+
+        final AuthorityTableFile.Table read = new AuthorityTableFile(mFile).read();
+        assertTableEquals(table, read);
+        assertTrue(read.masterSyncAutomatically.indexOfKey(10) < 0);
+    }
+
+    @Test
+    public void testAppend_refusedOnceDueForCompaction() throws Exception {
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        final AuthorityTableFile.Table table = newTable(20);
+        assertTrue(file.write(table));
+
+        int rewrites = 0;
+        for (int i = 0; i < 1000; i++) {
+            table.authorities.put(3, record(3, 0, "account" + i, (i & 1) == 0, i));
+            final AuthorityTableFile.Changes changes = changesOf(table);
+            changes.authorities.add(table.authorities.get(3));
+            if (!file.append(changes)) {
+                assertTrue(file.write(table));
+                rewrites++;
+            }
+        }
+        assertTrue("Rewrote " + rewrites + " times", rewrites > 0 && rewrites < 100);
+        // Compaction keeps the file within a small multiple of the live table.
+        assertTrue("File is " + mFile.length() + " bytes", mFile.length() < 4 * 1024);
+        assertTableEquals(table, new AuthorityTableFile(mFile).read());
+    }
+
+    @Test
+    public void testRead_tornRecordEndsTable() throws Exception {
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        final AuthorityTableFile.Table table = newTable(10);
+        assertTrue(file.write(table));
+        final AuthorityTableFile.Table before = newTable(10);
+
+        table.authorities.put(4, record(4, 0, "torn", false, 0));
+        final AuthorityTableFile.Changes changes = changesOf(table);
+        changes.authorities.add(table.authorities.get(4));
+        assertTrue(file.append(changes));
+        truncate(mFile, mFile.length() - 3);
+
+        final AuthorityTableFile file2 = new AuthorityTableFile(mFile);
+        final AuthorityTableFile.Table read = file2.read();
+        assertTrue(read.torn);
+        assertTableEquals(before, read);
+
+        // A torn file can't be appended to; the next write rewrites it, after which it reads
+        // in full.
+        assertFalse(file2.append(changesOf(read)));
+        assertTrue(file2.write(read));
+        final AuthorityTableFile.Table reread = new AuthorityTableFile(mFile).read();
+        assertFalse(reread.torn);
+        assertTableEquals(before, reread);
+    }
+
+    @Test
+    public void testRead_tornLengthPrefix() throws Exception {
+        assertTrue(new AuthorityTableFile(mFile).write(newTable(3)));
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(new byte[] {0, 0});
+        }
+        final AuthorityTableFile.Table read = new AuthorityTableFile(mFile).read();
+        assertTrue(read.torn);
+        assertTableEquals(newTable(3), read);
+    }
+
+    @Test
+    public void testRead_notATable() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write("<?xml version='1.0'?>".getBytes());
+        }
+        try {
+            new AuthorityTableFile(mFile).read();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testRead_skipsUnknownRecordsAndTrailingFields() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(record);
+        data.writeByte(RECORD_HEADER);
+        data.writeInt(42);
+        data.writeInt(1234);
+        data.writeLong(0xdeadbeefL); // a field added by a later version
+        flushRecord(out, record);
+
+        data.writeByte(99); // a record type added by a later version
+        data.writeUTF("unknown");
+        flushRecord(out, record);
+
+        data.writeByte(RECORD_AUTHORITY);
+        data.writeInt(5);
+        data.writeInt(10);
+        data.writeBoolean(true);
+        data.writeInt(1);
+        data.writeUTF("name");
+        data.writeUTF("type");
+        data.writeUTF("provider");
+        data.writeUTF("a field added by a later version");
+        flushRecord(out, record);
+
+        try (FileOutputStream fos = new FileOutputStream(mFile)) {
+            bytes.writeTo(fos);
+        }
+
+        final AuthorityTableFile.Table read = new AuthorityTableFile(mFile).read();
+        assertFalse(read.torn);
+        assertEquals(42, read.nextAuthorityId);
+        assertEquals(1234, read.syncRandomOffset);
+        assertEquals(1, read.authorities.size());
+        assertEquals(new AuthorityTableFile.Record(5, 10, "name", "type", "provider", true, 1),
+                read.authorities.get(5));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final AuthorityTableFile file = new AuthorityTableFile(mFile);
+        assertTrue(file.write(newTable(3)));
+        assertTrue(file.exists());
+        file.delete();
+        assertFalse(file.exists());
+
+        // An append after a delete can't add to what isn't there.
+        assertFalse(file.append(changesOf(newTable(4))));
+        assertTrue(file.write(newTable(4)));
+        assertTableEquals(newTable(4), new AuthorityTableFile(mFile).read());
+    }
+
+    static AuthorityTableFile.Table newTable(int authorities) {
+        final AuthorityTableFile.Table table = new AuthorityTableFile.Table();
+        table.nextAuthorityId = authorities;
+        table.syncRandomOffset = 4321;
+        table.masterSyncAutomatically.put(0, true);
+        for (int id = 0; id < authorities; id++) {
+            table.authorities.put(id, record(id, id % 3 == 0 ? 10 : 0, "account" + id,
+                    id % 2 == 0, id % 4 - 1));
+        }
+        return table;
+    }
+
+    /** @return changes with the header of the given table and no authorities. */
+    private static AuthorityTableFile.Changes changesOf(AuthorityTableFile.Table table) {
+        final AuthorityTableFile.Changes changes = new AuthorityTableFile.Changes();
+        changes.nextAuthorityId = table.nextAuthorityId;
+        changes.syncRandomOffset = table.syncRandomOffset;
+        for (int i = 0; i < table.masterSyncAutomatically.size(); i++) {
+            changes.masterSyncAutomatically.put(table.masterSyncAutomatically.keyAt(i),
+                    table.masterSyncAutomatically.valueAt(i));
+        }
+        return changes;
+    }
+
+    private static AuthorityTableFile.Record record(int id, int userId, String accountName,
+            boolean enabled, int syncable) {
+        return new AuthorityTableFile.Record(id, userId, accountName, "com.android.test.type",
+                "com.android.test.authority" + (id % 5), enabled, syncable);
+    }
+
+    private static void assertTableEquals(AuthorityTableFile.Table expected,
+            AuthorityTableFile.Table actual) {
+        assertEquals(expected.nextAuthorityId, actual.nextAuthorityId);
+        assertEquals(expected.syncRandomOffset, actual.syncRandomOffset);
+        assertEquals(expected.masterSyncAutomatically.size(),
+                actual.masterSyncAutomatically.size());
+        for (int i = 0; i < expected.masterSyncAutomatically.size(); i++) {
+            assertEquals(expected.masterSyncAutomatically.keyAt(i),
+                    actual.masterSyncAutomatically.keyAt(i));
+            assertEquals(expected.masterSyncAutomatically.valueAt(i),
+                    actual.masterSyncAutomatically.valueAt(i));
+        }
+        assertEquals(expected.authorities.size(), actual.authorities.size());
+        for (int i = 0; i < expected.authorities.size(); i++) {
+            assertEquals(expected.authorities.valueAt(i),
+                    actual.authorities.get(expected.authorities.keyAt(i)));
+        }
+    }
+
+    private static void flushRecord(DataOutputStream out, ByteArrayOutputStream record)
+            throws IOException {
+        out.writeInt(record.size());
+        record.writeTo(out);
+        record.reset();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+}
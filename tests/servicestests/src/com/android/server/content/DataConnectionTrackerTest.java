@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for {@link DataConnectionTracker}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.DataConnectionTrackerTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DataConnectionTrackerTest {
+    private ConnectivityManager mConnectivityManager;
+    private DataConnectionTracker mTracker;
+    private ConnectivityManager.NetworkCallback mCallback;
+    private int mReconnects;
+
+    @Before
+    public void setUp() {
+        mConnectivityManager = mock(ConnectivityManager.class);
+        mReconnects = 0;
+        mTracker = new DataConnectionTracker(mConnectivityManager, () -> mReconnects++);
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        mTracker.register(handler);
+        final ArgumentCaptor<ConnectivityManager.NetworkCallback> captor =
+                ArgumentCaptor.forClass(ConnectivityManager.NetworkCallback.class);
+        verify(mConnectivityManager).registerDefaultNetworkCallback(captor.capture(), eq(handler));
+        mCallback = captor.getValue();
+    }
+
+    @Test
+    public void testIsConnected_doesNotQueryConnectivityManager() {
+        mCallback.onAvailable(mock(Network.class));
+
+        // SyncManager reads the state on every sync message.
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(mTracker.isConnected());
+        }
+        verify(mConnectivityManager, never()).getActiveNetworkInfo();
+        verify(mConnectivityManager, never()).getActiveNetwork();
+        verify(mConnectivityManager, never()).getNetworkCapabilities(any());
+    }
+
+    @Test
+    public void testCallbacks_trackDefaultNetwork() {
+        assertFalse(mTracker.isConnected());
+
+        mCallback.onAvailable(mock(Network.class));
+        assertTrue(mTracker.isConnected());
+        assertEquals(1, mReconnects);
+
+        // A new default network replacing the old one isn't a reconnect.
+        mCallback.onAvailable(mock(Network.class));
+        assertEquals(1, mReconnects);
+
+        mCallback.onLost(mock(Network.class));
+        assertFalse(mTracker.isConnected());
+        assertEquals(1, mReconnects);
+
+        mCallback.onAvailable(mock(Network.class));
+        assertTrue(mTracker.isConnected());
+        assertEquals(2, mReconnects);
+    }
+
+    @Test
+    public void testRefresh_readsActiveNetworkOnce() {
+        final NetworkInfo info = mock(NetworkInfo.class);
+        when(info.isConnected()).thenReturn(true);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(info);
+
+        mTracker.refresh();
+        assertTrue(mTracker.isConnected());
+        assertEquals(1, mReconnects);
+        verify(mConnectivityManager, times(1)).getActiveNetworkInfo();
+
+        // The callback agreeing with the broadcast doesn't clear backoffs again.
+        mCallback.onAvailable(mock(Network.class));
+        assertEquals(1, mReconnects);
+
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(null);
+        mTracker.refresh();
+        assertFalse(mTracker.isConnected());
+    }
+}
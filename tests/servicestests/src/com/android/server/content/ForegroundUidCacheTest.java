@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+import android.app.ActivityManagerInternal;
+import android.app.IActivityManager;
+import android.os.RemoteException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.LocalServices;
+import com.android.server.content.ContentService.ForegroundUidCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link ForegroundUidCache}, with ActivityManager mocked.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.ForegroundUidCacheTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ForegroundUidCacheTest {
+    private static final int UID = 10001;
+    private static final int OTHER_UID = 10002;
+
+    private ActivityManagerInternal mActivityManagerInternal;
+    private IActivityManager mActivityManager;
+    private ForegroundUidCache mCache;
+
+    @Before
+    public void setUp() {
+        mActivityManagerInternal = mock(ActivityManagerInternal.class);
+        when(mActivityManagerInternal.getUidProcessState(anyInt()))
+                .thenReturn(ActivityManager.PROCESS_STATE_CACHED_EMPTY);
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+        LocalServices.addService(ActivityManagerInternal.class, mActivityManagerInternal);
+        mActivityManager = mock(IActivityManager.class);
+        mCache = new ForegroundUidCache();
+    }
+
+    @After
+    public void tearDown() {
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+    }
+
+    @Test
+    public void testRegister_observesForegroundThreshold() throws Exception {
+        mCache.register(mActivityManager);
+
+        verify(mActivityManager).registerUidObserver(mCache,
+                ActivityManager.UID_OBSERVER_PROCSTATE | ActivityManager.UID_OBSERVER_GONE,
+                ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND, null);
+    }
+
+    @Test
+    public void testNotRegistered_askedEachTime() {
+        setProcessState(UID, ActivityManager.PROCESS_STATE_TOP);
+        assertTrue(mCache.isForeground(UID));
+        setProcessState(UID, ActivityManager.PROCESS_STATE_SERVICE);
+        assertFalse(mCache.isForeground(UID));
+
+        verify(mActivityManagerInternal, times(2)).getUidProcessState(UID);
+    }
+
+    @Test
+    public void testRegisterFailed_askedEachTime() throws Exception {
+        doThrow(new RemoteException()).when(mActivityManager)
+                .registerUidObserver(any(), anyInt(), anyInt(), isNull());
+        mCache.register(mActivityManager);
+
+        mCache.isForeground(UID);
+        mCache.isForeground(UID);
+        verify(mActivityManagerInternal, times(2)).getUidProcessState(UID);
+    }
+
+    @Test
+    public void testUnknownUid_askedOnce() throws Exception {
+        mCache.register(mActivityManager);
+        setProcessState(UID, ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND);
+
+        assertTrue(mCache.isForeground(UID));
+        assertTrue(mCache.isForeground(UID));
+        assertFalse(mCache.isForeground(OTHER_UID));
+        assertFalse(mCache.isForeground(OTHER_UID));
+
+        verify(mActivityManagerInternal, times(1)).getUidProcessState(UID);
+        verify(mActivityManagerInternal, times(1)).getUidProcessState(OTHER_UID);
+    }
+
+    @Test
+    public void testUidStateChanged_updatesCache() throws Exception {
+        mCache.register(mActivityManager);
+
+        mCache.onUidStateChanged(UID, ActivityManager.PROCESS_STATE_TOP, 0 /* procStateSeq */,
+                0 /* capability */);
+        assertTrue(mCache.isForeground(UID));
+        mCache.onUidStateChanged(UID, ActivityManager.PROCESS_STATE_CACHED_EMPTY,
+                0 /* procStateSeq */, 0 /* capability */);
+        assertFalse(mCache.isForeground(UID));
+        mCache.onUidStateChanged(UID, ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND,
+                0 /* procStateSeq */, 0 /* capability */);
+        assertTrue(mCache.isForeground(UID));
+
+        verify(mActivityManagerInternal, never()).getUidProcessState(anyInt());
+    }
+
+    @Test
+    public void testUidGone_forgotten() throws Exception {
+        mCache.register(mActivityManager);
+        mCache.onUidStateChanged(UID, ActivityManager.PROCESS_STATE_TOP, 0 /* procStateSeq */,
+                0 /* capability */);
+        mCache.onUidStateChanged(OTHER_UID, ActivityManager.PROCESS_STATE_TOP,
+                0 /* procStateSeq */, 0 /* capability */);
+
+        mCache.onUidGone(UID, false /* disabled */);
+
+        // Asked again, rather than assumed to be in the background.
+        setProcessState(UID, ActivityManager.PROCESS_STATE_TOP);
+        assertTrue(mCache.isForeground(UID));
+        verify(mActivityManagerInternal, times(1)).getUidProcessState(UID);
+        // Other uids are kept.
+        assertTrue(mCache.isForeground(OTHER_UID));
+        verify(mActivityManagerInternal, never()).getUidProcessState(OTHER_UID);
+    }
+
+    @Test
+    public void testUnknownUidGone_ignored() throws Exception {
+        mCache.register(mActivityManager);
+
+        mCache.onUidGone(UID, false /* disabled */);
+
+        assertFalse(mCache.isForeground(UID));
+        verify(mActivityManagerInternal, times(1)).getUidProcessState(UID);
+    }
+
+    private void setProcessState(int uid, int procState) {
+        when(mActivityManagerInternal.getUidProcessState(uid)).thenReturn(procState);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.ContentService.NotificationCoalescer;
+import com.android.server.content.ContentService.ObserverCollector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link NotificationCoalescer}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.NotificationCoalescerTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationCoalescerTest {
+    private static final long FOREGROUND_WINDOW = 100;
+    private static final long BACKGROUND_WINDOW = 60_000;
+    private static final long TIMEOUT_MILLIS = 5_000;
+    /** Rows in a bulk insert that notifies once per row. */
+    private static final int STORM_SIZE = 1_000;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private IContentObserver mObserver;
+    /** The Uris of each onChangeEtc call, in order. */
+    private final List<List<Uri>> mCalls = Collections.synchronizedList(new ArrayList<>());
+    private volatile CountDownLatch mDelivered;
+
+    @Before
+    public void setUp() throws Exception {
+        mThread = new HandlerThread("NotificationCoalescerTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mObserver = mock(IContentObserver.class);
+        when(mObserver.asBinder()).thenReturn(new Binder());
+        doAnswer(invocation -> {
+            mCalls.add(Arrays.asList((Uri[]) invocation.getArgument(1)));
+            mDelivered.countDown();
+            return null;
+        }).when(mObserver).onChangeEtc(anyBoolean(), any(Uri[].class), anyInt(), anyInt());
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testInsertStorm_fewerBinderCalls() throws Exception {
+        // Without a window, every row is a binder call.
+        final int uncoalesced = runStorm(new NotificationCoalescer(mHandler, 0, 0));
+        assertEquals(STORM_SIZE, uncoalesced);
+
+        mCalls.clear();
+        final long start = SystemClock.uptimeMillis();
+        final int coalesced = runStorm(
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW));
+        final long elapsed = SystemClock.uptimeMillis() - start;
+
+        // At most a leading and a trailing call per window the storm and its delivery spanned.
+        assertTrue("Calls: " + coalesced + " in " + elapsed + "ms",
+                coalesced <= 2 * (1 + elapsed / FOREGROUND_WINDOW));
+        assertTrue("Calls: " + coalesced, coalesced < uncoalesced / 10);
+        assertEquals(rowUris(STORM_SIZE), flatten(mCalls));
+    }
+
+    @Test
+    public void testForegroundNotification_deliveredOnLeadingEdge() throws Exception {
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW);
+        mDelivered = new CountDownLatch(2);
+
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(0)), true /* foreground */);
+        // Delivered before enqueue() returned.
+        assertEquals(1, mCalls.size());
+        assertEquals(Arrays.asList(rowUri(0)), mCalls.get(0));
+
+        // Later ones in the window are merged and delivered at its end.
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(1)), true /* foreground */);
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(2)), true /* foreground */);
+        assertEquals(1, mCalls.size());
+
+        assertTrue(mDelivered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, mCalls.size());
+        assertEquals(Arrays.asList(rowUri(1), rowUri(2)), mCalls.get(1));
+    }
+
+    @Test
+    public void testForegroundNotification_afterWindow_deliveredOnLeadingEdgeAgain()
+            throws Exception {
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW);
+        mDelivered = new CountDownLatch(2);
+
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(0)), true /* foreground */);
+        SystemClock.sleep(2 * FOREGROUND_WINDOW);
+        // Let the end of the window, with nothing to deliver, be handled.
+        assertTrue(mHandler.runWithScissors(() -> { }, TIMEOUT_MILLIS));
+        assertEquals(1, mCalls.size());
+
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(1)), true /* foreground */);
+        assertEquals(2, mCalls.size());
+        assertEquals(Arrays.asList(rowUri(1)), mCalls.get(1));
+    }
+
+    @Test
+    public void testBackgroundNotification_notDeliveredOnLeadingEdge() {
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW);
+        mDelivered = new CountDownLatch(1);
+
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(0)), false /* foreground */);
+        assertTrue(mCalls.isEmpty());
+    }
+
+    @Test
+    public void testForegroundNotification_pullsInBackgroundBatch() throws Exception {
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW);
+        mDelivered = new CountDownLatch(1);
+
+        final long start = SystemClock.uptimeMillis();
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(0)), false /* foreground */);
+        coalescer.enqueue(newKey(), Arrays.asList(rowUri(1)), true /* foreground */);
+
+        assertTrue(mDelivered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(SystemClock.uptimeMillis() - start < BACKGROUND_WINDOW);
+        assertEquals(1, mCalls.size());
+        assertEquals(Arrays.asList(rowUri(0), rowUri(1)), mCalls.get(0));
+    }
+
+    @Test
+    public void testLargeBatch_splitIntoCalls() throws Exception {
+        final int max = NotificationCoalescer.MAX_URIS_PER_CALL;
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(mHandler, FOREGROUND_WINDOW, BACKGROUND_WINDOW);
+        mDelivered = new CountDownLatch(3);
+
+        coalescer.enqueue(newKey(), rowUris(2 * max + 1), true /* foreground */);
+
+        assertTrue(mDelivered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(3, mCalls.size());
+        assertEquals(max, mCalls.get(0).size());
+        assertEquals(max, mCalls.get(1).size());
+        assertEquals(1, mCalls.get(2).size());
+        assertEquals(rowUris(2 * max + 1), flatten(mCalls));
+    }
+
+    /** @return the number of binder calls for a storm of single row notifications. */
+    private int runStorm(NotificationCoalescer coalescer) throws Exception {
+        mDelivered = new CountDownLatch(1);
+        for (int i = 0; i < STORM_SIZE; i++) {
+            coalescer.enqueue(newKey(), Arrays.asList(rowUri(i)), true /* foreground */);
+        }
+        assertTrue(mDelivered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // Let any later batch be delivered.
+        SystemClock.sleep(3 * FOREGROUND_WINDOW);
+        return mCalls.size();
+    }
+
+    private ObserverCollector.Key newKey() {
+        return new ObserverCollector.Key(mObserver, 10001, false /* selfChange */, 0, 0);
+    }
+
+    private static Uri rowUri(int row) {
+        return Uri.parse("content://com.android.test/rows/" + row);
+    }
+
+    private static List<Uri> rowUris(int rows) {
+        final List<Uri> uris = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            uris.add(rowUri(i));
+        }
+        return uris;
+    }
+
+    private static List<Uri> flatten(List<List<Uri>> calls) {
+        final List<Uri> uris = new ArrayList<>();
+        synchronized (calls) {
+            for (List<Uri> call : calls) {
+                uris.addAll(call);
+            }
+        }
+        return uris;
+    }
+}
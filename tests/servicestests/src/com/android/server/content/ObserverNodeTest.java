@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static com.android.server.content.ContentService.ObserverNode.CHILD_INDEX_THRESHOLD;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.ContentService.NotificationCoalescer;
+import com.android.server.content.ContentService.ObserverCollector;
+import com.android.server.content.ContentService.ObserverNode;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for {@link ObserverNode}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.ObserverNodeTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ObserverNodeTest {
+    private static final int UID = 10001;
+    private static final int PID = 1234;
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    private final Object mLock = new Object();
+    private ObserverNode mRoot;
+
+    @Before
+    public void setUp() {
+        mRoot = new ObserverNode("");
+    }
+
+    @Test
+    public void testChildIndex_builtAboveThreshold() {
+        final IContentObserver[] observers = new IContentObserver[CHILD_INDEX_THRESHOLD + 1];
+        for (int i = 0; i < CHILD_INDEX_THRESHOLD; i++) {
+            observers[i] = addObserver(authorityUri(i));
+        }
+        assertFalse(mRoot.isChildIndexedLocked());
+        assertFound(observers, 0, CHILD_INDEX_THRESHOLD);
+
+        observers[CHILD_INDEX_THRESHOLD] = addObserver(authorityUri(CHILD_INDEX_THRESHOLD));
+        assertTrue(mRoot.isChildIndexedLocked());
+        assertFound(observers, 0, observers.length);
+    }
+
+    @Test
+    public void testChildIndex_droppedAtHalfThreshold() {
+        final IContentObserver[] observers = new IContentObserver[CHILD_INDEX_THRESHOLD + 1];
+        for (int i = 0; i < observers.length; i++) {
+            observers[i] = addObserver(authorityUri(i));
+        }
+
+        // Removing the first child each time moves the last one into its place.
+        for (int i = 0; i < observers.length; i++) {
+            mRoot.removeObserverLocked(observers[i]);
+            final int children = observers.length - i - 1;
+            assertEquals("Children: " + children, children > CHILD_INDEX_THRESHOLD / 2,
+                    mRoot.isChildIndexedLocked());
+            assertFound(observers, i + 1, observers.length);
+            assertTrue(collect(authorityUri(i)).isEmpty());
+        }
+    }
+
+    @Test
+    public void testChildIndex_rebuiltWhenGrowingAgain() {
+        final IContentObserver[] observers = new IContentObserver[CHILD_INDEX_THRESHOLD + 1];
+        for (int i = 0; i < observers.length; i++) {
+            observers[i] = addObserver(authorityUri(i));
+        }
+        for (int i = CHILD_INDEX_THRESHOLD / 2; i < observers.length; i++) {
+            mRoot.removeObserverLocked(observers[i]);
+        }
+        assertFalse(mRoot.isChildIndexedLocked());
+
+        // Not indexed again until the node is above the threshold.
+        for (int i = CHILD_INDEX_THRESHOLD / 2; i < CHILD_INDEX_THRESHOLD; i++) {
+            observers[i] = addObserver(authorityUri(i));
+        }
+        assertFalse(mRoot.isChildIndexedLocked());
+        observers[CHILD_INDEX_THRESHOLD] = addObserver(authorityUri(CHILD_INDEX_THRESHOLD));
+        assertTrue(mRoot.isChildIndexedLocked());
+        assertFound(observers, 0, observers.length);
+    }
+
+    @Test
+    public void testRemoveObserver_registeredOnSeveralNodes() {
+        final IContentObserver observer = newObserver();
+        addObserver(path("a"), observer);
+        addObserver(path("b"), observer);
+        addObserver(path("c"), observer);
+        addObserver(path("c"), observer);
+        final IContentObserver other = addObserver(path("c"));
+
+        // Removed once from each node: the oldest entry at c.
+        assertFalse(mRoot.removeObserverLocked(observer));
+        final ObserverNode authority = mRoot.getChildLocked(AUTHORITY);
+        assertEquals(1, authority.getChildCountLocked());
+        assertNull(authority.getChildLocked("a"));
+        assertNull(authority.getChildLocked("b"));
+        assertEquals(Arrays.asList(observer, other), collect(path("c")));
+
+        assertFalse(mRoot.removeObserverLocked(observer));
+        assertEquals(Collections.singletonList(other), collect(path("c")));
+        assertEquals(Collections.singletonList(other), collect(AUTHORITY_URI));
+
+        // No longer registered anywhere.
+        assertFalse(mRoot.removeObserverLocked(observer));
+        assertEquals(Collections.singletonList(other), collect(AUTHORITY_URI));
+
+        assertTrue(mRoot.removeObserverLocked(other));
+        assertEquals(0, mRoot.getChildCountLocked());
+    }
+
+    @Test
+    public void testRemoveObserver_prunesEmptyAncestors() {
+        final IContentObserver deep = addObserver(path("a/b/c"));
+        final IContentObserver parent = addObserver(path("a"));
+        final IContentObserver sibling = addObserver(path("x"));
+        final ObserverNode authority = mRoot.getChildLocked(AUTHORITY);
+        final ObserverNode a = authority.getChildLocked("a");
+
+        mRoot.removeObserverLocked(deep);
+        // b and c were left empty; a still has an observer.
+        assertSame(a, authority.getChildLocked("a"));
+        assertEquals(0, a.getChildCountLocked());
+        assertEquals(1, a.getObserverCountLocked());
+
+        mRoot.removeObserverLocked(parent);
+        assertNull(authority.getChildLocked("a"));
+        assertSame(authority, mRoot.getChildLocked(AUTHORITY));
+
+        assertTrue(mRoot.removeObserverLocked(sibling));
+        assertNull(mRoot.getChildLocked(AUTHORITY));
+    }
+
+    @Test
+    public void testBinderDied_removesObserverFromWholeTrie() throws Exception {
+        final IBinder binder = mock(IBinder.class);
+        final IContentObserver observer = mock(IContentObserver.class);
+        when(observer.asBinder()).thenReturn(binder);
+        addObserver(path("a"), observer);
+        addObserver(path("b/c"), observer);
+        addObserver(path("b/c"), observer);
+        final IContentObserver other = addObserver(path("b"));
+
+        final ArgumentCaptor<IBinder.DeathRecipient> recipient =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(binder).linkToDeath(recipient.capture(), anyInt());
+        recipient.getValue().binderDied();
+
+        final ObserverNode authority = mRoot.getChildLocked(AUTHORITY);
+        assertNull(authority.getChildLocked("a"));
+        assertNotNull(authority.getChildLocked("b"));
+        assertEquals(0, authority.getChildLocked("b").getChildCountLocked());
+        assertEquals(Collections.singletonList(other), collect(AUTHORITY_URI));
+
+        assertTrue(mRoot.removeObserverLocked(other));
+    }
+
+    @Test
+    public void testRemoveChild_movesLastSiblingIntoPlace() {
+        final IContentObserver[] observers = new IContentObserver[4];
+        for (int i = 0; i < observers.length; i++) {
+            observers[i] = addObserver(authorityUri(i));
+        }
+        final ObserverNode[] nodes = new ObserverNode[observers.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = mRoot.getChildAtLocked(i);
+        }
+
+        // [0, 1, 2, 3] -> [0, 3, 2]
+        mRoot.removeObserverLocked(observers[1]);
+        assertChildren(nodes[0], nodes[3], nodes[2]);
+
+        // The moved child is removed from its new place: [0, 3, 2] -> [0, 2]
+        mRoot.removeObserverLocked(observers[3]);
+        assertChildren(nodes[0], nodes[2]);
+
+        // Removing the last child moves nothing: [0, 2] -> [0]
+        mRoot.removeObserverLocked(observers[2]);
+        assertChildren(nodes[0]);
+        assertFound(observers, 0, 1);
+    }
+
+    @Test
+    public void testGetUriSegments_matchesPerLevelParsing() {
+        for (Uri uri : testUris()) {
+            final String[] segments = ObserverNode.getUriSegments(uri);
+            assertEquals(uri.toString(), countUriSegments(uri), segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                assertEquals(uri.toString(), getUriSegment(uri, i), segments[i]);
+            }
+        }
+        assertEquals(0, ObserverNode.getUriSegments(null).length);
+    }
+
+    @Test
+    public void testAddAndCollect_matchesPerLevelParsing() {
+        final List<Uri> uris = new ArrayList<>();
+        for (Uri uri : testUris()) {
+            if (uri.getAuthority() != null) {
+                uris.add(uri);
+            }
+        }
+        final IContentObserver[] observers = new IContentObserver[uris.size()];
+        for (int i = 0; i < observers.length; i++) {
+            observers[i] = newObserver();
+            mRoot.addObserverLocked(uris.get(i), ObserverNode.getUriSegments(uris.get(i)),
+                    observers[i], true /* notifyForDescendants */, mLock, UID, PID,
+                    UserHandle.USER_ALL);
+        }
+
+        // An observer is notified of changes to its Uri, its descendants and its ancestors.
+        for (Uri changed : testUris()) {
+            final HashSet<IContentObserver> expected = new HashSet<>();
+            for (int i = 0; i < observers.length; i++) {
+                if (isPrefix(uris.get(i), changed) || isPrefix(changed, uris.get(i))) {
+                    expected.add(observers[i]);
+                }
+            }
+            assertEquals(changed.toString(), expected, new HashSet<>(collect(changed)));
+        }
+    }
+
+    @Test
+    public void testAddObserver_nullAuthority_throws() {
+        try {
+            addObserver(new Uri.Builder().scheme("content").path("items").build());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testCollect_nullAuthority_matchesPathUnderEveryAuthority() {
+        final IContentObserver first = addObserver(
+                Uri.parse("content://com.android.test.authority0/items"));
+        final IContentObserver second = addObserver(
+                Uri.parse("content://com.android.test.authority1/items"));
+        addObserver(Uri.parse("content://com.android.test.authority1/other"));
+
+        assertEquals(Arrays.asList(first, second),
+                collect(new Uri.Builder().scheme("content").path("items").build()));
+    }
+
+    private static List<Uri> testUris() {
+        return Arrays.asList(
+                Uri.parse("content://com.android.test.authority"),
+                Uri.parse("content://com.android.test.authority/"),
+                Uri.parse("content://com.android.test.authority/items"),
+                Uri.parse("content://com.android.test.authority/items/42"),
+                Uri.parse("content://com.android.test.authority/items%2F42/name"),
+                Uri.parse("content://com.android.test.other/items/42"),
+                new Uri.Builder().scheme("content").path("items/42").build(),
+                Uri.parse("content:items"));
+    }
+
+    /** The authority of the given Uri, then each of its path segments, parsed level by level. */
+    private static String getUriSegment(Uri uri, int index) {
+        return index == 0 ? uri.getAuthority() : uri.getPathSegments().get(index - 1);
+    }
+
+    private static int countUriSegments(Uri uri) {
+        return uri.getPathSegments().size() + 1;
+    }
+
+    /** @return whether the segments of prefix are the first segments of uri. */
+    private static boolean isPrefix(Uri prefix, Uri uri) {
+        final int count = countUriSegments(prefix);
+        if (count > countUriSegments(uri)) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            final String segment = getUriSegment(uri, i);
+            final String prefixSegment = getUriSegment(prefix, i);
+            // A null authority matches every authority.
+            if (segment != null && prefixSegment != null && !segment.equals(prefixSegment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Uri authorityUri(int i) {
+        return Uri.parse("content://com.android.test.authority" + i);
+    }
+
+    private static Uri path(String path) {
+        return Uri.withAppendedPath(AUTHORITY_URI, path);
+    }
+
+    private IContentObserver addObserver(Uri uri) {
+        final IContentObserver observer = newObserver();
+        addObserver(uri, observer);
+        return observer;
+    }
+
+    private void addObserver(Uri uri, IContentObserver observer) {
+        mRoot.addObserverLocked(uri, observer, true /* notifyForDescendants */, mLock, UID, PID,
+                UserHandle.USER_ALL);
+    }
+
+    private void assertChildren(ObserverNode... children) {
+        assertEquals(children.length, mRoot.getChildCountLocked());
+        for (int i = 0; i < children.length; i++) {
+            assertSame("Child " + i, children[i], mRoot.getChildAtLocked(i));
+        }
+    }
+
+    private static IContentObserver newObserver() {
+        final IContentObserver observer = mock(IContentObserver.class);
+        when(observer.asBinder()).thenReturn(new Binder());
+        return observer;
+    }
+
+    /** Asserts that the given observers, of authorityUri(i) each, are notified of it alone. */
+    private void assertFound(IContentObserver[] observers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertEquals(Collections.singletonList(observers[i]), collect(authorityUri(i)));
+        }
+    }
+
+    /** @return the observers notified of a change to the given Uri, in order. */
+    private List<IContentObserver> collect(Uri uri) {
+        final List<IContentObserver> observers = new ArrayList<>();
+        final ObserverCollector collector =
+                new ObserverCollector(mock(NotificationCoalescer.class)) {
+                    @Override
+                    public void collect(IContentObserver observer, int uid, boolean selfChange,
+                            Uri uri, int flags, int userId) {
+                        observers.add(observer);
+                    }
+                };
+        mRoot.collectObserversLocked(uri, ObserverNode.getUriSegments(uri), 0,
+                null /* observer */, false /* observerWantsSelfNotifications */, 0 /* flags */,
+                UserHandle.USER_ALL, collector);
+        return observers;
+    }
+}
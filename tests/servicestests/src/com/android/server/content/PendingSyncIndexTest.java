@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link PendingSyncIndex}, checked against scans of all pending operations as
+ * SyncManager did before the index.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.PendingSyncIndexTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PendingSyncIndexTest {
+    private static final String TYPE = "com.android.test.type";
+    private static final String AUTHORITY_1 = "com.android.test.authority1";
+    private static final String AUTHORITY_2 = "com.android.test.authority2";
+    private static final int USER_0 = 0;
+    private static final int USER_10 = 10;
+
+    private PendingSyncIndex mIndex;
+    private int mNextJobId;
+
+    @Before
+    public void setUp() {
+        mIndex = new PendingSyncIndex();
+        mNextJobId = 1;
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        final SyncOperation op = op("a", AUTHORITY_1, USER_0, null);
+        mIndex.put(op);
+
+        assertTrue(mIndex.contains(op.jobId));
+        assertSame(op, mIndex.get(op.jobId));
+        assertEquals(1, mIndex.size());
+        assertEquals(Arrays.asList(op), mIndex.getByKey(op.key));
+        assertEquals(Arrays.asList(op), mIndex.getMatching(op.target));
+
+        assertSame(op, mIndex.remove(op.jobId));
+        assertFalse(mIndex.contains(op.jobId));
+        assertNull(mIndex.remove(op.jobId));
+        assertEquals(0, mIndex.size());
+        assertTrue(mIndex.getByKey(op.key).isEmpty());
+        assertTrue(mIndex.getMatching(op.target).isEmpty());
+    }
+
+    @Test
+    public void testPut_replacesSameJobId() {
+        final SyncOperation first = op("a", AUTHORITY_1, USER_0, null);
+        mIndex.put(first);
+        final SyncOperation second = op("b", AUTHORITY_2, USER_0, null);
+        second.jobId = first.jobId;
+        mIndex.put(second);
+
+        assertEquals(1, mIndex.size());
+        assertSame(second, mIndex.get(first.jobId));
+        assertTrue(mIndex.getByKey(first.key).isEmpty());
+        assertTrue(mIndex.getMatching(first.target).isEmpty());
+        assertEquals(Arrays.asList(second), mIndex.getMatching(second.target));
+    }
+
+    @Test
+    public void testGetByKey_findsDuplicates() {
+        final SyncOperation first = op("a", AUTHORITY_1, USER_0, null);
+        final SyncOperation duplicate = op("a", AUTHORITY_1, USER_0, null);
+        final SyncOperation expedited =
+                op("a", AUTHORITY_1, USER_0, ContentResolver.SYNC_EXTRAS_EXPEDITED);
+        mIndex.put(first);
+        mIndex.put(duplicate);
+        mIndex.put(expedited);
+
+        assertEquals(Arrays.asList(first, duplicate), mIndex.getByKey(first.key));
+        assertEquals(Arrays.asList(expedited), mIndex.getByKey(expedited.key));
+    }
+
+    @Test
+    public void testGetMatching_wildcards() {
+        final SyncOperation a1 = op("a", AUTHORITY_1, USER_0, null);
+        final SyncOperation a2 = op("a", AUTHORITY_2, USER_0, null);
+        final SyncOperation b1 = op("b", AUTHORITY_1, USER_0, null);
+        final SyncOperation a1User10 = op("a", AUTHORITY_1, USER_10, null);
+        mIndex.put(a1);
+        mIndex.put(a2);
+        mIndex.put(b1);
+        mIndex.put(a1User10);
+
+        assertSameOps(Arrays.asList(a1, a2),
+                mIndex.getMatching(new EndPoint(account("a"), null, USER_0)));
+        assertSameOps(Arrays.asList(a1, b1),
+                mIndex.getMatching(new EndPoint(null, AUTHORITY_1, USER_0)));
+        assertSameOps(Arrays.asList(a1, a1User10),
+                mIndex.getMatching(new EndPoint(account("a"), AUTHORITY_1, UserHandle.USER_ALL)));
+        assertSameOps(Arrays.asList(a1User10),
+                mIndex.getMatching(new EndPoint(null, null, USER_10)));
+    }
+
+    @Test
+    public void testHasOneOffMatching_ignoresPeriodic() {
+        final SyncOperation periodic = periodicOp("a", AUTHORITY_1, USER_0);
+        mIndex.put(periodic);
+        assertFalse(mIndex.hasOneOffMatching(periodic.target));
+
+        mIndex.put(op("a", AUTHORITY_1, USER_0, null));
+        assertTrue(mIndex.hasOneOffMatching(periodic.target));
+    }
+
+    @Test
+    public void testGetBySourcePeriodicId() {
+        final SyncOperation periodic = periodicOp("a", AUTHORITY_1, USER_0);
+        mIndex.put(periodic);
+        assertTrue(mIndex.getBySourcePeriodicId(periodic.jobId).isEmpty());
+
+        final SyncOperation retry = periodic.createOneTimeSyncOperation();
+        retry.jobId = mNextJobId++;
+        mIndex.put(retry);
+        assertEquals(Arrays.asList(retry), mIndex.getBySourcePeriodicId(periodic.jobId));
+
+        mIndex.remove(retry.jobId);
+        assertTrue(mIndex.getBySourcePeriodicId(periodic.jobId).isEmpty());
+    }
+
+    @Test
+    public void testSnapshots_notAffectedByLaterUpdates() {
+        final SyncOperation op = op("a", AUTHORITY_1, USER_0, null);
+        mIndex.put(op);
+        final List<SyncOperation> byKey = mIndex.getByKey(op.key);
+        final List<SyncOperation> all = mIndex.getAll();
+
+        mIndex.remove(op.jobId);
+        assertEquals(Arrays.asList(op), byKey);
+        assertEquals(Arrays.asList(op), all);
+    }
+
+    @Test
+    public void testReset_replacesContents() {
+        mIndex.put(op("a", AUTHORITY_1, USER_0, null));
+        final SyncOperation kept = op("b", AUTHORITY_2, USER_10, null);
+        mIndex.reset(Arrays.asList(kept));
+
+        assertEquals(1, mIndex.size());
+        assertEquals(Arrays.asList(kept), mIndex.getAll());
+        assertTrue(mIndex.getMatching(new EndPoint(null, null, USER_0)).isEmpty());
+    }
+
+    @Test
+    public void testRandomized_matchesLinearScan() {
+        final Random random = new Random(1);
+        final String[] names = {"a", "b", "c"};
+        final String[] authorities = {AUTHORITY_1, AUTHORITY_2};
+        final int[] users = {USER_0, USER_10};
+        final String[] extras = {null, ContentResolver.SYNC_EXTRAS_EXPEDITED};
+        final ArrayList<SyncOperation> pending = new ArrayList<>();
+
+        for (int round = 0; round < 5_000; round++) {
+            if (!pending.isEmpty() && random.nextInt(3) == 0) {
+                final SyncOperation removed = pending.remove(random.nextInt(pending.size()));
+                assertSame(removed, mIndex.remove(removed.jobId));
+            } else {
+                final SyncOperation op = op(names[random.nextInt(names.length)],
+                        authorities[random.nextInt(authorities.length)],
+                        users[random.nextInt(users.length)], extras[random.nextInt(2)]);
+                pending.add(op);
+                mIndex.put(op);
+            }
+
+            final SyncOperation probe = op(names[random.nextInt(names.length)],
+                    authorities[random.nextInt(authorities.length)],
+                    users[random.nextInt(users.length)], extras[random.nextInt(2)]);
+            final List<SyncOperation> byKey = new ArrayList<>();
+            final List<SyncOperation> byTarget = new ArrayList<>();
+            for (SyncOperation op : pending) {
+                if (op.key.equals(probe.key)) {
+                    byKey.add(op);
+                }
+                if (op.target.matchesSpec(probe.target)) {
+                    byTarget.add(op);
+                }
+            }
+            assertSameOps(byKey, mIndex.getByKey(probe.key));
+            assertSameOps(byTarget, mIndex.getMatching(probe.target));
+            assertEquals(pending.size(), mIndex.size());
+        }
+    }
+
+    private static void assertSameOps(List<SyncOperation> expected, List<SyncOperation> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+    }
+
+    private static Account account(String name) {
+        return new Account(name, TYPE);
+    }
+
+    private SyncOperation op(String accountName, String authority, int userId,
+            String extraKey) {
+        final Bundle extras = new Bundle();
+        if (extraKey != null) {
+            extras.putBoolean(extraKey, true);
+        }
+        final SyncOperation op = new SyncOperation(account(accountName), userId,
+                1000 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, authority,
+                extras, false /* allowParallelSyncs */, ContentResolver.SYNC_EXEMPTION_NONE);
+        op.jobId = mNextJobId++;
+        return op;
+    }
+
+    private SyncOperation periodicOp(String accountName, String authority, int userId) {
+        final SyncOperation op = new SyncOperation(new EndPoint(account(accountName), authority,
+                userId), 1000 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_PERIODIC, SyncStorageEngine.SOURCE_PERIODIC, new Bundle(),
+                false /* allowParallelSyncs */, true /* isPeriodic */, SyncOperation.NO_JOB_ID,
+                60 * 60 * 1000L /* periodMillis */, 0 /* flexMillis */,
+                ContentResolver.SYNC_EXEMPTION_NONE);
+        op.jobId = mNextJobId++;
+        return op;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.accounts.Account;
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link SyncBackoffPolicy} and how {@link SyncManagerConstants} selects one.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncBackoffPolicyTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncBackoffPolicyTest {
+    private static final EndPoint TARGET = new EndPoint(
+            new Account("test@example.com", "com.android.test"), "com.android.test.authority", 0);
+    private static final EndPoint OTHER_TARGET = new EndPoint(
+            new Account("other@example.com", "com.android.test"), "com.android.test.authority", 0);
+    private static final long INITIAL_MS = 30_000;
+    private static final long MAX_MS = 3_600_000;
+    private static final long REFILL_MS = 60_000;
+    private static final String CONSTANTS = "initial_sync_retry_time_in_seconds=30,"
+            + "max_sync_retry_time_in_seconds=3600,retry_time_increase_factor=2,"
+            + "backoff_token_bucket_size=2,backoff_token_refill_time_in_seconds=60";
+
+    private SyncManagerConstants mConstants;
+
+    @Before
+    public void setUp() {
+        mConstants = new SyncManagerConstants(mock(Context.class));
+        mConstants.updateConstants(CONSTANTS);
+    }
+
+    @Test
+    public void testExponential() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.EXPONENTIAL);
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getNextDelay(TARGET, -1, 0);
+            assertTrue("Initial delay " + delay,
+                    delay >= INITIAL_MS && delay < INITIAL_MS * 11 / 10);
+        }
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+        assertEquals(MAX_MS, policy.getNextDelay(TARGET, MAX_MS - 1, 0));
+    }
+
+    @Test
+    public void testCappedExponential() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.CAPPED_EXPONENTIAL);
+
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, -1, 0));
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+        assertEquals(MAX_MS, policy.getNextDelay(TARGET, MAX_MS - 1, 0));
+    }
+
+    @Test
+    public void testDecorrelatedJitter_firstFailureUsesInitialDelay() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.DECORRELATED_JITTER);
+
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, -1, 0));
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, 0, 0));
+    }
+
+    @Test
+    public void testDecorrelatedJitter_betweenInitialAndThreeTimesPrevious() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.DECORRELATED_JITTER);
+        final long previous = 100_000;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1_000; i++) {
+            final long delay = policy.getNextDelay(TARGET, previous, 0);
+            assertTrue("Delay " + delay, delay >= INITIAL_MS && delay < 3 * previous);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // Spread over the range rather than stuck at one end of it.
+        assertTrue("Min " + min, min < INITIAL_MS + previous / 2);
+        assertTrue("Max " + max, max > 3 * previous - previous / 2);
+    }
+
+    @Test
+    public void testDecorrelatedJitter_capped() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.DECORRELATED_JITTER);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getNextDelay(TARGET, MAX_MS, 0) <= MAX_MS);
+        }
+    }
+
+    @Test
+    public void testTokenBucket_initialDelayUntilTokensRunOut() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.TOKEN_BUCKET);
+
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, -1, 0));
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+        // Out of tokens, so back off exponentially.
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+        assertEquals(4 * INITIAL_MS, policy.getNextDelay(TARGET, 2 * INITIAL_MS, 0));
+        // Each target has its own bucket.
+        assertEquals(INITIAL_MS, policy.getNextDelay(OTHER_TARGET, -1, 0));
+    }
+
+    @Test
+    public void testTokenBucket_refill() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.TOKEN_BUCKET);
+        exhaust(policy, 0);
+
+        // Not a full token yet.
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, REFILL_MS / 2));
+        // One token per refill time, counted from the last refill.
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, REFILL_MS));
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, REFILL_MS));
+    }
+
+    @Test
+    public void testTokenBucket_refillCappedAtBucketSize() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.TOKEN_BUCKET);
+        exhaust(policy, 0);
+
+        final long later = 10 * REFILL_MS;
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, later));
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, later));
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, later));
+    }
+
+    @Test
+    public void testTokenBucket_clearingBackoffDoesNotRefill() {
+        final SyncBackoffPolicy policy = policy(SyncBackoffPolicy.TOKEN_BUCKET);
+        exhaust(policy, 0);
+
+        policy.onBackoffCleared(TARGET, 0);
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+
+        policy.onBackoffCleared(TARGET, 2 * REFILL_MS);
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 2 * REFILL_MS));
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 2 * REFILL_MS));
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 2 * REFILL_MS));
+    }
+
+    @Test
+    public void testSelect_default() {
+        assertEquals(SyncBackoffPolicy.EXPONENTIAL,
+                SyncBackoffPolicy.select(null, mConstants).getName());
+    }
+
+    @Test
+    public void testSelect_keepsPolicyWhileUnchanged() {
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=token_bucket");
+        final SyncBackoffPolicy policy = SyncBackoffPolicy.select(null, mConstants);
+        exhaust(policy, 0);
+
+        assertSame(policy, SyncBackoffPolicy.select(policy, mConstants));
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=token_bucket");
+        assertSame(policy, SyncBackoffPolicy.select(policy, mConstants));
+        assertEquals(2 * INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, 0));
+    }
+
+    @Test
+    public void testSelect_switchesWhenConstantsChange() {
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=token_bucket");
+        final SyncBackoffPolicy tokenBucket = SyncBackoffPolicy.select(null, mConstants);
+        exhaust(tokenBucket, 0);
+
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=capped_exponential");
+        final SyncBackoffPolicy capped = SyncBackoffPolicy.select(tokenBucket, mConstants);
+        assertEquals(SyncBackoffPolicy.CAPPED_EXPONENTIAL, capped.getName());
+        assertEquals(INITIAL_MS, capped.getNextDelay(TARGET, -1, 0));
+
+        // Switching back starts with full buckets.
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=token_bucket");
+        final SyncBackoffPolicy newTokenBucket = SyncBackoffPolicy.select(capped, mConstants);
+        assertNotSame(tokenBucket, newTokenBucket);
+        assertEquals(INITIAL_MS, newTokenBucket.getNextDelay(TARGET, INITIAL_MS, 0));
+    }
+
+    @Test
+    public void testSelect_unknownFallsBackToExponential() {
+        final SyncBackoffPolicy exponential = SyncBackoffPolicy.select(null, mConstants);
+        mConstants.updateConstants(CONSTANTS + ",backoff_policy=unknown");
+
+        assertSame(exponential, SyncBackoffPolicy.select(exponential, mConstants));
+        assertEquals(SyncBackoffPolicy.EXPONENTIAL,
+                SyncBackoffPolicy.select(null, mConstants).getName());
+    }
+
+    private SyncBackoffPolicy policy(String name) {
+        final SyncBackoffPolicy policy = SyncBackoffPolicy.create(name, mConstants);
+        assertEquals(name, policy.getName());
+        return policy;
+    }
+
+    /** Uses up the tokens of {@link #TARGET}, with a bucket size of 2. */
+    private static void exhaust(SyncBackoffPolicy policy, long now) {
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, -1, now));
+        assertEquals(INITIAL_MS, policy.getNextDelay(TARGET, INITIAL_MS, now));
+    }
+}
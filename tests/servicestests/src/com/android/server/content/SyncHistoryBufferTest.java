@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.SyncHistoryItem;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link SyncHistoryBuffer}, checked against a list kept newest first.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncHistoryBufferTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncHistoryBufferTest {
+    @Test
+    public void testAddFirst_newestFirst() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1, 2, 3);
+
+        assertIds(buffer, 3, 2, 1);
+    }
+
+    @Test
+    public void testAddFirst_wrapsAroundDroppingOldest() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+
+        assertEquals(4, buffer.size());
+        assertIds(buffer, 10, 9, 8, 7);
+        for (int id = 7; id <= 10; id++) {
+            assertEquals(id, buffer.findByHistoryId(id).historyId);
+        }
+        assertNull(buffer.findByHistoryId(6));
+        assertNull(buffer.findByHistoryId(11));
+    }
+
+    @Test
+    public void testFindByHistoryId_idsWrappedAround() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        // SyncStorageEngine restarts ids at 0 once they overflow.
+        add(buffer, Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 0, 1);
+
+        assertIds(buffer, 1, 0, Integer.MAX_VALUE, Integer.MAX_VALUE - 1);
+        for (int id : new int[] {Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 0, 1}) {
+            assertEquals(id, buffer.findByHistoryId(id).historyId);
+        }
+        assertNull(buffer.findByHistoryId(2));
+    }
+
+    @Test
+    public void testRemoveAuthority_keepsOrder() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        // Wrap around first, so that the removal compacts across the end of the ring.
+        for (int id = 1; id <= 6; id++) {
+            buffer.addFirst(item(id, id % 2));
+        }
+        buffer.removeAuthority(0);
+
+        assertIds(buffer, 5, 3);
+        assertNull(buffer.findByHistoryId(6));
+        assertEquals(3, buffer.findByHistoryId(3).historyId);
+
+        add(buffer, 7, 8, 9);
+        assertIds(buffer, 9, 8, 7, 5);
+    }
+
+    @Test
+    public void testSetCapacity_shrinkWhileFull_keepsNewest() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1, 2, 3, 4, 5, 6);
+        buffer.setCapacity(2);
+
+        assertEquals(2, buffer.getCapacity());
+        assertIds(buffer, 6, 5);
+        assertNull(buffer.findByHistoryId(4));
+
+        add(buffer, 7);
+        assertIds(buffer, 7, 6);
+    }
+
+    @Test
+    public void testSetCapacity_growWhileFull_keepsAll() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1, 2, 3, 4, 5, 6);
+        buffer.setCapacity(8);
+
+        assertEquals(8, buffer.getCapacity());
+        assertIds(buffer, 6, 5, 4, 3);
+
+        // Nothing is dropped until the new capacity is reached.
+        add(buffer, 7, 8, 9, 10);
+        assertIds(buffer, 10, 9, 8, 7, 6, 5, 4, 3);
+        add(buffer, 11);
+        assertIds(buffer, 11, 10, 9, 8, 7, 6, 5, 4);
+        assertEquals(4, buffer.findByHistoryId(4).historyId);
+    }
+
+    @Test
+    public void testSetCapacity_invalid() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        try {
+            buffer.setCapacity(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(4, buffer.getCapacity());
+    }
+
+    @Test
+    public void testGet_outOfBounds() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1);
+        try {
+            buffer.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testClear() {
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(4);
+        add(buffer, 1, 2, 3, 4, 5);
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertNull(buffer.findByHistoryId(5));
+        add(buffer, 6);
+        assertIds(buffer, 6);
+    }
+
+    @Test
+    public void testRandomized_matchesList() {
+        final Random random = new Random(1);
+        final SyncHistoryBuffer buffer = new SyncHistoryBuffer(8);
+        final List<SyncHistoryItem> expected = new ArrayList<>();
+        int capacity = 8;
+        int nextId = 0;
+        for (int round = 0; round < 10_000; round++) {
+            final int op = random.nextInt(20);
+            if (op == 0) {
+                capacity = 1 + random.nextInt(16);
+                buffer.setCapacity(capacity);
+                while (expected.size() > capacity) {
+                    expected.remove(expected.size() - 1);
+                }
+            } else if (op == 1) {
+                final int authorityId = random.nextInt(3);
+                buffer.removeAuthority(authorityId);
+                expected.removeIf(item -> item.authorityId == authorityId);
+            } else {
+                final SyncHistoryItem item = item(nextId++, random.nextInt(3));
+                buffer.addFirst(item);
+                expected.add(0, item);
+                if (expected.size() > capacity) {
+                    expected.remove(expected.size() - 1);
+                }
+            }
+
+            assertEquals(expected.size(), buffer.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSame(expected.get(i), buffer.get(i));
+            }
+            final int probe = nextId - 1 - random.nextInt(2 * capacity);
+            SyncHistoryItem match = null;
+            for (SyncHistoryItem item : expected) {
+                if (item.historyId == probe) {
+                    match = item;
+                }
+            }
+            assertSame(match, buffer.findByHistoryId(probe));
+        }
+    }
+
+    private static SyncHistoryItem item(int historyId, int authorityId) {
+        final SyncHistoryItem item = new SyncHistoryItem();
+        item.historyId = historyId;
+        item.authorityId = authorityId;
+        return item;
+    }
+
+    private static void add(SyncHistoryBuffer buffer, int... historyIds) {
+        for (int id : historyIds) {
+            buffer.addFirst(item(id, 0));
+        }
+    }
+
+    private static void assertIds(SyncHistoryBuffer buffer, int... historyIds) {
+        final int[] actual = new int[buffer.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = buffer.get(i).historyId;
+        }
+        assertEquals(Arrays.toString(historyIds), Arrays.toString(actual));
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.IntArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link SyncJobIdAllocator}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncJobIdAllocatorTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncJobIdAllocatorTest {
+    private static final int MIN_ID = 100;
+    private static final int MAX_ID = 163;
+    private static final int RANGE = MAX_ID - MIN_ID + 1;
+
+    @Test
+    public void testAllocate_exhaustsRange() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID);
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < RANGE; i++) {
+            final int id = allocator.allocate();
+            assertTrue("Out of range: " + id, id >= MIN_ID && id <= MAX_ID);
+            assertTrue("Duplicate: " + id, ids.add(id));
+        }
+        assertEquals(RANGE, allocator.getUsedCount());
+        assertEquals(SyncJobIdAllocator.NO_ID, allocator.allocate());
+        assertEquals(SyncJobIdAllocator.NO_ID, allocator.allocate());
+
+        allocator.release(MIN_ID + 7);
+        assertEquals(MIN_ID + 7, allocator.allocate());
+        assertEquals(SyncJobIdAllocator.NO_ID, allocator.allocate());
+    }
+
+    @Test
+    public void testAllocate_releasedIdReusedLast() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID);
+        final int first = allocator.allocate();
+        allocator.release(first);
+
+        // Every other id is handed out before the released one comes around again.
+        for (int i = 1; i < RANGE; i++) {
+            assertNotEquals(first, allocator.allocate());
+        }
+        assertEquals(first, allocator.allocate());
+    }
+
+    @Test
+    public void testAllocate_wrapsAround() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID);
+        for (int i = 0; i < RANGE; i++) {
+            allocator.allocate();
+        }
+        allocator.release(MIN_ID + 3);
+        allocator.release(MAX_ID);
+        allocator.release(MIN_ID + 40);
+
+        // The cursor wrapped to the start after the last id, so free ids come back in order.
+        assertEquals(MIN_ID + 3, allocator.allocate());
+        assertEquals(MIN_ID + 40, allocator.allocate());
+        assertEquals(MAX_ID, allocator.allocate());
+        assertEquals(SyncJobIdAllocator.NO_ID, allocator.allocate());
+    }
+
+    @Test
+    public void testAllocate_skipsMarkedIds() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID);
+        allocator.markUsed(MIN_ID);
+        allocator.markUsed(MIN_ID + 1);
+        assertEquals(MIN_ID + 2, allocator.allocate());
+
+        final IntArray persisted = new IntArray();
+        persisted.add(MIN_ID + 3);
+        persisted.add(MAX_ID + 1); // out of range, ignored
+        allocator.reset(persisted);
+        assertEquals(1, allocator.getUsedCount());
+        assertFalse(allocator.isUsed(MIN_ID + 2));
+        // The cursor survives the reset, so MIN_ID..MIN_ID+2 are only reused after a wrap.
+        assertEquals(MIN_ID + 4, allocator.allocate());
+    }
+
+    @Test
+    public void testRelease_ignoresFreeAndOutOfRangeIds() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID);
+        final int id = allocator.allocate();
+        allocator.release(id);
+        allocator.release(id);
+        allocator.release(MIN_ID - 1);
+        allocator.release(MAX_ID + 1);
+        assertEquals(0, allocator.getUsedCount());
+    }
+
+    @Test
+    public void testAllocate_fullIntRange() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(0, Integer.MAX_VALUE);
+        assertEquals(0, allocator.allocate());
+        assertEquals(1, allocator.allocate());
+        assertTrue(allocator.isUsed(0));
+        assertFalse(allocator.isUsed(Integer.MAX_VALUE));
+        allocator.release(0);
+        assertEquals(2, allocator.allocate());
+    }
+
+    @Test
+    public void testAllocate_windowFollowsUsedCount() {
+        final SyncJobIdAllocator allocator =
+                new SyncJobIdAllocator(0, Integer.MAX_VALUE, 16 /* minWindow */);
+
+        // With few jobs pending at once, ids stay within the smallest window however many jobs
+        // are scheduled, so the bitset doesn't grow.
+        int previous = allocator.allocate();
+        for (int i = 0; i < 100_000; i++) {
+            final int id = allocator.allocate();
+            assertTrue("Out of window: " + id, id < 16);
+            allocator.release(previous);
+            previous = id;
+        }
+
+        // The window grows with the used count, and every id handed out is unique.
+        final Set<Integer> ids = new HashSet<>();
+        ids.add(previous);
+        for (int i = 0; i < 1000; i++) {
+            final int id = allocator.allocate();
+            assertTrue("Duplicate: " + id, ids.add(id));
+            assertTrue("Out of window: " + id, id < 4 * ids.size() + 16);
+        }
+    }
+
+    @Test
+    public void testAllocate_persistedIdOutsideWindow() {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID, 8);
+        final IntArray persisted = new IntArray();
+        persisted.add(MAX_ID);
+        allocator.reset(persisted);
+
+        // The persisted id is outside the search window, so ids are handed out from the start.
+        for (int i = 0; i < 7; i++) {
+            assertEquals(MIN_ID + i, allocator.allocate());
+        }
+        assertTrue(allocator.isUsed(MAX_ID));
+        assertEquals(8, allocator.getUsedCount());
+    }
+
+    @Test
+    public void testStress_matchesNextFitModel() {
+        testStress_matchesNextFitModel(RANGE);
+    }
+
+    @Test
+    public void testStress_matchesNextFitModel_smallWindow() {
+        testStress_matchesNextFitModel(8);
+    }
+
+    private void testStress_matchesNextFitModel(int minWindow) {
+        final SyncJobIdAllocator allocator = new SyncJobIdAllocator(MIN_ID, MAX_ID, minWindow);
+        final Random random = new Random(4);
+        final boolean[] used = new boolean[RANGE];
+        final ArrayList<Integer> live = new ArrayList<>();
+        int cursor = 0;
+        int wraps = 0;
+
+        for (int round = 0; round < 100_000; round++) {
+            if (live.size() < RANGE && (live.isEmpty() || random.nextInt(3) != 0)) {
+                // Reference next-fit: first free id at or after the cursor within the window,
+                // wrapping once to the start.
+                final int window = Math.min(RANGE, Math.max(minWindow, 4 * live.size()));
+                int expected = -1;
+                for (int i = cursor < window ? cursor : window; i < window; i++) {
+                    if (!used[i]) {
+                        expected = i;
+                        break;
+                    }
+                }
+                if (expected < 0) {
+                    wraps++;
+                    for (int i = 0; expected < 0; i++) {
+                        if (!used[i]) {
+                            expected = i;
+                        }
+                    }
+                }
+                assertEquals(MIN_ID + expected, allocator.allocate());
+                used[expected] = true;
+                live.add(MIN_ID + expected);
+                cursor = expected + 1 < window ? expected + 1 : 0;
+            } else {
+                final int id = live.remove(random.nextInt(live.size()));
+                used[id - MIN_ID] = false;
+                allocator.release(id);
+            }
+            assertEquals(live.size(), allocator.getUsedCount());
+        }
+        assertTrue("Cursor never wrapped", wraps > 0);
+
+        while (live.size() < RANGE) {
+            live.add(allocator.allocate());
+        }
+        assertEquals(RANGE, new HashSet<>(live).size());
+        assertEquals(SyncJobIdAllocator.NO_ID, allocator.allocate());
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountAndUser;
+import android.accounts.AccountManagerInternal;
+import android.app.ActivityManagerInternal;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SyncAdapterType;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.RegisteredServicesCache;
+import android.content.pm.ServiceInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.LocalServices;
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests how many sync handler messages and sync loop wake lock acquisitions
+ * {@link SyncManager#scheduleSync} costs for requests that cover many accounts and authorities.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncManagerScheduleSyncTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncManagerScheduleSyncTest {
+    private static final String ACCOUNT_TYPE = "com.android.test.type";
+    private static final String PACKAGE = "com.android.test.syncadapter";
+    private static final int OWNING_UID = 10001;
+    private static final int USER_ID = 0;
+    private static final int ACCOUNTS = 3;
+    private static final int AUTHORITIES = 4;
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final String SYNC_HANDLER = "SyncManager$SyncHandler";
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private JobScheduler mJobScheduler;
+    private SyncAdaptersCache mSyncAdapters;
+    private AccountManagerInternal mAccountManagerInternal;
+    private File mFilesDir;
+    private SyncManager mSyncManager;
+
+    private final AtomicInteger mWakeLockAcquisitions = new AtomicInteger();
+    /** Messages handled by SyncHandler.handleMessage, each of which holds the wake lock. */
+    private final AtomicInteger mHandlerMessages = new AtomicInteger();
+    private final AtomicInteger mScheduleSyncMessages = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mJobScheduler = mock(JobScheduler.class);
+        when(mJobScheduler.forNamespace(anyString())).thenReturn(mJobScheduler);
+        when(mJobScheduler.scheduleAsPackage(any(), anyString(), anyInt(), anyString()))
+                .thenReturn(JobScheduler.RESULT_SUCCESS);
+        mAccountManagerInternal = mock(AccountManagerInternal.class);
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+        LocalServices.addService(ActivityManagerInternal.class,
+                mock(ActivityManagerInternal.class));
+
+        final List<RegisteredServicesCache.ServiceInfo<SyncAdapterType>> adapters =
+                new ArrayList<>();
+        for (int i = 0; i < AUTHORITIES; i++) {
+            adapters.add(syncAdapter(authority(i)));
+        }
+        mSyncAdapters = mock(SyncAdaptersCache.class);
+        when(mSyncAdapters.getAllServices(USER_ID)).thenReturn(adapters);
+        when(mSyncAdapters.getServiceInfo(any(), eq(USER_ID))).thenAnswer(invocation -> {
+            final SyncAdapterType key = invocation.getArgument(0);
+            for (RegisteredServicesCache.ServiceInfo<SyncAdapterType> adapter : adapters) {
+                if (adapter.type.authority.equals(key.authority)
+                        && adapter.type.accountType.equals(key.accountType)) {
+                    return adapter;
+                }
+            }
+            return null;
+        });
+
+        mFilesDir = mTemp.newFolder();
+        final Context context = new ContextWrapper(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()) {
+            @Override
+            public Object getSystemService(String name) {
+                if (Context.JOB_SCHEDULER_SERVICE.equals(name)) {
+                    return mJobScheduler;
+                }
+                return super.getSystemService(name);
+            }
+
+            @Override
+            public File getFilesDir() {
+                return mFilesDir;
+            }
+        };
+        mSyncManager = new SyncManagerWithMockedServices(context);
+
+        final AccountAndUser[] accounts = new AccountAndUser[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new AccountAndUser(new Account("account" + i, ACCOUNT_TYPE), USER_ID);
+            for (int j = 0; j < AUTHORITIES; j++) {
+                mSyncManager.getSyncStorageEngine().setIsSyncable(accounts[i].account, USER_ID,
+                        authority(j), AuthorityInfo.SYNCABLE, Process.myUid(), Process.myPid());
+            }
+        }
+        mSyncManager.setRunningAccountsForTest(accounts);
+
+        mSyncManager.getSyncLooper().setMessageLogging(line -> {
+            if (line.startsWith(">>>>> Dispatching") && line.contains(SYNC_HANDLER)
+                    && line.contains(" null: ")) {
+                mHandlerMessages.incrementAndGet();
+                if (line.endsWith(": " + SyncManager.SyncHandler.MESSAGE_SCHEDULE_SYNC)) {
+                    mScheduleSyncMessages.incrementAndGet();
+                }
+            }
+        });
+        // Let the work started by the setup above finish before counting.
+        waitForSyncHandler();
+        clearInvocations(mJobScheduler);
+        mWakeLockAcquisitions.set(0);
+        mHandlerMessages.set(0);
+        mScheduleSyncMessages.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        mSyncManager.getSyncLooper().setMessageLogging(null);
+        LocalServices.removeServiceForTest(ActivityManagerInternal.class);
+    }
+
+    @Test
+    public void testScheduleSync_allAccountsAndAuthorities_oneMessage() throws Exception {
+        final Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        mSyncManager.scheduleSync(null /* account */, USER_ID, SyncOperation.REASON_USER_START,
+                null /* authority */, extras, AuthorityInfo.UNDEFINED,
+                ContentResolver.SYNC_EXEMPTION_NONE, Process.myUid(), Process.myPid(),
+                null /* callingPackage */);
+        waitForSyncHandler();
+
+        // Every account and authority pair is scheduled as a job...
+        verify(mJobScheduler, times(ACCOUNTS * AUTHORITIES)).scheduleAsPackage(
+                any(JobInfo.class), eq(PACKAGE), eq(USER_ID), anyString());
+        // ...from a single handler message, where one message per operation used to be posted.
+        assertEquals(1, mScheduleSyncMessages.get());
+        // The wake lock is taken once per message, so there is no churn beyond that one.
+        assertEquals(mHandlerMessages.get(), mWakeLockAcquisitions.get());
+        assertTrue("Wake lock acquisitions: " + mWakeLockAcquisitions.get(),
+                mWakeLockAcquisitions.get() < ACCOUNTS * AUTHORITIES);
+    }
+
+    @Test
+    public void testScheduleSync_oneAuthority_oneMessageForAllAccounts() throws Exception {
+        final Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        mSyncManager.scheduleSync(null /* account */, USER_ID, SyncOperation.REASON_USER_START,
+                authority(0), extras, AuthorityInfo.UNDEFINED,
+                ContentResolver.SYNC_EXEMPTION_NONE, Process.myUid(), Process.myPid(),
+                null /* callingPackage */);
+        waitForSyncHandler();
+
+        verify(mJobScheduler, times(ACCOUNTS)).scheduleAsPackage(
+                any(JobInfo.class), eq(PACKAGE), eq(USER_ID), anyString());
+        verify(mSyncAdapters, atLeastOnce()).getAllServices(USER_ID);
+        assertEquals(1, mScheduleSyncMessages.get());
+        assertEquals(mHandlerMessages.get(), mWakeLockAcquisitions.get());
+    }
+
+    private void waitForSyncHandler() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mSyncManager.getSyncLooper()).post(latch::countDown);
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static String authority(int i) {
+        return "com.android.test.authority" + i;
+    }
+
+    private static RegisteredServicesCache.ServiceInfo<SyncAdapterType> syncAdapter(
+            String authority) {
+        final ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.packageName = PACKAGE;
+        serviceInfo.name = PACKAGE + ".SyncService";
+        serviceInfo.applicationInfo = new ApplicationInfo();
+        serviceInfo.applicationInfo.uid = OWNING_UID;
+        return new RegisteredServicesCache.ServiceInfo<>(
+                new SyncAdapterType(authority, ACCOUNT_TYPE, true /* userVisible */,
+                        true /* supportsUploading */),
+                serviceInfo, new ComponentName(PACKAGE, serviceInfo.name));
+    }
+
+    /** A SyncManager that uses the mocks and a private copy of the sync state. */
+    private class SyncManagerWithMockedServices extends SyncManager {
+        SyncManagerWithMockedServices(Context context) {
+            super(context, true /* factoryTest */);
+        }
+
+        @Override
+        protected AccountManagerInternal getAccountManagerInternal() {
+            return mAccountManagerInternal;
+        }
+
+        @Override
+        protected SyncStorageEngine createSyncStorageEngine(Context context) {
+            return SyncStorageEngine.newTestInstance(context);
+        }
+
+        @Override
+        protected SyncAdaptersCache createSyncAdaptersCache(Context context) {
+            return mSyncAdapters;
+        }
+
+        @Override
+        protected void acquireSyncLoopWakeLock() {
+            mWakeLockAcquisitions.incrementAndGet();
+            super.acquireSyncLoopWakeLock();
+        }
+    }
+}
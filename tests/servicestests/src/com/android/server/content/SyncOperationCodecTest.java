@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link SyncOperationCodec}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncOperationCodecTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncOperationCodecTest {
+    // The encoding, spelled out so that the tests notice if it changes.
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+    private static final int FIELD_PROVIDER = 1;
+    private static final int FIELD_ACCOUNT_NAME = 2;
+    private static final int FIELD_ACCOUNT_TYPE = 3;
+    private static final int FIELD_USER_ID = 4;
+    private static final int FIELD_JOB_ID = 10;
+    private static final int FIELD_EXTRA = 19;
+    private static final int EXTRA_KEY = 1;
+    private static final int EXTRA_BOOLEAN = 4;
+
+    private static final Account ACCOUNT = new Account("test@example.com", "com.android.test");
+    private static final String AUTHORITY = "com.android.test.authority";
+
+    @Test
+    public void testRoundTrip() {
+        final Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        extras.putLong("long", -5L);
+        extras.putInt("int", 7);
+        extras.putDouble("double", 1.5);
+        extras.putString("string", "value");
+        extras.putParcelable("account", ACCOUNT);
+        final SyncOperation op = new SyncOperation(ACCOUNT, 10 /* userId */,
+                1000 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                extras, true /* allowParallelSyncs */, ContentResolver.SYNC_EXEMPTION_NONE);
+        op.jobId = 1234;
+        op.expectedRuntime = 5678;
+        op.retries = 2;
+
+        final SyncOperation decoded =
+                SyncOperationCodec.decode(SyncOperationCodec.encode(op, extras));
+        assertNotNull(decoded);
+        assertEquals(op.target, decoded.target);
+        assertEquals(op.key, decoded.key);
+        assertEquals(1234, decoded.jobId);
+        assertEquals(5678, decoded.expectedRuntime);
+        assertEquals(2, decoded.retries);
+        assertTrue(decoded.allowParallelSyncs);
+        final Bundle decodedExtras = decoded.getClonedExtras();
+        assertEquals(-5L, decodedExtras.getLong("long"));
+        assertEquals(7, decodedExtras.getInt("int"));
+        assertEquals(1.5, decodedExtras.getDouble("double"), 0);
+        assertEquals("value", decodedExtras.getString("string"));
+        assertEquals(ACCOUNT, decodedExtras.getParcelable("account"));
+    }
+
+    @Test
+    public void testDecode_skipsUnknownField() {
+        final Encoder e = target();
+        e.writeTag(99, WIRE_BYTES);
+        e.writeString("a field added by a later version");
+        e.writeTag(FIELD_JOB_ID, WIRE_VARINT);
+        e.writeRawVarint(zigZag(42));
+
+        final SyncOperation op = SyncOperationCodec.decode(e.toByteArray());
+        assertNotNull(op);
+        assertEquals(42, op.jobId);
+    }
+
+    @Test
+    public void testDecode_skipsFieldWithWrongWireType() {
+        final Encoder e = target();
+        // A varint field written as bytes would be misread as a length and a varint.
+        e.writeTag(FIELD_JOB_ID, WIRE_BYTES);
+        e.writeString("not a job id");
+        // A string field written as a double.
+        e.writeTag(FIELD_PROVIDER, WIRE_FIXED64);
+        e.writeFixed64(Double.doubleToRawLongBits(1.0));
+
+        final SyncOperation op = SyncOperationCodec.decode(e.toByteArray());
+        assertNotNull(op);
+        assertEquals(0, op.jobId);
+        assertEquals(AUTHORITY, op.target.provider);
+    }
+
+    @Test
+    public void testDecode_extraWithWrongWireTypeRejected() {
+        final Encoder extra = new Encoder();
+        extra.writeTag(EXTRA_KEY, WIRE_BYTES);
+        extra.writeString("key");
+        extra.writeTag(EXTRA_BOOLEAN, WIRE_FIXED64);
+        extra.writeFixed64(1);
+
+        final Encoder e = target();
+        e.writeTag(FIELD_EXTRA, WIRE_BYTES);
+        final byte[] bytes = extra.toByteArray();
+        e.writeRawVarint(bytes.length);
+        e.write(bytes, 0, bytes.length);
+
+        // The extra's only value was skipped, so it has none.
+        assertNull(SyncOperationCodec.decode(e.toByteArray()));
+    }
+
+    @Test
+    public void testDecode_truncatedRejected() {
+        final SyncOperation op = new SyncOperation(ACCOUNT, 0 /* userId */,
+                1000 /* owningUid */, "com.android.test" /* owningPackage */,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                new Bundle(), false /* allowParallelSyncs */,
+                ContentResolver.SYNC_EXEMPTION_NONE);
+        final byte[] encoded = SyncOperationCodec.encode(op, new Bundle());
+        final byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertNotNull(SyncOperationCodec.decode(encoded));
+        assertNull(SyncOperationCodec.decode(truncated));
+    }
+
+    /** @return an encoding holding just the version and the target. */
+    private static Encoder target() {
+        final Encoder e = new Encoder();
+        e.writeRawVarint(SyncOperationCodec.VERSION);
+        e.writeTag(FIELD_PROVIDER, WIRE_BYTES);
+        e.writeString(AUTHORITY);
+        e.writeTag(FIELD_ACCOUNT_NAME, WIRE_BYTES);
+        e.writeString(ACCOUNT.name);
+        e.writeTag(FIELD_ACCOUNT_TYPE, WIRE_BYTES);
+        e.writeString(ACCOUNT.type);
+        e.writeTag(FIELD_USER_ID, WIRE_VARINT);
+        e.writeRawVarint(zigZag(0));
+        return e;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static final class Encoder extends ByteArrayOutputStream {
+        void writeRawVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeTag(int field, int wireType) {
+            writeRawVarint((field << 3) | wireType);
+        }
+
+        void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeRawVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeFixed64(long bits) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (bits >>> (8 * i)) & 0xFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.SparseIntArray;
+import android.util.SparseLongArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncManager.ActiveSyncContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Tests for {@link SyncProgressMonitor}, reading bytes from a fake counter.
+ *
+ * A window of 0 makes every monitored sync due at each {@link SyncProgressMonitor#checkProgress}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncProgressMonitorTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncProgressMonitorTest {
+    private static final int WHAT = 1;
+    private static final long THRESHOLD_BYTES = 10;
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private FakeByteSource mBytes;
+    private SyncManager mSyncManager;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("SyncProgressMonitorTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mBytes = new FakeByteSource();
+        mSyncManager = mock(SyncManager.class);
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testStalledSync_reportedOnce() {
+        final SyncProgressMonitor monitor = newMonitor(0 /* windowMillis */);
+        final ActiveSyncContext asc = newSync(UID_1);
+        monitor.startMonitoring(asc);
+        assertTrue(mHandler.hasMessages(WHAT));
+
+        // At most the threshold was transferred.
+        mBytes.add(UID_1, THRESHOLD_BYTES);
+        final List<ActiveSyncContext> stalled = monitor.checkProgress();
+        assertEquals(1, stalled.size());
+        assertSame(asc, stalled.get(0));
+
+        // No longer monitored.
+        assertFalse(mHandler.hasMessages(WHAT));
+        assertTrue(monitor.checkProgress().isEmpty());
+    }
+
+    @Test
+    public void testProgressingSync_keptUntilItStalls() {
+        final SyncProgressMonitor monitor = newMonitor(0 /* windowMillis */);
+        final ActiveSyncContext asc = newSync(UID_1);
+        monitor.startMonitoring(asc);
+
+        for (int i = 0; i < 3; i++) {
+            mBytes.add(UID_1, THRESHOLD_BYTES + 1);
+            assertTrue(monitor.checkProgress().isEmpty());
+            assertTrue(mHandler.hasMessages(WHAT));
+        }
+        // Progress is measured from the last check, not from the start.
+        assertEquals(3 * (THRESHOLD_BYTES + 1), asc.mBytesTransferredAtLastPoll);
+        assertSame(asc, monitor.checkProgress().get(0));
+    }
+
+    @Test
+    public void testSharedUid_readOncePerPass() {
+        final SyncProgressMonitor monitor = newMonitor(0 /* windowMillis */);
+        final ActiveSyncContext first = newSync(UID_1);
+        monitor.startMonitoring(first);
+        mBytes.add(UID_1, 100);
+        // Started later, so it only sees the bytes transferred after that.
+        final ActiveSyncContext second = newSync(UID_1);
+        monitor.startMonitoring(second);
+        final ActiveSyncContext other = newSync(UID_2);
+        monitor.startMonitoring(other);
+        mBytes.add(UID_2, 100);
+        mBytes.reads.clear();
+
+        final List<ActiveSyncContext> stalled = monitor.checkProgress();
+
+        assertEquals(1, mBytes.reads.get(UID_1));
+        assertEquals(1, mBytes.reads.get(UID_2));
+        // Both syncs of the uid are judged from the same read, each against its own baseline.
+        assertEquals(1, stalled.size());
+        assertSame(second, stalled.get(0));
+        assertEquals(100, first.mBytesTransferredAtLastPoll);
+
+        // Each pass reads again.
+        mBytes.reads.clear();
+        monitor.checkProgress();
+        assertEquals(1, mBytes.reads.get(UID_1));
+    }
+
+    @Test
+    public void testNotDue_notChecked() {
+        final SyncProgressMonitor monitor = newMonitor(60 * 60 * 1000 /* windowMillis */);
+        final ActiveSyncContext asc = newSync(UID_1);
+        monitor.startMonitoring(asc);
+        mBytes.reads.clear();
+
+        assertTrue(monitor.checkProgress().isEmpty());
+        assertEquals(0, mBytes.reads.get(UID_1));
+        assertTrue(mHandler.hasMessages(WHAT));
+    }
+
+    @Test
+    public void testStopMonitoring() {
+        final SyncProgressMonitor monitor = newMonitor(0 /* windowMillis */);
+        final ActiveSyncContext first = newSync(UID_1);
+        final ActiveSyncContext second = newSync(UID_2);
+        monitor.startMonitoring(first);
+        monitor.startMonitoring(second);
+
+        monitor.stopMonitoring(first);
+        assertTrue(mHandler.hasMessages(WHAT));
+        monitor.stopMonitoring(second);
+        assertFalse(mHandler.hasMessages(WHAT));
+        assertTrue(monitor.checkProgress().isEmpty());
+    }
+
+    private SyncProgressMonitor newMonitor(long windowMillis) {
+        return new SyncProgressMonitor(mHandler, WHAT, mBytes, windowMillis, THRESHOLD_BYTES);
+    }
+
+    private ActiveSyncContext newSync(int uid) {
+        final SyncOperation op = new SyncOperation(
+                new Account("test@example.com", "com.android.test"), 0 /* userId */, uid,
+                "com.android.test" /* owningPackage */, SyncOperation.REASON_USER_START,
+                SyncStorageEngine.SOURCE_USER, "com.android.test.authority", new Bundle(),
+                false /* allowParallelSyncs */, ContentResolver.SYNC_EXEMPTION_NONE);
+        return mSyncManager.new ActiveSyncContext(op, uid);
+    }
+
+    /** A byte counter per uid that counts how often it is read. */
+    private static final class FakeByteSource implements SyncProgressMonitor.ByteSource {
+        final SparseLongArray bytes = new SparseLongArray();
+        final SparseIntArray reads = new SparseIntArray();
+
+        void add(int uid, long delta) {
+            bytes.put(uid, bytes.get(uid) + delta);
+        }
+
+        @Override
+        public long getTotalBytesTransferred(int uid) {
+            reads.put(uid, reads.get(uid) + 1);
+            return bytes.get(uid);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static android.content.ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE;
+import static android.content.ContentResolver.SYNC_OBSERVER_TYPE_PENDING;
+import static android.content.ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS;
+import static android.content.ContentResolver.SYNC_OBSERVER_TYPE_STATUS;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.ISyncStatusObserver;
+import android.content.Intent;
+import android.content.pm.PackageManagerInternal;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SyncStatusDispatcher}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStatusDispatcherTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStatusDispatcherTest {
+    private static final String PACKAGE = "com.android.test";
+    private static final int USER_0 = 0;
+    private static final int USER_10 = 10;
+    private static final int UID_0 = UserHandle.getUid(USER_0, 10_001);
+    private static final int UID_10 = UserHandle.getUid(USER_10, 10_001);
+    private static final int ALL_TYPES = SYNC_OBSERVER_TYPE_SETTINGS | SYNC_OBSERVER_TYPE_PENDING
+            | SYNC_OBSERVER_TYPE_ACTIVE | SYNC_OBSERVER_TYPE_STATUS;
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    private HandlerThread mThread;
+    private PackageManagerInternal mPackageManagerInternal;
+    private BroadcastReceiver mPackageReceiver;
+    private SyncStatusDispatcher mDispatcher;
+    private CountDownLatch mReleaseHandler;
+
+    @Before
+    public void setUp() {
+        final Context context = mock(Context.class);
+        mPackageManagerInternal = mock(PackageManagerInternal.class);
+        mThread = new HandlerThread("SyncStatusDispatcherTest");
+        mThread.start();
+        mDispatcher = new SyncStatusDispatcher(context, mPackageManagerInternal,
+                mThread.getLooper());
+
+        final ArgumentCaptor<BroadcastReceiver> receiver =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(context, atLeastOnce()).registerReceiverAsUser(receiver.capture(),
+                eq(UserHandle.ALL), any(), any(), any(Handler.class));
+        mPackageReceiver = receiver.getValue();
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testMasksMerged() throws Exception {
+        final Listener listener = addListener(ALL_TYPES, UID_0);
+        blockHandler();
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, null, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, null, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_ACTIVE, PACKAGE, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_PENDING, null, USER_0);
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_STATUS | SYNC_OBSERVER_TYPE_ACTIVE
+                | SYNC_OBSERVER_TYPE_PENDING), listener.getMasks());
+    }
+
+    @Test
+    public void testOnlyRegisteredTypesDelivered() throws Exception {
+        final Listener status = addListener(SYNC_OBSERVER_TYPE_STATUS, UID_0);
+        final Listener settings = addListener(SYNC_OBSERVER_TYPE_SETTINGS, UID_0);
+        blockHandler();
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, null, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_ACTIVE, null, USER_0);
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_STATUS), status.getMasks());
+        assertEquals(List.of(), settings.getMasks());
+    }
+
+    @Test
+    public void testUserFiltering() throws Exception {
+        final Listener user0 = addListener(ALL_TYPES, UID_0);
+        final Listener user10 = addListener(ALL_TYPES, UID_10);
+        blockHandler();
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, null, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_ACTIVE, null, USER_10);
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_STATUS), user0.getMasks());
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_ACTIVE), user10.getMasks());
+    }
+
+    @Test
+    public void testPackageFiltering() throws Exception {
+        final Listener listener = addListener(ALL_TYPES, UID_0);
+        when(mPackageManagerInternal.filterAppAccess(PACKAGE, UID_0, USER_0)).thenReturn(true);
+        blockHandler();
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, PACKAGE, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_ACTIVE, null, USER_0);
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_ACTIVE), listener.getMasks());
+    }
+
+    @Test
+    public void testVisibleCachedUntilPackageChanged() throws Exception {
+        final Listener listener = addListener(ALL_TYPES, UID_0);
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        verify(mPackageManagerInternal, times(1)).filterAppAccess(PACKAGE, UID_0, USER_0);
+        assertEquals(2, listener.getMasks().size());
+
+        // An update may hide the package from the listener.
+        when(mPackageManagerInternal.filterAppAccess(PACKAGE, UID_0, USER_0)).thenReturn(true);
+        sendBroadcast(new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", PACKAGE, null)));
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        verify(mPackageManagerInternal, times(2)).filterAppAccess(PACKAGE, UID_0, USER_0);
+        assertEquals(2, listener.getMasks().size());
+    }
+
+    @Test
+    public void testFilteredNotCached_implicitAccessGrantSeen() throws Exception {
+        final Listener listener = addListener(ALL_TYPES, UID_0);
+        when(mPackageManagerInternal.filterAppAccess(PACKAGE, UID_0, USER_0)).thenReturn(true);
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        assertEquals(List.of(), listener.getMasks());
+
+        // Implicit access is granted without a package broadcast.
+        when(mPackageManagerInternal.filterAppAccess(PACKAGE, UID_0, USER_0)).thenReturn(false);
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_STATUS), listener.getMasks());
+    }
+
+    @Test
+    public void testUserRemoved_clearsCache() throws Exception {
+        addListener(ALL_TYPES, UID_0);
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+        sendBroadcast(new Intent(Intent.ACTION_USER_REMOVED));
+        reportAndWait(SYNC_OBSERVER_TYPE_STATUS, PACKAGE);
+
+        verify(mPackageManagerInternal, times(2)).filterAppAccess(PACKAGE, UID_0, USER_0);
+    }
+
+    @Test
+    public void testFirstChangeDeliveredRightAway_laterOnesCoalesced() throws Exception {
+        final Listener listener = addListener(ALL_TYPES, UID_0);
+        final long reported = SystemClock.uptimeMillis();
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_STATUS, null, USER_0);
+        listener.awaitCallbacks(1);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_ACTIVE, null, USER_0);
+        mDispatcher.reportChange(SYNC_OBSERVER_TYPE_PENDING, null, USER_0);
+        listener.awaitCallbacks(2);
+
+        final List<Long> times = listener.getUptimes();
+        assertTrue(times.get(0) - reported < SyncStatusDispatcher.DISPATCH_DELAY_MS);
+        // The window starts when the first delivery was scheduled, at the earliest when it
+        // was reported.
+        assertTrue(times.get(1) - reported >= SyncStatusDispatcher.DISPATCH_DELAY_MS);
+        assertEquals(List.of(SYNC_OBSERVER_TYPE_STATUS,
+                SYNC_OBSERVER_TYPE_ACTIVE | SYNC_OBSERVER_TYPE_PENDING), listener.getMasks());
+    }
+
+    private Listener addListener(int mask, int uid) {
+        final Listener listener = new Listener();
+        mDispatcher.addListener(mask, uid, listener);
+        return listener;
+    }
+
+    private void reportAndWait(int which, String packageName) throws Exception {
+        blockHandler();
+        mDispatcher.reportChange(which, packageName, USER_0);
+        releaseHandler();
+        waitForHandler();
+        // Wait out the window of the delivery, so the next one isn't coalesced with it.
+        SystemClock.sleep(SyncStatusDispatcher.DISPATCH_DELAY_MS);
+        waitForHandler();
+    }
+
+    private void sendBroadcast(Intent intent) throws Exception {
+        new Handler(mThread.getLooper()).post(() -> mPackageReceiver.onReceive(null, intent));
+        waitForHandler();
+    }
+
+    /** Keeps the dispatch thread busy, so that changes queue up behind it. */
+    private void blockHandler() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mReleaseHandler = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            blocked.countDown();
+            try {
+                mReleaseHandler.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void releaseHandler() {
+        mReleaseHandler.countDown();
+    }
+
+    private void waitForHandler() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(latch::countDown);
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /** Records the masks it is called with, and when. */
+    private static class Listener extends ISyncStatusObserver.Stub {
+        private final List<Integer> mMasks = new ArrayList<>();
+        private final List<Long> mUptimes = new ArrayList<>();
+
+        @Override
+        public synchronized void onStatusChanged(int which) {
+            mMasks.add(which);
+            mUptimes.add(SystemClock.uptimeMillis());
+            notifyAll();
+        }
+
+        synchronized List<Integer> getMasks() {
+            return new ArrayList<>(mMasks);
+        }
+
+        synchronized List<Long> getUptimes() {
+            return new ArrayList<>(mUptimes);
+        }
+
+        synchronized void awaitCallbacks(int count) throws InterruptedException {
+            final long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+            while (mMasks.size() < count) {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                assertTrue("Timed out waiting for " + count + " callbacks", remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+}
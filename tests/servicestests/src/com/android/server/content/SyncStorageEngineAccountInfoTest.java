@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Tests for how {@link SyncStorageEngine} stores the account information in accounts.xml and
+ * {@link AuthorityTableFile}, and migrates between them.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineAccountInfoTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineAccountInfoTest {
+    private static final Account ACCOUNT = new Account("test@example.com", "com.android.test");
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final int USER_ID = 0;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private Context mContext;
+    private File mXmlFile;
+    private File mTableFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = mock(Context.class);
+        when(mContext.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(mContext.getResources()).thenReturn(mock(Resources.class));
+
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt())).thenReturn(new Account[] {ACCOUNT});
+        when(mContext.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(mContext.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(mContext.getPackageManager()).thenReturn(packageManager);
+
+        final File syncDir = new File(new File(mTemp.getRoot(), "system"), "sync");
+        mXmlFile = new File(syncDir, "accounts.xml");
+        mTableFile = new File(syncDir, "accounts.bin");
+    }
+
+    @Test
+    public void testTableOff_onlyWritesXml() {
+        final SyncStorageEngine engine = newEngine(false);
+        setSyncable(engine, AuthorityInfo.NOT_SYNCABLE);
+        engine.writeAllState();
+
+        assertTrue(mXmlFile.exists());
+        assertFalse(mTableFile.exists());
+        assertEquals(AuthorityInfo.NOT_SYNCABLE, getSyncable(newEngine(false)));
+    }
+
+    @Test
+    public void testMigrateToTable_keepsXml() throws Exception {
+        final SyncStorageEngine xmlEngine = newEngine(false);
+        setSyncable(xmlEngine, AuthorityInfo.NOT_SYNCABLE);
+        xmlEngine.writeAllState();
+        assertFalse(mTableFile.exists());
+
+        final SyncStorageEngine engine = newEngine(true);
+        assertEquals(AuthorityInfo.NOT_SYNCABLE, getSyncable(engine));
+        engine.writeAllState();
+        assertTrue(mXmlFile.exists());
+        assertTrue(mTableFile.exists());
+
+        final AuthorityTableFile.Table table = new AuthorityTableFile(mTableFile).read();
+        assertEquals(1, table.authorities.size());
+        final AuthorityTableFile.Record record = table.authorities.valueAt(0);
+        assertEquals(ACCOUNT.name, record.accountName);
+        assertEquals(AUTHORITY, record.provider);
+        assertEquals(AuthorityInfo.NOT_SYNCABLE, record.syncable);
+    }
+
+    @Test
+    public void testAppend_onlyWritesChangedAuthorities() throws Exception {
+        final SyncStorageEngine populated = newEngine(true);
+        for (int i = 0; i < 50; i++) {
+            populated.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY + i, AuthorityInfo.NOT_SYNCABLE,
+                    Process.myUid(), Process.myPid());
+        }
+        populated.writeAllState();
+        // Start from a table that was just read, so that it isn't due to be compacted.
+        final SyncStorageEngine engine = newEngine(true);
+        final long tableSize = mTableFile.length();
+        final byte[] xml = Files.readAllBytes(mXmlFile.toPath());
+
+        engine.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY + 7, AuthorityInfo.SYNCABLE,
+                Process.myUid(), Process.myPid());
+        engine.removeAuthority(new EndPoint(ACCOUNT, AUTHORITY + 8, USER_ID));
+        engine.writeAllState();
+
+        // One authority record and one tombstone were appended, and accounts.xml was left
+        // alone.
+        final long appended = mTableFile.length() - tableSize;
+        assertTrue("Appended " + appended + " bytes", appended > 0 && appended < 200);
+        assertArrayEquals(xml, Files.readAllBytes(mXmlFile.toPath()));
+
+        final SyncStorageEngine reloaded = newEngine(true);
+        assertEquals(AuthorityInfo.SYNCABLE,
+                reloaded.getIsSyncable(ACCOUNT, USER_ID, AUTHORITY + 7));
+        assertEquals(AuthorityInfo.NOT_INITIALIZED,
+                reloaded.getIsSyncable(ACCOUNT, USER_ID, AUTHORITY + 8));
+        assertEquals(AuthorityInfo.NOT_SYNCABLE,
+                reloaded.getIsSyncable(ACCOUNT, USER_ID, AUTHORITY + 9));
+    }
+
+    @Test
+    public void testMigrateBackToXml_readsTableThenDeletesIt() throws Exception {
+        final SyncStorageEngine engine = newEngine(true);
+        setSyncable(engine, AuthorityInfo.NOT_SYNCABLE);
+        engine.writeAllState();
+        // Only in the table, which is newer than accounts.xml.
+        setSyncable(engine, AuthorityInfo.SYNCABLE_NOT_INITIALIZED);
+        engine.writeAllState();
+
+        final SyncStorageEngine xmlEngine = newEngine(false);
+        assertEquals(AuthorityInfo.SYNCABLE_NOT_INITIALIZED, getSyncable(xmlEngine));
+        xmlEngine.writeAllState();
+        assertFalse(mTableFile.exists());
+        assertTrue(mXmlFile.exists());
+        assertEquals(AuthorityInfo.SYNCABLE_NOT_INITIALIZED, getSyncable(newEngine(false)));
+    }
+
+    @Test
+    public void testTornTable_dropsLastChange() throws Exception {
+        final SyncStorageEngine engine = newEngine(true);
+        setSyncable(engine, AuthorityInfo.NOT_SYNCABLE);
+        engine.writeAllState();
+
+        // Appended to the table, then torn as if by a crash.
+        setSyncable(engine, AuthorityInfo.SYNCABLE_NOT_INITIALIZED);
+        engine.writeAllState();
+        try (RandomAccessFile raf = new RandomAccessFile(mTableFile, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        final SyncStorageEngine reloaded = newEngine(true);
+        assertEquals(AuthorityInfo.NOT_SYNCABLE, getSyncable(reloaded));
+        // The table is compacted, and appended to again after that.
+        reloaded.writeAllState();
+        assertFalse(new AuthorityTableFile(mTableFile).read().torn);
+        setSyncable(reloaded, AuthorityInfo.SYNCABLE);
+        reloaded.writeAllState();
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable(newEngine(true)));
+    }
+
+    @Test
+    public void testUnreadableTable_fallsBackToXml() throws Exception {
+        final SyncStorageEngine engine = newEngine(true);
+        setSyncable(engine, AuthorityInfo.NOT_SYNCABLE);
+        engine.writeAllState();
+        try (FileOutputStream out = new FileOutputStream(mTableFile)) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        }
+
+        final SyncStorageEngine reloaded = newEngine(true);
+        assertEquals(AuthorityInfo.NOT_SYNCABLE, getSyncable(reloaded));
+        // The table is rebuilt from accounts.xml.
+        reloaded.writeAllState();
+        assertEquals(1, new AuthorityTableFile(mTableFile).read().authorities.size());
+    }
+
+    private SyncStorageEngine newEngine(boolean useAccountInfoTable) {
+        return SyncStorageEngine.newTestInstance(mContext, useAccountInfoTable);
+    }
+
+    private static void setSyncable(SyncStorageEngine engine, int syncable) {
+        engine.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY, syncable, Process.myUid(),
+                Process.myPid());
+    }
+
+    private static int getSyncable(SyncStorageEngine engine) {
+        return engine.getIsSyncable(ACCOUNT, USER_ID, AUTHORITY);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Tests that the EndPoint index of {@link SyncStorageEngine} stays in step with the authorities
+ * as they are created and removed.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineAuthorityIndexTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineAuthorityIndexTest {
+    private static final String TYPE = "com.android.test";
+    private static final String AUTHORITY_1 = "com.android.test.authority1";
+    private static final String AUTHORITY_2 = "com.android.test.authority2";
+    private static final int USER_0 = 0;
+    private static final int USER_10 = 10;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private HandlerThread mThread;
+    private SyncStorageEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = mock(Context.class);
+        when(context.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(context.getResources()).thenReturn(mock(Resources.class));
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt()))
+                .thenReturn(new Account[] {account("a"), account("b")});
+        when(context.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(context.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(context.getPackageManager()).thenReturn(packageManager);
+
+        mThread = new HandlerThread("SyncStorageEngineAuthorityIndexTest");
+        mThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mThread.getLooper(),
+                false /* useAccountInfoTable */);
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testRemoveAuthority() {
+        setSyncable("a", AUTHORITY_1, USER_0);
+        setSyncable("a", AUTHORITY_2, USER_0);
+        final int removedId = ident("a", AUTHORITY_1, USER_0);
+
+        mEngine.removeAuthority(new EndPoint(account("a"), AUTHORITY_1, USER_0));
+        mEngine.verifyAuthorityIndex();
+        assertEquals(AuthorityInfo.NOT_INITIALIZED, getSyncable("a", AUTHORITY_1, USER_0));
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable("a", AUTHORITY_2, USER_0));
+
+        // Creating it again doesn't find the removed authority in the index.
+        assertNotEquals(removedId, ident("a", AUTHORITY_1, USER_0));
+        mEngine.verifyAuthorityIndex();
+    }
+
+    @Test
+    public void testRemoveStaleAccounts() {
+        setSyncable("a", AUTHORITY_1, USER_0);
+        setSyncable("b", AUTHORITY_1, USER_0);
+        setSyncable("b", AUTHORITY_2, USER_0);
+        setSyncable("b", AUTHORITY_1, USER_10);
+
+        mEngine.removeStaleAccounts(new Account[] {account("a")}, USER_0);
+        mEngine.verifyAuthorityIndex();
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable("a", AUTHORITY_1, USER_0));
+        assertEquals(AuthorityInfo.NOT_INITIALIZED, getSyncable("b", AUTHORITY_1, USER_0));
+        assertEquals(AuthorityInfo.NOT_INITIALIZED, getSyncable("b", AUTHORITY_2, USER_0));
+        // Only the given user's accounts are removed.
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable("b", AUTHORITY_1, USER_10));
+    }
+
+    @Test
+    public void testClearAndReadState() {
+        setSyncable("a", AUTHORITY_1, USER_0);
+        setSyncable("b", AUTHORITY_2, USER_10);
+        final int ident = ident("a", AUTHORITY_1, USER_0);
+        mEngine.writeAllState();
+
+        mEngine.clearAndReadState();
+        mEngine.verifyAuthorityIndex();
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable("a", AUTHORITY_1, USER_0));
+        assertEquals(AuthorityInfo.SYNCABLE, getSyncable("b", AUTHORITY_2, USER_10));
+        assertEquals(ident, ident("a", AUTHORITY_1, USER_0));
+    }
+
+    @Test
+    public void testRandomized_staysConsistent() {
+        final Random random = new Random(1);
+        final String[] names = {"a", "b", "c"};
+        final String[] authorities = {AUTHORITY_1, AUTHORITY_2};
+        final int[] users = {USER_0, USER_10};
+        for (int round = 0; round < 2_000; round++) {
+            final String name = names[random.nextInt(names.length)];
+            final String authority = authorities[random.nextInt(authorities.length)];
+            final int userId = users[random.nextInt(users.length)];
+            switch (random.nextInt(10)) {
+                case 0:
+                    mEngine.removeStaleAccounts(
+                            new Account[] {account(names[random.nextInt(names.length)])},
+                            userId);
+                    break;
+                case 1:
+                    mEngine.removeAuthority(new EndPoint(account(name), authority, userId));
+                    break;
+                default:
+                    setSyncable(name, authority, userId);
+                    break;
+            }
+            mEngine.verifyAuthorityIndex();
+        }
+    }
+
+    private static Account account(String name) {
+        return new Account(name, TYPE);
+    }
+
+    private void setSyncable(String name, String authority, int userId) {
+        mEngine.setIsSyncable(account(name), userId, authority, AuthorityInfo.SYNCABLE,
+                Process.myUid(), Process.myPid());
+    }
+
+    private int getSyncable(String name, String authority, int userId) {
+        return mEngine.getIsSyncable(account(name), userId, authority);
+    }
+
+    private int ident(String name, String authority, int userId) {
+        return mEngine.getCopyOfAuthorityWithSyncStatus(
+                new EndPoint(account(name), authority, userId)).first.ident;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncStatusInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress tests the status queries of {@link SyncStorageEngine} against concurrent writes: a
+ * query must see either all or none of a write, and must not be changed by later ones.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineConcurrencyTest
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineConcurrencyTest {
+    private static final Account ACCOUNT = new Account("test@example.com", "com.android.test");
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final String PACKAGE = "com.android.test";
+    private static final int USER_ID = 0;
+    private static final EndPoint TARGET = new EndPoint(ACCOUNT, AUTHORITY, USER_ID);
+    private static final int SYNCS = 5_000;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private HandlerThread mThread;
+    private SyncStorageEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = mock(Context.class);
+        when(context.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(context.getResources()).thenReturn(mock(Resources.class));
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt())).thenReturn(new Account[] {ACCOUNT});
+        when(context.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(context.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(context.getPackageManager()).thenReturn(packageManager);
+
+        mThread = new HandlerThread("SyncStorageEngineConcurrencyTest");
+        mThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mThread.getLooper(),
+                false /* useAccountInfoTable */);
+        mEngine.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY, AuthorityInfo.SYNCABLE,
+                Process.myUid(), Process.myPid());
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testGetStatusByAuthority_returnsCopy() {
+        runSync();
+        final SyncStatusInfo status = mEngine.getStatusByAuthority(TARGET);
+        runSync();
+
+        assertEquals(1, status.totalStats.numSyncs);
+        assertEquals(2, mEngine.getStatusByAuthority(TARGET).totalStats.numSyncs);
+    }
+
+    @Test
+    public void testMarkPending() {
+        final EndPoint anyAccount = new EndPoint(null, AUTHORITY, USER_ID);
+        assertFalse(mEngine.isSyncPending(TARGET));
+
+        mEngine.markPending(TARGET, true);
+        assertTrue(mEngine.isSyncPending(TARGET));
+        assertTrue(mEngine.isSyncPending(anyAccount));
+        assertTrue(mEngine.getStatusByAuthority(TARGET).pending);
+
+        mEngine.markPending(TARGET, false);
+        assertFalse(mEngine.isSyncPending(TARGET));
+        assertFalse(mEngine.isSyncPending(anyAccount));
+        assertFalse(mEngine.getStatusByAuthority(TARGET).pending);
+    }
+
+    @Test
+    public void testRemoveAuthority_clearsPending() {
+        mEngine.markPending(TARGET, true);
+        mEngine.removeAuthority(TARGET);
+
+        assertFalse(mEngine.isSyncPending(TARGET));
+        assertNull(mEngine.getStatusByAuthority(TARGET));
+    }
+
+    @Test
+    public void testQueriesDuringWrites() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < SYNCS && failure.get() == null; i++) {
+                runSync();
+            }
+            done.set(true);
+        }));
+        threads.add(new Thread(() -> {
+            boolean pending = false;
+            while (!done.get()) {
+                pending = !pending;
+                mEngine.markPending(TARGET, pending);
+            }
+        }));
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                final EndPoint anyAccount = new EndPoint(null, AUTHORITY, USER_ID);
+                int lastNumSyncs = 0;
+                while (!done.get()) {
+                    final SyncStatusInfo status = mEngine.getStatusByAuthority(TARGET);
+                    mEngine.isSyncPending(TARGET);
+                    mEngine.isSyncPending(anyAccount);
+                    if (status == null) {
+                        continue;
+                    }
+                    final int numSyncs = status.totalStats.numSyncs;
+                    // Both counters are bumped by the same stopSyncEvent.
+                    assertEquals(numSyncs, status.totalStats.numSourceUser);
+                    assertTrue(numSyncs >= lastNumSyncs);
+                    lastNumSyncs = numSyncs;
+                    // The copy doesn't follow later writes.
+                    Thread.yield();
+                    assertEquals(numSyncs, status.totalStats.numSyncs);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        final SyncStatusInfo status = mEngine.getStatusByAuthority(TARGET);
+        assertNotNull(status);
+        assertEquals(SYNCS, status.totalStats.numSyncs);
+        mEngine.markPending(TARGET, false);
+        assertFalse(mEngine.isSyncPending(TARGET));
+    }
+
+    private void runSync() {
+        final SyncOperation op = new SyncOperation(ACCOUNT, USER_ID, Process.myUid(), PACKAGE,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                new Bundle(), false /* allowParallelSyncs */,
+                ContentResolver.SYNC_EXEMPTION_NONE);
+        final long historyId = mEngine.insertStartSyncEvent(op, System.currentTimeMillis());
+        mEngine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                0 /* downstreamActivity */, 0 /* upstreamActivity */, PACKAGE, USER_ID);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncStatusInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests how {@link SyncStorageEngine} journals sync status changes and replays the journal over
+ * the status file at boot.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineStatusJournalTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineStatusJournalTest {
+    private static final Account ACCOUNT = new Account("test@example.com", "com.android.test");
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final String PACKAGE = "com.android.test";
+    private static final int USER_ID = 0;
+    private static final EndPoint TARGET = new EndPoint(ACCOUNT, AUTHORITY, USER_ID);
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private Context mContext;
+    private HandlerThread mThread;
+    private File mJournalFile;
+    private CountDownLatch mReleaseHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = mock(Context.class);
+        when(mContext.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(mContext.getResources()).thenReturn(mock(Resources.class));
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt())).thenReturn(new Account[] {ACCOUNT});
+        when(mContext.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(mContext.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(mContext.getPackageManager()).thenReturn(packageManager);
+
+        mThread = new HandlerThread("SyncStorageEngineStatusJournalTest");
+        mThread.start();
+        mJournalFile = new File(new File(new File(mTemp.getRoot(), "system"), "sync"),
+                "status.journal");
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testJournal_replayedOverStatusFile() throws Exception {
+        final SyncStorageEngine engine = newEngine();
+        engine.persistStatus();
+        runSync(engine);
+        runSync(engine);
+        waitForHandler();
+        assertTrue(mJournalFile.exists());
+
+        assertEquals(2, numSyncs(newEngine()));
+    }
+
+    @Test
+    public void testCompaction_deletesJournal() throws Exception {
+        final SyncStorageEngine engine = newEngine();
+        runSync(engine);
+        waitForHandler();
+        assertTrue(mJournalFile.exists());
+
+        engine.persistStatus();
+        assertFalse(mJournalFile.exists());
+        assertEquals(1, numSyncs(newEngine()));
+    }
+
+    @Test
+    public void testLeftoverJournal_notReplayedOverNewerStatusFile() throws Exception {
+        final SyncStorageEngine engine = newEngine();
+        engine.persistStatus();
+        runSync(engine);
+        waitForHandler();
+        final byte[] journal = Files.readAllBytes(mJournalFile.toPath());
+
+        // The second sync goes straight into a new status file, and then the process dies
+        // before the journal is deleted.
+        blockHandler();
+        try {
+            runSync(engine);
+            engine.persistStatus();
+        } finally {
+            releaseHandler();
+        }
+        assertFalse(mJournalFile.exists());
+        try (FileOutputStream out = new FileOutputStream(mJournalFile)) {
+            out.write(journal);
+        }
+
+        final SyncStorageEngine rebooted = newEngine();
+        assertEquals(2, numSyncs(rebooted));
+        // The stale journal is dropped, and changes after boot are journaled against the
+        // status file again.
+        waitForHandler();
+        assertFalse(mJournalFile.exists());
+        runSync(rebooted);
+        waitForHandler();
+        assertTrue(mJournalFile.exists());
+        assertEquals(3, numSyncs(newEngine()));
+    }
+
+    @Test
+    public void testTornJournalHeader_ignored() throws Exception {
+        final SyncStorageEngine engine = newEngine();
+        engine.persistStatus();
+        runSync(engine);
+        waitForHandler();
+        engine.persistStatus();
+        try (FileOutputStream out = new FileOutputStream(mJournalFile)) {
+            out.write(new byte[3]);
+        }
+
+        final SyncStorageEngine rebooted = newEngine();
+        assertEquals(1, numSyncs(rebooted));
+        waitForHandler();
+        runSync(rebooted);
+        waitForHandler();
+        assertEquals(2, numSyncs(newEngine()));
+    }
+
+    private SyncStorageEngine newEngine() {
+        final SyncStorageEngine engine = SyncStorageEngine.newTestInstance(mContext,
+                mThread.getLooper(), false /* useAccountInfoTable */);
+        engine.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY, AuthorityInfo.SYNCABLE,
+                Process.myUid(), Process.myPid());
+        return engine;
+    }
+
+    private static void runSync(SyncStorageEngine engine) {
+        final SyncOperation op = new SyncOperation(ACCOUNT, USER_ID, Process.myUid(), PACKAGE,
+                SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                new Bundle(), false /* allowParallelSyncs */,
+                ContentResolver.SYNC_EXEMPTION_NONE);
+        final long historyId = engine.insertStartSyncEvent(op, System.currentTimeMillis());
+        engine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                0 /* downstreamActivity */, 0 /* upstreamActivity */, PACKAGE, USER_ID);
+    }
+
+    private static int numSyncs(SyncStorageEngine engine) {
+        final SyncStatusInfo status = engine.getStatusByAuthority(TARGET);
+        return status == null ? 0 : status.totalStats.numSyncs;
+    }
+
+    /** Keeps the storage handler busy, so that no journal records are written. */
+    private void blockHandler() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mReleaseHandler = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            blocked.countDown();
+            try {
+                mReleaseHandler.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void releaseHandler() {
+        mReleaseHandler.countDown();
+    }
+
+    private void waitForHandler() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(latch::countDown);
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncStatusInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+import com.android.server.content.SyncStorageEngine.EndPoint;
+import com.android.server.content.SyncStorageEngine.SyncHistoryItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Tests resizing the sync history of {@link SyncStorageEngine} at runtime through the
+ * max_sync_history key of {@link SyncManagerConstants}.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineSyncHistoryTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineSyncHistoryTest {
+    private static final Account ACCOUNT = new Account("test@example.com", "com.android.test");
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final String PACKAGE = "com.android.test";
+    private static final int USER_ID = 0;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private HandlerThread mThread;
+    private SyncStorageEngine mEngine;
+    private SyncManagerConstants mConstants;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = mock(Context.class);
+        when(context.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(context.getResources()).thenReturn(mock(Resources.class));
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt())).thenReturn(new Account[] {ACCOUNT});
+        when(context.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(context.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(context.getPackageManager()).thenReturn(packageManager);
+
+        mThread = new HandlerThread("SyncStorageEngineSyncHistoryTest");
+        mThread.start();
+        mEngine = SyncStorageEngine.newTestInstance(context, mThread.getLooper(),
+                false /* useAccountInfoTable */);
+        mEngine.setIsSyncable(ACCOUNT, USER_ID, AUTHORITY, AuthorityInfo.SYNCABLE,
+                Process.myUid(), Process.myPid());
+        // Wired up as SyncManager does.
+        mConstants = new SyncManagerConstants(context,
+                () -> mEngine.setMaxSyncHistory(mConstants.getMaxSyncHistory()));
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testDefault() {
+        startSyncs(SyncStorageEngine.MAX_HISTORY + 10);
+
+        assertEquals(SyncStorageEngine.MAX_HISTORY, mConstants.getMaxSyncHistory());
+        assertEquals(SyncStorageEngine.MAX_HISTORY, mEngine.getSyncHistory().size());
+    }
+
+    @Test
+    public void testShrinkWhileFull_keepsNewest() {
+        final long[] ids = startSyncs(SyncStorageEngine.MAX_HISTORY + 10);
+        mConstants.updateConstants("max_sync_history=10");
+
+        assertHistory(ids, 10);
+        // Syncs dropped from the history can still finish, they just aren't counted.
+        stopSync(ids[ids.length - 11]);
+        assertEquals(0, numSyncs());
+        stopSync(ids[ids.length - 1]);
+        assertEquals(1, numSyncs());
+    }
+
+    @Test
+    public void testGrowWhileFull_keepsEverything() {
+        final long[] before = startSyncs(SyncStorageEngine.MAX_HISTORY);
+        mConstants.updateConstants("max_sync_history=150");
+
+        assertHistory(before, SyncStorageEngine.MAX_HISTORY);
+        final long[] after = startSyncs(50);
+        final List<SyncHistoryItem> history = mEngine.getSyncHistory();
+        assertEquals(150, history.size());
+        assertEquals(after[after.length - 1], history.get(0).historyId);
+        assertEquals(before[0], history.get(149).historyId);
+
+        startSyncs(1);
+        assertEquals(150, mEngine.getSyncHistory().size());
+        assertEquals(before[1], mEngine.getSyncHistory().get(149).historyId);
+    }
+
+    @Test
+    public void testOutOfRange_clamped() {
+        mConstants.updateConstants("max_sync_history=0");
+        assertEquals(1, mConstants.getMaxSyncHistory());
+        startSyncs(3);
+        assertEquals(1, mEngine.getSyncHistory().size());
+
+        mConstants.updateConstants("max_sync_history=1000000");
+        assertEquals(10_000, mConstants.getMaxSyncHistory());
+    }
+
+    @Test
+    public void testUnset_restoresDefault() {
+        mConstants.updateConstants("max_sync_history=10");
+        mConstants.updateConstants("");
+        startSyncs(SyncStorageEngine.MAX_HISTORY + 10);
+
+        assertEquals(SyncStorageEngine.MAX_HISTORY, mEngine.getSyncHistory().size());
+    }
+
+    private long[] startSyncs(int count) {
+        final long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            final SyncOperation op = new SyncOperation(ACCOUNT, USER_ID, Process.myUid(), PACKAGE,
+                    SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER, AUTHORITY,
+                    new Bundle(), false /* allowParallelSyncs */,
+                    ContentResolver.SYNC_EXEMPTION_NONE);
+            ids[i] = mEngine.insertStartSyncEvent(op, System.currentTimeMillis());
+        }
+        return ids;
+    }
+
+    private void stopSync(long historyId) {
+        mEngine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                0 /* downstreamActivity */, 0 /* upstreamActivity */, PACKAGE, USER_ID);
+    }
+
+    private int numSyncs() {
+        final SyncStatusInfo status =
+                mEngine.getStatusByAuthority(new EndPoint(ACCOUNT, AUTHORITY, USER_ID));
+        return status == null ? 0 : status.totalStats.numSyncs;
+    }
+
+    /** Asserts that the history holds the newest {@code size} of the given ids, newest first. */
+    private void assertHistory(long[] ids, int size) {
+        final List<SyncHistoryItem> history = mEngine.getSyncHistory();
+        assertEquals(size, history.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(ids[ids.length - 1 - i], history.get(i).historyId);
+        }
+    }
+}
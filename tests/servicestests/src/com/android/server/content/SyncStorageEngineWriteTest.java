@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.SparseIntArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.server.content.SyncStorageEngine.AuthorityInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that {@link SyncStorageEngine} coalesces a burst of changes into one write per file.
+ *
+ * atest FrameworksServicesTests:com.android.server.content.SyncStorageEngineWriteTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncStorageEngineWriteTest {
+    private static final String TYPE = "com.android.test";
+    private static final String AUTHORITY = "com.android.test.authority";
+    private static final String PACKAGE = "com.android.test";
+    private static final int USER_ID = 0;
+    private static final int BURST = 50;
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private Context mContext;
+    private HandlerThread mThread;
+    private SyncStorageEngine mEngine;
+    /** The number of writes the storage handler made, by message. */
+    private final SparseIntArray mWrites = new SparseIntArray();
+    private CountDownLatch mReleaseHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = mock(Context.class);
+        when(mContext.getFilesDir()).thenReturn(mTemp.getRoot());
+        when(mContext.getResources()).thenReturn(mock(Resources.class));
+        final AccountManager accountManager = mock(AccountManager.class);
+        when(accountManager.getAccountsAsUser(anyInt())).thenReturn(new Account[0]);
+        when(mContext.getSystemServiceName(AccountManager.class))
+                .thenReturn(Context.ACCOUNT_SERVICE);
+        when(mContext.getSystemService(Context.ACCOUNT_SERVICE)).thenReturn(accountManager);
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.resolveContentProviderAsUser(anyString(), anyInt(), anyInt()))
+                .thenReturn(new ProviderInfo());
+        when(mContext.getPackageManager()).thenReturn(packageManager);
+
+        mThread = new HandlerThread("SyncStorageEngineWriteTest");
+        mThread.start();
+        mThread.getLooper().setMessageLogging(line -> {
+            // ">>>>> Dispatching to <handler> <callback>: <what>"
+            if (line.startsWith(">>>>> Dispatching") && line.contains("SyncStorageEngine$MyHandler")
+                    && line.contains(" null: ")) {
+                final int what = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                synchronized (mWrites) {
+                    mWrites.put(what, mWrites.get(what) + 1);
+                }
+            }
+        });
+        mEngine = SyncStorageEngine.newTestInstance(mContext, mThread.getLooper(),
+                false /* useAccountInfoTable */);
+        waitForHandler();
+        synchronized (mWrites) {
+            mWrites.clear();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testAuthorityBurst_oneAccountInfoWrite() throws Exception {
+        blockHandler();
+        for (int i = 0; i < BURST; i++) {
+            mEngine.setIsSyncable(account(i), USER_ID, AUTHORITY, AuthorityInfo.SYNCABLE,
+                    Process.myUid(), Process.myPid());
+            mEngine.setSyncAutomatically(account(i), USER_ID, AUTHORITY, true,
+                    ContentResolver.SYNC_EXEMPTION_NONE, Process.myUid(), Process.myPid());
+        }
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(1, writes(SyncStorageEngine.MSG_WRITE_ACCOUNT_INFO));
+        // The single write holds the whole burst.
+        final SyncStorageEngine reloaded = SyncStorageEngine.newTestInstance(mContext, false);
+        for (int i = 0; i < BURST; i++) {
+            assertEquals(AuthorityInfo.SYNCABLE,
+                    reloaded.getIsSyncable(account(i), USER_ID, AUTHORITY));
+            assertTrue(reloaded.getSyncAutomatically(account(i), USER_ID, AUTHORITY));
+        }
+    }
+
+    @Test
+    public void testSyncEventBurst_oneJournalWrite() throws Exception {
+        for (int i = 0; i < BURST; i++) {
+            mEngine.setIsSyncable(account(i), USER_ID, AUTHORITY, AuthorityInfo.SYNCABLE,
+                    Process.myUid(), Process.myPid());
+        }
+        waitForHandler();
+        synchronized (mWrites) {
+            mWrites.clear();
+        }
+
+        blockHandler();
+        for (int i = 0; i < BURST; i++) {
+            final SyncOperation op = new SyncOperation(account(i), USER_ID, Process.myUid(),
+                    PACKAGE, SyncOperation.REASON_USER_START, SyncStorageEngine.SOURCE_USER,
+                    AUTHORITY, new Bundle(), false /* allowParallelSyncs */,
+                    ContentResolver.SYNC_EXEMPTION_NONE);
+            final long historyId = mEngine.insertStartSyncEvent(op, System.currentTimeMillis());
+            mEngine.stopSyncEvent(historyId, 10 /* elapsedTime */, SyncStorageEngine.MESG_SUCCESS,
+                    0 /* downstreamActivity */, 0 /* upstreamActivity */, PACKAGE, USER_ID);
+        }
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(1, writes(SyncStorageEngine.MSG_WRITE_STATUS_JOURNAL));
+        assertEquals(0, writes(SyncStorageEngine.MSG_WRITE_STATUS));
+        // Statistics are written later unless the day rolled over, and then only once.
+        assertTrue(writes(SyncStorageEngine.MSG_WRITE_STATISTICS) <= 1);
+    }
+
+    @Test
+    public void testStatusAndStatisticsRequests_oneWriteEach() throws Exception {
+        blockHandler();
+        for (int i = 0; i < BURST; i++) {
+            mEngine.writeStatusLocked();
+            mEngine.writeStatisticsLocked();
+        }
+        releaseHandler();
+        waitForHandler();
+
+        assertEquals(1, writes(SyncStorageEngine.MSG_WRITE_STATUS));
+        assertEquals(1, writes(SyncStorageEngine.MSG_WRITE_STATISTICS));
+    }
+
+    @Test
+    public void testWriteAllState_flushesPendingWrites() throws Exception {
+        blockHandler();
+        mEngine.setIsSyncable(account(0), USER_ID, AUTHORITY, AuthorityInfo.NOT_SYNCABLE,
+                Process.myUid(), Process.myPid());
+        // As on shutdown, while the scheduled write still waits for the handler.
+        mEngine.writeAllState();
+        try {
+            assertEquals(AuthorityInfo.NOT_SYNCABLE, SyncStorageEngine.newTestInstance(mContext,
+                    false).getIsSyncable(account(0), USER_ID, AUTHORITY));
+        } finally {
+            releaseHandler();
+        }
+        waitForHandler();
+        // The flush dropped the write that was scheduled.
+        assertEquals(0, writes(SyncStorageEngine.MSG_WRITE_ACCOUNT_INFO));
+    }
+
+    private static Account account(int i) {
+        return new Account("account" + i + "@example.com", TYPE);
+    }
+
+    private int writes(int what) {
+        synchronized (mWrites) {
+            return mWrites.get(what);
+        }
+    }
+
+    /** Keeps the storage handler busy, so that writes queue up behind it. */
+    private void blockHandler() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mReleaseHandler = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            blocked.countDown();
+            try {
+                mReleaseHandler.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void releaseHandler() {
+        mReleaseHandler.countDown();
+    }
+
+    private void waitForHandler() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(latch::countDown);
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}